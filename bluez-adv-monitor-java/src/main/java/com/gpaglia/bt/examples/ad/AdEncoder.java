@@ -0,0 +1,99 @@
+package com.gpaglia.bt.examples.ad;
+
+import java.util.Map;
+
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * Rebuilds raw AD structures from the decoded <code>ServiceData</code> and <code>ManufacturerData</code>
+ * properties of <code>org.bluez.Device1</code>, so that D-Bus sourced advertisements can go through the same byte
+ * level code paths ({@link AdParser}, the monitor matcher, hashing) as raw ones.
+ */
+public final class AdEncoder {
+  private static final String BASE_UUID_SUFFIX = "-0000-1000-8000-00805f9b34fb";
+
+  private AdEncoder() { }
+
+  /**
+   * Encode the properties into <code>dst</code> starting at <code>offset</code>; structures that do not fit in
+   * <code>limit</code> bytes are skipped.
+   *
+   * @param serviceData the <code>ServiceData</code> value (uuid -&gt; bytes), may be null
+   * @param manufacturerData the <code>ManufacturerData</code> value (<code>UInt16</code> company id -&gt; bytes),
+   *     may be null
+   * @return the number of bytes written
+   */
+  public static int encode(
+      final Map<?, ?> serviceData,
+      final Map<?, ?> manufacturerData,
+      final byte[] dst,
+      final int offset,
+      final int limit) {
+    int p = offset;
+    final int end = offset + limit;
+    if (serviceData != null) {
+      for (Map.Entry<?, ?> e : serviceData.entrySet()) {
+        final byte[] data = bytes(e.getValue());
+        final String uuid = String.valueOf(e.getKey()).toLowerCase();
+        if (data == null) {
+          continue;
+        }
+        if (isUuid16(uuid)) {
+          p = put(dst, p, end, AdTypes.SERVICE_DATA_UUID16, Integer.parseInt(uuid.substring(4, 8), 16), 2, data);
+        } else if (uuid.length() == 36) {
+          p = putUuid128(dst, p, end, uuid, data);
+        }
+      }
+    }
+    if (manufacturerData != null) {
+      for (Map.Entry<?, ?> e : manufacturerData.entrySet()) {
+        final byte[] data = bytes(e.getValue());
+        if (data != null && e.getKey() instanceof Number) {
+          p = put(dst, p, end, AdTypes.MANUFACTURER_DATA, ((Number) e.getKey()).intValue(), 2, data);
+        }
+      }
+    }
+    return p - offset;
+  }
+
+  public static boolean isUuid16(final String uuid) {
+    return uuid.length() == 36 && uuid.startsWith("0000") && uuid.endsWith(BASE_UUID_SUFFIX);
+  }
+
+  // private methods
+
+  private static byte[] bytes(final Object value) {
+    final Object v = value instanceof Variant ? ((Variant<?>) value).getValue() : value;
+    return v instanceof byte[] ? (byte[]) v : null;
+  }
+
+  private static int put(
+      final byte[] dst, final int p, final int end, final int type, final int id, final int idLen, final byte[] data) {
+    final int len = 1 + idLen + data.length;
+    if (len > 255 || p + 1 + len > end) {
+      return p;
+    }
+    dst[p] = (byte) len;
+    dst[p + 1] = (byte) type;
+    dst[p + 2] = (byte) id;
+    dst[p + 3] = (byte) (id >>> 8);
+    System.arraycopy(data, 0, dst, p + 2 + idLen, data.length);
+    return p + 1 + len;
+  }
+
+  private static int putUuid128(final byte[] dst, final int p, final int end, final String uuid, final byte[] data) {
+    final int len = 1 + 16 + data.length;
+    if (len > 255 || p + 1 + len > end) {
+      return p;
+    }
+    dst[p] = (byte) len;
+    dst[p + 1] = (byte) AdTypes.SERVICE_DATA_UUID128;
+    // little endian: last byte of the textual form first
+    final String hex = uuid.replace("-", "");
+    for (int i = 0; i < 16; i++) {
+      dst[p + 2 + i] = (byte) Integer.parseInt(hex.substring(30 - 2 * i, 32 - 2 * i), 16);
+    }
+    System.arraycopy(data, 0, dst, p + 18, data.length);
+    return p + 1 + len;
+  }
+}
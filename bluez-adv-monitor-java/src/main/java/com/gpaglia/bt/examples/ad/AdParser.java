@@ -0,0 +1,157 @@
+package com.gpaglia.bt.examples.ad;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight parser for raw advertising data (a sequence of length/type/value AD structures).
+ *
+ * <p>The parser is reusable: {@link #wrap(byte[], int, int)} or {@link #wrap(ByteBuffer)} points it at a new
+ * payload, without copying it, and the structures are then walked in place either with the {@link #next()}
+ * cursor or with the lookup methods, which fill a caller owned {@link AdSlice}. Nothing is allocated per
+ * advertisement. A parser instance is not thread safe: keep one per consumer thread.
+ *
+ * <p>Malformed data (a length running past the end of the payload) ends the walk, as a zero length does.
+ */
+public final class AdParser {
+  public static final int NO_FLAGS = -1;
+
+  private byte[] array;
+  private ByteBuffer buffer;
+  private int start;
+  private int end;
+
+  // cursor
+  private int next;
+  private int type;
+  private int dataOffset;
+  private int dataLength;
+
+  public AdParser wrap(final byte[] array, final int offset, final int length) {
+    this.array = array;
+    this.buffer = null;
+    this.start = offset;
+    this.end = offset + length;
+    rewind();
+    return this;
+  }
+
+  /** Wrap the remaining bytes of the buffer, its position and limit are not modified. */
+  public AdParser wrap(final ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return wrap(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+    this.array = null;
+    this.buffer = buffer;
+    this.start = buffer.position();
+    this.end = buffer.limit();
+    rewind();
+    return this;
+  }
+
+  public void rewind() {
+    next = start;
+    type = -1;
+    dataOffset = start;
+    dataLength = 0;
+  }
+
+  /** Advance to the next AD structure; returns false when the payload is exhausted or malformed. */
+  public boolean next() {
+    if (next >= end) {
+      return false;
+    }
+    final int len = byteAt(next);
+    if (len == 0 || next + 1 + len > end) {
+      next = end;
+      return false;
+    }
+    type = byteAt(next + 1);
+    dataOffset = next + 2;
+    dataLength = len - 1;
+    next += 1 + len;
+    return true;
+  }
+
+  /** AD type of the current structure. */
+  public int type() { return type; }
+
+  /** Absolute offset of the current structure's data (the type byte excluded). */
+  public int dataOffset() { return dataOffset; }
+
+  public int dataLength() { return dataLength; }
+
+  /** Current structure's data as a slice. */
+  public AdSlice data(final AdSlice slice) {
+    slice.set(array, buffer, dataOffset, dataLength);
+    return slice;
+  }
+
+  /** Value of the Flags structure, or {@link #NO_FLAGS} when absent. */
+  public int flags() {
+    rewind();
+    while (next()) {
+      if (type == AdTypes.FLAGS && dataLength >= 1) {
+        return byteAt(dataOffset);
+      }
+    }
+    return NO_FLAGS;
+  }
+
+  /**
+   * Locate the service data for a 16 bit service UUID (e.g. <code>0xfe95</code>); on success the slice holds the
+   * data that follows the UUID.
+   */
+  public boolean serviceData(final int uuid16, final AdSlice slice) {
+    rewind();
+    while (next()) {
+      if (type == AdTypes.SERVICE_DATA_UUID16 && dataLength >= 2 && uint16At(dataOffset) == uuid16) {
+        slice.set(array, buffer, dataOffset + 2, dataLength - 2);
+        return true;
+      }
+    }
+    slice.clear();
+    return false;
+  }
+
+  /** Locate the manufacturer data for a company identifier; on success the slice holds the data after the id. */
+  public boolean manufacturerData(final int companyId, final AdSlice slice) {
+    rewind();
+    while (next()) {
+      if (type == AdTypes.MANUFACTURER_DATA && dataLength >= 2 && uint16At(dataOffset) == companyId) {
+        slice.set(array, buffer, dataOffset + 2, dataLength - 2);
+        return true;
+      }
+    }
+    slice.clear();
+    return false;
+  }
+
+  /** Locate the complete local name, falling back to the shortened one. */
+  public boolean localName(final AdSlice slice) {
+    rewind();
+    boolean found = false;
+    while (next()) {
+      if (type == AdTypes.COMPLETE_LOCAL_NAME) {
+        slice.set(array, buffer, dataOffset, dataLength);
+        return true;
+      } else if (type == AdTypes.SHORTENED_LOCAL_NAME && ! found) {
+        slice.set(array, buffer, dataOffset, dataLength);
+        found = true;
+      }
+    }
+    if (! found) {
+      slice.clear();
+    }
+    return found;
+  }
+
+  /** Unsigned byte at an absolute offset of the wrapped payload. */
+  public int byteAt(final int index) {
+    return (array != null ? array[index] : buffer.get(index)) & 0xff;
+  }
+
+  /** Little endian unsigned 16 bit value at an absolute offset of the wrapped payload. */
+  public int uint16At(final int index) {
+    return byteAt(index) | (byteAt(index + 1) << 8);
+  }
+}
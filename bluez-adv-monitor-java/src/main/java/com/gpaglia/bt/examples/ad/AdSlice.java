@@ -0,0 +1,99 @@
+package com.gpaglia.bt.examples.ad;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Mutable offset/length view over the buffer wrapped by an {@link AdParser}.
+ *
+ * <p>A slice does not own nor copy its bytes: it is meant to be allocated once by the caller and refilled by the
+ * parser for every advertisement. Its content is only valid until the underlying buffer is reused.
+ */
+public final class AdSlice {
+  private byte[] array;
+  private ByteBuffer buffer;
+  private int offset;
+  private int length;
+
+  void set(final byte[] array, final ByteBuffer buffer, final int offset, final int length) {
+    this.array = array;
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public void clear() {
+    set(null, null, 0, 0);
+  }
+
+  /** Absolute offset of the first byte, in the wrapped array or buffer. */
+  public int offset() { return offset; }
+
+  public int length() { return length; }
+
+  public boolean isEmpty() { return length == 0; }
+
+  public byte get(final int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of slice of length " + length);
+    }
+    return array != null ? array[offset + index] : buffer.get(offset + index);
+  }
+
+  public int getUnsigned(final int index) { return get(index) & 0xff; }
+
+  /** Little endian unsigned 16 bit value, the byte order used by AD structures. */
+  public int getUInt16(final int index) { return getUnsigned(index) | (getUnsigned(index + 1) << 8); }
+
+  public int copyTo(final byte[] dst, final int dstOffset) {
+    if (array != null) {
+      System.arraycopy(array, offset, dst, dstOffset, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        dst[dstOffset + i] = buffer.get(offset + i);
+      }
+    }
+    return length;
+  }
+
+  public boolean contentEquals(final byte[] other, final int otherOffset, final int otherLength) {
+    if (otherLength != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (get(i) != other[otherOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Compare with an ASCII string without decoding the slice (e.g. a local name). */
+  public boolean asciiEquals(final CharSequence s) {
+    if (s.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if ((get(i) & 0xff) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Decode as UTF-8; allocates, so keep off the hot path. */
+  public String asString() {
+    final byte[] tmp = new byte[length];
+    copyTo(tmp, 0);
+    return new String(tmp, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder(length * 2);
+    for (int i = 0; i < length; i++) {
+      sb.append(String.format("%02x", get(i)));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,23 @@
+package com.gpaglia.bt.examples.ad;
+
+/**
+ * AD type codes from the Bluetooth assigned numbers (Generic Access Profile).
+ */
+public interface AdTypes {
+  int FLAGS = 0x01;
+  int INCOMPLETE_UUID16 = 0x02;
+  int COMPLETE_UUID16 = 0x03;
+  int INCOMPLETE_UUID128 = 0x06;
+  int COMPLETE_UUID128 = 0x07;
+  int SHORTENED_LOCAL_NAME = 0x08;
+  int COMPLETE_LOCAL_NAME = 0x09;
+  int TX_POWER_LEVEL = 0x0a;
+  int SERVICE_DATA_UUID16 = 0x16;
+  int APPEARANCE = 0x19;
+  int SERVICE_DATA_UUID128 = 0x21;
+  int MANUFACTURER_DATA = 0xff;
+
+  int FLAG_LE_LIMITED_DISCOVERABLE = 0x01;
+  int FLAG_LE_GENERAL_DISCOVERABLE = 0x02;
+  int FLAG_BR_EDR_NOT_SUPPORTED = 0x04;
+}
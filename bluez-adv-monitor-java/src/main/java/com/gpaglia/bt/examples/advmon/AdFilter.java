@@ -26,4 +26,10 @@ public class AdFilter extends Struct {
   public byte getAdType() { return adType; }
 
   public byte[] getAdData() { return Arrays.copyOf(adData, adData.length); }
+
+  // non copying accessors, for hot paths
+
+  public int getAdDataLength() { return adData.length; }
+
+  public byte getAdDataByte(final int index) { return adData[index]; }
 }
@@ -0,0 +1,239 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Local evaluation of the bluez <code>or_patterns</code> monitor type.
+ *
+ * <p>A list of {@link AdFilter} is compiled once into a set of byte tries, one per (adType, position) pair,
+ * flattened into primitive arrays. Matching walks the length/type/value AD structures of a raw advertisement
+ * exactly once and, for each structure, only descends the tries registered for its type; the cost therefore
+ * depends on the number of distinct positions per type and on the pattern length, not on the number of patterns.
+ *
+ * <p>Semantics follow bluez: a pattern matches when an AD structure of type <code>adType</code> carries
+ * <code>adData</code> starting at byte <code>position</code> of its data (the type byte excluded).
+ * Instances are immutable and thread safe.
+ */
+public final class AdFilterMatcher {
+  public static final int NO_MATCH = -1;
+
+  private static final int AD_TYPES = 256;
+
+  // advertising data of direct buffers, see match(ByteBuffer); extended advertisements may grow it
+  private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+  private final int patternCount;
+
+  // roots of type t are in [typeStart[t], typeStart[t + 1]), sorted by position
+  private final int[] typeStart;
+  private final int[] rootPosition;
+  private final int[] rootNode;
+
+  // children of node n are in [childStart[n], childStart[n + 1]), sorted by unsigned label
+  private final int[] childStart;
+  private final byte[] childLabel;
+  private final int[] childNode;
+  private final int[] terminal;
+
+  private AdFilterMatcher(
+      final int patternCount,
+      final int[] typeStart,
+      final int[] rootPosition,
+      final int[] rootNode,
+      final int[] childStart,
+      final byte[] childLabel,
+      final int[] childNode,
+      final int[] terminal) {
+    this.patternCount = patternCount;
+    this.typeStart = typeStart;
+    this.rootPosition = rootPosition;
+    this.rootNode = rootNode;
+    this.childStart = childStart;
+    this.childLabel = childLabel;
+    this.childNode = childNode;
+    this.terminal = terminal;
+  }
+
+  public static AdFilterMatcher compile(final List<AdFilter> filters) {
+    // per type, per position, a trie built from mutable nodes; flattened below. The node of a type only holds the
+    // roots of its tries, as children keyed by position
+    final BuildNode[] roots = new BuildNode[AD_TYPES];
+
+    for (int i = 0; i < filters.size(); i++) {
+      final AdFilter f = filters.get(i);
+      final int type = f.getAdType() & 0xff;
+      if (roots[type] == null) {
+        roots[type] = new BuildNode();
+      }
+      BuildNode node = roots[type].children.computeIfAbsent(f.getPosition() & 0xff, k -> new BuildNode());
+      for (int j = 0; j < f.getAdDataLength(); j++) {
+        node = node.children.computeIfAbsent(f.getAdDataByte(j) & 0xff, k -> new BuildNode());
+      }
+      if (node.pattern == NO_MATCH) {
+        node.pattern = i;
+      }
+    }
+
+    // breadth first numbering keeps the children of each node contiguous
+    final List<BuildNode> nodes = new ArrayList<>();
+    final ArrayDeque<BuildNode> queue = new ArrayDeque<>();
+    final int[] typeStart = new int[AD_TYPES + 1];
+    int rootCount = 0;
+    for (int t = 0; t < AD_TYPES; t++) {
+      typeStart[t] = rootCount;
+      if (roots[t] != null) {
+        for (BuildNode r : roots[t].children.values()) {
+          r.id = nodes.size();
+          nodes.add(r);
+          queue.add(r);
+          rootCount++;
+        }
+      }
+    }
+    typeStart[AD_TYPES] = rootCount;
+
+    while (! queue.isEmpty()) {
+      for (BuildNode c : queue.poll().children.values()) {
+        c.id = nodes.size();
+        nodes.add(c);
+        queue.add(c);
+      }
+    }
+
+    final int[] rootPosition = new int[rootCount];
+    final int[] rootNode = new int[rootCount];
+    int r = 0;
+    for (int t = 0; t < AD_TYPES; t++) {
+      if (roots[t] != null) {
+        for (var e : roots[t].children.entrySet()) {
+          rootPosition[r] = e.getKey();
+          rootNode[r] = e.getValue().id;
+          r++;
+        }
+      }
+    }
+
+    final int[] childStart = new int[nodes.size() + 1];
+    final byte[] childLabel = new byte[nodes.size()];
+    final int[] childNode = new int[nodes.size()];
+    final int[] terminal = new int[nodes.size()];
+    int edges = 0;
+    for (int n = 0; n < nodes.size(); n++) {
+      final BuildNode node = nodes.get(n);
+      childStart[n] = edges;
+      terminal[n] = node.pattern;
+      for (var e : node.children.entrySet()) {
+        childLabel[edges] = (byte) e.getKey().intValue();
+        childNode[edges] = e.getValue().id;
+        edges++;
+      }
+    }
+    childStart[nodes.size()] = edges;
+
+    return new AdFilterMatcher(
+        filters.size(), typeStart, rootPosition, rootNode, childStart, childLabel, childNode, terminal
+    );
+  }
+
+  public int getPatternCount() { return patternCount; }
+
+  public boolean matches(final byte[] ad, final int offset, final int length) {
+    return match(ad, offset, length) != NO_MATCH;
+  }
+
+  /**
+   * Scan raw advertising data for a match.
+   *
+   * @return the index in the compiled filter list of a matching pattern, or {@link #NO_MATCH}
+   */
+  public int match(final byte[] ad, final int offset, final int length) {
+    final int end = offset + length;
+    int p = offset;
+    while (p < end) {
+      final int len = ad[p] & 0xff;
+      if (len == 0 || p + 1 + len > end) {
+        break;
+      }
+      final int type = ad[p + 1] & 0xff;
+      final int data = p + 2;
+      final int dataLen = len - 1;
+      for (int r = typeStart[type]; r < typeStart[type + 1]; r++) {
+        final int pos = rootPosition[r];
+        if (pos > dataLen) {
+          break;
+        }
+        final int m = walk(rootNode[r], ad, data + pos, dataLen - pos);
+        if (m != NO_MATCH) {
+          return m;
+        }
+      }
+      p += 1 + len;
+    }
+    return NO_MATCH;
+  }
+
+  /**
+   * Same as {@link #match(byte[], int, int)} over the remaining bytes of the buffer; position and limit are
+   * not modified. The bytes of a direct buffer are first copied into a per thread scratch array, so that there is
+   * a single match path.
+   */
+  public int match(final ByteBuffer ad) {
+    if (ad.hasArray()) {
+      return match(ad.array(), ad.arrayOffset() + ad.position(), ad.remaining());
+    }
+    final int length = ad.remaining();
+    byte[] scratch = SCRATCH.get();
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length << 1)];
+      SCRATCH.set(scratch);
+    }
+    for (int i = 0, p = ad.position(); i < length; i++, p++) {
+      scratch[i] = ad.get(p);
+    }
+    return match(scratch, 0, length);
+  }
+
+  // private methods
+
+  private int walk(int node, final byte[] ad, int i, final int available) {
+    final int stop = i + available;
+    while (terminal[node] == NO_MATCH) {
+      if (i >= stop) {
+        return NO_MATCH;
+      }
+      node = child(node, ad[i++]);
+      if (node < 0) {
+        return NO_MATCH;
+      }
+    }
+    return terminal[node];
+  }
+
+  private int child(final int node, final byte label) {
+    final int key = label & 0xff;
+    int lo = childStart[node];
+    int hi = childStart[node + 1] - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int l = childLabel[mid] & 0xff;
+      if (l < key) {
+        lo = mid + 1;
+      } else if (l > key) {
+        hi = mid - 1;
+      } else {
+        return childNode[mid];
+      }
+    }
+    return -1;
+  }
+
+  private static final class BuildNode {
+    private final TreeMap<Integer, BuildNode> children = new TreeMap<>();
+    private int pattern = NO_MATCH;
+    private int id;
+  }
+}
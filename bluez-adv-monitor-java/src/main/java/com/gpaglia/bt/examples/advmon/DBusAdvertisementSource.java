@@ -0,0 +1,162 @@
+package com.gpaglia.bt.examples.advmon;
+
+import static com.gpaglia.bt.examples.advmon.Commons.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import com.gpaglia.bt.examples.ad.AdEncoder;
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.AdvertisementSource;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+import org.bluez.Adapter1;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.handlers.AbstractPropertiesChangedHandler;
+import org.freedesktop.dbus.interfaces.Properties;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Advertisement source fed by bluetoothd: the RSSI, service and manufacturer data updates of the devices, signalled
+ * with PropertiesChanged, are published as advertisement events, their data re-encoded as AD structures.
+ *
+ * <p>With <code>discover</code> set, an LE discovery reporting duplicates is run on each adapter, as needed when the
+ * monitors are evaluated in software; the found and lost events of offloaded monitors are published by the
+ * {@link Monitor} objects themselves.
+ */
+public final class DBusAdvertisementSource implements AdvertisementSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DBusAdvertisementSource.class);
+
+  private static final String BLUEZ_DEVICE_IF = BLUEZ_SERVICE_NAME + ".Device1";
+
+  private final DBusConnection connection;
+  private final List<String> adapterPaths;
+  private final boolean discover;
+  private final MonitorAppMetrics metrics;
+  private final LongAdder events = new LongAdder();
+  // discovering adapters, by path
+  private final Map<String, Adapter1> adapters = new LinkedHashMap<>();
+  private AbstractPropertiesChangedHandler handler;
+  private IntFunction<EventRing> rings;
+
+  public DBusAdvertisementSource(
+      final DBusConnection connection,
+      final List<String> adapterPaths,
+      final boolean discover,
+      final MonitorAppMetrics metrics) {
+    this.connection = connection;
+    this.adapterPaths = List.copyOf(adapterPaths);
+    this.discover = discover;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public String getName() { return "dbus@" + connection.getUniqueName(); }
+
+  @Override
+  public long getEventCount() { return events.sum(); }
+
+  @Override
+  public synchronized void start(final IntFunction<EventRing> rings) throws IOException {
+    if (handler != null) {
+      throw new IllegalStateException("Source " + getName() + " already started");
+    }
+    this.rings = rings;
+    handler = new AbstractPropertiesChangedHandler() {
+      @Override
+      public void handle(Properties.PropertiesChanged s) {
+        publishDeviceProperties(s);
+      }
+    };
+    try {
+      connection.addSigHandler(Properties.PropertiesChanged.class, handler);
+      if (discover) {
+        for (String adapterPath : adapterPaths) {
+          final Adapter1 adapter = connection.getRemoteObject(BLUEZ_SERVICE_NAME, adapterPath, Adapter1.class);
+          adapter.SetDiscoveryFilter(Map.of(
+              "Transport", new Variant<String>("le"),
+              "DuplicateData", new Variant<Boolean>(true)
+          ));
+          adapter.StartDiscovery();
+          adapters.put(adapterPath, adapter);
+          LOGGER.info("Discovery started on adapter {}", adapterPath);
+        }
+      }
+    } catch (DBusException | RuntimeException e) {
+      close();
+      throw new IOException("Could not start source " + getName(), e);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    for (Map.Entry<String, Adapter1> e : adapters.entrySet()) {
+      try {
+        e.getValue().StopDiscovery();
+        LOGGER.info("Discovery stopped on adapter {}", e.getKey());
+      } catch (DBusException | RuntimeException ex) {
+        LOGGER.warn("Could not stop discovery on adapter {}", e.getKey(), ex);
+      }
+    }
+    adapters.clear();
+    if (handler != null && connection.isConnected()) {
+      try {
+        connection.removeSigHandler(Properties.PropertiesChanged.class, handler);
+      } catch (DBusException e) {
+        LOGGER.warn("Could not remove the device properties handler", e);
+      }
+    }
+    handler = null;
+  }
+
+  // private methods
+
+  // runs on the dbus dispatch thread: only advertisement related device updates are handed over to the ring
+  private void publishDeviceProperties(final Properties.PropertiesChanged s) {
+    if (! BLUEZ_DEVICE_IF.equals(s.getInterfaceName())) {
+      return;
+    }
+    final Map<String, Variant<?>> changed = s.getPropertiesChanged();
+    final Variant<?> rssi = changed.get("RSSI");
+    final Variant<?> serviceData = changed.get("ServiceData");
+    final Variant<?> manufacturerData = changed.get("ManufacturerData");
+    if (rssi == null && serviceData == null && manufacturerData == null) {
+      return;
+    }
+    final long start = System.nanoTime();
+    final long address = MacAddress.fromDevicePath(s.getPath());
+    if (address == MacAddress.INVALID) {
+      return;
+    }
+    final int adapterIndex = MacAddress.adapterIndex(s.getPath());
+    final EventRing target = rings.apply(adapterIndex);
+    events.increment();
+    final long seq = target.tryNext();
+    if (seq != EventRing.NO_SEQUENCE) {
+      final AdvertisementEvent event = target.get(seq)
+          .set(AdvertisementEvent.Kind.ADVERTISEMENT, address, -1)
+          .setAdapterIndex(adapterIndex);
+      if (rssi != null) {
+        event.setRssi(((Number) rssi.getValue()).intValue());
+      }
+      event.setPayloadLength(AdEncoder.encode(
+          serviceData == null ? null : (Map<?, ?>) serviceData.getValue(),
+          manufacturerData == null ? null : (Map<?, ?>) manufacturerData.getValue(),
+          event.getPayload(),
+          0,
+          AdvertisementEvent.MAX_PAYLOAD
+      ));
+      target.publish(seq);
+      metrics.advertisementReceived();
+    }
+    metrics.getCallbackRecorder().recordSince(start);
+  }
+}
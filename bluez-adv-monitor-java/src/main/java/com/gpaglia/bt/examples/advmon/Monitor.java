@@ -2,16 +2,22 @@ package com.gpaglia.bt.examples.advmon;
 
 import static com.gpaglia.bt.examples.advmon.Commons.*;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+import com.gpaglia.bt.examples.registry.MacAddress;
 
 import org.freedesktop.dbus.DBusPath;
 import org.freedesktop.dbus.connections.impl.DBusConnection;
 import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.freedesktop.dbus.interfaces.DBusInterface;
 import org.freedesktop.dbus.interfaces.Properties;
-import org.freedesktop.dbus.types.UInt16;
 import org.freedesktop.dbus.types.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,25 +26,65 @@ public class Monitor implements AdvertisementMonitor1, Properties {
   private static final Logger LOGGER = LoggerFactory.getLogger(Monitor.class);
 
   private final DBusPath objectPath;
+  // immutable snapshots, built once: bluetoothd reads them on every (re)registration
   private final Map<String, Variant<?>> properties;
+  private final Map<String, Map<String, Variant<?>>> interfaces;
   private final DBusConnection connection;
+  private final List<AdFilter> filters;
+  private final RssiSettings rssiSettings;
+  private final AdFilterMatcher matcher;
+  // only driven by the software monitoring consumer thread
+  private final RssiFilter rssiFilter;
+  private final int monitorId;
+  // by adapter index, see AdapterRings
+  private final IntFunction<EventRing> rings;
+  private final MonitorAppMetrics metrics;
+  // found and lost events handed over to the ring
+  private final LongAdder events = new LongAdder();
+  private final long createdNanoTime = System.nanoTime();
+
+  public Monitor(
+      final DBusConnection connection,
+      final String objectPath,
+      final int monitorId,
+      final List<AdFilter> filters,
+      final RssiSettings rssiSettings,
+      final EventRing ring,
+      final MonitorAppMetrics metrics) {
+    this(connection, objectPath, monitorId, filters, rssiSettings, adapterIndex -> ring, metrics);
+  }
 
-  public Monitor(final DBusConnection connection, final String objectPath, final List<AdFilter> filters) {
+  /**
+   * Create a monitor publishing the events of each adapter into its own ring.
+   *
+   * @param rings the ring of an adapter, by adapter index
+   */
+  public Monitor(
+      final DBusConnection connection,
+      final String objectPath,
+      final int monitorId,
+      final List<AdFilter> filters,
+      final RssiSettings rssiSettings,
+      final IntFunction<EventRing> rings,
+      final MonitorAppMetrics metrics) {
     if (filters.isEmpty()) {
       throw new IllegalArgumentException("Filters cannot be empty");
     }
     this.connection = connection;
     this.objectPath = new DBusPath(objectPath);
-    this.properties = new HashMap<>();
-    this.properties.put("Type", new Variant<String>("or_patterns", "s"));
-    /*
-    this.properties.put("RSSILowThreshold", new Variant<Integer>(127, "n"));
-    this.properties.put("RSSIHighThreshold", new Variant<Integer>(127, "n"));
-    this.properties.put("RSSILowTimeout", new Variant<UInt16>(new UInt16(0), "q"));
-    this.properties.put("RSSIHighTimeout", new Variant<UInt16>(new UInt16(0), "q"));
-    this.properties.put("RSSISamplingPeriod", new Variant<UInt16>(new UInt16(0), "q"));
-    */
-    this.properties.put("Patterns", new Variant<>(filters, "a(yyay)"));
+    this.monitorId = monitorId;
+    this.rings = rings;
+    this.metrics = metrics;
+    this.filters = List.copyOf(filters);
+    this.rssiSettings = rssiSettings;
+    final Map<String, Variant<?>> props = new HashMap<>();
+    props.put("Type", new Variant<String>("or_patterns", "s"));
+    rssiSettings.putProperties(props);
+    props.put("Patterns", new Variant<>(this.filters, "a(yyay)"));
+    this.properties = Collections.unmodifiableMap(props);
+    this.interfaces = Map.of(ADV_MONITOR_IFACE, properties);
+    this.matcher = AdFilterMatcher.compile(filters);
+    this.rssiFilter = new RssiFilter(rssiSettings);
     /*
     final List<Variant<?>> v = new ArrayList<>();
     final Object[] o = new Object[filters.size()];
@@ -56,6 +102,42 @@ public class Monitor implements AdvertisementMonitor1, Properties {
   // local public methods
   public DBusPath getDBusPath() { return objectPath; }
 
+  public int getMonitorId() { return monitorId; }
+
+  public List<AdFilter> getFilters() { return filters; }
+
+  public RssiSettings getRssiSettings() { return rssiSettings; }
+
+  public AdFilterMatcher getMatcher() { return matcher; }
+
+  public RssiFilter getRssiFilter() { return rssiFilter; }
+
+  /** Number of found and lost events, reported by bluetoothd or evaluated in software, handed over to the ring. */
+  public long getEventCount() { return events.sum(); }
+
+  /** {@link System#nanoTime()} when this monitor was created, the start of its event count. */
+  public long getCreatedNanoTime() { return createdNanoTime; }
+
+  /** The interfaces and properties of this object, as reported by an ObjectManager; immutable. */
+  public Map<String, Map<String, Variant<?>>> getManagedInterfaces() { return interfaces; }
+
+  /** Evaluate this monitor's patterns locally against raw advertising data. */
+  public boolean matches(final byte[] ad, final int offset, final int length) {
+    return matcher.matches(ad, offset, length);
+  }
+
+  // package methods
+
+  /** Count a found or lost event handed over to the ring. */
+  void eventPublished(final AdvertisementEvent.Kind kind) {
+    events.increment();
+    if (kind == AdvertisementEvent.Kind.FOUND) {
+      metrics.deviceFound();
+    } else {
+      metrics.deviceLost();
+    }
+  }
+
   // methods from dbus interfaces
 
   @Override
@@ -67,7 +149,7 @@ public class Monitor implements AdvertisementMonitor1, Properties {
   @Override
   @SuppressWarnings("unchecked")
   public <A> A Get(String interfaceName, String propertyName) {
-    LOGGER.info("Get called on {} for interface {} and property {}", objectPath.getPath(), interfaceName, propertyName);
+    LOGGER.debug("Get called on {} for interface {} and property {}", objectPath, interfaceName, propertyName);
     if (interfaceName.equals(ADV_MONITOR_IFACE) && properties.containsKey(propertyName)) {
       return  (A) properties.get(propertyName);
     } else {
@@ -77,11 +159,10 @@ public class Monitor implements AdvertisementMonitor1, Properties {
 
   @Override
   public Map<String, Variant<?>> GetAll(String interfaceName) {
-    LOGGER.info("GetAll called on {} for interface {}", objectPath.getPath(), interfaceName);
+    LOGGER.debug("GetAll called on {} for interface {}", objectPath, interfaceName);
     if (interfaceName.equals(ADV_MONITOR_IFACE)) {
-      final Map<String, Variant<?>> result = new HashMap<>(properties);
-      LOGGER.info("GetAll: returning {}", result);
-      return result;
+      LOGGER.trace("GetAll: returning {}", properties);
+      return properties;
     } else {
       throw new DBusExecutionException("GetAll-  Invalid interface " + interfaceName);
     }
@@ -104,12 +185,38 @@ public class Monitor implements AdvertisementMonitor1, Properties {
 
   @Override
   public void DeviceFound(DBusInterface device) {
-    LOGGER.info("Device {} was found", device.getObjectPath());
+    publish(AdvertisementEvent.Kind.FOUND, device);
   }
 
   @Override
   public void DeviceLost(DBusInterface device) {
-    LOGGER.info("Device {} was lost", device.getObjectPath());
+    publish(AdvertisementEvent.Kind.LOST, device);
+  }
+
+  // private methods
+
+  // runs on the dbus dispatch thread: hand over to the ring and return
+  private void publish(final AdvertisementEvent.Kind kind, final DBusInterface device) {
+    final long start = System.nanoTime();
+    final String path = device.getObjectPath();
+    final long address = MacAddress.fromDevicePath(path);
+    if (address == MacAddress.INVALID) {
+      LOGGER.warn("Device {} reported as {}, but its path carries no address", path, kind);
+      return;
+    }
+    final int adapterIndex = MacAddress.adapterIndex(path);
+    final EventRing ring = rings.apply(adapterIndex);
+    final long seq = ring.tryNext();
+    if (seq == EventRing.NO_SEQUENCE) {
+      LOGGER.debug("Ring full, dropped {} for device {}", kind, path);
+      return;
+    }
+    ring.get(seq)
+        .set(kind, address, monitorId)
+        .setAdapterIndex(adapterIndex);
+    ring.publish(seq);
+    eventPublished(kind);
+    metrics.getCallbackRecorder().recordSince(start);
   }
 
 }
\ No newline at end of file
@@ -1,21 +1,63 @@
 package com.gpaglia.bt.examples.advmon;
 
+import com.gpaglia.bt.examples.bluez.ObjectMirror;
+import com.gpaglia.bt.examples.hci.HciAdvertisementSource;
+import com.gpaglia.bt.examples.journal.JournalHandler;
+import com.gpaglia.bt.examples.journal.JournalReader;
+import com.gpaglia.bt.examples.journal.JournalReplayer;
+import com.gpaglia.bt.examples.journal.JournalWriter;
+import com.gpaglia.bt.examples.mibeacon.MiBeaconHandler;
+import com.gpaglia.bt.examples.pipeline.AdapterDeduplicator;
+import com.gpaglia.bt.examples.pipeline.AdapterRings;
+import com.gpaglia.bt.examples.pipeline.AdvertisementAggregator;
+import com.gpaglia.bt.examples.pipeline.AdvertisementPublisher;
+import com.gpaglia.bt.examples.pipeline.AdvertisementSource;
+import com.gpaglia.bt.examples.pipeline.AggregatingHandler;
+import com.gpaglia.bt.examples.pipeline.DeduplicatingHandler;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.DeviceRegistryHandler;
+import com.gpaglia.bt.examples.registry.MacAddress;
+import com.gpaglia.bt.examples.shm.ShmRingHandler;
+import com.gpaglia.bt.examples.shm.ShmRingReader;
+import com.gpaglia.bt.examples.shm.ShmRingWriter;
+
 import org.freedesktop.dbus.DBusMatchRule;
 import org.freedesktop.dbus.DBusPath;
 import org.freedesktop.dbus.connections.impl.DBusConnection;
 import org.freedesktop.dbus.exceptions.DBusException;
-import org.freedesktop.dbus.interfaces.DBusInterface;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.freedesktop.dbus.interfaces.DBusSigHandler;
 import org.freedesktop.dbus.interfaces.ObjectManager;
+import org.freedesktop.dbus.interfaces.Properties;
 import org.freedesktop.dbus.messages.DBusSignal;
 import org.freedesktop.dbus.types.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import static com.gpaglia.bt.examples.advmon.Commons.*;
 
@@ -24,103 +66,346 @@ import static com.gpaglia.bt.examples.advmon.Commons.*;
  *
  * @see <a href="https://git.kernel.org/pub/scm/bluetooth/bluez.git/tree/test/example-adv-monitor">Python example from bluez source tree</a>
  */
-public class MonitorApp implements ObjectManager, DBusInterface {
+public class MonitorApp implements ObjectManager, Properties {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(MonitorApp.class);
 
   private static final int CONNECTION_TIMEOUT = 5000; // in ms
+  private static final int RING_SIZE = 8192;
+  private static final int ADAPTER_RING_SIZE = 2048;
+  // the same advertising frame heard by several adapters within the window is forwarded once, best RSSI first
+  private static final long DEDUP_WINDOW = 1000; // in ms
+  // devices of a snapshot not seen for longer are not restored
+  private static final long SNAPSHOT_DEVICE_MAX_AGE = 5 * 60 * 1000; // in ms
+  private static final String BLUEZ_DEVICE_IF = BLUEZ_SERVICE_NAME + ".Device1";
+  private static final String BLUEZ_ADAPTER_IF = BLUEZ_SERVICE_NAME + ".Adapter1";
+
+  private static final List<String> MONITOR_INTERFACES = List.of(ADV_MONITOR_IFACE);
+
+  private static final AdFilter MI_SERVICE_FILTER = new AdFilter(
+      (byte) 0x00, (byte) 0x16, new byte[] { (byte) 0x95, (byte) 0xfe }
+  );
 
   private final int appId;
   private final DBusPath appPath;
+  // match and filter advertisements in the application instead of offloading monitors to bluetoothd
+  private final boolean softwareMonitoring;
 
+  // the system bus, unless set
+  private String busAddress;
   private DBusConnection connection;
-  private ObjectManager om;
+  // with a warm start, only set once the snapshot is being checked
+  private volatile ObjectMirror objects;
+  // every capable adapter, by path; with adapterPaths and source, guarded by adapterLock once started, as the
+  // warm start thread follows adapter changes
+  private final Map<String, AdvertisementMonitorManager1> managers = new LinkedHashMap<>();
+  private final Object adapterLock = new Object();
+  // the adapters monitored, in path order
+  private volatile List<DBusPath> adapterPaths = List.of();
+  // device updates from bluetoothd, or the reports read from an HCI channel
+  private volatile AdvertisementSource source;
+  // set once start() completed: a snapshot is only saved from a run which started
+  private volatile boolean started;
+  // when set, advertisements are read from this HCI channel instead of bluetoothd
+  private Path hciInput;
+  private int hciAdapterIndex;
+  private boolean exported;
+
+  private final Map<String, Monitor> monitors = new ConcurrentHashMap<>();
+  private final AtomicInteger lastMonitorId = new AtomicInteger();
+  private final Object updateLock = new Object();
+  // once registered, monitor changes must be announced with InterfacesAdded / InterfacesRemoved
+  private volatile boolean registered;
+  private final DeviceRegistry registry = new DeviceRegistry();
+  private final EventRing ring = new EventRing(RING_SIZE);
+  // one ingress ring and worker per adapter, merged into the ring
+  private final AdapterRings adapterRings = new AdapterRings(ring, ADAPTER_RING_SIZE);
+  private final MonitorAppMetrics metrics =
+      new MonitorAppMetrics(adapterRings, this::getMonitors, () -> this.publisher);
+  // the events, deduplicated across adapters, to any number of subscribers; only created, and fed by a ring
+  // consumer, when requested before starting
+  private volatile AdvertisementPublisher publisher;
+  // serve the metrics as properties of the app object too
+  private volatile boolean dbusMetrics;
+  private ObjectName metricsName;
+  // when set, every event is appended to the journal in this directory
+  private Path journalDirectory;
+  private JournalWriter journal;
+  // when set, the deduplicated events are also copied into a shared memory ring for other processes
+  private Path shmRingFile;
+  private ShmRingWriter shmRing;
+  // when set, the MiBeacon readings are decoded and logged
+  private boolean decodeMiBeacons;
+  // when positive, one summary per device and window of this length, in ms, is logged
+  private long aggregateWindow;
+  // when set, the state is saved there on stop, and restored from it on start
+  private Path snapshotFile;
+  // checks a restored snapshot against bluez
+  private ExecutorService warmup;
 
-  private Map<String, Monitor> monitors = new HashMap<>();
-  private int lastMonitorId = 0;
+  // copy on write snapshot of the managed objects, rebuilt on demand after monitors change
+  private volatile Map<DBusPath, Map<String, Map<String, Variant<?>>>> managedObjects;
+  private volatile long managedObjectsVersion;
+  // refreshed with every monitor change, iterated by the software monitoring consumer
+  private volatile Monitor[] monitorArray = new Monitor[0];
 
   public static void main(String[] args) {
-    final MonitorApp app = new MonitorApp((args.length == 0 || !args[1].matches("[1-9]+")) ? 1 : Integer.valueOf(args[1]));
+    final List<String> options = List.of(args);
+    final MonitorApp app = new MonitorApp(
+        (args.length == 0 || !args[0].matches("[1-9]+")) ? 1 : Integer.valueOf(args[0]),
+        options.contains("--software") || option(options, "--hci=") != null
+    );
+    final String replay = option(options, "--replay=");
+    if (replay != null) {
+      final String speed = option(options, "--speed=");
+      app.replay(Paths.get(replay), speed == null ? JournalReplayer.AS_FAST_AS_POSSIBLE : Double.parseDouble(speed));
+      return;
+    }
+    app.setDBusMetrics(options.contains("--dbus-metrics"));
+    app.setDecodeMiBeacons(options.contains("--mibeacon"));
+    final String aggregate = option(options, "--aggregate=");
+    if (aggregate != null) {
+      app.setAggregateWindow(Long.parseLong(aggregate));
+    }
+    final String snapshot = option(options, "--snapshot=");
+    if (snapshot != null) {
+      app.setSnapshotFile(Paths.get(snapshot));
+    }
+    final String hci = option(options, "--hci=");
+    if (hci != null) {
+      app.setHciInput(Paths.get(hci), 0);
+    }
+    final String shm = option(options, "--shm=");
+    if (shm != null) {
+      app.setShmRingFile(Paths.get(shm));
+    }
+    final String journal = option(options, "--journal=");
+    if (journal != null) {
+      app.setJournalDirectory(Paths.get(journal));
+    }
+    app.run();
+  }
+
+  /** Create the application; nothing is connected nor exported until it is run. */
+  public MonitorApp(final int appId) {
+    this(appId, false);
   }
 
-  private MonitorApp(final int appId) {
+  /**
+   * Create the application; nothing is connected nor exported until it is run.
+   *
+   * @param softwareMonitoring when true, monitors are not registered with bluetoothd: the adapter runs an LE
+   *     discovery reporting duplicates and patterns and RSSI thresholds are evaluated locally
+   */
+  public MonitorApp(final int appId, final boolean softwareMonitoring) {
     this.appId = appId;
     this.appPath = new DBusPath(appPath(appId));
+    this.softwareMonitoring = softwareMonitoring;
+  }
 
+  private void run() {
     try {
-      LOGGER.info("Starting with appPaht={}\n", appPath);
-      
-      connection = DBusConnection.getConnection(DBusConnection.DBusBusType.SYSTEM, false, CONNECTION_TIMEOUT);
+      start();
 
-      LOGGER.info("Connected to dbus with uniqueName={}", connection.getUniqueName());
+      try(Scanner in = new Scanner(System.in)) {
+        System.out.print("Press <RET> to end program ... ");
+        in.nextLine();
+      }
+    } catch (DBusException de) {
+      LOGGER.error("Got DBusException", de);
+      System.exit(1);
+    } catch (IOException ioe) {
+      LOGGER.error("Got IOException", ioe);
+      System.exit(1);
+    } finally {
+      stop();
+    }
+  }
 
-      connection.addSigHandler(new DBusMatchRule((String) null, ADV_MONITOR_MANAGER_IFACE, null), new DBusSigHandler<>() {
+  /**
+   * Start the ring, connect and create the default monitor; it is then registered with bluetoothd or, in software
+   * monitoring mode, a discovery is started. With a snapshot, its adapters and monitors are used instead, see
+   * {@link #setSnapshotFile(Path)}. With an HCI input, nothing is connected: the reports are read from it. Returns
+   * once done, see {@link #stop()}.
+   */
+  public void start() throws DBusException, IOException {
+    if (hciInput != null && ! softwareMonitoring) {
+      throw new IllegalStateException("Reading HCI reports requires software monitoring");
+    }
+    startRing();
+    registerMetrics();
 
-        @Override
-        public void handle(DBusSignal s) {
-          LOGGER.info("Got signal {}", s);
-        }
-        
-      });
+    if (hciInput != null) {
+      startHci();
+      started = true;
+      return;
+    }
 
-      om = connection.getRemoteObject(BLUEZ_SERVICE_NAME, "/", ObjectManager.class);
-      if (om == null) {
-        LOGGER.error("Could not get a reference to ObjectManager for service {} in path /", BLUEZ_SERVICE_NAME);
-        System.exit(1);
-      }
+    LOGGER.info("Starting with appPaht={}\n", appPath);
 
-      showObjectsAndInterfaces(om);
+    connection = busAddress == null
+        ? DBusConnection.getConnection(DBusConnection.DBusBusType.SYSTEM, false, CONNECTION_TIMEOUT)
+        : DBusConnection.getConnection(busAddress, true, false, CONNECTION_TIMEOUT);
 
-      final DBusPath adapterPath = findAdapter(om);
-      if (om == null) {
-        LOGGER.error("Could not find any supportive adapter object");
-        System.exit(1);
+    LOGGER.info("Connected to dbus with uniqueName={}", connection.getUniqueName());
+
+    // monitors added before the connection existed
+    for (Monitor m : monitors.values()) {
+      connection.exportObject(m.getObjectPath(), m);
+    }
+
+    connection.addSigHandler(new DBusMatchRule((String) null, ADV_MONITOR_MANAGER_IFACE, null), new DBusSigHandler<>() {
+
+      @Override
+      public void handle(DBusSignal s) {
+        LOGGER.info("Got signal {}", s);
       }
 
-      final AdvertisementMonitorManager1 mgr = connection.getRemoteObject(
-          BLUEZ_SERVICE_NAME,
-          adapterPath.toString(),
-          AdvertisementMonitorManager1.class
-      );
+    });
 
-      if (mgr == null) {
-        LOGGER.error("Could not find any AdvertisementMonitorManager1 on path {}", adapterPath.toString());
-        System.exit(1);
-      } 
+    final MonitorSnapshot snapshot = loadSnapshot();
+    // the adapters of a snapshot are only checked to be there, the rest is checked in the background
+    final List<DBusPath> saved = snapshot == null ? List.of() : snapshotAdapters(snapshot);
+    if (saved.isEmpty()) {
+      if (snapshot != null) {
+        LOGGER.warn("None of the snapshot adapters {} is there, listing the adapters", snapshot.getAdapterPaths());
+      }
+      objects = new ObjectMirror(connection);
+      objects.start();
+      showObjectsAndInterfaces();
+      adapterPaths = findAdapters(adapterInterface());
+    } else {
+      adapterPaths = saved;
+    }
+    if (adapterPaths.isEmpty()) {
+      throw new DBusException("Could not find any supportive adapter object");
+    }
+    startAdapterWorkers(adapterPaths);
 
+    if (softwareMonitoring) {
+      // no registration, the monitors are evaluated on the events of the source
       connection.exportObject(appPath.getPath(), this);
+      exported = true;
+      addInitialMonitors(snapshot);
+    } else {
+      for (DBusPath adapterPath : adapterPaths) {
+        managers.put(adapterPath.getPath(), connection.getRemoteObject(
+            BLUEZ_SERVICE_NAME,
+            adapterPath.toString(),
+            AdvertisementMonitorManager1.class
+        ));
+      }
 
-      LOGGER.info("Application {} exported", appPath);
-
-      mgr.RegisterMonitor(this.appPath);
+      connection.exportObject(appPath.getPath(), this);
+      exported = true;
 
-      LOGGER.info("Application {} registered with AdvertisementMonitorManager1", appPath);
+      LOGGER.info("Application {} exported", appPath);
 
-      final String monitorPath = addMonitor();
-      LOGGER.info("Created monitor {}", monitorPath);
+      // monitors added before registration are read in one GetManagedObjects call, with no signal
+      addInitialMonitors(snapshot);
 
-      try(Scanner in = new Scanner(System.in)) {
-        System.out.print("Press <RET> to end program ... ");
-        in.nextLine();
-      } finally {
-        // nop
+      registered = true;
+      for (Map.Entry<String, AdvertisementMonitorManager1> e : managers.entrySet()) {
+        e.getValue().RegisterMonitor(this.appPath);
+        LOGGER.info("Application {} registered with AdvertisementMonitorManager1 of {}", appPath, e.getKey());
       }
+    }
+    startSource(adapterPaths);
 
-      mgr.UnregisterMonitor(this.appPath);
-      LOGGER.info("Application {} unregistered with AdvertisementMonitorManager1", appPath);
-
-      connection.unExportObject(appPath.getPath());
-      LOGGER.info("Application {} unexported", appPath);
+    if (snapshot != null) {
+      warmup = Executors.newSingleThreadExecutor(r -> {
+        final Thread t = new Thread(r, "warm-start");
+        t.setDaemon(true);
+        return t;
+      });
+      warmup.execute(this::checkSnapshot);
+    }
+    started = true;
+  }
 
-    } catch (DBusException de) {
-      LOGGER.error("Got DBusException", de);
-      System.exit(1);
+  /** Undo {@link #start()}, as far as it went, then drain and stop the ring. */
+  public void stop() {
+    if (warmup != null) {
+      warmup.shutdownNow();
+      try {
+        warmup.awaitTermination(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      warmup = null;
+    }
+    try {
+      if (connection != null && connection.isConnected()) {
+        if (registered) {
+          registered = false;
+          synchronized (adapterLock) {
+            for (Map.Entry<String, AdvertisementMonitorManager1> e : managers.entrySet()) {
+              // one adapter gone must not keep the application registered with the others
+              try {
+                e.getValue().UnregisterMonitor(this.appPath);
+                LOGGER.info("Application {} unregistered with AdvertisementMonitorManager1 of {}", appPath, e.getKey());
+              } catch (RuntimeException ex) {
+                LOGGER.warn("Could not unregister application {} from {}", appPath, e.getKey(), ex);
+              }
+            }
+          }
+        }
+        if (exported) {
+          exported = false;
+          connection.unExportObject(appPath.getPath());
+          LOGGER.info("Application {} unexported", appPath);
+        }
+      }
+    } catch (RuntimeException e) {
+      LOGGER.warn("Could not cleanly withdraw application {}", appPath, e);
     } finally {
+      synchronized (adapterLock) {
+        if (source != null) {
+          source.close();
+          source = null;
+        }
+        managers.clear();
+      }
+      if (objects != null) {
+        objects.close();
+      }
       if (connection != null && connection.isConnected()) {
         connection.disconnect();
       }
+      adapterRings.stop();
+      stopRing();
+      // a failed start must not overwrite the snapshot with what made it fail
+      if (started) {
+        started = false;
+        saveSnapshot();
+      }
+      adapterPaths = List.of();
+      unregisterMetrics();
     }
   }
+
+  /**
+   * Feed a recorded journal to the monitors, offline: nothing is connected nor exported, the default monitor is
+   * evaluated in software if the application was created so, and the registry is logged at the end.
+   *
+   * @param speed see {@link JournalReplayer}
+   */
+  public void replay(final Path directory, final double speed) {
+    long n = 0;
+    try (JournalReader reader = new JournalReader(directory)) {
+      startRing();
+      final Monitor monitor = newMonitor(List.of(MI_SERVICE_FILTER));
+      LOGGER.info("Replaying journal {} through monitor {}", directory, monitor.getObjectPath());
+      n = new JournalReplayer(reader, speed).replay(ring);
+    } catch (IOException ioe) {
+      LOGGER.error("Got IOException", ioe);
+      System.exit(1);
+    } finally {
+      stopRing();
+    }
+    // the consumers are drained once the ring is stopped
+    LOGGER.info("Replayed {} events, {} devices in the registry", n, registry.size());
+  }
   
   // ObjectManager
 
@@ -134,78 +419,642 @@ public class MonitorApp implements ObjectManager, DBusInterface {
 
   @Override
   public Map<DBusPath, Map<String, Map<String, Variant<?>>>> GetManagedObjects() {
-    final Map<DBusPath, Map<String, Map<String, Variant<?>>>> result = new HashMap<>();
+    LOGGER.debug("GetManagedObjects called on {}", appPath);
 
-    LOGGER.info("GetManagedObjects called on {}", appPath.getPath());
+    Map<DBusPath, Map<String, Map<String, Variant<?>>>> snapshot = managedObjects;
+    if (snapshot == null) {
+      final long version = managedObjectsVersion;
+      final Map<DBusPath, Map<String, Map<String, Variant<?>>>> result = new HashMap<>();
+      for (Monitor m : monitors.values()) {
+        result.put(m.getDBusPath(), m.getManagedInterfaces());
+      }
+      snapshot = Collections.unmodifiableMap(result);
+      synchronized (this) {
+        // a monitor change raced with the build: serve it, but do not cache it
+        if (version == managedObjectsVersion) {
+          managedObjects = snapshot;
+        }
+      }
+    }
 
-    for (Monitor m : monitors.values()) {
-      result.put(m.getDBusPath(), Map.of(ADV_MONITOR_IFACE, m.GetAll(ADV_MONITOR_IFACE)));
+    return snapshot;
+  }
+
+  // Properties, only for the metrics interface
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <A> A Get(String interfaceName, String propertyName) {
+    final Variant<?> value = metricsProperties(interfaceName).get(propertyName);
+    if (value == null) {
+      throw new DBusExecutionException("Get - Unknown property " + interfaceName + ":" + propertyName);
     }
+    return (A) value;
+  }
 
-    return result;
+  @Override
+  public Map<String, Variant<?>> GetAll(String interfaceName) {
+    return metricsProperties(interfaceName);
+  }
+
+  @Override
+  public <A> void Set(String interfaceName, String propertyName, A value) {
+    throw new DBusExecutionException("Properties cannot be written to");
   }
 
   // Local public methods
 
-  public String addMonitor() throws DBusException {
-    final int id = lastMonitorId + 1;
-    final Monitor monitor = new Monitor(
-      connection, 
-      monitorPath(appId, id), 
-      List.of(new AdFilter((byte) 0x00, (byte) 0x16, new byte[] { (byte) 0x95, (byte) 0xfe }))
-    );
+  public DeviceRegistry getRegistry() { return registry; }
 
-    monitors.put(monitor.getObjectPath(), monitor);
+  public EventRing getRing() { return ring; }
 
-    LOGGER.info("Monitor {} wired", monitor.getObjectPath());
+  public AdapterRings getAdapterRings() { return adapterRings; }
 
-    connection.exportObject(monitor.getObjectPath(), monitor);
+  public MonitorAppMetrics getMetrics() { return metrics; }
 
-    LOGGER.info("Monitor {} exported", monitor.getObjectPath());
+  /**
+   * The found, lost and advertisement events, deduplicated across adapters, for subscribers to consume at their own
+   * pace; see {@link AdvertisementPublisher} for the drop policies and filters. The publisher is created by the first
+   * call, which must come before running: otherwise no ring consumer feeds it.
+   */
+  public synchronized AdvertisementPublisher getPublisher() {
+    if (publisher == null) {
+      publisher = new AdvertisementPublisher();
+    }
+    return publisher;
+  }
 
-    connection.sendMessage(
-      new ObjectManager.InterfacesAdded(
-        this.getObjectPath(), 
-        monitor.getDBusPath(), 
+  /** The source of the advertisements once started, else null. */
+  public AdvertisementSource getSource() { return source; }
 
-        Map.of(ADV_MONITOR_IFACE, monitor.GetAll(ADV_MONITOR_IFACE))
-      )
-    );
+  /** The mirror of the bluetoothd objects, null until started. */
+  public ObjectMirror getObjects() { return objects; }
+
+  /** Expose the metrics as D-Bus properties of {@link MonitorAppMetrics#METRICS_IFACE} on the app path. */
+  public void setDBusMetrics(final boolean dbusMetrics) { this.dbusMetrics = dbusMetrics; }
+
+  /** Connect to the bus at the given address instead of the system bus; set before starting. */
+  public void setBusAddress(final String busAddress) { this.busAddress = busAddress; }
+
+  /** Record every event to a journal in the given directory, see {@link JournalWriter}; set before running. */
+  public void setJournalDirectory(final Path journalDirectory) { this.journalDirectory = journalDirectory; }
+
+  /**
+   * Copy the events, deduplicated across adapters, into a shared memory ring in this file, e.g. under
+   * <code>/dev/shm</code>, for other processes to read with a {@link ShmRingReader}; set before running.
+   */
+  public void setShmRingFile(final Path shmRingFile) { this.shmRingFile = shmRingFile; }
 
-    return monitor.getObjectPath();
+  /** Decode the MiBeacon frames of the advertisements and log the readings, see {@link MiBeaconHandler}. */
+  public void setDecodeMiBeacons(final boolean decodeMiBeacons) { this.decodeMiBeacons = decodeMiBeacons; }
+
+  /** Log one summary per device every window of this length, in ms, instead of nothing; 0 to disable. */
+  public void setAggregateWindow(final long aggregateWindow) { this.aggregateWindow = aggregateWindow; }
+
+  /**
+   * Save the adapters, monitors and devices to this file on stop; when it exists on start, monitoring starts right
+   * away from its content, without listing the bluez objects first, and it is checked against bluez in the
+   * background. Set before starting.
+   */
+  public void setSnapshotFile(final Path snapshotFile) { this.snapshotFile = snapshotFile; }
+
+  /**
+   * Read the advertising reports of a controller from an HCI channel, see {@link HciAdvertisementSource}, instead
+   * of connecting to bluetoothd; requires software monitoring. Set before starting.
+   */
+  public void setHciInput(final Path hciInput, final int adapterIndex) {
+    this.hciInput = hciInput;
+    this.hciAdapterIndex = adapterIndex;
+  }
+
+  public Collection<Monitor> getMonitors() { return Collections.unmodifiableCollection(monitors.values()); }
+
+  public Monitor getMonitor(final String path) { return monitors.get(path); }
+
+  public String addMonitor(final List<AdFilter> filters) throws DBusException {
+    return addMonitor(filters, RssiSettings.UNSET);
+  }
+
+  public String addMonitor(final List<AdFilter> filters, final RssiSettings rssiSettings) throws DBusException {
+    return addMonitors(List.of(filters), rssiSettings).get(0);
+  }
+
+  public List<String> addMonitors(final List<List<AdFilter>> filterSets) throws DBusException {
+    return addMonitors(filterSets, RssiSettings.UNSET);
+  }
+
+  /**
+   * Create, export and announce one monitor per filter list. Thread safe, may be called concurrently, also before
+   * {@link #start()}: the monitors are then exported when the application connects.
+   *
+   * <p>Ids are allocated atomically and all monitors are exported before any signal is sent; if the application
+   * is not registered yet no signal is sent at all, bluetoothd reads them with the next GetManagedObjects. If an
+   * export fails, the monitors of the batch already exported are withdrawn before rethrowing.
+   *
+   * @param rssiSettings the RSSI thresholds shared by all the monitors of the batch
+   * @return the object paths of the new monitors, in the order of <code>filterSets</code>
+   */
+  public List<String> addMonitors(
+      final List<List<AdFilter>> filterSets,
+      final RssiSettings rssiSettings) throws DBusException {
+    final List<Monitor> batch = new ArrayList<>(filterSets.size());
+    try {
+      for (List<AdFilter> filters : filterSets) {
+        final Monitor monitor = createMonitor(filters, rssiSettings);
+        if (connection != null) {
+          connection.exportObject(monitor.getObjectPath(), monitor);
+        }
+        batch.add(monitor);
+      }
+    } catch (DBusException | RuntimeException e) {
+      if (connection != null) {
+        for (Monitor m : batch) {
+          connection.unExportObject(m.getObjectPath());
+        }
+      }
+      throw e;
+    }
+
+    // only exported monitors become visible to GetManagedObjects
+    for (Monitor m : batch) {
+      monitors.put(m.getObjectPath(), m);
+    }
+    invalidateManagedObjects();
+
+    if (registered) {
+      for (Monitor m : batch) {
+        connection.sendMessage(new ObjectManager.InterfacesAdded(getObjectPath(), m.getDBusPath(), m.getManagedInterfaces()));
+      }
+    }
+
+    LOGGER.info("{} monitors exported{}", batch.size(), registered ? " and announced" : "");
+
+    final List<String> paths = new ArrayList<>(batch.size());
+    for (Monitor m : batch) {
+      paths.add(m.getObjectPath());
+    }
+    return paths;
+  }
+
+  public boolean removeMonitor(final String path) throws DBusException {
+    return removeMonitors(List.of(path)) == 1;
   }
 
+  /**
+   * Withdraw, unexport and announce the removal of monitors. Thread safe, unknown paths are ignored.
+   *
+   * @return the number of monitors removed
+   */
+  public int removeMonitors(final Collection<String> paths) throws DBusException {
+    final List<Monitor> batch = new ArrayList<>(paths.size());
+    for (String path : paths) {
+      final Monitor m = monitors.remove(path);
+      if (m != null) {
+        batch.add(m);
+      }
+    }
+    if (batch.isEmpty()) {
+      return 0;
+    }
+    invalidateManagedObjects();
+
+    if (registered) {
+      for (Monitor m : batch) {
+        connection.sendMessage(new ObjectManager.InterfacesRemoved(getObjectPath(), m.getDBusPath(), MONITOR_INTERFACES));
+      }
+    }
+    for (Monitor m : batch) {
+      if (connection != null) {
+        connection.unExportObject(m.getObjectPath());
+      }
+      // bluetoothd does not report the devices of a released monitor lost
+      registry.monitorRemoved(m.getMonitorId());
+    }
+
+    LOGGER.info("{} monitors removed", batch.size());
+    return batch.size();
+  }
+
+  public List<String> updateMonitors(final List<List<AdFilter>> filterSets) throws DBusException {
+    return updateMonitors(filterSets, RssiSettings.UNSET);
+  }
+
+  /**
+   * Make the monitors match a new list of filter sets, touching only the ones that differ: a monitor whose patterns
+   * (in any order) and RSSI settings are still wanted is kept as is, the others are removed and the missing ones
+   * added. Patterns are only read by bluetoothd when a monitor appears, so a changed monitor is replaced.
+   *
+   * <p>New monitors are exported and announced before the old ones are withdrawn, so that what is kept is never
+   * interrupted; the local matchers switch to the new set at once. The reports of a removed monitor are dropped
+   * from the registry right away, as bluetoothd never reports its devices lost: a device only it reported is gone
+   * until a new monitor finds it. Updates are serialized with each other, not with
+   * {@link #addMonitors}/{@link #removeMonitors}.
+   *
+   * @param rssiSettings the RSSI thresholds of all the monitors wanted
+   * @return the object paths of the monitors, in the order of <code>filterSets</code>
+   */
+  public List<String> updateMonitors(
+      final List<List<AdFilter>> filterSets,
+      final RssiSettings rssiSettings) throws DBusException {
+    synchronized (updateLock) {
+      // current monitors by configuration, several may share one
+      final Map<String, ArrayDeque<Monitor>> current = new HashMap<>();
+      for (Monitor m : monitors.values()) {
+        current.computeIfAbsent(monitorKey(m.getFilters(), m.getRssiSettings()), k -> new ArrayDeque<>()).add(m);
+      }
+      final Monitor[] result = new Monitor[filterSets.size()];
+      for (int i = 0; i < result.length; i++) {
+        final ArrayDeque<Monitor> same = current.get(monitorKey(filterSets.get(i), rssiSettings));
+        if (same != null) {
+          result[i] = same.poll();
+        }
+      }
+      final List<Monitor> removed = new ArrayList<>();
+      for (ArrayDeque<Monitor> left : current.values()) {
+        removed.addAll(left);
+      }
+
+      final List<Monitor> added = new ArrayList<>();
+      try {
+        for (int i = 0; i < result.length; i++) {
+          if (result[i] == null) {
+            final Monitor monitor = createMonitor(filterSets.get(i), rssiSettings);
+            if (connection != null) {
+              connection.exportObject(monitor.getObjectPath(), monitor);
+            }
+            added.add(monitor);
+            result[i] = monitor;
+          }
+        }
+      } catch (DBusException | RuntimeException e) {
+        if (connection != null) {
+          for (Monitor m : added) {
+            connection.unExportObject(m.getObjectPath());
+          }
+        }
+        throw e;
+      }
+
+      if (! added.isEmpty() || ! removed.isEmpty()) {
+        for (Monitor m : added) {
+          monitors.put(m.getObjectPath(), m);
+        }
+        for (Monitor m : removed) {
+          monitors.remove(m.getObjectPath());
+          registry.monitorRemoved(m.getMonitorId());
+        }
+        // one new snapshot and matcher array for the whole update
+        invalidateManagedObjects();
+
+        if (registered) {
+          for (Monitor m : added) {
+            connection.sendMessage(new ObjectManager.InterfacesAdded(getObjectPath(), m.getDBusPath(), m.getManagedInterfaces()));
+          }
+          for (Monitor m : removed) {
+            connection.sendMessage(new ObjectManager.InterfacesRemoved(getObjectPath(), m.getDBusPath(), MONITOR_INTERFACES));
+          }
+        }
+        if (connection != null) {
+          for (Monitor m : removed) {
+            connection.unExportObject(m.getObjectPath());
+          }
+        }
+      }
+
+      LOGGER.info("Monitors updated: {} kept, {} added, {} removed", result.length - added.size(), added.size(), removed.size());
+
+      final List<String> paths = new ArrayList<>(result.length);
+      for (Monitor m : result) {
+        paths.add(m.getObjectPath());
+      }
+      return paths;
+    }
+  }
+
+  // package methods
+
+  /** Create a monitor and add it to the managed objects, without exporting it. */
+  Monitor newMonitor(final List<AdFilter> filters) {
+    final Monitor monitor = createMonitor(filters, RssiSettings.UNSET);
+    monitors.put(monitor.getObjectPath(), monitor);
+    invalidateManagedObjects();
+    return monitor;
+  }
+
+  /** The current monitors, as an array safe to iterate without allocation; do not modify. */
+  Monitor[] monitorArray() { return monitorArray; }
+
   // private methods
 
-  private DBusPath findAdapter(final ObjectManager om) {
-    final Map.Entry<DBusPath, Map<String, Map<String, Variant<?>>>> found = om
-        .GetManagedObjects()
-        .entrySet()
-        .stream()
-        .filter(e -> e.getValue().containsKey(ADV_MONITOR_MANAGER_IFACE))
+  private void startRing() throws IOException {
+    if (softwareMonitoring) {
+      // publishes the found and lost transitions back into the ring, for all the consumers
+      ring.addConsumer("software-monitor", metrics.measuring(new DeduplicatingHandler(
+          new AdapterDeduplicator(DEDUP_WINDOW), new SoftwareMonitorHandler(this, ring)
+      )));
+    }
+    ring.addConsumer("registry", metrics.measuring(
+        new DeduplicatingHandler(new AdapterDeduplicator(DEDUP_WINDOW), new DeviceRegistryHandler(registry))
+    ));
+    if (journalDirectory != null) {
+      journal = new JournalWriter(journalDirectory);
+      ring.addConsumer("journal", new JournalHandler(journal));
+      LOGGER.info("Recording events to journal {}", journalDirectory);
+    }
+    if (decodeMiBeacons) {
+      ring.addConsumer("mibeacon", new MiBeaconHandler((reading, event) -> LOGGER.info("{}", reading)));
+    }
+    if (publisher != null) {
+      ring.addConsumer("publisher", new DeduplicatingHandler(new AdapterDeduplicator(DEDUP_WINDOW), publisher));
+    }
+    if (shmRingFile != null) {
+      shmRing = new ShmRingWriter(shmRingFile);
+      ring.addConsumer("shm", new DeduplicatingHandler(
+          new AdapterDeduplicator(DEDUP_WINDOW), new ShmRingHandler(shmRing)
+      ));
+    }
+    if (aggregateWindow > 0) {
+      ring.addConsumer("aggregate", new AggregatingHandler(
+          new AdvertisementAggregator(aggregateWindow, summary -> LOGGER.info("{}", summary))
+      ));
+    }
+    ring.start();
+  }
+
+  private void stopRing() {
+    ring.stop();
+    // the publisher consumer thread is gone too: subscribers complete once they drained their buffer
+    if (publisher != null) {
+      publisher.close();
+    }
+    // the journal consumer thread is gone
+    if (journal != null) {
+      journal.close();
+    }
+    if (shmRing != null) {
+      shmRing.close();
+    }
+  }
+
+  private static String option(final List<String> options, final String prefix) {
+    return options.stream()
+        .filter(o -> o.startsWith(prefix))
+        .map(o -> o.substring(prefix.length()))
         .findFirst()
         .orElse(null);
+  }
 
-    if (found != null) {
-      LOGGER.info("Found adapter with AdvertisementMonitorManager support, listing manager properties ...");
-      for (Map.Entry<String, Variant<?>> prop : found.getValue().get(ADV_MONITOR_MANAGER_IFACE).entrySet()) {
-        LOGGER.info("\t property >> key: {}, value: {}", prop.getKey(), prop.getValue().toString());
+  // with several adapters, each gets its own ingress ring and worker
+  private void startAdapterWorkers(final List<DBusPath> adapterPaths) {
+    if (adapterPaths.size() < 2) {
+      return;
+    }
+    for (DBusPath p : adapterPaths) {
+      if (! adapterRings.addAdapter(MacAddress.adapterIndex(p.getPath()))) {
+        LOGGER.warn("Adapter {} shares the merged ring", p);
       }
     }
+    adapterRings.start();
+  }
 
-    return found.getKey();
+  // in software monitoring mode, LE discovery with duplicates on every adapter feeds the ring
+  private void startSource(final List<DBusPath> adapterPaths) throws IOException {
+    source = new DBusAdvertisementSource(connection, pathsOf(adapterPaths), softwareMonitoring, metrics);
+    source.start(adapterRings::ringFor);
   }
 
-  private void showObjectsAndInterfaces(final ObjectManager om) {
-    final Map<DBusPath, Map<String, Map<String, Variant<?>>>> objects = om.GetManagedObjects();
+  // no bluetoothd: the monitor is neither exported nor registered
+  private void startHci() throws IOException {
+    final Monitor monitor = newMonitor(List.of(MI_SERVICE_FILTER));
+    LOGGER.info("Created monitor {}, evaluated in software", monitor.getObjectPath());
+    source = HciAdvertisementSource.open(hciInput, hciAdapterIndex);
+    source.start(adapterRings::ringFor);
+  }
 
-    // list all paths discovered
-    for (DBusPath p: objects.keySet()) {
-      final Map<String, Map<String, Variant<?>>> ifaces = objects.get(p);
+  // the monitors of the snapshot, with their devices, else the default one
+  private void addInitialMonitors(final MonitorSnapshot snapshot) throws DBusException {
+    if (snapshot == null || snapshot.getMonitors().isEmpty()) {
+      final String monitorPath = addMonitor(List.of(MI_SERVICE_FILTER));
+      LOGGER.info("Created monitor {}{}", monitorPath, softwareMonitoring ? ", evaluated in software" : "");
+      return;
+    }
+    // monitor ids are allocated again: map the saved ones
+    final Map<Integer, Integer> ids = new HashMap<>();
+    for (MonitorSnapshot.MonitorEntry m : snapshot.getMonitors()) {
+      final String path = addMonitor(m.getFilters(), m.getRssiSettings());
+      ids.put(m.getId(), monitors.get(path).getMonitorId());
+    }
+    final int devices = snapshot.restore(
+        registry, id -> ids.getOrDefault(id, -1), System.currentTimeMillis() - SNAPSHOT_DEVICE_MAX_AGE);
+    LOGGER.info("Restored {} monitors and {} of {} devices", ids.size(), devices, snapshot.getDeviceCount());
+  }
+
+  private MonitorSnapshot loadSnapshot() {
+    if (snapshotFile == null || ! Files.exists(snapshotFile)) {
+      return null;
+    }
+    try {
+      final MonitorSnapshot snapshot = MonitorSnapshot.load(snapshotFile);
+      if (snapshot.isSoftwareMonitoring() != softwareMonitoring || snapshot.getAdapterPaths().isEmpty()) {
+        LOGGER.info("Snapshot {} does not apply, cold start", snapshotFile);
+        return null;
+      }
+      LOGGER.info("Warm start from snapshot {}, saved at {}", snapshotFile, Instant.ofEpochMilli(snapshot.getSavedAt()));
+      return snapshot;
+    } catch (IOException e) {
+      LOGGER.warn("Could not read snapshot {}, cold start", snapshotFile, e);
+      return null;
+    }
+  }
 
-      LOGGER.info("\t >> discovered path {}", p.toString());
+  private void saveSnapshot() {
+    if (snapshotFile == null || adapterPaths.isEmpty()) {
+      return;
+    }
+    try {
+      MonitorSnapshot.save(snapshotFile, softwareMonitoring, pathsOf(adapterPaths), monitors.values(), registry);
+      LOGGER.info("Saved {} monitors and {} devices to snapshot {}", monitors.size(), registry.size(), snapshotFile);
+    } catch (IOException e) {
+      LOGGER.warn("Could not save snapshot {}", snapshotFile, e);
+    }
+  }
+
+  // the adapters of the snapshot which are still there and capable, e.g. not an unplugged dongle
+  private List<DBusPath> snapshotAdapters(final MonitorSnapshot snapshot) {
+    final List<DBusPath> paths = new ArrayList<>();
+    for (String path : snapshot.getAdapterPaths()) {
+      try {
+        connection.getRemoteObject(BLUEZ_SERVICE_NAME, path, Properties.class).GetAll(adapterInterface());
+        paths.add(new DBusPath(path));
+      } catch (DBusException | RuntimeException e) {
+        LOGGER.warn("Snapshot adapter {} is gone, dropped: {}", path, e.getMessage());
+      }
+    }
+    return paths;
+  }
+
+  // warm start, on the warmup thread: list the bluez objects, then follow adapter changes and drop gone devices
+  private void checkSnapshot() {
+    try {
+      // already listed if none of the snapshot adapters was there
+      ObjectMirror mirror = objects;
+      if (mirror == null) {
+        mirror = new ObjectMirror(connection);
+        mirror.start();
+        objects = mirror;
+      }
+
+      final List<DBusPath> actual = findAdapters(adapterInterface());
+      synchronized (adapterLock) {
+        // stopped meanwhile
+        if (source == null) {
+          return;
+        }
+        if (! pathsOf(actual).equals(pathsOf(adapterPaths))) {
+          LOGGER.warn("Adapters changed since the snapshot: {} instead of {}", pathsOf(actual), pathsOf(adapterPaths));
+          reconcileAdapters(actual);
+        }
+      }
+
+      // the visitor must not call back into the registry
+      final List<Long> gone = new ArrayList<>();
+      final ObjectMirror devices = mirror;
+      registry.forEach((address, firstSeen, lastSeen, rssi, monitorId) -> {
+        if (devices.findDevice(address) == null) {
+          gone.add(address);
+        }
+      });
+      for (long address : gone) {
+        registry.remove(address);
+      }
+      LOGGER.info("Snapshot checked against bluez, {} devices gone", gone.size());
+    } catch (DBusException | IOException | RuntimeException e) {
+      LOGGER.warn("Could not check the snapshot against bluez", e);
+    }
+  }
+
+  // follow the adapters actually there: the gone ones are forgotten, the new ones registered with; holding adapterLock
+  private void reconcileAdapters(final List<DBusPath> actual) throws DBusException, IOException {
+    final List<String> paths = pathsOf(actual);
+    managers.keySet().retainAll(paths);
+    if (! softwareMonitoring) {
+      for (String path : paths) {
+        if (! managers.containsKey(path)) {
+          final AdvertisementMonitorManager1 manager = connection.getRemoteObject(
+              BLUEZ_SERVICE_NAME, path, AdvertisementMonitorManager1.class);
+          manager.RegisterMonitor(appPath);
+          managers.put(path, manager);
+          LOGGER.info("Application {} registered with AdvertisementMonitorManager1 of {}", appPath, path);
+        }
+      }
+    }
+    // the events of new adapters go to the merged ring, see AdapterRings
+    source.close();
+    adapterPaths = actual;
+    startSource(actual);
+  }
+
+  private String adapterInterface() {
+    return softwareMonitoring ? BLUEZ_ADAPTER_IF : ADV_MONITOR_MANAGER_IFACE;
+  }
+
+  // the configuration of a monitor: its patterns, in any order, and RSSI settings
+  private static String monitorKey(final List<AdFilter> filters, final RssiSettings rssiSettings) {
+    final List<String> patterns = new ArrayList<>(filters.size());
+    for (AdFilter f : filters) {
+      final StringBuilder sb = new StringBuilder()
+          .append(f.getPosition() & 0xff).append('/')
+          .append(f.getAdType() & 0xff).append('/');
+      for (int i = 0; i < f.getAdDataLength(); i++) {
+        sb.append(String.format("%02x", f.getAdDataByte(i)));
+      }
+      patterns.add(sb.toString());
+    }
+    Collections.sort(patterns);
+    return rssiSettings + " " + patterns;
+  }
+
+  private static List<String> pathsOf(final List<DBusPath> paths) {
+    final List<String> result = new ArrayList<>(paths.size());
+    for (DBusPath p : paths) {
+      result.add(p.getPath());
+    }
+    return result;
+  }
+
+  private Monitor createMonitor(final List<AdFilter> filters, final RssiSettings rssiSettings) {
+    final int id = lastMonitorId.incrementAndGet();
+    final Monitor monitor = new Monitor(
+      connection, 
+      monitorPath(appId, id), 
+      id,
+      filters,
+      rssiSettings,
+      adapterRings::ringFor,
+      metrics
+    );
+
+    LOGGER.debug("Monitor {} wired", monitor.getObjectPath());
+
+    return monitor;
+  }
+
+  private synchronized void invalidateManagedObjects() {
+    managedObjectsVersion++;
+    managedObjects = null;
+    monitorArray = monitors.values().toArray(new Monitor[0]);
+  }
+
+  private Map<String, Variant<?>> metricsProperties(final String interfaceName) {
+    if (! dbusMetrics || ! MonitorAppMetrics.METRICS_IFACE.equals(interfaceName)) {
+      throw new DBusExecutionException("Invalid interface " + interfaceName);
+    }
+    return metrics.getProperties();
+  }
+
+  private void registerMetrics() {
+    try {
+      metricsName = new ObjectName("com.gpaglia.bt.examples:type=MonitorApp,appId=" + appId);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+    } catch (JMException e) {
+      LOGGER.warn("Could not register metrics with JMX", e);
+      metricsName = null;
+    }
+  }
+
+  private void unregisterMetrics() {
+    if (metricsName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+      } catch (JMException e) {
+        LOGGER.warn("Could not unregister metrics from JMX", e);
+      }
+      metricsName = null;
+    }
+  }
+
+  // all the adapters implementing the interface, in path order
+  private List<DBusPath> findAdapters(final String iface) {
+    final List<String> found = new ArrayList<>(objects.getPaths(iface));
+    Collections.sort(found);
+
+    final List<DBusPath> paths = new ArrayList<>(found.size());
+    for (String path : found) {
+      LOGGER.info("Found adapter {} with {} support, listing its properties ...", path, iface);
+      for (Map.Entry<String, Variant<?>> prop : objects.getProperties(path, iface).entrySet()) {
+        LOGGER.info("\t property >> key: {}, value: {}", prop.getKey(), prop.getValue().toString());
+      }
+      paths.add(new DBusPath(path));
+    }
+    return paths;
+  }
+
+  private void showObjectsAndInterfaces() {
+    // list all paths discovered
+    for (Map.Entry<String, Map<String, Map<String, Variant<?>>>> e : objects.getObjects().entrySet()) {
+      LOGGER.info("\t >> discovered path {}", e.getKey());
 
-      for (String iface: ifaces.keySet()) {
+      for (String iface: e.getValue().keySet()) {
         LOGGER.info("\t\t >> with interface {}", iface);
       }
     }
@@ -0,0 +1,232 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.gpaglia.bt.examples.metrics.LatencyRecorder;
+import com.gpaglia.bt.examples.pipeline.AdapterRings;
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.AdvertisementPublisher;
+import com.gpaglia.bt.examples.pipeline.EventHandler;
+import com.gpaglia.bt.examples.pipeline.EventProcessor;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * Hot path instrumentation of a {@link MonitorApp}: counters, callback and consumer latencies, depths and drops
+ * of the rings, of their consumers and of the publisher subscriptions, per monitor event rates.
+ *
+ * <p>Recording is allocation free (see {@link LatencyRecorder}; counters are {@link LongAdder}s) and safe from any
+ * thread. Readings are exposed through JMX, see {@link MonitorAppMetricsMXBean}, and as D-Bus properties of the
+ * {@link #METRICS_IFACE} interface on the application path.
+ */
+public final class MonitorAppMetrics implements MonitorAppMetricsMXBean {
+  public static final String METRICS_IFACE = "com.gpaglia.bt.AdvertisementMonitorMetrics1";
+
+  /** Shortest window the per monitor rates are computed over. */
+  public static final long RATE_WINDOW_NANOS = 10_000_000_000L;
+
+  private final EventRing ring;
+  private final AdapterRings adapterRings;
+  private final Supplier<Collection<Monitor>> monitors;
+  // null until requested
+  private final Supplier<AdvertisementPublisher> publisher;
+
+  private final LongAdder advertisements = new LongAdder();
+  private final LongAdder devicesFound = new LongAdder();
+  private final LongAdder devicesLost = new LongAdder();
+  private final LatencyRecorder callbackLatency = new LatencyRecorder();
+  private final LatencyRecorder consumerLatency = new LatencyRecorder();
+
+  // per monitor event counts sampled at most once per window, for the rates: a rate runs from the base sample
+  // to the reading, so it always spans at least one window however often it is read; a monitor created after
+  // the base sample counts from its creation
+  private Map<String, Long> baseEvents;
+  private long baseTime;
+  private Map<String, Long> sampleEvents;
+  private long sampleTime;
+
+  /**
+   * @param adapterRings the ingress rings, and the merged ring
+   * @param publisher the publisher, or null while there is none
+   */
+  public MonitorAppMetrics(
+      final AdapterRings adapterRings,
+      final Supplier<Collection<Monitor>> monitors,
+      final Supplier<AdvertisementPublisher> publisher) {
+    this.ring = adapterRings.getMerged();
+    this.adapterRings = adapterRings;
+    this.monitors = monitors;
+    this.publisher = publisher;
+    this.baseTime = System.nanoTime();
+    this.baseEvents = sample();
+    this.sampleTime = baseTime;
+    this.sampleEvents = baseEvents;
+  }
+
+  // recording
+
+  public void advertisementReceived() { advertisements.increment(); }
+
+  public void deviceFound() { devicesFound.increment(); }
+
+  public void deviceLost() { devicesLost.increment(); }
+
+  public LatencyRecorder getCallbackRecorder() { return callbackLatency; }
+
+  public LatencyRecorder getConsumerRecorder() { return consumerLatency; }
+
+  /** Wrap a ring consumer to record the latency of the events it processes. */
+  public EventHandler measuring(final EventHandler downstream) {
+    return new EventHandler() {
+      @Override
+      public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) throws Exception {
+        consumerLatency.recordSince(event.getNanoTime());
+        downstream.onEvent(event, sequence, endOfBatch);
+      }
+
+      @Override
+      public void onTimeout(final long sequence) throws Exception {
+        downstream.onTimeout(sequence);
+      }
+    };
+  }
+
+  // readings
+
+  @Override
+  public long getAdvertisements() { return advertisements.sum(); }
+
+  @Override
+  public long getDevicesFound() { return devicesFound.sum(); }
+
+  @Override
+  public long getDevicesLost() { return devicesLost.sum(); }
+
+  @Override
+  public long getRingDepth() { return ring.getDepth(); }
+
+  @Override
+  public long getRingDrops() { return ring.getDropped(); }
+
+  @Override
+  public Map<String, Long> getConsumerDepths() {
+    final Map<String, Long> depths = new LinkedHashMap<>();
+    for (EventProcessor p : ring.getConsumers()) {
+      depths.put(p.getName(), ring.getDepth(p));
+    }
+    return depths;
+  }
+
+  @Override
+  public Map<String, Long> getAdapterDepths() {
+    final Map<String, Long> depths = new LinkedHashMap<>();
+    for (int i : adapterRings.getAdapters()) {
+      depths.put("hci" + i, adapterRings.getDepth(i));
+    }
+    return depths;
+  }
+
+  @Override
+  public Map<String, Long> getAdapterDrops() {
+    final Map<String, Long> drops = new LinkedHashMap<>();
+    for (int i : adapterRings.getAdapters()) {
+      drops.put("hci" + i, adapterRings.getDropped(i));
+    }
+    return drops;
+  }
+
+  @Override
+  public long getSubscriberDrops() {
+    final AdvertisementPublisher p = publisher.get();
+    return p == null ? 0 : p.getDropped();
+  }
+
+  @Override
+  public Map<String, Long> getSubscriptionDrops() {
+    final Map<String, Long> drops = new LinkedHashMap<>();
+    final AdvertisementPublisher p = publisher.get();
+    if (p != null) {
+      for (AdvertisementPublisher.Subscription s : p.getSubscriptions()) {
+        drops.put(Long.toString(s.getId()), s.getDropped());
+      }
+    }
+    return drops;
+  }
+
+  @Override
+  public Map<String, Long> getCallbackLatency() { return summary(callbackLatency); }
+
+  @Override
+  public Map<String, Long> getConsumerLatency() { return summary(consumerLatency); }
+
+  @Override
+  public synchronized Map<String, Double> getMonitorEventsPerSecond() {
+    final long now = System.nanoTime();
+    final Collection<Monitor> current = monitors.get();
+    final Map<String, Double> rates = new LinkedHashMap<>();
+    for (Monitor m : current) {
+      final Long base = baseEvents.get(m.getObjectPath());
+      final long since = base == null ? m.getCreatedNanoTime() : baseTime;
+      final double seconds = Math.max(1e-9, (now - since) / 1e9);
+      rates.put(m.getObjectPath(), (m.getEventCount() - (base == null ? 0 : base)) / seconds);
+    }
+    if (now - sampleTime >= RATE_WINDOW_NANOS) {
+      baseEvents = sampleEvents;
+      baseTime = sampleTime;
+      sampleEvents = sample();
+      sampleTime = now;
+    }
+    return rates;
+  }
+
+  @Override
+  public void resetLatencies() {
+    callbackLatency.reset();
+    consumerLatency.reset();
+  }
+
+  /** The readings as D-Bus properties: counters as int64, latency percentiles in microseconds. */
+  public Map<String, Variant<?>> getProperties() {
+    final Map<String, Variant<?>> props = new HashMap<>();
+    props.put("Advertisements", new Variant<>(getAdvertisements(), "x"));
+    props.put("DevicesFound", new Variant<>(getDevicesFound(), "x"));
+    props.put("DevicesLost", new Variant<>(getDevicesLost(), "x"));
+    props.put("RingDepth", new Variant<>(getRingDepth(), "x"));
+    props.put("RingDrops", new Variant<>(getRingDrops(), "x"));
+    props.put("ConsumerDepths", new Variant<>(getConsumerDepths(), "a{sx}"));
+    props.put("AdapterDepths", new Variant<>(getAdapterDepths(), "a{sx}"));
+    props.put("AdapterDrops", new Variant<>(getAdapterDrops(), "a{sx}"));
+    props.put("SubscriberDrops", new Variant<>(getSubscriberDrops(), "x"));
+    props.put("SubscriptionDrops", new Variant<>(getSubscriptionDrops(), "a{sx}"));
+    props.put("CallbackLatency", new Variant<>(getCallbackLatency(), "a{sx}"));
+    props.put("ConsumerLatency", new Variant<>(getConsumerLatency(), "a{sx}"));
+    return props;
+  }
+
+  // private methods
+
+  private Map<String, Long> sample() {
+    final Map<String, Long> events = new HashMap<>();
+    for (Monitor m : monitors.get()) {
+      events.put(m.getObjectPath(), m.getEventCount());
+    }
+    return events;
+  }
+
+  private static Map<String, Long> summary(final LatencyRecorder r) {
+    final Map<String, Long> s = new LinkedHashMap<>();
+    s.put("count", r.getCount());
+    s.put("mean", Math.round(r.getMean() / 1000));
+    s.put("p50", r.getValueAtPercentile(50) / 1000);
+    s.put("p99", r.getValueAtPercentile(99) / 1000);
+    s.put("p999", r.getValueAtPercentile(99.9) / 1000);
+    s.put("max", r.getMax() / 1000);
+    return s;
+  }
+}
@@ -0,0 +1,48 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link MonitorAppMetrics}. Latencies are maps of <code>count</code>, <code>mean</code>,
+ * <code>p50</code>, <code>p99</code>, <code>p999</code> and <code>max</code>, in microseconds but the count.
+ */
+public interface MonitorAppMetricsMXBean {
+  long getAdvertisements();
+
+  long getDevicesFound();
+
+  long getDevicesLost();
+
+  long getRingDepth();
+
+  long getRingDrops();
+
+  /** Events published into the ring and not yet processed, per consumer name. */
+  Map<String, Long> getConsumerDepths();
+
+  /** Events waiting in the ingress ring of each adapter with one, by adapter name. */
+  Map<String, Long> getAdapterDepths();
+
+  /** Events dropped by the ingress ring of each adapter with one, by adapter name. */
+  Map<String, Long> getAdapterDrops();
+
+  /** Events dropped by the full buffers of the publisher subscriptions, current or gone. */
+  long getSubscriberDrops();
+
+  /** Events dropped by the full buffer of each current publisher subscription, by subscription id. */
+  Map<String, Long> getSubscriptionDrops();
+
+  /** Time spent in the D-Bus callbacks, from entry to hand over to the ring. */
+  Map<String, Long> getCallbackLatency();
+
+  /** Time from the hand over to the ring to the processing by the registry consumer. */
+  Map<String, Long> getConsumerLatency();
+
+  /**
+   * Found and lost events per second and per monitor path, over at least the last sampling window, or since its
+   * creation for a newer monitor.
+   */
+  Map<String, Double> getMonitorEventsPerSecond();
+
+  void resetLatencies();
+}
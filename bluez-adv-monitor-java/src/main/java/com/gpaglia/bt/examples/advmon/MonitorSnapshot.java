@@ -0,0 +1,230 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+
+/**
+ * The state a {@link MonitorApp} saves on shutdown to warm start from: the monitoring mode, the adapters used, the
+ * monitors and the device registry.
+ *
+ * <p>The file is little endian: magic, version, flags (s32), save time in ms (s64); the adapter paths, count (u16)
+ * then each as length (u16) and UTF-8 bytes; the monitors, count (u16) then each as id (s32), the five RSSI
+ * settings (s16) and the filters, count (u8) then each as position, AD type, data length (u8) and data; the
+ * devices, count (s32) then each as address (s64), first and last seen (s64), rssi (s8) and monitor id (s32), once
+ * per monitor reporting the device.
+ * It is written to a temporary file first, then moved over the previous one.
+ */
+public final class MonitorSnapshot {
+  private static final int MAGIC = 0x53564441; // "ADVS"
+  private static final int VERSION = 1;
+  private static final int F_SOFTWARE = 0x01;
+  private static final int DEVICE_SIZE = 8 + 8 + 8 + 1 + 4;
+
+  /** A monitor as saved: its id at the time, filters and RSSI settings. */
+  public static final class MonitorEntry {
+    private final int id;
+    private final List<AdFilter> filters;
+    private final RssiSettings rssiSettings;
+
+    MonitorEntry(final int id, final List<AdFilter> filters, final RssiSettings rssiSettings) {
+      this.id = id;
+      this.filters = List.copyOf(filters);
+      this.rssiSettings = rssiSettings;
+    }
+
+    public int getId() { return id; }
+
+    public List<AdFilter> getFilters() { return filters; }
+
+    public RssiSettings getRssiSettings() { return rssiSettings; }
+  }
+
+  private final boolean softwareMonitoring;
+  private final long savedAt;
+  private final List<String> adapterPaths;
+  private final List<MonitorEntry> monitors;
+  // the devices, still encoded
+  private final ByteBuffer devices;
+  private final int deviceCount;
+
+  private MonitorSnapshot(
+      final boolean softwareMonitoring,
+      final long savedAt,
+      final List<String> adapterPaths,
+      final List<MonitorEntry> monitors,
+      final ByteBuffer devices,
+      final int deviceCount) {
+    this.softwareMonitoring = softwareMonitoring;
+    this.savedAt = savedAt;
+    this.adapterPaths = adapterPaths;
+    this.monitors = monitors;
+    this.devices = devices;
+    this.deviceCount = deviceCount;
+  }
+
+  public boolean isSoftwareMonitoring() { return softwareMonitoring; }
+
+  /** When the snapshot was saved, in epoch milliseconds. */
+  public long getSavedAt() { return savedAt; }
+
+  public List<String> getAdapterPaths() { return adapterPaths; }
+
+  /** In id order. */
+  public List<MonitorEntry> getMonitors() { return monitors; }
+
+  /** The number of devices saved, counted once per monitor reporting them. */
+  public int getDeviceCount() { return deviceCount; }
+
+  /**
+   * Put the saved devices back in a registry.
+   *
+   * @param monitorIds the current id of a saved monitor id, or -1 to skip its devices
+   * @param notBefore devices last seen before this time, in epoch milliseconds, are skipped
+   * @return the number of devices restored, counted once per monitor reporting them
+   */
+  public int restore(final DeviceRegistry registry, final IntUnaryOperator monitorIds, final long notBefore) {
+    int n = 0;
+    for (int i = 0; i < deviceCount; i++) {
+      final int p = i * DEVICE_SIZE;
+      final long lastSeen = devices.getLong(p + 16);
+      final int monitorId = monitorIds.applyAsInt(devices.getInt(p + 25));
+      if (lastSeen < notBefore || monitorId < 0) {
+        continue;
+      }
+      final long address = devices.getLong(p);
+      registry.deviceFound(address, monitorId, devices.getLong(p + 8));
+      registry.deviceSeen(address, devices.get(p + 24), lastSeen);
+      n++;
+    }
+    return n;
+  }
+
+  /** Save a snapshot, replacing the file atomically. */
+  public static void save(
+      final Path file,
+      final boolean softwareMonitoring,
+      final List<String> adapterPaths,
+      final Collection<Monitor> monitors,
+      final DeviceRegistry registry) throws IOException {
+    final List<Monitor> sorted = new ArrayList<>(monitors);
+    sorted.sort((a, b) -> Integer.compare(a.getMonitorId(), b.getMonitorId()));
+    final List<byte[]> paths = new ArrayList<>(adapterPaths.size());
+    int size = 4 + 4 + 4 + 8 + 2 + 2 + 4;
+    for (String p : adapterPaths) {
+      final byte[] b = p.getBytes(StandardCharsets.UTF_8);
+      paths.add(b);
+      size += 2 + b.length;
+    }
+    for (Monitor m : sorted) {
+      size += 4 + 5 * 2 + 1;
+      for (AdFilter f : m.getFilters()) {
+        size += 3 + f.getAdDataLength();
+      }
+    }
+    // the registry may change until it is visited: leave room for some more devices
+    final int devices = registry.getReportCount();
+    final ByteBuffer b = ByteBuffer.allocate(size + (devices + devices / 4 + 64) * DEVICE_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    b.putInt(MAGIC).putInt(VERSION).putInt(softwareMonitoring ? F_SOFTWARE : 0).putLong(System.currentTimeMillis());
+    b.putShort((short) paths.size());
+    for (byte[] p : paths) {
+      b.putShort((short) p.length).put(p);
+    }
+    b.putShort((short) sorted.size());
+    for (Monitor m : sorted) {
+      final RssiSettings r = m.getRssiSettings();
+      b.putInt(m.getMonitorId())
+          .putShort((short) r.getLowThreshold())
+          .putShort((short) r.getHighThreshold())
+          .putShort((short) r.getLowTimeout())
+          .putShort((short) r.getHighTimeout())
+          .putShort((short) r.getSamplingPeriod())
+          .put((byte) m.getFilters().size());
+      for (AdFilter f : m.getFilters()) {
+        b.put(f.getPosition()).put(f.getAdType()).put((byte) f.getAdDataLength()).put(f.getAdData());
+      }
+    }
+    final int countPosition = b.position();
+    b.putInt(0);
+    final int[] count = new int[1];
+    registry.forEachReport((address, firstSeen, lastSeen, rssi, monitorId) -> {
+      if (b.remaining() >= DEVICE_SIZE) {
+        b.putLong(address).putLong(firstSeen).putLong(lastSeen).put((byte) rssi).putInt(monitorId);
+        count[0]++;
+      }
+    });
+    b.putInt(countPosition, count[0]);
+    b.flip();
+
+    final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (b.hasRemaining()) {
+        channel.write(b);
+      }
+      channel.force(false);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Read a snapshot; fails if the file does not exist or is not a valid snapshot. */
+  public static MonitorSnapshot load(final Path file) throws IOException {
+    final ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+        throw new IOException("Not a version " + VERSION + " monitor snapshot: " + file);
+      }
+      final boolean software = (b.getInt() & F_SOFTWARE) != 0;
+      final long savedAt = b.getLong();
+
+      final int pathCount = b.getShort() & 0xffff;
+      final List<String> paths = new ArrayList<>(pathCount);
+      for (int i = 0; i < pathCount; i++) {
+        final byte[] p = new byte[b.getShort() & 0xffff];
+        b.get(p);
+        paths.add(new String(p, StandardCharsets.UTF_8));
+      }
+
+      final int monitorCount = b.getShort() & 0xffff;
+      final List<MonitorEntry> monitors = new ArrayList<>(monitorCount);
+      for (int i = 0; i < monitorCount; i++) {
+        final int id = b.getInt();
+        final RssiSettings rssi = new RssiSettings(b.getShort(), b.getShort(), b.getShort(), b.getShort(), b.getShort());
+        final int filterCount = b.get() & 0xff;
+        final List<AdFilter> filters = new ArrayList<>(filterCount);
+        for (int f = 0; f < filterCount; f++) {
+          final byte position = b.get();
+          final byte adType = b.get();
+          final byte[] data = new byte[b.get() & 0xff];
+          b.get(data);
+          filters.add(new AdFilter(position, adType, data));
+        }
+        monitors.add(new MonitorEntry(id, filters, rssi));
+      }
+
+      final int deviceCount = b.getInt();
+      if (deviceCount < 0 || (long) deviceCount * DEVICE_SIZE > b.remaining()) {
+        throw new IOException("Truncated monitor snapshot: " + file);
+      }
+      final ByteBuffer devices = b.slice().order(ByteOrder.LITTLE_ENDIAN);
+      return new MonitorSnapshot(software, savedAt, List.copyOf(paths), List.copyOf(monitors), devices, deviceCount);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Corrupted monitor snapshot: " + file, e);
+    }
+  }
+}
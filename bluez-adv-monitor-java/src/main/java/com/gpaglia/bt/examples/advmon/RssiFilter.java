@@ -0,0 +1,197 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.Arrays;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.util.LongSlotIndex;
+import com.gpaglia.bt.examples.util.TimerWheel;
+
+/**
+ * Per-device RSSI hysteresis of a monitor, evaluated in the application when the controller cannot offload it.
+ *
+ * <p>Follows the bluez state machine: a device not yet found becomes found once its RSSI has been at or above the
+ * high threshold for the high timeout; a found device is lost once its RSSI has been at or below the low threshold
+ * for the low timeout, or when it has not been heard for the low timeout (see {@link #expire(long, Listener)}).
+ * While a device is found, advertisements are reported at most once per sampling period.
+ *
+ * <p>State is kept in primitive arrays indexed by a {@link LongSlotIndex}; the last seen deadlines are kept in a
+ * {@link TimerWheel}, re-armed in O(1) by every advertisement. Not thread safe: drive it from one thread, e.g. a
+ * ring consumer.
+ */
+public final class RssiFilter {
+  /** Resolution of the last seen timeouts. */
+  public static final long EXPIRY_TICK = 100; // in ms
+
+  public static final int NONE = 0;
+  public static final int FOUND = 1;
+  public static final int LOST = 2;
+  /** A found device's advertisement passing the sampling period. */
+  public static final int REPORT = 3;
+
+  // the RSSI is not currently beyond the threshold: on a monotonic clock, 0 is a valid time
+  private static final long UNSET = Long.MIN_VALUE;
+
+  private final RssiSettings settings;
+  private final int lowThreshold;
+  private final int highThreshold;
+  private final long lowTimeout;
+  private final long highTimeout;
+  private final long samplingPeriod;
+  private final boolean samplingOnce;
+  private final boolean unfiltered;
+  private final int expectedDevices;
+
+  private final LongSlotIndex index;
+  private boolean[] found;
+  // UNSET when the RSSI is not currently beyond the threshold
+  private long[] highSince;
+  private long[] lowSince;
+  private long[] lastReported;
+  // created with the first advertisement, whose time is the origin of its ticks
+  private TimerWheel lastSeen;
+
+  public RssiFilter(final RssiSettings settings) {
+    this(settings, 64);
+  }
+
+  public RssiFilter(final RssiSettings settings, final int expectedDevices) {
+    this.settings = settings;
+    this.lowThreshold = settings.effectiveLowThreshold();
+    this.highThreshold = settings.effectiveHighThreshold();
+    this.lowTimeout = settings.effectiveLowTimeoutMillis();
+    this.highTimeout = settings.effectiveHighTimeoutMillis();
+    this.samplingPeriod = settings.effectiveSamplingMillis();
+    this.samplingOnce = settings.getSamplingPeriod() == RssiSettings.SAMPLING_ONCE;
+    this.unfiltered = settings.isUnset();
+    this.index = new LongSlotIndex(expectedDevices);
+    this.found = new boolean[expectedDevices];
+    this.highSince = new long[expectedDevices];
+    this.lowSince = new long[expectedDevices];
+    this.expectedDevices = expectedDevices;
+    this.lastReported = new long[expectedDevices];
+  }
+
+  public RssiSettings getSettings() { return settings; }
+
+  public int getTrackedDevices() { return index.size(); }
+
+  public boolean isTracked(final long address) {
+    return index.get(address) != LongSlotIndex.NO_SLOT;
+  }
+
+  public boolean isFound(final long address) {
+    final int slot = index.get(address);
+    return slot != LongSlotIndex.NO_SLOT && found[slot];
+  }
+
+  /**
+   * Feed an advertisement matching the monitor's patterns.
+   *
+   * @param rssi the advertisement's RSSI, or {@link DeviceRegistry#RSSI_UNKNOWN}, which only refreshes the
+   *     last seen time unless the settings are unset
+   * @param now in milliseconds, from a monotonic or wall clock used consistently
+   * @return {@link #FOUND}, {@link #LOST}, {@link #REPORT} or {@link #NONE}
+   */
+  public int onAdvertisement(final long address, final int rssi, final long now) {
+    final int before = index.size();
+    final int slot = index.add(address);
+    if (index.size() > before) {
+      ensureCapacity(slot);
+      found[slot] = false;
+      highSince[slot] = UNSET;
+      lowSince[slot] = UNSET;
+      lastReported[slot] = 0;
+    }
+    if (lastSeen == null) {
+      lastSeen = new TimerWheel(EXPIRY_TICK, now, expectedDevices);
+    }
+    lastSeen.schedule(address, now + lowTimeout);
+    if (rssi == DeviceRegistry.RSSI_UNKNOWN && ! unfiltered) {
+      return NONE;
+    }
+    final int value = rssi == DeviceRegistry.RSSI_UNKNOWN ? RssiSettings.MAX_RSSI : rssi;
+
+    if (! found[slot]) {
+      if (value >= highThreshold) {
+        if (highSince[slot] == UNSET) {
+          highSince[slot] = now;
+        }
+        if (now - highSince[slot] >= highTimeout) {
+          found[slot] = true;
+          lowSince[slot] = UNSET;
+          lastReported[slot] = now;
+          return FOUND;
+        }
+      } else {
+        highSince[slot] = UNSET;
+      }
+      return NONE;
+    }
+
+    if (value <= lowThreshold) {
+      if (lowSince[slot] == UNSET) {
+        lowSince[slot] = now;
+      }
+      if (now - lowSince[slot] >= lowTimeout) {
+        found[slot] = false;
+        highSince[slot] = UNSET;
+        return LOST;
+      }
+    } else {
+      lowSince[slot] = UNSET;
+    }
+
+    if (! samplingOnce && now - lastReported[slot] >= samplingPeriod) {
+      lastReported[slot] = now;
+      return REPORT;
+    }
+    return NONE;
+  }
+
+  /**
+   * Drop the devices not heard for the low timeout, reporting the found ones as lost.
+   *
+   * @return the number of devices lost
+   */
+  public int expire(final long now, final Listener listener) {
+    if (lastSeen == null) {
+      return 0;
+    }
+    final int[] lost = { 0 };
+    lastSeen.advance(now, address -> {
+      final int slot = index.remove(address);
+      if (slot != LongSlotIndex.NO_SLOT && found[slot]) {
+        listener.deviceLost(address);
+        lost[0]++;
+      }
+    });
+    return lost[0];
+  }
+
+  /** Forget a device; returns true if it was found. */
+  public boolean remove(final long address) {
+    final int slot = index.remove(address);
+    if (slot == LongSlotIndex.NO_SLOT) {
+      return false;
+    }
+    lastSeen.cancel(address);
+    return found[slot];
+  }
+
+  @FunctionalInterface
+  public interface Listener {
+    void deviceLost(long address);
+  }
+
+  // private methods
+
+  private void ensureCapacity(final int slot) {
+    if (slot >= found.length) {
+      final int n = Math.max(slot + 1, found.length << 1);
+      found = Arrays.copyOf(found, n);
+      highSince = Arrays.copyOf(highSince, n);
+      lowSince = Arrays.copyOf(lowSince, n);
+      lastReported = Arrays.copyOf(lastReported, n);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.Map;
+
+import org.freedesktop.dbus.types.UInt16;
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * The optional RSSI properties of <code>org.bluez.AdvertisementMonitor1</code>, with the ranges, unset markers
+ * and defaults used by bluez.
+ *
+ * <p>A device is found when its RSSI stays at or above the high threshold for the high timeout, and lost when it
+ * stays at or below the low threshold, or is not heard at all, for the low timeout. Thresholds are in dBm, timeouts
+ * in seconds, the sampling period in units of 100 ms.
+ */
+public final class RssiSettings {
+  public static final int UNSET_RSSI = 127;
+  public static final int MIN_RSSI = -127;
+  public static final int MAX_RSSI = 20;
+  public static final int UNSET_TIMEOUT = 0;
+  public static final int MAX_TIMEOUT = 300;
+  public static final int DEFAULT_LOW_TIMEOUT = 5;
+  public static final int DEFAULT_HIGH_TIMEOUT = 10;
+  public static final int UNSET_SAMPLING_PERIOD = 256;
+  public static final int MAX_SAMPLING_PERIOD = 255;
+  /** Sampling period reporting only the first advertisement of a found device. */
+  public static final int SAMPLING_ONCE = 255;
+
+  /** No RSSI filtering: devices are found on their first matching advertisement. */
+  public static final RssiSettings UNSET = new RssiSettings(
+      UNSET_RSSI, UNSET_RSSI, UNSET_TIMEOUT, UNSET_TIMEOUT, UNSET_SAMPLING_PERIOD
+  );
+
+  private final int lowThreshold;
+  private final int highThreshold;
+  private final int lowTimeout;
+  private final int highTimeout;
+  private final int samplingPeriod;
+
+  public RssiSettings(
+      final int lowThreshold,
+      final int highThreshold,
+      final int lowTimeout,
+      final int highTimeout,
+      final int samplingPeriod) {
+    checkRssi("RSSILowThreshold", lowThreshold);
+    checkRssi("RSSIHighThreshold", highThreshold);
+    checkRange("RSSILowTimeout", lowTimeout, UNSET_TIMEOUT, MAX_TIMEOUT);
+    checkRange("RSSIHighTimeout", highTimeout, UNSET_TIMEOUT, MAX_TIMEOUT);
+    if (samplingPeriod != UNSET_SAMPLING_PERIOD) {
+      checkRange("RSSISamplingPeriod", samplingPeriod, 0, MAX_SAMPLING_PERIOD);
+    }
+    if (lowThreshold != UNSET_RSSI && highThreshold != UNSET_RSSI && lowThreshold > highThreshold) {
+      throw new IllegalArgumentException("RSSILowThreshold cannot be above RSSIHighThreshold");
+    }
+    this.lowThreshold = lowThreshold;
+    this.highThreshold = highThreshold;
+    this.lowTimeout = lowTimeout;
+    this.highTimeout = highTimeout;
+    this.samplingPeriod = samplingPeriod;
+  }
+
+  public int getLowThreshold() { return lowThreshold; }
+
+  public int getHighThreshold() { return highThreshold; }
+
+  public int getLowTimeout() { return lowTimeout; }
+
+  public int getHighTimeout() { return highTimeout; }
+
+  public int getSamplingPeriod() { return samplingPeriod; }
+
+  public boolean isUnset() {
+    return lowThreshold == UNSET_RSSI && highThreshold == UNSET_RSSI;
+  }
+
+  // effective values, unset ones replaced by the bluez defaults
+
+  int effectiveLowThreshold() { return lowThreshold == UNSET_RSSI ? MIN_RSSI : lowThreshold; }
+
+  int effectiveHighThreshold() { return highThreshold == UNSET_RSSI ? MIN_RSSI : highThreshold; }
+
+  long effectiveLowTimeoutMillis() { return 1000L * (lowTimeout == UNSET_TIMEOUT ? DEFAULT_LOW_TIMEOUT : lowTimeout); }
+
+  long effectiveHighTimeoutMillis() {
+    return isUnset() ? 0 : 1000L * (highTimeout == UNSET_TIMEOUT ? DEFAULT_HIGH_TIMEOUT : highTimeout);
+  }
+
+  long effectiveSamplingMillis() { return samplingPeriod == UNSET_SAMPLING_PERIOD ? 0 : 100L * samplingPeriod; }
+
+  /** Add the properties that are set to a monitor's property map. */
+  void putProperties(final Map<String, Variant<?>> properties) {
+    if (lowThreshold != UNSET_RSSI) {
+      properties.put("RSSILowThreshold", new Variant<Short>((short) lowThreshold, "n"));
+    }
+    if (highThreshold != UNSET_RSSI) {
+      properties.put("RSSIHighThreshold", new Variant<Short>((short) highThreshold, "n"));
+    }
+    if (lowTimeout != UNSET_TIMEOUT) {
+      properties.put("RSSILowTimeout", new Variant<UInt16>(new UInt16(lowTimeout), "q"));
+    }
+    if (highTimeout != UNSET_TIMEOUT) {
+      properties.put("RSSIHighTimeout", new Variant<UInt16>(new UInt16(highTimeout), "q"));
+    }
+    if (samplingPeriod != UNSET_SAMPLING_PERIOD) {
+      properties.put("RSSISamplingPeriod", new Variant<UInt16>(new UInt16(samplingPeriod), "q"));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RssiSettings{low=" + lowThreshold + "dBm/" + lowTimeout + "s"
+        + ", high=" + highThreshold + "dBm/" + highTimeout + "s"
+        + ", sampling=" + samplingPeriod
+        + '}';
+  }
+
+  // private methods
+
+  private static void checkRssi(final String name, final int value) {
+    if (value != UNSET_RSSI) {
+      checkRange(name, value, MIN_RSSI, MAX_RSSI);
+    }
+  }
+
+  private static void checkRange(final String name, final int value, final int min, final int max) {
+    if (value < min || value > max) {
+      throw new IllegalArgumentException(name + " out of range [" + min + ", " + max + "]: " + value);
+    }
+  }
+}
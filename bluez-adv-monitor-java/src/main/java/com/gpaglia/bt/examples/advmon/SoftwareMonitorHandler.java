@@ -0,0 +1,98 @@
+package com.gpaglia.bt.examples.advmon;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventHandler;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ring consumer doing in the application what bluez does for offloaded monitors: advertisements are matched
+ * against each monitor's patterns and fed to its {@link RssiFilter}; the resulting found and lost transitions are
+ * published back into the ring as {@link AdvertisementEvent}s carrying the monitor id, as bluetoothd's DeviceFound
+ * and DeviceLost would be, so that every consumer sees them.
+ *
+ * <p>Advertisements without payload (RSSI only updates) are attributed to the monitors already tracking the
+ * device. Devices not heard for the low timeout are expired on batch ends and on consumer timeouts, at most once
+ * per {@link #EXPIRY_PERIOD} ms. The transitions are evaluated on the deduplicated stream, so they are published
+ * without adapter index; like any producer, they are dropped and counted when the ring is full.
+ */
+final class SoftwareMonitorHandler implements EventHandler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SoftwareMonitorHandler.class);
+
+  static final long EXPIRY_PERIOD = RssiFilter.EXPIRY_TICK; // in ms
+
+  private final MonitorApp app;
+  private final EventRing ring;
+  private long lastExpiry;
+
+  SoftwareMonitorHandler(final MonitorApp app, final EventRing ring) {
+    this.app = app;
+    this.ring = ring;
+  }
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) {
+    if (event.getKind() == AdvertisementEvent.Kind.ADVERTISEMENT) {
+      final long address = event.getAddress();
+      final int length = event.getPayloadLength();
+      for (Monitor m : app.monitorArray()) {
+        final RssiFilter filter = m.getRssiFilter();
+        final boolean match = length == 0 ? filter.isTracked(address) : m.matches(event.getPayload(), 0, length);
+        if (match) {
+          switch (filter.onAdvertisement(address, event.getRssi(), event.getTimestamp())) {
+            case RssiFilter.FOUND:
+              publish(AdvertisementEvent.Kind.FOUND, address, event.getRssi(), event.getTimestamp(), m);
+              break;
+            case RssiFilter.LOST:
+              publish(AdvertisementEvent.Kind.LOST, address, event.getRssi(), event.getTimestamp(), m);
+              break;
+            default:
+              // sampled reports: the advertisements themselves are in the ring already
+              break;
+          }
+        }
+      }
+    }
+    if (endOfBatch) {
+      expire();
+    }
+  }
+
+  @Override
+  public void onTimeout(final long sequence) {
+    expire();
+  }
+
+  // private methods
+
+  private void publish(
+      final AdvertisementEvent.Kind kind, final long address, final int rssi, final long timestamp, final Monitor m) {
+    final long seq = ring.tryNext();
+    if (seq == EventRing.NO_SEQUENCE) {
+      LOGGER.debug("Ring full, dropped {} for device {}", kind, MacAddress.toString(address));
+      return;
+    }
+    ring.get(seq)
+        .set(kind, address, m.getMonitorId())
+        .setRssi(rssi)
+        .setTimestamp(timestamp);
+    ring.publish(seq);
+    m.eventPublished(kind);
+  }
+
+  private void expire() {
+    final long now = System.currentTimeMillis();
+    if (now - lastExpiry < EXPIRY_PERIOD) {
+      return;
+    }
+    lastExpiry = now;
+    for (Monitor m : app.monitorArray()) {
+      m.getRssiFilter().expire(now,
+          address -> publish(AdvertisementEvent.Kind.LOST, address, DeviceRegistry.RSSI_UNKNOWN, now, m));
+    }
+  }
+}
@@ -0,0 +1,310 @@
+package com.gpaglia.bt.examples.bluez;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.ObjectManager;
+import org.freedesktop.dbus.interfaces.Properties;
+import org.freedesktop.dbus.messages.DBusSignal;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local mirror of the objects managed by bluetoothd: seeded with a single GetManagedObjects call, then kept current
+ * with the InterfacesAdded, InterfacesRemoved and PropertiesChanged signals, so that lookups never go to the bus.
+ *
+ * <p>Besides the objects (path, interface, properties) the mirror indexes the paths by interface and the adapters
+ * and devices by their 48 bit address, see {@link MacAddress}; all lookups are O(1), but {@link #findAdapter(String)}
+ * which scans the (few) adapters.
+ *
+ * <p>Updates are serialized, reads are lock free and thread safe; the maps returned are unmodifiable live views.
+ * Signals received while seeding are queued and applied on top of the seed, in order. Only the signals sent by the
+ * current owner of {@link #BLUEZ_SERVICE_NAME} are applied, not those of other services on the bus.
+ */
+public final class ObjectMirror implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ObjectMirror.class);
+
+  public static final String BLUEZ_SERVICE_NAME = "org.bluez";
+  public static final String ADAPTER_IFACE = BLUEZ_SERVICE_NAME + ".Adapter1";
+  public static final String DEVICE_IFACE = BLUEZ_SERVICE_NAME + ".Device1";
+
+  private static final String ROOT_PATH = "/";
+
+  private final DBusConnection connection;
+  private final ServiceOwner bluez;
+
+  // path -> interface -> property -> value
+  private final Map<String, Map<String, Map<String, Variant<?>>>> objects = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> byInterface = new ConcurrentHashMap<>();
+  private final Map<Long, String> adapters = new ConcurrentHashMap<>();
+  private final Map<Long, String> devices = new ConcurrentHashMap<>();
+  // told of the device paths indexed, once mirrored
+  private final List<Consumer<String>> deviceListeners = new CopyOnWriteArrayList<>();
+
+  private final DBusSigHandler<ObjectManager.InterfacesAdded> added = s -> submit(s, () -> interfacesAdded(s));
+  private final DBusSigHandler<ObjectManager.InterfacesRemoved> removed = s -> submit(s, () -> interfacesRemoved(s));
+  private final DBusSigHandler<Properties.PropertiesChanged> changed = s -> submit(s, () -> propertiesChanged(s));
+
+  // signals received while seeding, null once seeded
+  private List<Runnable> pending;
+  private boolean started;
+
+  public ObjectMirror(final DBusConnection connection) {
+    this.connection = connection;
+    this.bluez = new ServiceOwner(connection, BLUEZ_SERVICE_NAME);
+  }
+
+  /** Subscribe to the signals, then seed the mirror with the objects of bluetoothd. */
+  public void start() throws DBusException {
+    synchronized (this) {
+      if (started) {
+        throw new IllegalStateException("Mirror already started");
+      }
+      started = true;
+      pending = new ArrayList<>();
+    }
+    bluez.start();
+    connection.addSigHandler(ObjectManager.InterfacesAdded.class, added);
+    connection.addSigHandler(ObjectManager.InterfacesRemoved.class, removed);
+    connection.addSigHandler(Properties.PropertiesChanged.class, changed);
+
+    final ObjectManager om = connection.getRemoteObject(BLUEZ_SERVICE_NAME, ROOT_PATH, ObjectManager.class);
+    final Map<DBusPath, Map<String, Map<String, Variant<?>>>> seed = om.GetManagedObjects();
+
+    synchronized (this) {
+      for (Map.Entry<DBusPath, Map<String, Map<String, Variant<?>>>> e : seed.entrySet()) {
+        addInterfaces(e.getKey().getPath(), e.getValue());
+      }
+      for (Runnable r : pending) {
+        r.run();
+      }
+      LOGGER.info("Mirror seeded with {} objects, {} signals queued meanwhile", seed.size(), pending.size());
+      pending = null;
+    }
+  }
+
+  /** Unsubscribe from the signals; the mirror is then frozen. */
+  @Override
+  public void close() {
+    try {
+      connection.removeSigHandler(ObjectManager.InterfacesAdded.class, added);
+      connection.removeSigHandler(ObjectManager.InterfacesRemoved.class, removed);
+      connection.removeSigHandler(Properties.PropertiesChanged.class, changed);
+      bluez.close();
+    } catch (DBusException e) {
+      LOGGER.warn("Could not remove the mirror signal handlers", e);
+    }
+  }
+
+  /**
+   * Be told of the path of each device indexed by address from now on, once it can be looked up; called with
+   * updates serialized, it must not block.
+   */
+  public void addDeviceListener(final Consumer<String> listener) { deviceListeners.add(listener); }
+
+  public void removeDeviceListener(final Consumer<String> listener) { deviceListeners.remove(listener); }
+
+  public int size() { return objects.size(); }
+
+  public boolean contains(final String path) { return objects.containsKey(path); }
+
+  /** All the objects, by path. */
+  public Map<String, Map<String, Map<String, Variant<?>>>> getObjects() {
+    return Collections.unmodifiableMap(objects);
+  }
+
+  /** The interfaces of an object with their properties, or null if unknown. */
+  public Map<String, Map<String, Variant<?>>> getInterfaces(final String path) {
+    final Map<String, Map<String, Variant<?>>> ifaces = objects.get(path);
+    return ifaces == null ? null : Collections.unmodifiableMap(ifaces);
+  }
+
+  /** The properties of an object interface, or null if the object does not implement it. */
+  public Map<String, Variant<?>> getProperties(final String path, final String iface) {
+    final Map<String, Map<String, Variant<?>>> ifaces = objects.get(path);
+    final Map<String, Variant<?>> props = ifaces == null ? null : ifaces.get(iface);
+    return props == null ? null : Collections.unmodifiableMap(props);
+  }
+
+  /** The value of a property, or null if unknown. */
+  public Object getProperty(final String path, final String iface, final String name) {
+    final Map<String, Variant<?>> props = getProperties(path, iface);
+    final Variant<?> v = props == null ? null : props.get(name);
+    return v == null ? null : v.getValue();
+  }
+
+  /** The paths of the objects implementing an interface. */
+  public Set<String> getPaths(final String iface) {
+    final Set<String> paths = byInterface.get(iface);
+    return paths == null ? Set.of() : Collections.unmodifiableSet(paths);
+  }
+
+  /** The path of any object implementing an interface, or null. */
+  public String findFirst(final String iface) {
+    final Set<String> paths = byInterface.get(iface);
+    if (paths != null) {
+      for (String p : paths) {
+        return p;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The path of the adapter with the given address (case insensitive) or whose path ends with the pattern, e.g.
+   * <code>hci1</code>; any adapter if the pattern is null. Returns null if none matches.
+   */
+  public String findAdapter(final String pattern) {
+    if (pattern == null) {
+      return findFirst(ADAPTER_IFACE);
+    }
+    final long address = MacAddress.parse(pattern);
+    if (address != MacAddress.INVALID) {
+      return adapters.get(address);
+    }
+    for (String p : getPaths(ADAPTER_IFACE)) {
+      if (p.endsWith(pattern)) {
+        return p;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The path of a device, or null if unknown. A device known to several adapters is found on the adapter which
+   * reported it last, see {@link #findDevice(String, long)}.
+   */
+  public String findDevice(final long address) { return devices.get(address); }
+
+  /** As {@link #findDevice(long)}, with the textual address; null if malformed. */
+  public String findDevice(final String address) {
+    final long a = MacAddress.parse(address);
+    return a == MacAddress.INVALID ? null : devices.get(a);
+  }
+
+  /** The path of a device as known to an adapter, or null. */
+  public String findDevice(final String adapterPath, final long address) {
+    final String path = MacAddress.toDevicePath(adapterPath, address);
+    return getProperties(path, DEVICE_IFACE) == null ? null : path;
+  }
+
+  // private methods
+
+  private void submit(final DBusSignal signal, final Runnable update) {
+    if (bluez.sent(signal)) {
+      submit(update);
+    }
+  }
+
+  private synchronized void submit(final Runnable update) {
+    if (pending != null) {
+      pending.add(update);
+    } else {
+      update.run();
+    }
+  }
+
+  private void interfacesAdded(final ObjectManager.InterfacesAdded s) {
+    // dbus-java names the object the signal source, getObjectPath() is the path of the message
+    if (ROOT_PATH.equals(s.getPath())) {
+      addInterfaces(s.getSignalSource().getPath(), s.getInterfaces());
+    }
+  }
+
+  private void interfacesRemoved(final ObjectManager.InterfacesRemoved s) {
+    if (! ROOT_PATH.equals(s.getPath())) {
+      return;
+    }
+    final String path = s.getSignalSource().getPath();
+    final Map<String, Map<String, Variant<?>>> ifaces = objects.get(path);
+    if (ifaces == null) {
+      return;
+    }
+    for (String iface : s.getInterfaces()) {
+      final Map<String, Variant<?>> props = ifaces.remove(iface);
+      if (props != null) {
+        unindex(path, iface, props);
+      }
+    }
+    if (ifaces.isEmpty()) {
+      objects.remove(path);
+    }
+  }
+
+  // only objects already mirrored are updated: properties of our own objects are ignored
+  private void propertiesChanged(final Properties.PropertiesChanged s) {
+    final Map<String, Map<String, Variant<?>>> ifaces = objects.get(s.getPath());
+    final Map<String, Variant<?>> props = ifaces == null ? null : ifaces.get(s.getInterfaceName());
+    if (props == null) {
+      return;
+    }
+    props.putAll(s.getPropertiesChanged());
+    for (String name : s.getPropertiesRemoved()) {
+      props.remove(name);
+    }
+    if (s.getPropertiesChanged().containsKey("Address")) {
+      index(s.getPath(), s.getInterfaceName(), props);
+    }
+  }
+
+  private void addInterfaces(final String path, final Map<String, Map<String, Variant<?>>> added) {
+    final Map<String, Map<String, Variant<?>>> ifaces = objects.computeIfAbsent(path, p -> new ConcurrentHashMap<>());
+    for (Map.Entry<String, Map<String, Variant<?>>> e : added.entrySet()) {
+      final Map<String, Variant<?>> props = new ConcurrentHashMap<>(e.getValue());
+      ifaces.put(e.getKey(), props);
+      byInterface.computeIfAbsent(e.getKey(), i -> ConcurrentHashMap.newKeySet()).add(path);
+      index(path, e.getKey(), props);
+    }
+  }
+
+  private void index(final String path, final String iface, final Map<String, Variant<?>> props) {
+    final Map<Long, String> byAddress = addressIndex(iface);
+    final long address = address(props);
+    if (byAddress != null && address != MacAddress.INVALID) {
+      byAddress.put(address, path);
+      if (byAddress == devices) {
+        for (Consumer<String> l : deviceListeners) {
+          l.accept(path);
+        }
+      }
+    }
+  }
+
+  private void unindex(final String path, final String iface, final Map<String, Variant<?>> props) {
+    final Set<String> paths = byInterface.get(iface);
+    if (paths != null) {
+      paths.remove(path);
+    }
+    final Map<Long, String> byAddress = addressIndex(iface);
+    final long address = address(props);
+    if (byAddress != null && address != MacAddress.INVALID) {
+      // unless another adapter reported it since
+      byAddress.remove(address, path);
+    }
+  }
+
+  private Map<Long, String> addressIndex(final String iface) {
+    if (DEVICE_IFACE.equals(iface)) {
+      return devices;
+    }
+    return ADAPTER_IFACE.equals(iface) ? adapters : null;
+  }
+
+  private static long address(final Map<String, Variant<?>> props) {
+    final Variant<?> v = props.get("Address");
+    return v == null || ! (v.getValue() instanceof String) ? MacAddress.INVALID : MacAddress.parse((String) v.getValue());
+  }
+}
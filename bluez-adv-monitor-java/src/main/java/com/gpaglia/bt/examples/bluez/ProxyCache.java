@@ -0,0 +1,175 @@
+package com.gpaglia.bt.examples.bluez;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusInterface;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.ObjectManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of the remote object proxies of a service, keyed by object path and interface class: creating a
+ * proxy with {@link DBusConnection#getRemoteObject(String, String, Class)} is reflective and slow.
+ *
+ * <p>Least recently used proxies are evicted beyond the maximum size, and proxies older than the maximum age are
+ * created again. Once started, the proxies of an object and of its children are dropped when the service removes
+ * the object (InterfacesRemoved on <code>/</code>, from the current owner of the bus name). All methods are thread
+ * safe; proxies are created outside of the lock, so concurrent misses on the same key may create it twice, the last
+ * one is kept.
+ */
+public final class ProxyCache implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProxyCache.class);
+
+  private static final String ROOT_PATH = "/";
+
+  private final DBusConnection connection;
+  private final String busName;
+  private final ServiceOwner service;
+  private final int maxSize;
+  private final long maxAge; // in ms
+
+  // access ordered: the eldest entry is the least recently used
+  private final LinkedHashMap<Key, Cached> entries;
+  private final DBusSigHandler<ObjectManager.InterfacesRemoved> removed = this::interfacesRemoved;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param maxSize maximum number of proxies kept
+   * @param maxAge maximum age of a proxy, in ms
+   */
+  public ProxyCache(final DBusConnection connection, final String busName, final int maxSize, final long maxAge) {
+    if (maxSize <= 0 || maxAge <= 0) {
+      throw new IllegalArgumentException("Size and age must be positive, got " + maxSize + " and " + maxAge);
+    }
+    this.connection = connection;
+    this.busName = busName;
+    this.service = new ServiceOwner(connection, busName);
+    this.maxSize = maxSize;
+    this.maxAge = maxAge;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Key, Cached> eldest) {
+        if (size() > ProxyCache.this.maxSize) {
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /** Drop proxies as the service removes objects. */
+  public void start() throws DBusException {
+    service.start();
+    connection.addSigHandler(ObjectManager.InterfacesRemoved.class, removed);
+  }
+
+  @Override
+  public void close() {
+    try {
+      connection.removeSigHandler(ObjectManager.InterfacesRemoved.class, removed);
+      service.close();
+    } catch (DBusException e) {
+      LOGGER.warn("Could not remove the proxy cache signal handler", e);
+    }
+    clear();
+  }
+
+  /** The proxy of an object, created if not cached or too old. */
+  public <T extends DBusInterface> T get(final String path, final Class<T> type) throws DBusException {
+    final Key key = new Key(path, type);
+    final long now = System.currentTimeMillis();
+    synchronized (this) {
+      final Cached e = entries.get(key);
+      if (e != null && now - e.created < maxAge) {
+        hits++;
+        return type.cast(e.proxy);
+      }
+      misses++;
+    }
+    final T proxy = connection.getRemoteObject(busName, path, type);
+    synchronized (this) {
+      entries.put(key, new Cached(proxy, now));
+    }
+    return proxy;
+  }
+
+  /** Drop the proxies of an object and of its children. */
+  public synchronized void invalidate(final String path) {
+    final String children = path.endsWith("/") ? path : path + "/";
+    for (Iterator<Key> i = entries.keySet().iterator(); i.hasNext(); ) {
+      final String p = i.next().path;
+      if (p.equals(path) || p.startsWith(children)) {
+        i.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() { entries.clear(); }
+
+  public synchronized int size() { return entries.size(); }
+
+  public synchronized long getHits() { return hits; }
+
+  public synchronized long getMisses() { return misses; }
+
+  public synchronized long getEvictions() { return evictions; }
+
+  @Override
+  public synchronized String toString() {
+    return "ProxyCache{size=" + entries.size() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses
+        + ", evictions=" + evictions + "}";
+  }
+
+  // private methods
+
+  private void interfacesRemoved(final ObjectManager.InterfacesRemoved s) {
+    if (ROOT_PATH.equals(s.getPath()) && service.sent(s)) {
+      // the object is the signal source, getObjectPath() is the path of the message
+      invalidate(s.getSignalSource().getPath());
+    }
+  }
+
+  private static final class Key {
+    private final String path;
+    private final Class<?> type;
+
+    private Key(final String path, final Class<?> type) {
+      this.path = path;
+      this.type = type;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (! (o instanceof Key)) {
+        return false;
+      }
+      final Key k = (Key) o;
+      return path.equals(k.path) && type == k.type;
+    }
+
+    @Override
+    public int hashCode() { return Objects.hash(path, type); }
+  }
+
+  private static final class Cached {
+    private final Object proxy;
+    private final long created;
+
+    private Cached(final Object proxy, final long created) {
+      this.proxy = proxy;
+      this.created = created;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.gpaglia.bt.examples.bluez;
+
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.interfaces.DBus;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.messages.DBusSignal;
+
+/**
+ * The unique name currently owning a service name, to tell the signals of the service from those of any other
+ * client on the bus: dbus-java only matches signals on unique sender names, which change when the service restarts.
+ * Kept current with the NameOwnerChanged signals of the bus. Thread safe.
+ */
+final class ServiceOwner implements AutoCloseable {
+  private static final String BUS_NAME = "org.freedesktop.DBus";
+  private static final String BUS_PATH = "/org/freedesktop/DBus";
+
+  private final DBusConnection connection;
+  private final String service;
+  // null while the service is not running
+  private volatile String owner;
+
+  private final DBusSigHandler<DBus.NameOwnerChanged> changed;
+
+  ServiceOwner(final DBusConnection connection, final String service) {
+    this.connection = connection;
+    this.service = service;
+    this.changed = s -> {
+      if (BUS_NAME.equals(s.getSource()) && service.equals(s.name)) {
+        owner = s.newOwner.isEmpty() ? null : s.newOwner;
+      }
+    };
+  }
+
+  /** Resolve the current owner, then follow its changes. */
+  void start() throws DBusException {
+    if (service.startsWith(":")) {
+      owner = service;
+      return;
+    }
+    connection.addSigHandler(DBus.NameOwnerChanged.class, changed);
+    try {
+      owner = connection.getRemoteObject(BUS_NAME, BUS_PATH, DBus.class).GetNameOwner(service);
+    } catch (DBusExecutionException e) {
+      // not running yet
+      owner = null;
+    }
+  }
+
+  @Override
+  public void close() throws DBusException {
+    if (! service.startsWith(":")) {
+      connection.removeSigHandler(DBus.NameOwnerChanged.class, changed);
+    }
+  }
+
+  /** True if the signal was sent by the current owner of the service. */
+  boolean sent(final DBusSignal signal) {
+    final String o = owner;
+    return o != null && o.equals(signal.getSource());
+  }
+}
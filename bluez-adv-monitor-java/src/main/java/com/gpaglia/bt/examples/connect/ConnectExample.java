@@ -1,17 +1,31 @@
 package com.gpaglia.bt.examples.connect;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
-import com.github.hypfvieh.bluetooth.DeviceManager;
-import com.github.hypfvieh.bluetooth.wrapper.BluetoothDevice;
-import com.github.hypfvieh.bluetooth.wrapper.BluetoothGattCharacteristic;
-import com.github.hypfvieh.bluetooth.wrapper.BluetoothGattService;
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.gpaglia.bt.examples.bluez.ObjectMirror;
+import com.gpaglia.bt.examples.bluez.ProxyCache;
+
+import org.bluez.Adapter1;
+import org.bluez.GattCharacteristic1;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.types.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Connects to a set of devices, given by address (<code>58:2d:34:32:5a:38</code> by default), and reads the version
+ * characteristic of their Mi service, several devices at once through a {@link GattScheduler}; then it listens to
+ * the notifications of their event characteristic for a while, through a {@link NotificationStream}.
+ */
 public class ConnectExample {
   private static final Logger LOGGER = LoggerFactory.getLogger(ConnectExample.class);
 
@@ -22,89 +36,152 @@ public class ConnectExample {
   private static final String EVENT_CHAR = "00000010-0000-1000-8000-00805f9b34fb";
   private static final String VERSION_CHAR = "00000004-0000-1000-8000-00805f9b34fb";
 
-  public static void main(String[] args) {
-    DeviceManager dm = null;
-    try {
-      dm = DeviceManager.createInstance(false);
+  private static final String GATT_SERVICE_IF = "org.bluez.GattService1";
+  private static final String GATT_CHARACTERISTIC_IF = "org.bluez.GattCharacteristic1";
 
-      final List<BluetoothDevice> devices = dm.scanForBluetoothDevices(20 * 1000);
-      final BluetoothDevice device = devices
-        .stream()
-        .filter(d -> d.getAddress().equalsIgnoreCase(DEVICE_ADDR))
-        .findFirst()
-        .orElse(null);
+  private static final int CONNECTION_TIMEOUT = 5000; // in ms
+  private static final long DISCOVERY_TIMEOUT = 20 * 1000; // in ms
+  private static final int MAX_CONNECTIONS = 4;
+  private static final long NOTIFY_TIME = 5000; // in ms
+  private static final int NOTIFY_BATCH_SIZE = 16;
+  private static final long NOTIFY_LINGER = 250; // in ms
 
-      if (device == null) {
-        LOGGER.error("Device {} not found", DEVICE_ADDR);
-        System.exit(1);
-      }
-
-      LOGGER.info("Device {} was found", DEVICE_ADDR);
-      if (! device.connect()) {
-        LOGGER.error("Could not connect");
+  public static void main(String[] args) {
+    final List<String> addresses = args.length == 0 ? List.of(DEVICE_ADDR) : Arrays.asList(args);
+
+    try (DBusConnection conn = DBusConnection.getConnection(DBusConnection.DBusBusType.SYSTEM, false,
+        CONNECTION_TIMEOUT)) {
+      final ObjectMirror objects = new ObjectMirror(conn);
+      objects.start();
+      final ProxyCache proxies = new ProxyCache(conn, ObjectMirror.BLUEZ_SERVICE_NAME, 256, TimeUnit.MINUTES.toMillis(10));
+      proxies.start();
+
+      final String adapterPath = objects.findAdapter(null);
+      if (adapterPath == null) {
+        LOGGER.error("Could not find any adapter");
         System.exit(1);
       }
-
-      Arrays.stream(device.getUuids()).forEach(uuid -> LOGGER.info("Found uuid {}", uuid));
-
-      List<BluetoothGattService> services = null;
-      for (int i = 0; i < 5; i++) {
-        LOGGER.info("Retry {} -- Device connected: {}, svc resolved: {}", i, device.isConnected(), device.isServicesResolved());
-
-        device.refreshGattServices();
-  
-        services = device.getGattServices();
-        if (services != null && ! services.isEmpty()) {
-          break;
-        } 
-        
-        try {
-          Thread.sleep(100);
-        } catch (InterruptedException ignored) {
-          // no op
+      discover(objects, proxies.get(adapterPath, Adapter1.class), addresses);
+
+      final GattScheduler scheduler = new GattScheduler(conn, objects, proxies, MAX_CONNECTIONS);
+      scheduler.start();
+      final NotificationStream notifications = new NotificationStream(conn, proxies);
+      notifications.start();
+
+      final List<CompletableFuture<Void>> sessions = new ArrayList<>();
+      for (String address : addresses) {
+        final String devicePath = objects.findDevice(address);
+        if (devicePath == null) {
+          LOGGER.error("Device {} not found", address);
+          continue;
         }
-      }
-      
-      if (services == null || services.isEmpty()) {
-        LOGGER.error("No services for device {}", DEVICE_ADDR);
-        System.exit(1);
+        sessions.add(scheduler.submit(devicePath, 0, path -> readVersion(objects, proxies, notifications, path)).whenComplete(
+            (r, e) -> {
+              if (e != null) {
+                LOGGER.error("Could not read device {}", address, e);
+              }
+            }
+        ));
       }
 
-      for (BluetoothGattService s : services) {
-        LOGGER.info("Found service {}", s.getUuid());
+      try {
+        CompletableFuture.allOf(sessions.toArray(new CompletableFuture<?>[0])).join();
+      } catch (RuntimeException ignored) {
+        // logged by each session
       }
+      LOGGER.info("Done: {}", scheduler);
 
-      final BluetoothGattService miService = device.getGattServiceByUuid(MI_SERVICE);
-      if (miService == null) {
-        LOGGER.error("Mi Service {} not found", MI_SERVICE);
-        System.exit(1);
-      }
+      scheduler.close();
+      notifications.close();
+      proxies.close();
+      objects.close();
+    } catch (DBusException ex) {
+      LOGGER.error("Got DBusException", ex);
+      System.exit(1);
+    } catch (Exception e) {
+      LOGGER.error("Got Generic Exception", e);
+      System.exit(1);
+    }
+  }
 
-      final BluetoothGattCharacteristic tokenChar = miService.getGattCharacteristicByUuid(TOKEN_CHAR);
-      if (tokenChar == null) {
-        LOGGER.error("Token Char {} not found", TOKEN_CHAR);
-        System.exit(1);
+  // runs discovery until all the devices are known, or the timeout
+  private static void discover(final ObjectMirror objects, final Adapter1 adapter, final List<String> addresses)
+      throws DBusException, InterruptedException {
+    if (addresses.stream().allMatch(a -> objects.findDevice(a) != null)) {
+      return;
+    }
+    // woken by the mirror as devices are added, the mirror is local, checking it is cheap
+    final CountDownLatch found = new CountDownLatch(1);
+    final Consumer<String> listener = path -> {
+      if (addresses.stream().allMatch(a -> objects.findDevice(a) != null)) {
+        found.countDown();
       }
-
-      final BluetoothGattCharacteristic eventChar = miService.getGattCharacteristicByUuid(EVENT_CHAR);
-      if (eventChar == null) {
-        LOGGER.error("Event Char {} not found", EVENT_CHAR);
-        System.exit(1);
+    };
+    objects.addDeviceListener(listener);
+    try {
+      LOGGER.info("Discovering devices ...");
+      adapter.StartDiscovery();
+      // found between the first check and the listener
+      listener.accept(null);
+      if (! found.await(DISCOVERY_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        LOGGER.warn("Not all devices found after {} ms", DISCOVERY_TIMEOUT);
       }
+      adapter.StopDiscovery();
+    } finally {
+      objects.removeDeviceListener(listener);
+    }
+  }
 
-      final BluetoothGattCharacteristic versionChar = miService.getGattCharacteristicByUuid(VERSION_CHAR);
-      if (versionChar == null) {
-        LOGGER.error("Version Char {} not found", VERSION_CHAR);
-        System.exit(1);
-      }
+  private static void readVersion(
+      final ObjectMirror objects,
+      final ProxyCache proxies,
+      final NotificationStream notifications,
+      final String devicePath) throws DBusException, InterruptedException {
+    final String service = findChild(objects, devicePath, GATT_SERVICE_IF, MI_SERVICE);
+    if (service == null) {
+      throw new IllegalStateException("Mi Service " + MI_SERVICE + " not found on " + devicePath);
+    }
+    if (findChild(objects, service, GATT_CHARACTERISTIC_IF, TOKEN_CHAR) == null) {
+      throw new IllegalStateException("Token Char " + TOKEN_CHAR + " not found on " + devicePath);
+    }
+    final String eventChar = findChild(objects, service, GATT_CHARACTERISTIC_IF, EVENT_CHAR);
+    if (eventChar == null) {
+      throw new IllegalStateException("Event Char " + EVENT_CHAR + " not found on " + devicePath);
+    }
+    final String versionChar = findChild(objects, service, GATT_CHARACTERISTIC_IF, VERSION_CHAR);
+    if (versionChar == null) {
+      throw new IllegalStateException("Version Char " + VERSION_CHAR + " not found on " + devicePath);
+    }
+    final byte[] version = proxies.get(versionChar, GattCharacteristic1.class).ReadValue(Map.<String, Variant<?>>of());
+    LOGGER.info("Device {} version {}", devicePath, new String(version));
+
+    // still connected: the session lasts until this returns
+    try (NotificationStream.Subscription events = notifications.subscribe(
+        eventChar, NOTIFY_BATCH_SIZE, NOTIFY_LINGER, ConnectExample::logEvents)) {
+      Thread.sleep(NOTIFY_TIME);
+      LOGGER.info("Device {}: {} events in {} batches", devicePath, events.getReceived(), events.getBatches());
+    }
+  }
 
-    } catch (DBusException ex) {
-      ex.printStackTrace();
-      System.exit(1);
-    } finally {
-      dm.closeConnection();
+  private static void logEvents(final String path, final NotificationStream.Batch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      final ByteBuffer value = batch.value(i);
+      final StringBuilder sb = new StringBuilder();
+      while (value.hasRemaining()) {
+        sb.append(String.format("%02x", value.get()));
+      }
+      LOGGER.info("Event {}: {}", path, sb);
     }
+  }
 
+  // GATT objects are children of the device path, with an UUID property
+  private static String findChild(final ObjectMirror objects, final String parent, final String iface, final String uuid) {
+    for (String path : objects.getPaths(iface)) {
+      if (path.startsWith(parent + "/") && uuid.equalsIgnoreCase((String) objects.getProperty(path, iface, "UUID"))) {
+        return path;
+      }
+    }
+    return null;
   }
-  
+
 }
@@ -0,0 +1,474 @@
+package com.gpaglia.bt.examples.connect;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gpaglia.bt.examples.bluez.ObjectMirror;
+import com.gpaglia.bt.examples.bluez.ProxyCache;
+
+import org.bluez.Device1;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.interfaces.CallbackHandler;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.Properties;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs GATT sessions on many devices at once: connects, waits for the services to be resolved, runs the session
+ * and disconnects, with at most a given number of devices connected at the same time.
+ *
+ * <p>The scheduler is event driven: Connect and Disconnect are asynchronous calls, and progress comes from the
+ * <code>Connected</code> and <code>ServicesResolved</code> PropertiesChanged signals of the devices, nothing is
+ * polled. Every state change runs on a single scheduler thread, sessions run on worker threads.
+ *
+ * <p>Pending sessions are taken highest priority first, in submission order within a priority; a device has at
+ * most one session running. Connecting (up to resolved services) and running a session are bounded by timeouts; a
+ * failed attempt (error, timeout, unexpected disconnection, exception from the session) disconnects the device and
+ * is retried after an exponential backoff with jitter, up to a maximum number of attempts. A session failing
+ * while running is interrupted, and its device is only released once the session returned.
+ */
+public final class GattScheduler implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GattScheduler.class);
+
+  /** The work done on a connected device with resolved services; runs on a worker thread. */
+  @FunctionalInterface
+  public interface Session {
+    void run(String devicePath) throws Exception;
+  }
+
+  private enum State { PENDING, CONNECTING, RESOLVING, RUNNING, DISCONNECTING, DONE }
+
+  private final DBusConnection connection;
+  private final ObjectMirror objects;
+  private final ProxyCache proxies;
+  private final int maxConnections;
+
+  private long connectTimeout = 10_000; // in ms
+  private long sessionTimeout = 30_000; // in ms
+  private int maxAttempts = 3;
+  private long minBackoff = 500; // in ms
+  private long maxBackoff = 30_000; // in ms
+
+  // state, only accessed on the scheduler thread
+  private final PriorityQueue<Job> ready = new PriorityQueue<>(
+      Comparator.comparingInt((Job j) -> -j.priority).thenComparingLong(j -> j.seq)
+  );
+  private final Map<String, Job> active = new HashMap<>();
+  // disconnected by the last session on them, while the mirror may still show them connected
+  private final Set<String> disconnected = new HashSet<>();
+
+  // once closed, pending timeouts are dropped and late callbacks discarded
+  private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+    final Thread t = new Thread(r, "gatt-scheduler");
+    t.setDaemon(true);
+    return t;
+  }, new ThreadPoolExecutor.DiscardPolicy());
+  // sessions are bounded by the connections, a session timing out may leave its thread blocked for a while
+  private final ExecutorService workers = Executors.newCachedThreadPool(new WorkerFactory());
+  private final DBusSigHandler<Properties.PropertiesChanged> changed = this::propertiesChanged;
+
+  private final AtomicLong seq = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong retried = new AtomicLong();
+
+  /**
+   * @param objects the mirror of the bluez objects, for the device state when a session starts
+   * @param proxies the cache of the Device1 proxies
+   * @param maxConnections maximum number of devices connected at the same time
+   */
+  public GattScheduler(
+      final DBusConnection connection,
+      final ObjectMirror objects,
+      final ProxyCache proxies,
+      final int maxConnections) {
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("Connections must be positive, got " + maxConnections);
+    }
+    this.connection = connection;
+    this.objects = objects;
+    this.proxies = proxies;
+    this.maxConnections = maxConnections;
+    this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /** Timeout from the connection request to resolved services, in ms. */
+  public void setConnectTimeout(final long connectTimeout) { this.connectTimeout = connectTimeout; }
+
+  /** Timeout of a session, in ms. */
+  public void setSessionTimeout(final long sessionTimeout) { this.sessionTimeout = sessionTimeout; }
+
+  /** Attempts of a session, the first included. */
+  public void setMaxAttempts(final int maxAttempts) { this.maxAttempts = maxAttempts; }
+
+  /** The backoff before the n-th retry is a random delay up to <code>min * 2^(n - 1)</code>, capped to max. */
+  public void setBackoff(final long minBackoff, final long maxBackoff) {
+    this.minBackoff = minBackoff;
+    this.maxBackoff = maxBackoff;
+  }
+
+  /** Subscribe to the device signals; set up before starting. */
+  public void start() throws DBusException {
+    connection.addSigHandler(Properties.PropertiesChanged.class, changed);
+  }
+
+  /**
+   * Queue a session on a device.
+   *
+   * @param priority higher runs first
+   * @return completed when the session ran, exceptionally with the last cause once the attempts are exhausted
+   */
+  public CompletableFuture<Void> submit(final String devicePath, final int priority, final Session session) {
+    final Job job = new Job(devicePath, priority, session, seq.incrementAndGet());
+    scheduler.execute(() -> {
+      ready.add(job);
+      dispatch();
+    });
+    return job.future;
+  }
+
+  /** Sessions queued or in progress. */
+  public int getPending() {
+    try {
+      return scheduler.submit(() -> ready.size() + active.size()).get();
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  public long getCompleted() { return completed.get(); }
+
+  public long getFailed() { return failed.get(); }
+
+  public long getRetried() { return retried.get(); }
+
+  /** Stop; sessions not completed yet are cancelled, connected devices are left connected. */
+  @Override
+  public void close() {
+    try {
+      connection.removeSigHandler(Properties.PropertiesChanged.class, changed);
+    } catch (DBusException e) {
+      LOGGER.warn("Could not remove the scheduler signal handler", e);
+    }
+    scheduler.execute(() -> {
+      for (Job j : ready) {
+        j.future.cancel(false);
+      }
+      for (Job j : active.values()) {
+        j.future.cancel(false);
+      }
+      ready.clear();
+      active.clear();
+      disconnected.clear();
+    });
+    scheduler.shutdown();
+    workers.shutdownNow();
+    try {
+      scheduler.awaitTermination(connectTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "GattScheduler{completed=" + completed.get() + ", failed=" + failed.get()
+        + ", retried=" + retried.get() + "}";
+  }
+
+  // private methods, on the scheduler thread but the signal handler
+
+  private void dispatch() {
+    List<Job> busy = null;
+    while (active.size() < maxConnections && ! ready.isEmpty()) {
+      final Job job = ready.poll();
+      if (job.future.isDone()) {
+        continue;
+      }
+      if (active.containsKey(job.path)) {
+        if (busy == null) {
+          busy = new ArrayList<>();
+        }
+        busy.add(job);
+        continue;
+      }
+      connect(job);
+    }
+    if (busy != null) {
+      ready.addAll(busy);
+    }
+  }
+
+  private void connect(final Job job) {
+    active.put(job.path, job);
+    job.attempts++;
+    final int generation = ++job.generation;
+    job.state = State.CONNECTING;
+    job.timeout = scheduler.schedule(
+        () -> fail(job, generation, new TimeoutException("Services not resolved after " + connectTimeout + " ms")),
+        connectTimeout,
+        TimeUnit.MILLISECONDS
+    );
+
+    if (! disconnected.remove(job.path) && isTrue(job.path, "Connected")) {
+      job.state = State.RESOLVING;
+      if (isTrue(job.path, "ServicesResolved")) {
+        run(job);
+      }
+      return;
+    }
+
+    LOGGER.debug("Connecting {}, attempt {}", job.path, job.attempts);
+    try {
+      connection.callWithCallback(proxies.get(job.path, Device1.class), "Connect", new CallbackHandler<Object>() {
+        @Override
+        public void handle(final Object r) {
+          scheduler.execute(() -> connected(job, generation));
+        }
+
+        @Override
+        public void handleError(final DBusExecutionException e) {
+          scheduler.execute(() -> fail(job, generation, e));
+        }
+      });
+    } catch (DBusException | RuntimeException e) {
+      fail(job, generation, e);
+    }
+  }
+
+  private void connected(final Job job, final int generation) {
+    if (job.generation != generation || job.state != State.CONNECTING) {
+      return;
+    }
+    job.state = State.RESOLVING;
+    // the signal may have been handled before the reply
+    if (isTrue(job.path, "ServicesResolved")) {
+      run(job);
+    }
+  }
+
+  private void run(final Job job) {
+    final int generation = job.generation;
+    job.state = State.RUNNING;
+    job.timeout.cancel(false);
+    job.timeout = scheduler.schedule(
+        () -> fail(job, generation, new TimeoutException("Session not done after " + sessionTimeout + " ms")),
+        sessionTimeout,
+        TimeUnit.MILLISECONDS
+    );
+    LOGGER.debug("Services of {} resolved, running its session", job.path);
+    final AtomicBoolean claimed = new AtomicBoolean();
+    job.claimed = claimed;
+    job.worker = workers.submit(() -> {
+      // cancelled before it started
+      if (! claimed.compareAndSet(false, true)) {
+        return;
+      }
+      Throwable cause = null;
+      try {
+        job.session.run(job.path);
+      } catch (Exception e) {
+        cause = e;
+      }
+      final Throwable result = cause;
+      scheduler.execute(() -> sessionReturned(job, generation, result));
+    });
+  }
+
+  // the worker of the attempt is done: complete the attempt, or the release it held back
+  private void sessionReturned(final Job job, final int generation, final Throwable cause) {
+    if (job.generation != generation) {
+      return;
+    }
+    job.worker = null;
+    if (job.state == State.RUNNING) {
+      if (cause != null) {
+        LOGGER.info("Attempt {} on {} failed: {}", job.attempts, job.path, cause.toString());
+      }
+      done(job, generation, cause);
+    } else if (job.releaseHeld) {
+      job.releaseHeld = false;
+      release(job, generation, job.releaseCause);
+    }
+  }
+
+  private void fail(final Job job, final int generation, final Throwable cause) {
+    if (job.generation != generation || job.state == State.DISCONNECTING || job.state == State.DONE) {
+      return;
+    }
+    LOGGER.info("Attempt {} on {} failed: {}", job.attempts, job.path, cause.toString());
+    if (job.worker != null) {
+      job.worker.cancel(true);
+      if (job.claimed.compareAndSet(false, true)) {
+        // never started, will not return
+        job.worker = null;
+      }
+    }
+    done(job, generation, cause);
+  }
+
+  // disconnect, then release the connection and complete or retry
+  private void done(final Job job, final int generation, final Throwable cause) {
+    if (job.generation != generation || job.state == State.DISCONNECTING || job.state == State.DONE) {
+      return;
+    }
+    job.state = State.DISCONNECTING;
+    job.timeout.cancel(false);
+    // bounded, as bluez may never answer for a device gone away
+    job.timeout = scheduler.schedule(() -> release(job, generation, cause), connectTimeout, TimeUnit.MILLISECONDS);
+    try {
+      connection.callWithCallback(proxies.get(job.path, Device1.class), "Disconnect", new CallbackHandler<Object>() {
+        @Override
+        public void handle(final Object r) {
+          scheduler.execute(() -> disconnected(job, generation, cause));
+        }
+
+        @Override
+        public void handleError(final DBusExecutionException e) {
+          // e.g. not connected: released all the same
+          scheduler.execute(() -> disconnected(job, generation, cause));
+        }
+      });
+    } catch (DBusException | RuntimeException e) {
+      release(job, generation, cause);
+    }
+  }
+
+  private void disconnected(final Job job, final int generation, final Throwable cause) {
+    if (job.generation == generation && job.state == State.DISCONNECTING) {
+      disconnected.add(job.path);
+    }
+    release(job, generation, cause);
+  }
+
+  private void release(final Job job, final int generation, final Throwable cause) {
+    if (job.generation != generation || job.state != State.DISCONNECTING) {
+      return;
+    }
+    job.timeout.cancel(false);
+    if (job.worker != null) {
+      // the session is still running: the device is not released, nor retried, until it returns
+      LOGGER.warn("Session on {} still running after {}, waiting for it", job.path, cause);
+      job.releaseHeld = true;
+      job.releaseCause = cause;
+      return;
+    }
+    active.remove(job.path);
+    if (cause == null) {
+      job.state = State.DONE;
+      completed.incrementAndGet();
+      job.future.complete(null);
+    } else if (job.attempts < maxAttempts && ! job.future.isDone()) {
+      job.state = State.PENDING;
+      retried.incrementAndGet();
+      final long delay = backoff(job.attempts);
+      LOGGER.debug("Retrying {} in {} ms", job.path, delay);
+      scheduler.schedule(() -> {
+        ready.add(job);
+        dispatch();
+      }, delay, TimeUnit.MILLISECONDS);
+    } else {
+      job.state = State.DONE;
+      failed.incrementAndGet();
+      job.future.completeExceptionally(cause);
+    }
+    dispatch();
+  }
+
+  private long backoff(final int attempt) {
+    final long cap = Math.min(maxBackoff, minBackoff << Math.min(attempt - 1, 30));
+    return minBackoff + ThreadLocalRandom.current().nextLong(Math.max(1, cap - minBackoff + 1));
+  }
+
+  private boolean isTrue(final String path, final String property) {
+    return Boolean.TRUE.equals(objects.getProperty(path, ObjectMirror.DEVICE_IFACE, property));
+  }
+
+  // on the dbus dispatch thread: only the devices with a session in progress are of interest
+  private void propertiesChanged(final Properties.PropertiesChanged s) {
+    if (! ObjectMirror.DEVICE_IFACE.equals(s.getInterfaceName())) {
+      return;
+    }
+    final Variant<?> resolved = s.getPropertiesChanged().get("ServicesResolved");
+    final Variant<?> connected = s.getPropertiesChanged().get("Connected");
+    if (resolved == null && connected == null) {
+      return;
+    }
+    final String path = s.getPath();
+    scheduler.execute(() -> {
+      final Job job = active.get(path);
+      if (job == null) {
+        return;
+      }
+      if (resolved != null && Boolean.TRUE.equals(resolved.getValue())
+          && (job.state == State.CONNECTING || job.state == State.RESOLVING)) {
+        run(job);
+      } else if (connected != null && Boolean.FALSE.equals(connected.getValue())
+          && (job.state == State.RESOLVING || job.state == State.RUNNING)) {
+        fail(job, job.generation, new IllegalStateException("Device disconnected"));
+      }
+    });
+  }
+
+  private static final class Job {
+    private final String path;
+    private final int priority;
+    private final Session session;
+    private final long seq;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private State state = State.PENDING;
+    private int attempts;
+    // bumped by each attempt, callbacks and timeouts of previous attempts are ignored
+    private int generation;
+    private ScheduledFuture<?> timeout;
+    // the worker running the session of the attempt, until it returned
+    private Future<?> worker;
+    private AtomicBoolean claimed;
+    // released once the worker returned
+    private boolean releaseHeld;
+    private Throwable releaseCause;
+
+    private Job(final String path, final int priority, final Session session, final long seq) {
+      this.path = path;
+      this.priority = priority;
+      this.session = session;
+      this.seq = seq;
+    }
+  }
+
+  private static final class WorkerFactory implements ThreadFactory {
+    private final AtomicInteger n = new AtomicInteger();
+
+    @Override
+    public Thread newThread(final Runnable r) {
+      final Thread t = new Thread(r, "gatt-worker-" + n.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package com.gpaglia.bt.examples.connect;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gpaglia.bt.examples.bluez.ProxyCache;
+
+import org.bluez.GattCharacteristic1;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.Properties;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GATT notifications of characteristics, delivered in batches: subscribing calls StartNotify, then each
+ * <code>Value</code> PropertiesChanged signal of the characteristic appends the value to the current batch of its
+ * subscription, delivered to the listener when full or when the linger time elapsed since its first value.
+ *
+ * <p>Values are not copied: a batch keeps the arrays decoded by dbus-java, read through read-only
+ * {@link ByteBuffer} views. Batches are pooled per subscription and reused once the listener returns. Batches are
+ * handed to a single delivery thread in the order they are completed, so the values of a characteristic are
+ * delivered in order, and a slow listener delays the others.
+ */
+public final class NotificationStream implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(NotificationStream.class);
+
+  public static final String CHARACTERISTIC_IFACE = "org.bluez.GattCharacteristic1";
+
+  /** Receives the batches of a characteristic, on the delivery thread. */
+  @FunctionalInterface
+  public interface Listener {
+    void onBatch(String characteristicPath, Batch batch) throws Exception;
+  }
+
+  /** Values received for a characteristic, only valid for the duration of {@link Listener#onBatch}. */
+  public static final class Batch {
+    private final byte[][] values;
+    private final long[] nanoTimes;
+    private int size;
+
+    private Batch(final int capacity) {
+      this.values = new byte[capacity][];
+      this.nanoTimes = new long[capacity];
+    }
+
+    public int size() { return size; }
+
+    /** A value, as a new read-only buffer positioned at 0. */
+    public ByteBuffer value(final int i) { return ByteBuffer.wrap(values[i]).asReadOnlyBuffer(); }
+
+    /** When a value was received, on the {@link System#nanoTime()} clock. */
+    public long nanoTime(final int i) { return nanoTimes[i]; }
+
+    private boolean add(final byte[] value, final long nanoTime) {
+      values[size] = value;
+      nanoTimes[size] = nanoTime;
+      return ++size == values.length;
+    }
+
+    private void clear() {
+      for (int i = 0; i < size; i++) {
+        values[i] = null;
+      }
+      size = 0;
+    }
+  }
+
+  private final DBusConnection connection;
+  private final ProxyCache proxies;
+  private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+  // delivery and linger timers; once closed, late deliveries are discarded
+  private final ScheduledThreadPoolExecutor delivery = new ScheduledThreadPoolExecutor(1, r -> {
+    final Thread t = new Thread(r, "gatt-notifications");
+    t.setDaemon(true);
+    return t;
+  }, new ThreadPoolExecutor.DiscardPolicy());
+  private final DBusSigHandler<Properties.PropertiesChanged> changed = this::propertiesChanged;
+
+  public NotificationStream(final DBusConnection connection, final ProxyCache proxies) {
+    this.connection = connection;
+    this.proxies = proxies;
+    this.delivery.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /** Subscribe to the value signals; set up before subscribing. */
+  public void start() throws DBusException {
+    connection.addSigHandler(Properties.PropertiesChanged.class, changed);
+  }
+
+  /**
+   * Start the notifications of a characteristic.
+   *
+   * @param batchSize a batch is delivered as soon as it holds this many values
+   * @param lingerMillis and at the latest this long after its first value; 0 delivers every value at once
+   */
+  public Subscription subscribe(
+      final String characteristicPath,
+      final int batchSize,
+      final long lingerMillis,
+      final Listener listener) throws DBusException {
+    if (batchSize <= 0 || lingerMillis < 0) {
+      throw new IllegalArgumentException("Invalid batch size " + batchSize + " or linger " + lingerMillis);
+    }
+    final Subscription s = new Subscription(characteristicPath, batchSize, lingerMillis, listener);
+    if (subscriptions.putIfAbsent(characteristicPath, s) != null) {
+      throw new IllegalStateException("Already subscribed to " + characteristicPath);
+    }
+    try {
+      proxies.get(characteristicPath, GattCharacteristic1.class).StartNotify();
+    } catch (DBusException | RuntimeException e) {
+      subscriptions.remove(characteristicPath, s);
+      throw e;
+    }
+    LOGGER.debug("Notifications of {} started", characteristicPath);
+    return s;
+  }
+
+  /** Stop all the subscriptions, delivering what they hold. */
+  @Override
+  public void close() {
+    for (Subscription s : subscriptions.values()) {
+      s.close();
+    }
+    try {
+      connection.removeSigHandler(Properties.PropertiesChanged.class, changed);
+    } catch (DBusException e) {
+      LOGGER.warn("Could not remove the notification signal handler", e);
+    }
+    delivery.shutdown();
+    try {
+      delivery.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // on the dbus dispatch thread
+  private void propertiesChanged(final Properties.PropertiesChanged s) {
+    if (! CHARACTERISTIC_IFACE.equals(s.getInterfaceName())) {
+      return;
+    }
+    final Subscription subscription = subscriptions.get(s.getPath());
+    final Variant<?> value = s.getPropertiesChanged().get("Value");
+    if (subscription != null && value != null && value.getValue() instanceof byte[]) {
+      subscription.append((byte[]) value.getValue(), System.nanoTime());
+    }
+  }
+
+  /** The notifications of one characteristic. */
+  public final class Subscription implements AutoCloseable {
+    private final String path;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final Listener listener;
+    private final Queue<Batch> free = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    // guarded by this
+    private Batch current;
+    private ScheduledFuture<?> linger;
+    private boolean closed;
+
+    private Subscription(final String path, final int batchSize, final long lingerMillis, final Listener listener) {
+      this.path = path;
+      this.batchSize = batchSize;
+      this.lingerMillis = lingerMillis;
+      this.listener = listener;
+    }
+
+    public String getPath() { return path; }
+
+    public long getReceived() { return received.get(); }
+
+    public long getBatches() { return batches.get(); }
+
+    /** StopNotify, then deliver what is pending. */
+    @Override
+    public void close() {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+      }
+      subscriptions.remove(path, this);
+      try {
+        proxies.get(path, GattCharacteristic1.class).StopNotify();
+      } catch (DBusException | RuntimeException e) {
+        // e.g. the device is disconnected: notifications are over anyway
+        LOGGER.debug("Could not stop the notifications of {}", path, e);
+      }
+      flush();
+    }
+
+    // batches are handed to the delivery thread under the lock, so that they are delivered in order
+    private void append(final byte[] value, final long nanoTime) {
+      received.incrementAndGet();
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        if (current == null) {
+          current = take();
+          if (lingerMillis > 0 && batchSize > 1) {
+            linger = delivery.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+          }
+        }
+        if (! current.add(value, nanoTime) && lingerMillis > 0) {
+          return;
+        }
+        deliver(detach());
+      }
+    }
+
+    private void flush() {
+      synchronized (this) {
+        final Batch batch = detach();
+        if (batch != null) {
+          deliver(batch);
+        }
+      }
+    }
+
+    // guarded by this
+    private Batch detach() {
+      final Batch batch = current;
+      current = null;
+      if (linger != null) {
+        linger.cancel(false);
+        linger = null;
+      }
+      return batch;
+    }
+
+    private Batch take() {
+      final Batch b = free.poll();
+      return b != null ? b : new Batch(batchSize);
+    }
+
+    // guarded by this; does not block
+    private void deliver(final Batch batch) {
+      delivery.execute(() -> {
+        try {
+          batches.incrementAndGet();
+          listener.onBatch(path, batch);
+        } catch (Exception e) {
+          LOGGER.warn("Listener of {} failed", path, e);
+        } finally {
+          batch.clear();
+          free.add(batch);
+        }
+      });
+    }
+  }
+}
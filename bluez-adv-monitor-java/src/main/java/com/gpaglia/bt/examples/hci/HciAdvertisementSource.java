@@ -0,0 +1,125 @@
+package com.gpaglia.bt.examples.hci;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementSource;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Advertisement source reading the HCI packets of one controller from a channel, with no bluetoothd nor D-Bus in
+ * between: see {@link HciReportParser} for the format.
+ *
+ * <p>The JDK cannot open bluetooth sockets, so the channel is anything carrying the raw traffic: a pipe or a FIFO
+ * fed by a privileged relay (<code>bluez-adv-monitor-python/examples/hci-relay.py</code>), a file recorded the same
+ * way, or a {@link java.nio.channels.Pipe} in tests. A dedicated thread reads it into a single buffer and
+ * publishes each report straight into the ring of the adapter; nothing is allocated per packet.
+ */
+public final class HciAdvertisementSource implements AdvertisementSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(HciAdvertisementSource.class);
+
+  private static final int BUFFER_SIZE = 2 * HciReportParser.MAX_PACKET;
+
+  private final ReadableByteChannel channel;
+  private final String name;
+  private final HciReportParser parser;
+  private Thread reader;
+  private volatile boolean closed;
+
+  public HciAdvertisementSource(final ReadableByteChannel channel, final int adapterIndex, final String name) {
+    this.channel = channel;
+    this.name = name;
+    this.parser = new HciReportParser(adapterIndex);
+  }
+
+  /**
+   * Read a file or a FIFO, or the standard input if the path is <code>-</code>.
+   */
+  public static HciAdvertisementSource open(final Path path, final int adapterIndex) throws IOException {
+    if ("-".equals(path.toString())) {
+      return new HciAdvertisementSource(Channels.newChannel(System.in), adapterIndex, "hci" + adapterIndex + "@stdin");
+    }
+    return new HciAdvertisementSource(
+        FileChannel.open(path, StandardOpenOption.READ), adapterIndex, "hci" + adapterIndex + "@" + path);
+  }
+
+  @Override
+  public String getName() { return name; }
+
+  public HciReportParser getParser() { return parser; }
+
+  @Override
+  public long getEventCount() { return parser.getReports(); }
+
+  @Override
+  public synchronized void start(final IntFunction<EventRing> rings) {
+    if (reader != null || closed) {
+      throw new IllegalStateException("Source " + name + " already started or closed");
+    }
+    final EventRing ring = rings.apply(parser.getAdapterIndex());
+    reader = new Thread(() -> read(ring), "hci-source-" + parser.getAdapterIndex());
+    reader.setDaemon(true);
+    reader.start();
+    LOGGER.info("Reading advertising reports from {}", name);
+  }
+
+  @Override
+  public void close() {
+    final Thread t;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      t = reader;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOGGER.debug("Could not close {}", name, e);
+    }
+    if (t != null) {
+      // a blocked read of the standard input is not released by close: give up after a while
+      t.interrupt();
+      try {
+        t.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    LOGGER.info("Source {} closed: {} reports, {} dropped, {} malformed",
+        name, parser.getReports(), parser.getDropped(), parser.getMalformed());
+  }
+
+  // private methods
+
+  private void read(final EventRing ring) {
+    final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    final byte[] b = buffer.array();
+    try {
+      while (! closed) {
+        if (channel.read(buffer) < 0) {
+          LOGGER.info("End of {}", name);
+          return;
+        }
+        buffer.flip();
+        final int consumed = parser.parse(b, buffer.position(), buffer.remaining(), ring);
+        buffer.position(buffer.position() + consumed);
+        buffer.compact();
+      }
+    } catch (IOException e) {
+      if (! closed) {
+        LOGGER.error("Could not read {}", name, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package com.gpaglia.bt.examples.hci;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+
+/**
+ * Parser of a stream of HCI packets in H4 framing, i.e. each prefixed by its packet type, as read from a raw HCI
+ * socket: the LE advertising reports, legacy and extended, are published as advertisement events, every other
+ * packet is skipped.
+ *
+ * <p>Reports are decoded in place and copied once, into the ring slot: nothing is allocated. Extended advertising
+ * data split over several reports is not reassembled, only complete reports are published.
+ *
+ * <p>Not thread safe; the counters may be read from any thread.
+ */
+public final class HciReportParser {
+  public static final int H4_COMMAND = 0x01;
+  public static final int H4_ACL = 0x02;
+  public static final int H4_SCO = 0x03;
+  public static final int H4_EVENT = 0x04;
+  public static final int H4_ISO = 0x05;
+
+  /** Largest H4 packet: type, ACL header and 64k of data. */
+  public static final int MAX_PACKET = 1 + 4 + 0xffff;
+
+  static final int EVT_LE_META = 0x3e;
+  static final int LE_ADVERTISING_REPORT = 0x02;
+  static final int LE_EXTENDED_ADVERTISING_REPORT = 0x0d;
+
+  // RSSI not available
+  private static final int HCI_RSSI_UNKNOWN = 127;
+  // event type, address type, address, data length
+  private static final int LEGACY_HEADER = 9;
+  // event type (2), address type, address, phys (2), sid, tx power, rssi, interval (2), direct address (7), length
+  private static final int EXTENDED_HEADER = 24;
+  private static final int EXT_DATA_STATUS_MASK = 0x60;
+
+  private final int adapterIndex;
+
+  private volatile long reports;
+  private volatile long dropped;
+  private volatile long fragments;
+  private volatile long malformed;
+
+  /**
+   * @param adapterIndex the adapter index of the events published
+   */
+  public HciReportParser(final int adapterIndex) {
+    this.adapterIndex = adapterIndex;
+  }
+
+  public int getAdapterIndex() { return adapterIndex; }
+
+  /** Advertising reports published, dropped ones included. */
+  public long getReports() { return reports; }
+
+  /** Reports dropped because the ring was full. */
+  public long getDropped() { return dropped; }
+
+  /** Incomplete extended reports, skipped. */
+  public long getFragments() { return fragments; }
+
+  /** Packets, or bytes when out of sync, which could not be parsed. */
+  public long getMalformed() { return malformed; }
+
+  /**
+   * Parse the complete packets of a buffer, publishing their reports into a ring.
+   *
+   * @return the number of bytes consumed; the remaining ones start an incomplete packet
+   */
+  public int parse(final byte[] b, final int offset, final int length, final EventRing ring) {
+    final int end = offset + length;
+    int p = offset;
+    while (p < end) {
+      final int size = packetSize(b, p, end - p);
+      if (size == 0) {
+        break;
+      }
+      if (size < 0) {
+        // unknown packet type: out of sync, resynchronize on the next byte
+        malformed++;
+        p++;
+        continue;
+      }
+      if ((b[p] & 0xff) == H4_EVENT && (b[p + 1] & 0xff) == EVT_LE_META) {
+        leMeta(b, p + 3, size - 3, ring);
+      }
+      p += size;
+    }
+    return p - offset;
+  }
+
+  // private methods
+
+  // size of the packet at p, 0 if incomplete, -1 if not a packet
+  private static int packetSize(final byte[] b, final int p, final int available) {
+    final int header;
+    switch (b[p] & 0xff) {
+      case H4_EVENT:
+        header = 3;
+        break;
+      case H4_COMMAND:
+      case H4_SCO:
+        header = 4;
+        break;
+      case H4_ACL:
+      case H4_ISO:
+        header = 5;
+        break;
+      default:
+        return -1;
+    }
+    if (available < header) {
+      return 0;
+    }
+    final int dataLength;
+    switch (b[p] & 0xff) {
+      case H4_ACL:
+        dataLength = u16(b, p + 3);
+        break;
+      case H4_ISO:
+        dataLength = u16(b, p + 3) & 0x3fff;
+        break;
+      default:
+        dataLength = b[p + header - 1] & 0xff;
+        break;
+    }
+    return available < header + dataLength ? 0 : header + dataLength;
+  }
+
+  private void leMeta(final byte[] b, final int p, final int length, final EventRing ring) {
+    if (length < 2) {
+      malformed++;
+      return;
+    }
+    final int subevent = b[p] & 0xff;
+    if (subevent == LE_ADVERTISING_REPORT) {
+      reports(b, p + 1, length - 1, ring, false);
+    } else if (subevent == LE_EXTENDED_ADVERTISING_REPORT) {
+      reports(b, p + 1, length - 1, ring, true);
+    }
+  }
+
+  private void reports(final byte[] b, final int p, final int length, final EventRing ring, final boolean extended) {
+    final int end = p + length;
+    final int header = extended ? EXTENDED_HEADER : LEGACY_HEADER;
+    final int count = b[p] & 0xff;
+    int r = p + 1;
+    for (int i = 0; i < count; i++) {
+      if (r + header > end) {
+        malformed++;
+        return;
+      }
+      final int data = r + header;
+      final int dataLength = b[data - 1] & 0xff;
+      // legacy reports end with the RSSI, extended ones carry it in the header
+      final int next = data + dataLength + (extended ? 0 : 1);
+      if (next > end) {
+        malformed++;
+        return;
+      }
+      final int rssi = extended ? b[r + 13] : b[data + dataLength];
+      if (extended && (b[r] & EXT_DATA_STATUS_MASK) != 0) {
+        fragments++;
+      } else {
+        publish(ring, address(b, extended ? r + 3 : r + 2), rssi, b, data, dataLength);
+      }
+      r = next;
+    }
+  }
+
+  private void publish(
+      final EventRing ring,
+      final long address,
+      final int rssi,
+      final byte[] b,
+      final int data,
+      final int dataLength) {
+    reports++;
+    final long seq = ring.tryNext();
+    if (seq == EventRing.NO_SEQUENCE) {
+      dropped++;
+      return;
+    }
+    ring.get(seq)
+        .set(AdvertisementEvent.Kind.ADVERTISEMENT, address, -1)
+        .setAdapterIndex(adapterIndex)
+        .setRssi(rssi == HCI_RSSI_UNKNOWN ? DeviceRegistry.RSSI_UNKNOWN : rssi)
+        .setPayload(b, data, dataLength);
+    ring.publish(seq);
+  }
+
+  // little endian on the wire, least significant byte first
+  private static long address(final byte[] b, final int p) {
+    long v = 0;
+    for (int i = 5; i >= 0; i--) {
+      v = (v << 8) | (b[p + i] & 0xff);
+    }
+    return v;
+  }
+
+  private static int u16(final byte[] b, final int p) {
+    return (b[p] & 0xff) | ((b[p + 1] & 0xff) << 8);
+  }
+}
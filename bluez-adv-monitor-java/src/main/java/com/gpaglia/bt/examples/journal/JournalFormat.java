@@ -0,0 +1,77 @@
+package com.gpaglia.bt.examples.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Binary layout of the advertisement journal segments; all values are little endian.
+ *
+ * <p>A segment is a fixed size file named after its sequence number, <code>%016x.journal</code>, made of:
+ * <ul>
+ *   <li>a {@link #HEADER_SIZE} bytes header: magic, version, segment number, first and last record timestamps,
+ *   index entries and record count;</li>
+ *   <li>a sparse time index of up to {@link #INDEX_CAPACITY} (timestamp, record offset) entries, one per
+ *   {@link #INDEX_INTERVAL} ms of traffic at most;</li>
+ *   <li>the records from {@link #DATA_START}, back to back, terminated by a zero length.</li>
+ * </ul>
+ *
+ * <p>A record is a {@link #RECORD_HEADER} bytes header, length (u16, header included), kind (u8), rssi (s8),
+ * adapter index (s8), payload length (u8), monitor id (s32), timestamp in ms (s64) and address (48 bits), followed
+ * by the raw advertising data. The length is written last, so a reader never sees a partial record.
+ */
+interface JournalFormat {
+  int MAGIC = 0x4a564441; // "ADVJ"
+  int VERSION = 1;
+
+  String SUFFIX = ".journal";
+
+  int HEADER_SIZE = 64;
+  int H_MAGIC = 0;
+  int H_VERSION = 4;
+  int H_SEGMENT = 8;
+  int H_FIRST_TIMESTAMP = 16;
+  int H_LAST_TIMESTAMP = 24;
+  int H_INDEX_COUNT = 32;
+  int H_RECORD_COUNT = 36;
+
+  int INDEX_CAPACITY = 4096;
+  int INDEX_ENTRY = 12;
+  long INDEX_INTERVAL = 1000; // in ms
+
+  int DATA_START = HEADER_SIZE + INDEX_CAPACITY * INDEX_ENTRY;
+
+  int RECORD_HEADER = 24;
+  int R_LENGTH = 0;
+  int R_KIND = 2;
+  int R_RSSI = 3;
+  int R_ADAPTER = 4;
+  int R_PAYLOAD_LENGTH = 5;
+  int R_MONITOR = 6;
+  int R_TIMESTAMP = 10;
+  int R_ADDRESS = 18;
+
+  static String segmentName(final long segment) {
+    return String.format("%016x%s", segment, SUFFIX);
+  }
+
+  /** The segment number of a journal file name, or -1 if it is not one. */
+  static long segmentNumber(final Path file) {
+    final String name = file.getFileName().toString();
+    if (name.length() != 16 + SUFFIX.length() || ! name.endsWith(SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Long.parseUnsignedLong(name.substring(0, 16), 16);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  static long indexTimestamp(final ByteBuffer segment, final int entry) {
+    return segment.getLong(HEADER_SIZE + entry * INDEX_ENTRY);
+  }
+
+  static int indexOffset(final ByteBuffer segment, final int entry) {
+    return segment.getInt(HEADER_SIZE + entry * INDEX_ENTRY + 8);
+  }
+}
@@ -0,0 +1,23 @@
+package com.gpaglia.bt.examples.journal;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventHandler;
+
+/**
+ * Ring consumer appending every event to a {@link JournalWriter}. The writer is confined to the consumer thread;
+ * close it only after the ring has been stopped.
+ */
+public final class JournalHandler implements EventHandler {
+  private final JournalWriter writer;
+
+  public JournalHandler(final JournalWriter writer) {
+    this.writer = writer;
+  }
+
+  public JournalWriter getWriter() { return writer; }
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) throws Exception {
+    writer.append(event);
+  }
+}
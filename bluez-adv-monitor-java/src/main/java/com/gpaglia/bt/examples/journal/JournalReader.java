@@ -0,0 +1,188 @@
+package com.gpaglia.bt.examples.journal;
+
+import static com.gpaglia.bt.examples.journal.JournalFormat.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+
+/**
+ * Sequential reader of an advertisement journal directory, see {@link JournalFormat}.
+ *
+ * <p>Segments are mapped read only, one at a time; {@link #seek(long)} uses the segment headers and their sparse
+ * time index to position on the first record at or after a timestamp without scanning the journal. The segments
+ * are listed when the reader is created; within them, a reader may follow a journal being written:
+ * {@link #next(AdvertisementEvent)} returns false at the current end and can be called again later.
+ *
+ * <p>Not thread safe.
+ */
+public final class JournalReader implements Closeable {
+  private static final AdvertisementEvent.Kind[] KINDS = AdvertisementEvent.Kind.values();
+
+  private final Path directory;
+  private final List<Path> segments;
+  private int current = -1;
+  private MappedByteBuffer buffer;
+  private int position;
+
+  public JournalReader(final Path directory) throws IOException {
+    this.directory = directory;
+    try (Stream<Path> files = Files.list(directory)) {
+      this.segments = files
+          .filter(f -> segmentNumber(f) >= 0)
+          .sorted((a, b) -> Long.compareUnsigned(segmentNumber(a), segmentNumber(b)))
+          .collect(Collectors.toList());
+    }
+    if (! segments.isEmpty()) {
+      open(0);
+    }
+  }
+
+  public Path getDirectory() { return directory; }
+
+  public int getSegmentCount() { return segments.size(); }
+
+  /** Timestamp of the first record in the journal, or <code>Long.MIN_VALUE</code> if it is empty. */
+  public long getFirstTimestamp() throws IOException {
+    for (Path p : segments) {
+      final MappedByteBuffer b = map(p);
+      if (b.getInt(H_RECORD_COUNT) > 0) {
+        return b.getLong(H_FIRST_TIMESTAMP);
+      }
+    }
+    return Long.MIN_VALUE;
+  }
+
+  /** Position on the first record whose timestamp is at or after the given one. */
+  public void seek(final long timestamp) throws IOException {
+    if (segments.isEmpty()) {
+      return;
+    }
+    // last segment starting at or before the timestamp
+    int s = 0;
+    for (int i = 1; i < segments.size(); i++) {
+      final MappedByteBuffer b = map(segments.get(i));
+      if (b.getInt(H_RECORD_COUNT) == 0 || b.getLong(H_FIRST_TIMESTAMP) > timestamp) {
+        break;
+      }
+      s = i;
+    }
+    open(s);
+
+    // last index entry at or before the timestamp
+    int lo = 0;
+    int hi = buffer.getInt(H_INDEX_COUNT) - 1;
+    VarHandle.acquireFence();
+    int entry = -1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (indexTimestamp(buffer, mid) <= timestamp) {
+        entry = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    if (entry >= 0) {
+      position = indexOffset(buffer, entry);
+    }
+
+    while (true) {
+      final int length = buffer.getShort(position + R_LENGTH) & 0xffff;
+      if (length == 0) {
+        if (! nextSegment()) {
+          return;
+        }
+      } else {
+        // the record is read after its length, see next()
+        VarHandle.acquireFence();
+        if (buffer.getLong(position + R_TIMESTAMP) < timestamp) {
+          position += length;
+        } else {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the next record into an event; its <code>nanoTime</code> is the time of the read.
+   *
+   * @return false at the end of the journal
+   */
+  public boolean next(final AdvertisementEvent event) throws IOException {
+    if (buffer == null) {
+      return false;
+    }
+    int length = buffer.getShort(position + R_LENGTH) & 0xffff;
+    while (length == 0) {
+      if (! nextSegment()) {
+        return false;
+      }
+      length = buffer.getShort(position + R_LENGTH) & 0xffff;
+    }
+    // pairs with the release fence of the writer: the record is complete once its length is seen
+    VarHandle.acquireFence();
+    final int p = position;
+    final long address = (buffer.getInt(p + R_ADDRESS) & 0xffffffffL)
+        | ((buffer.getShort(p + R_ADDRESS + 4) & 0xffffL) << 32);
+    event
+        .set(KINDS[buffer.get(p + R_KIND)], address, buffer.getInt(p + R_MONITOR))
+        .setTimestamp(buffer.getLong(p + R_TIMESTAMP))
+        .setRssi(buffer.get(p + R_RSSI))
+        .setAdapterIndex(buffer.get(p + R_ADAPTER));
+    final int payloadLength = buffer.get(p + R_PAYLOAD_LENGTH) & 0xff;
+    final byte[] payload = event.getPayload();
+    for (int i = 0; i < payloadLength; i++) {
+      payload[i] = buffer.get(p + RECORD_HEADER + i);
+    }
+    event.setPayloadLength(payloadLength);
+    position += length;
+    return true;
+  }
+
+  @Override
+  public void close() {
+    buffer = null;
+    current = segments.size();
+  }
+
+  // private methods
+
+  private boolean nextSegment() throws IOException {
+    if (current + 1 >= segments.size()) {
+      return false;
+    }
+    open(current + 1);
+    return true;
+  }
+
+  private void open(final int segment) throws IOException {
+    final MappedByteBuffer b = map(segments.get(segment));
+    if (b.getInt(H_MAGIC) != MAGIC || b.getInt(H_VERSION) != VERSION) {
+      throw new IOException("Not a version " + VERSION + " journal segment: " + segments.get(segment));
+    }
+    buffer = b;
+    current = segment;
+    position = DATA_START;
+  }
+
+  private static MappedByteBuffer map(final Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      b.order(ByteOrder.LITTLE_ENDIAN);
+      return b;
+    }
+  }
+}
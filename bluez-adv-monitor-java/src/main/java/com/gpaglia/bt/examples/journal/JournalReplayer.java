@@ -0,0 +1,103 @@
+package com.gpaglia.bt.examples.journal;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventHandler;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+
+/**
+ * Replays a journal, either into an {@link EventRing}, so that the consumers of a running application see the
+ * recorded traffic, or directly into an {@link EventHandler}.
+ *
+ * <p>The pace is set by <code>speed</code>: 1 replays at the original pace, 10 ten times faster, and
+ * {@link #AS_FAST_AS_POSSIBLE} ignores the recorded timestamps. Replayed events keep their recorded timestamp.
+ */
+public final class JournalReplayer {
+  public static final double AS_FAST_AS_POSSIBLE = 0;
+
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long ROOM_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final JournalReader reader;
+  private final double speed;
+  private AdvertisementEvent scratch = new AdvertisementEvent();
+  private AdvertisementEvent lookahead = new AdvertisementEvent();
+
+  private long firstTimestamp = Long.MIN_VALUE;
+  private long startNanos;
+
+  public JournalReplayer(final JournalReader reader, final double speed) {
+    if (speed < 0 || Double.isNaN(speed)) {
+      throw new IllegalArgumentException("Speed must be positive, or 0 for as fast as possible, got " + speed);
+    }
+    this.reader = reader;
+    this.speed = speed;
+  }
+
+  /**
+   * Replay up to the end of the journal into a ring, waiting for room rather than dropping events.
+   *
+   * @return the number of events replayed
+   */
+  public long replay(final EventRing ring) throws IOException {
+    long n = 0;
+    while (reader.next(scratch)) {
+      pace(scratch.getTimestamp());
+      long seq = EventRing.NO_SEQUENCE;
+      while (seq == EventRing.NO_SEQUENCE) {
+        // wait for room first: a claim on a full ring counts as a drop
+        if (ring.getDepth() < ring.getSize()) {
+          seq = ring.tryNext();
+        }
+        if (seq == EventRing.NO_SEQUENCE) {
+          LockSupport.parkNanos(ROOM_PARK_NANOS);
+        }
+      }
+      ring.get(seq).copyFrom(scratch);
+      ring.publish(seq);
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Replay up to the end of the journal into a handler, on the calling thread; sequences start from 0.
+   *
+   * @return the number of events replayed
+   */
+  public long replay(final EventHandler handler) throws Exception {
+    long n = 0;
+    boolean more = reader.next(scratch);
+    while (more) {
+      pace(scratch.getTimestamp());
+      // read one ahead to flag the end of the batch
+      more = reader.next(lookahead);
+      handler.onEvent(scratch, n++, ! more);
+      final AdvertisementEvent e = scratch;
+      scratch = lookahead;
+      lookahead = e;
+    }
+    return n;
+  }
+
+  // private methods
+
+  private void pace(final long timestamp) {
+    if (speed == AS_FAST_AS_POSSIBLE) {
+      return;
+    }
+    if (firstTimestamp == Long.MIN_VALUE) {
+      firstTimestamp = timestamp;
+      startNanos = System.nanoTime();
+      return;
+    }
+    final long due = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(timestamp - firstTimestamp) / speed);
+    long wait;
+    while ((wait = due - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(Math.min(wait, MAX_PARK_NANOS));
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package com.gpaglia.bt.examples.journal;
+
+import static com.gpaglia.bt.examples.journal.JournalFormat.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.stream.Stream;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only writer of the advertisement journal, see {@link JournalFormat}.
+ *
+ * <p>Records are copied into a memory mapped segment with absolute puts: appending neither allocates nor makes a
+ * system call, the kernel writes the pages back. A full segment is rolled to a new one, numbered after the ones
+ * already in the directory; with <code>maxSegments</code> set, the oldest segments are deleted beyond it.
+ *
+ * <p>Not thread safe: append from one thread, e.g. a ring consumer (see {@link JournalHandler}).
+ */
+public final class JournalWriter implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(JournalWriter.class);
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+  public static final int MIN_SEGMENT_SIZE = DATA_START + RECORD_HEADER + AdvertisementEvent.MAX_PAYLOAD + 2;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  // oldest first
+  private final ArrayDeque<Path> segments = new ArrayDeque<>();
+
+  private long segment;
+  private MappedByteBuffer buffer;
+  private int position;
+  private int indexCount;
+  private int recordCount;
+  private long lastIndexed;
+  private long records;
+  private boolean closed;
+
+  public JournalWriter(final Path directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE, 0);
+  }
+
+  /**
+   * @param segmentSize the size of each segment file, at least {@link #MIN_SEGMENT_SIZE}
+   * @param maxSegments the number of segments to retain, 0 for all
+   */
+  public JournalWriter(final Path directory, final int segmentSize, final int maxSegments) throws IOException {
+    if (segmentSize < MIN_SEGMENT_SIZE) {
+      throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + ", got " + segmentSize);
+    }
+    if (maxSegments < 0) {
+      throw new IllegalArgumentException("Retained segments cannot be negative, got " + maxSegments);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    Files.createDirectories(directory);
+    try (Stream<Path> files = Files.list(directory)) {
+      files
+          .filter(f -> segmentNumber(f) >= 0)
+          .sorted((a, b) -> Long.compareUnsigned(segmentNumber(a), segmentNumber(b)))
+          .forEach(segments::add);
+    }
+    this.segment = segments.isEmpty() ? 0 : segmentNumber(segments.getLast()) + 1;
+    roll();
+  }
+
+  public Path getDirectory() { return directory; }
+
+  /** Number of records appended by this writer. */
+  public long getRecords() { return records; }
+
+  /** Sequence number of the segment being written. */
+  public long getSegment() { return segment; }
+
+  public void append(final AdvertisementEvent event) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Journal " + directory + " is closed");
+    }
+    final int payloadLength = event.getPayloadLength();
+    final int length = RECORD_HEADER + payloadLength;
+    // keep room for the terminating zero length
+    if (position + length + 2 > segmentSize) {
+      buffer.force();
+      segment++;
+      roll();
+    }
+
+    final long timestamp = event.getTimestamp();
+    if (recordCount == 0) {
+      buffer.putLong(H_FIRST_TIMESTAMP, timestamp);
+    }
+    if ((indexCount == 0 || timestamp - lastIndexed >= INDEX_INTERVAL) && indexCount < INDEX_CAPACITY) {
+      buffer.putLong(HEADER_SIZE + indexCount * INDEX_ENTRY, timestamp);
+      buffer.putInt(HEADER_SIZE + indexCount * INDEX_ENTRY + 8, position);
+      VarHandle.releaseFence();
+      buffer.putInt(H_INDEX_COUNT, ++indexCount);
+      lastIndexed = timestamp;
+    }
+
+    final int p = position;
+    buffer.put(p + R_KIND, (byte) event.getKind().ordinal());
+    buffer.put(p + R_RSSI, (byte) event.getRssi());
+    buffer.put(p + R_ADAPTER, (byte) event.getAdapterIndex());
+    buffer.put(p + R_PAYLOAD_LENGTH, (byte) payloadLength);
+    buffer.putInt(p + R_MONITOR, event.getMonitorId());
+    buffer.putLong(p + R_TIMESTAMP, timestamp);
+    final long address = event.getAddress();
+    buffer.putInt(p + R_ADDRESS, (int) address);
+    buffer.putShort(p + R_ADDRESS + 4, (short) (address >>> 32));
+    final byte[] payload = event.getPayload();
+    for (int i = 0; i < payloadLength; i++) {
+      buffer.put(p + RECORD_HEADER + i, payload[i]);
+    }
+    // published last, after the record: readers stop at a zero length
+    VarHandle.releaseFence();
+    buffer.putShort(p + R_LENGTH, (short) length);
+
+    position += length;
+    buffer.putLong(H_LAST_TIMESTAMP, timestamp);
+    buffer.putInt(H_RECORD_COUNT, ++recordCount);
+    records++;
+  }
+
+  /** Ask the kernel to write the current segment back to disk. */
+  public void flush() {
+    if (! closed) {
+      buffer.force();
+    }
+  }
+
+  @Override
+  public void close() {
+    if (! closed) {
+      buffer.force();
+      closed = true;
+      buffer = null;
+      LOGGER.info("Journal {} closed after {} records", directory, records);
+    }
+  }
+
+  // private methods
+
+  private void roll() throws IOException {
+    final Path file = directory.resolve(segmentName(segment));
+    try (FileChannel channel = FileChannel.open(
+        file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // the mapping outlives the channel; new file pages read as zeros, i.e. as the end of the records
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(H_MAGIC, MAGIC);
+    buffer.putInt(H_VERSION, VERSION);
+    buffer.putLong(H_SEGMENT, segment);
+    position = DATA_START;
+    indexCount = 0;
+    recordCount = 0;
+    segments.add(file);
+    LOGGER.debug("Journal segment {} created", file);
+
+    while (maxSegments > 0 && segments.size() > maxSegments) {
+      final Path oldest = segments.poll();
+      Files.deleteIfExists(oldest);
+      LOGGER.debug("Journal segment {} deleted", oldest);
+    }
+  }
+}
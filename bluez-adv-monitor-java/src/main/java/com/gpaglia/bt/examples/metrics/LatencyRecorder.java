@@ -0,0 +1,107 @@
+package com.gpaglia.bt.examples.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent latency histogram with log-linear buckets, in the spirit of HdrHistogram: values below 128 are
+ * recorded exactly, larger ones in 64 linear sub-buckets per power of two, i.e. with a relative error below 1/64.
+ * Values are in nanoseconds and clamped to {@link #MAX_VALUE} (about 18 minutes).
+ *
+ * <p>Recording is wait free and allocation free: one atomic increment of a bucket, plus a CAS on the maximum only
+ * when it grows. Reading scans the buckets and is meant for monitoring, not for the hot path; readings are not
+ * atomic snapshots while recording goes on.
+ */
+public final class LatencyRecorder {
+  public static final long MAX_VALUE = (1L << 40) - 1;
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int HALF = 1 << (SUB_BUCKET_BITS - 1);
+  private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(final long nanos) {
+    final long v = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+    counts.getAndIncrement(index(v));
+    long m = max.get();
+    while (v > m && ! max.compareAndSet(m, v)) {
+      m = max.get();
+    }
+  }
+
+  /** Record the time elapsed since a {@link System#nanoTime()} reading. */
+  public void recordSince(final long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public long getCount() {
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      n += counts.get(i);
+    }
+    return n;
+  }
+
+  public long getMax() { return max.get(); }
+
+  /**
+   * The value at a percentile, e.g. 99.9, as the lower bound of its bucket (the exact maximum for 100), or 0 if
+   * nothing was recorded.
+   */
+  public long getValueAtPercentile(final double percentile) {
+    final long count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+    if (percentile >= 100) {
+      return max.get();
+    }
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(valueOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = 0;
+    double sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      final long c = counts.get(i);
+      if (c != 0) {
+        n += c;
+        sum += (double) c * valueOf(i);
+      }
+    }
+    return n == 0 ? 0 : sum / n;
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    max.set(0);
+  }
+
+  // private methods
+
+  // values [0, 128) map to themselves; above, shift s keeps the 7 significant bits: s * 64 + (v >>> s)
+  private static int index(final long v) {
+    final int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS);
+    return shift * HALF + (int) (v >>> shift);
+  }
+
+  private static long valueOf(final int index) {
+    if (index < 2 * HALF) {
+      return index;
+    }
+    final int shift = index / HALF - 1;
+    return (long) (index - shift * HALF) << shift;
+  }
+}
@@ -0,0 +1,274 @@
+package com.gpaglia.bt.examples.mibeacon;
+
+import java.util.Arrays;
+
+import com.gpaglia.bt.examples.ad.AdParser;
+import com.gpaglia.bt.examples.ad.AdSlice;
+import com.gpaglia.bt.examples.registry.MacAddress;
+import com.gpaglia.bt.examples.util.LongSlotIndex;
+
+/**
+ * Decoder of the Xiaomi MiBeacon frames, sent as service data of the <code>0xfe95</code> UUID, into a reused
+ * {@link MiBeaconReading}: straight from the bytes of an {@link AdSlice}, with no allocation per frame.
+ *
+ * <p>Frame layout, little endian: frame control (2 bytes: bit 3 encrypted, bit 4 MAC included, bit 5 capability
+ * included, bit 6 object included, bits 12-15 version), product id (2), frame counter (1), then optionally the MAC
+ * (6, reversed), the capability (1, plus 2 of IO capability when its bit 5 is set) and one object: type (2),
+ * length (1) and data. Encrypted objects need the bind key of the sensor and are reported as such, not decoded.
+ *
+ * <p>Sensors repeat each frame many times; the last frame counter of each device is kept, and a frame with the same
+ * counter is reported as a {@link #DUPLICATE}. Only complete frames are remembered, so a truncated copy never hides
+ * the intact one. At most <code>maxDevices</code> counters are kept: when full, the devices not heard in the last
+ * <code>maxDevices / 2</code> frames are forgotten. Not thread safe: keep one decoder per consumer thread.
+ */
+public final class MiBeaconDecoder {
+  public static final int SERVICE_UUID16 = 0xfe95;
+  public static final int DEFAULT_MAX_DEVICES = 4096;
+
+  /** Decoded, with new readings. */
+  public static final int DECODED = 0;
+  /** Same frame counter as the previous frame of the device, readings not decoded. */
+  public static final int DUPLICATE = 1;
+  /** Valid frame without readings, e.g. a pairing or a connection beacon. */
+  public static final int NO_READING = 2;
+  /** The object is encrypted. */
+  public static final int ENCRYPTED = 3;
+  /** Truncated frame. */
+  public static final int MALFORMED = 4;
+
+  // frame control
+  private static final int FC_ENCRYPTED = 0x0008;
+  private static final int FC_MAC = 0x0010;
+  private static final int FC_CAPABILITY = 0x0020;
+  private static final int FC_OBJECT = 0x0040;
+  private static final int CAPABILITY_IO = 0x20;
+
+  // object types
+  private static final int OBJ_TEMPERATURE = 0x1004;
+  private static final int OBJ_HUMIDITY = 0x1006;
+  private static final int OBJ_ILLUMINANCE = 0x1007;
+  private static final int OBJ_MOISTURE = 0x1008;
+  private static final int OBJ_CONDUCTIVITY = 0x1009;
+  private static final int OBJ_BATTERY = 0x100a;
+  private static final int OBJ_TEMPERATURE_HUMIDITY = 0x100d;
+
+  private final AdParser parser = new AdParser();
+  private final AdSlice slice = new AdSlice();
+  private final int maxDevices;
+  private final LongSlotIndex index;
+  // per slot, MacAddress.INVALID marks a free one
+  private long[] address;
+  private int[] lastCounter;
+  private long[] lastFrame;
+  // complete frames remembered so far
+  private long frames;
+
+  public MiBeaconDecoder() {
+    this(1024);
+  }
+
+  public MiBeaconDecoder(final int expectedDevices) {
+    this(expectedDevices, Math.max(expectedDevices, DEFAULT_MAX_DEVICES));
+  }
+
+  /** @param maxDevices the number of devices whose frame counter is kept, at least 2 */
+  public MiBeaconDecoder(final int expectedDevices, final int maxDevices) {
+    if (maxDevices < 2) {
+      throw new IllegalArgumentException("Max devices must be at least 2, got " + maxDevices);
+    }
+    this.maxDevices = maxDevices;
+    this.index = new LongSlotIndex(expectedDevices);
+    this.address = new long[expectedDevices];
+    this.lastCounter = new int[expectedDevices];
+    this.lastFrame = new long[expectedDevices];
+  }
+
+  /** Number of devices whose last frame counter is kept. */
+  public int getDeviceCount() { return index.size(); }
+
+  /**
+   * Locate the <code>0xfe95</code> service data in raw advertising data and decode it.
+   *
+   * @return one of the constants above, or {@link #NO_READING} if there is no MiBeacon frame
+   */
+  public int decode(final long address, final byte[] payload, final int offset, final int length,
+      final MiBeaconReading into) {
+    if (! parser.wrap(payload, offset, length).serviceData(SERVICE_UUID16, slice)) {
+      into.clear();
+      return NO_READING;
+    }
+    return decode(address, slice, into);
+  }
+
+  /**
+   * Decode a MiBeacon frame, i.e. the service data following the UUID.
+   *
+   * @param address the advertiser address, used when the frame does not include it
+   * @return one of the constants above; the reading is only meaningful for {@link #DECODED}
+   */
+  public int decode(final long address, final AdSlice frame, final MiBeaconReading into) {
+    final int length = frame.length();
+    if (length < 5) {
+      into.clear();
+      return MALFORMED;
+    }
+    final int control = frame.getUInt16(0);
+    final int counter = frame.getUnsigned(4);
+    int p = 5;
+
+    long mac = address;
+    if ((control & FC_MAC) != 0) {
+      if (p + 6 > length) {
+        into.clear();
+        return MALFORMED;
+      }
+      mac = 0;
+      for (int i = 5; i >= 0; i--) {
+        mac = (mac << 8) | frame.getUnsigned(p + i);
+      }
+      p += 6;
+    }
+    into.setHeader(mac, frame.getUInt16(2), counter, control >>> 12);
+
+    if (isDuplicate(mac, counter)) {
+      return DUPLICATE;
+    }
+    final int result = body(control, frame, p, into);
+    // a truncated copy must not turn the intact retransmission into a duplicate
+    if (result != MALFORMED) {
+      remember(mac, counter);
+    }
+    return result;
+  }
+
+  /** Forget the frame counters, e.g. after a sensor reset. */
+  public void clear() {
+    index.clear();
+    Arrays.fill(address, MacAddress.INVALID);
+  }
+
+  // private methods
+
+  // what follows the header and the MAC
+  private static int body(final int control, final AdSlice frame, final int start, final MiBeaconReading into) {
+    final int length = frame.length();
+    int p = start;
+    if ((control & FC_CAPABILITY) != 0) {
+      if (p + 1 > length) {
+        return MALFORMED;
+      }
+      p += (frame.getUnsigned(p) & CAPABILITY_IO) != 0 ? 3 : 1;
+    }
+    if ((control & FC_OBJECT) == 0) {
+      return NO_READING;
+    }
+    if ((control & FC_ENCRYPTED) != 0) {
+      return ENCRYPTED;
+    }
+    if (p + 3 > length) {
+      return MALFORMED;
+    }
+    final int type = frame.getUInt16(p);
+    final int size = frame.getUnsigned(p + 2);
+    p += 3;
+    if (p + size > length) {
+      return MALFORMED;
+    }
+    return object(type, frame, p, size, into);
+  }
+
+  private static int object(final int type, final AdSlice f, final int p, final int size, final MiBeaconReading into) {
+    switch (type) {
+      case OBJ_TEMPERATURE:
+        if (size < 2) {
+          return MALFORMED;
+        }
+        into.setTemperature((short) f.getUInt16(p));
+        return DECODED;
+      case OBJ_HUMIDITY:
+        if (size < 2) {
+          return MALFORMED;
+        }
+        into.setHumidity(f.getUInt16(p));
+        return DECODED;
+      case OBJ_TEMPERATURE_HUMIDITY:
+        if (size < 4) {
+          return MALFORMED;
+        }
+        into.setTemperature((short) f.getUInt16(p));
+        into.setHumidity(f.getUInt16(p + 2));
+        return DECODED;
+      case OBJ_BATTERY:
+        if (size < 1) {
+          return MALFORMED;
+        }
+        into.setBattery(f.getUnsigned(p));
+        return DECODED;
+      case OBJ_ILLUMINANCE:
+        if (size < 3) {
+          return MALFORMED;
+        }
+        into.setIlluminance(f.getUInt16(p) | (f.getUnsigned(p + 2) << 16));
+        return DECODED;
+      case OBJ_MOISTURE:
+        if (size < 1) {
+          return MALFORMED;
+        }
+        into.setMoisture(f.getUnsigned(p));
+        return DECODED;
+      case OBJ_CONDUCTIVITY:
+        if (size < 2) {
+          return MALFORMED;
+        }
+        into.setConductivity(f.getUInt16(p));
+        return DECODED;
+      default:
+        return NO_READING;
+    }
+  }
+
+  private boolean isDuplicate(final long mac, final int counter) {
+    if (mac == MacAddress.INVALID) {
+      return false;
+    }
+    final int slot = index.get(mac);
+    return slot != LongSlotIndex.NO_SLOT && lastCounter[slot] == counter;
+  }
+
+  private void remember(final long mac, final int counter) {
+    if (mac == MacAddress.INVALID) {
+      return;
+    }
+    int slot = index.get(mac);
+    if (slot == LongSlotIndex.NO_SLOT) {
+      if (index.size() >= maxDevices) {
+        forgetOldest();
+      }
+      slot = index.add(mac);
+      ensureCapacity(slot);
+      address[slot] = mac;
+    }
+    lastCounter[slot] = counter;
+    lastFrame[slot] = ++frames;
+  }
+
+  // every device has its own last frame, so at most maxDevices / 2 of them are more recent: at least half go
+  private void forgetOldest() {
+    final long oldest = frames - maxDevices / 2;
+    for (int slot = 0; slot < index.slotLimit(); slot++) {
+      if (address[slot] != MacAddress.INVALID && lastFrame[slot] <= oldest) {
+        index.remove(address[slot]);
+        address[slot] = MacAddress.INVALID;
+      }
+    }
+  }
+
+  private void ensureCapacity(final int slot) {
+    if (slot >= address.length) {
+      final int n = Math.max(slot + 1, address.length << 1);
+      address = Arrays.copyOf(address, n);
+      lastCounter = Arrays.copyOf(lastCounter, n);
+      lastFrame = Arrays.copyOf(lastFrame, n);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.gpaglia.bt.examples.mibeacon;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventHandler;
+
+/**
+ * Ring consumer decoding the MiBeacon frames of the advertisements, see {@link MiBeaconDecoder}, and handing each
+ * new reading to a listener, on the consumer thread. The counters can be read from any thread.
+ */
+public final class MiBeaconHandler implements EventHandler {
+
+  /** Receives the decoded readings; both arguments are reused and only valid for the duration of the call. */
+  @FunctionalInterface
+  public interface Listener {
+    void onReading(MiBeaconReading reading, AdvertisementEvent event) throws Exception;
+  }
+
+  private final MiBeaconDecoder decoder = new MiBeaconDecoder();
+  private final MiBeaconReading reading = new MiBeaconReading();
+  private final Listener listener;
+
+  private final AtomicLong decoded = new AtomicLong();
+  private final AtomicLong duplicates = new AtomicLong();
+  private final AtomicLong encrypted = new AtomicLong();
+  private final AtomicLong malformed = new AtomicLong();
+
+  public MiBeaconHandler(final Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) throws Exception {
+    if (event.getKind() != AdvertisementEvent.Kind.ADVERTISEMENT || event.getPayloadLength() == 0) {
+      return;
+    }
+    switch (decoder.decode(event.getAddress(), event.getPayload(), 0, event.getPayloadLength(), reading)) {
+      case MiBeaconDecoder.DECODED:
+        decoded.incrementAndGet();
+        listener.onReading(reading, event);
+        break;
+      case MiBeaconDecoder.DUPLICATE:
+        duplicates.incrementAndGet();
+        break;
+      case MiBeaconDecoder.ENCRYPTED:
+        encrypted.incrementAndGet();
+        break;
+      case MiBeaconDecoder.MALFORMED:
+        malformed.incrementAndGet();
+        break;
+      default:
+        break;
+    }
+  }
+
+  public long getDecoded() { return decoded.get(); }
+
+  public long getDuplicates() { return duplicates.get(); }
+
+  public long getEncrypted() { return encrypted.get(); }
+
+  public long getMalformed() { return malformed.get(); }
+
+  @Override
+  public String toString() {
+    return "MiBeaconHandler{decoded=" + decoded.get() + ", duplicates=" + duplicates.get()
+        + ", encrypted=" + encrypted.get() + ", malformed=" + malformed.get() + "}";
+  }
+}
@@ -0,0 +1,152 @@
+package com.gpaglia.bt.examples.mibeacon;
+
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+/**
+ * The readings carried by one MiBeacon frame, filled in place by a {@link MiBeaconDecoder}: allocate one per
+ * consumer and reuse it for every frame.
+ *
+ * <p>A frame carries at most one object, i.e. one or two readings; {@link #has(int)} tells which are present.
+ * Values are fixed point integers, as sent: temperatures in tenths of degree Celsius, humidity in tenths of percent.
+ */
+public final class MiBeaconReading {
+  public static final int TEMPERATURE = 0x01;
+  public static final int HUMIDITY = 0x02;
+  public static final int BATTERY = 0x04;
+  public static final int ILLUMINANCE = 0x08;
+  public static final int MOISTURE = 0x10;
+  public static final int CONDUCTIVITY = 0x20;
+
+  private long address;
+  private int productId;
+  private int frameCounter;
+  private int version;
+  private int present;
+
+  private int temperature;
+  private int humidity;
+  private int battery;
+  private int illuminance;
+  private int moisture;
+  private int conductivity;
+
+  public MiBeaconReading clear() {
+    address = MacAddress.INVALID;
+    productId = 0;
+    frameCounter = 0;
+    version = 0;
+    present = 0;
+    return this;
+  }
+
+  /** Address of the sensor: the one in the frame if any, else the advertiser's. */
+  public long getAddress() { return address; }
+
+  public int getProductId() { return productId; }
+
+  /** 8 bit counter, incremented by the sensor for each new frame. */
+  public int getFrameCounter() { return frameCounter; }
+
+  /** MiBeacon version, from the frame control. */
+  public int getVersion() { return version; }
+
+  /** True if the reading(s) given as a mask of the constants above are present. */
+  public boolean has(final int readings) { return (present & readings) == readings; }
+
+  /** Mask of the readings present. */
+  public int getReadings() { return present; }
+
+  /** In tenths of degree Celsius. */
+  public int getTemperature() { return temperature; }
+
+  /** In tenths of percent. */
+  public int getHumidity() { return humidity; }
+
+  /** In percent. */
+  public int getBattery() { return battery; }
+
+  /** In lux. */
+  public int getIlluminance() { return illuminance; }
+
+  /** Soil moisture, in percent. */
+  public int getMoisture() { return moisture; }
+
+  /** Soil conductivity, in uS/cm. */
+  public int getConductivity() { return conductivity; }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("MiBeaconReading{")
+        .append(MacAddress.toString(address))
+        .append(", product=0x").append(Integer.toHexString(productId))
+        .append(", frame=").append(frameCounter);
+    if (has(TEMPERATURE)) {
+      tenths(sb.append(", temperature="), temperature);
+    }
+    if (has(HUMIDITY)) {
+      tenths(sb.append(", humidity="), humidity);
+    }
+    if (has(BATTERY)) {
+      sb.append(", battery=").append(battery);
+    }
+    if (has(ILLUMINANCE)) {
+      sb.append(", illuminance=").append(illuminance);
+    }
+    if (has(MOISTURE)) {
+      sb.append(", moisture=").append(moisture);
+    }
+    if (has(CONDUCTIVITY)) {
+      sb.append(", conductivity=").append(conductivity);
+    }
+    return sb.append('}').toString();
+  }
+
+  // package methods
+
+  void setHeader(final long address, final int productId, final int frameCounter, final int version) {
+    this.address = address;
+    this.productId = productId;
+    this.frameCounter = frameCounter;
+    this.version = version;
+    this.present = 0;
+  }
+
+  void setTemperature(final int temperature) {
+    this.temperature = temperature;
+    present |= TEMPERATURE;
+  }
+
+  void setHumidity(final int humidity) {
+    this.humidity = humidity;
+    present |= HUMIDITY;
+  }
+
+  void setBattery(final int battery) {
+    this.battery = battery;
+    present |= BATTERY;
+  }
+
+  void setIlluminance(final int illuminance) {
+    this.illuminance = illuminance;
+    present |= ILLUMINANCE;
+  }
+
+  void setMoisture(final int moisture) {
+    this.moisture = moisture;
+    present |= MOISTURE;
+  }
+
+  void setConductivity(final int conductivity) {
+    this.conductivity = conductivity;
+    present |= CONDUCTIVITY;
+  }
+
+  // private methods
+
+  private static void tenths(final StringBuilder sb, final int v) {
+    if (v < 0) {
+      sb.append('-');
+    }
+    sb.append(Math.abs(v) / 10).append('.').append(Math.abs(v) % 10);
+  }
+}
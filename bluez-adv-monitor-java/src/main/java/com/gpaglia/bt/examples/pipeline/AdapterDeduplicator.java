@@ -0,0 +1,262 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.MacAddress;
+import com.gpaglia.bt.examples.util.LongSlotIndex;
+
+/**
+ * Cross-adapter deduplication of the merged stream of several adapters (see {@link AdapterRings}), keeping the
+ * adapter with the best RSSI.
+ *
+ * <p>For advertisements, an advertising frame is identified per device by the hash of its payload: the first
+ * adapter reporting a new frame is forwarded and becomes the best one; within the window, the same frame from
+ * another adapter is only forwarded if its RSSI is better, and that adapter then becomes the best one. The repeats
+ * of the best adapter keep being forwarded. Downstream thus sees, for each frame, the adapter hearing it best.
+ *
+ * <p>For found and lost events, the adapters which found each device are tracked per monitor: a device is found
+ * for a monitor when a first adapter finds it, and lost only when the last adapter loses it for that monitor.
+ *
+ * <p>Per-device state lives in primitive arrays indexed by a {@link LongSlotIndex}; the found adapters of a device
+ * are kept in small per-device arrays, one entry per monitor. The frame state of a device is only useful within the window: devices not heard for a window are
+ * dropped, checked once per window of event time, or of wall clock time through {@link #expire(long)}. Not thread
+ * safe: use it from a single thread, e.g. through a {@link DeduplicatingHandler}. The counters can be read from any
+ * thread.
+ */
+public final class AdapterDeduplicator {
+  private static final int NO_ADAPTER = -1;
+  // shortest interval between two sweeps of the devices, in ms
+  private static final long MIN_EXPIRY_INTERVAL = 100;
+
+  private final long windowMillis;
+
+  // advertisements, by device
+  private final LongSlotIndex index;
+  private long[] address;
+  private long[] frameHash;
+  private long[] frameTime;
+  private int[] bestRssi;
+  private int[] bestAdapter;
+  private long nextExpiry = Long.MIN_VALUE;
+
+  // found and lost, by device: the monitors which found it, and for each bit n set when adapter n found it
+  private final LongSlotIndex found;
+  private int[][] foundMonitors;
+  private long[][] foundBy;
+  private int[] foundCount;
+  private int foundPairs;
+
+  private final AtomicLong forwarded = new AtomicLong();
+  private final AtomicLong suppressed = new AtomicLong();
+
+  /**
+   * @param windowMillis the same frame from different adapters is deduplicated within the window
+   */
+  public AdapterDeduplicator(final long windowMillis) {
+    this(windowMillis, 1024);
+  }
+
+  public AdapterDeduplicator(final long windowMillis, final int expectedDevices) {
+    if (windowMillis < 0) {
+      throw new IllegalArgumentException("Window cannot be negative");
+    }
+    this.windowMillis = windowMillis;
+    this.index = new LongSlotIndex(expectedDevices);
+    this.address = new long[expectedDevices];
+    this.frameHash = new long[expectedDevices];
+    this.frameTime = new long[expectedDevices];
+    this.bestRssi = new int[expectedDevices];
+    this.bestAdapter = new int[expectedDevices];
+    this.found = new LongSlotIndex(expectedDevices);
+    this.foundMonitors = new int[expectedDevices][];
+    this.foundBy = new long[expectedDevices][];
+    this.foundCount = new int[expectedDevices];
+    Arrays.fill(address, MacAddress.INVALID);
+  }
+
+  /** Decide whether an event should be forwarded downstream, updating the device state. */
+  public boolean accept(final AdvertisementEvent event) {
+    final boolean forward;
+    switch (event.getKind()) {
+      case FOUND:
+        forward = found(event.getAddress(), event.getMonitorId(), event.getAdapterIndex());
+        break;
+      case LOST:
+        forward = lost(event.getAddress(), event.getMonitorId(), event.getAdapterIndex());
+        break;
+      default:
+        forward = advertisement(event);
+        break;
+    }
+    if (forward) {
+      forwarded.incrementAndGet();
+    } else {
+      suppressed.incrementAndGet();
+    }
+    return forward;
+  }
+
+  /** Drop the devices not heard for a window, at the given time in epoch milliseconds; when the stream is idle. */
+  public void expire(final long now) {
+    nextExpiry = now + Math.max(windowMillis, MIN_EXPIRY_INTERVAL);
+    for (int slot = 0; slot < index.slotLimit(); slot++) {
+      if (address[slot] != MacAddress.INVALID && now - frameTime[slot] >= windowMillis) {
+        index.remove(address[slot]);
+        address[slot] = MacAddress.INVALID;
+      }
+    }
+  }
+
+  /** Devices with advertisement state. */
+  public int getTrackedDevices() { return index.size(); }
+
+  /** (device, monitor) pairs found by at least one adapter. */
+  public int getFoundDevices() { return foundPairs; }
+
+  public long getForwarded() { return forwarded.get(); }
+
+  public long getSuppressed() { return suppressed.get(); }
+
+  @Override
+  public String toString() {
+    return "AdapterDeduplicator{forwarded=" + forwarded.get()
+        + ", suppressed=" + suppressed.get()
+        + ", devices=" + index.size()
+        + '}';
+  }
+
+  // private methods
+
+  private boolean advertisement(final AdvertisementEvent event) {
+    if (event.getTimestamp() >= nextExpiry) {
+      expire(event.getTimestamp());
+    }
+    final int before = index.size();
+    final int slot = slot(event.getAddress());
+    final boolean known = index.size() == before;
+    final int adapter = event.getAdapterIndex();
+    final int rssi = event.getRssi();
+    final long now = event.getTimestamp();
+    // an empty payload is an RSSI only update: compare as unchanged
+    final long hash = event.getPayloadLength() == 0 && known
+        ? frameHash[slot]
+        : AdvertisementCoalescer.hash(event.getPayload(), 0, event.getPayloadLength());
+
+    if (! known || bestAdapter[slot] == NO_ADAPTER || hash != frameHash[slot] || now - frameTime[slot] >= windowMillis) {
+      frameHash[slot] = hash;
+      frameTime[slot] = now;
+      bestRssi[slot] = rssi;
+      bestAdapter[slot] = adapter;
+      return true;
+    }
+    if (adapter == bestAdapter[slot]) {
+      bestRssi[slot] = rssi;
+      return true;
+    }
+    if (rssi != DeviceRegistry.RSSI_UNKNOWN
+        && (bestRssi[slot] == DeviceRegistry.RSSI_UNKNOWN || rssi > bestRssi[slot])) {
+      bestRssi[slot] = rssi;
+      bestAdapter[slot] = adapter;
+      return true;
+    }
+    return false;
+  }
+
+  private boolean found(final long device, final int monitor, final int adapter) {
+    final int before = found.size();
+    final int slot = found.add(device);
+    if (slot >= foundCount.length) {
+      final int n = Math.max(slot + 1, foundCount.length << 1);
+      foundMonitors = Arrays.copyOf(foundMonitors, n);
+      foundBy = Arrays.copyOf(foundBy, n);
+      foundCount = Arrays.copyOf(foundCount, n);
+    }
+    if (found.size() > before) {
+      foundCount[slot] = 0;
+    }
+    int i = foundMonitor(slot, monitor);
+    if (i < 0) {
+      i = addFoundMonitor(slot, monitor);
+    }
+    final long adapters = foundBy[slot][i];
+    foundBy[slot][i] |= bit(adapter);
+    return adapters == 0;
+  }
+
+  private boolean lost(final long device, final int monitor, final int adapter) {
+    final int slot = found.get(device);
+    final int i = slot == LongSlotIndex.NO_SLOT ? -1 : foundMonitor(slot, monitor);
+    if (i < 0) {
+      return true;
+    }
+    foundBy[slot][i] &= ~bit(adapter);
+    if (foundBy[slot][i] != 0) {
+      return false;
+    }
+    final int last = --foundCount[slot];
+    foundMonitors[slot][i] = foundMonitors[slot][last];
+    foundBy[slot][i] = foundBy[slot][last];
+    foundPairs--;
+    if (last == 0) {
+      found.remove(device);
+    }
+    return true;
+  }
+
+  private int foundMonitor(final int slot, final int monitor) {
+    final int[] monitors = foundMonitors[slot];
+    for (int i = 0; i < foundCount[slot]; i++) {
+      if (monitors[i] == monitor) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int addFoundMonitor(final int slot, final int monitor) {
+    final int i = foundCount[slot];
+    if (foundMonitors[slot] == null) {
+      foundMonitors[slot] = new int[2];
+      foundBy[slot] = new long[2];
+    } else if (i == foundMonitors[slot].length) {
+      foundMonitors[slot] = Arrays.copyOf(foundMonitors[slot], i << 1);
+      foundBy[slot] = Arrays.copyOf(foundBy[slot], i << 1);
+    }
+    foundMonitors[slot][i] = monitor;
+    foundBy[slot][i] = 0;
+    foundCount[slot] = i + 1;
+    foundPairs++;
+    return i;
+  }
+
+  // adapters beyond 63 (or unknown) share a bit
+  private static long bit(final int adapter) {
+    return 1L << Math.max(0, Math.min(adapter, 63));
+  }
+
+  private int slot(final long address) {
+    final int before = index.size();
+    final int slot = index.add(address);
+    if (slot >= frameHash.length) {
+      final int n = Math.max(slot + 1, frameHash.length << 1);
+      final int from = this.address.length;
+      this.address = Arrays.copyOf(this.address, n);
+      Arrays.fill(this.address, from, n, MacAddress.INVALID);
+      frameHash = Arrays.copyOf(frameHash, n);
+      frameTime = Arrays.copyOf(frameTime, n);
+      bestRssi = Arrays.copyOf(bestRssi, n);
+      bestAdapter = Arrays.copyOf(bestAdapter, n);
+    }
+    if (index.size() > before) {
+      // recycled slots carry the state of a previous device
+      this.address[slot] = address;
+      frameHash[slot] = 0;
+      frameTime[slot] = 0;
+      bestRssi[slot] = DeviceRegistry.RSSI_UNKNOWN;
+      bestAdapter[slot] = NO_ADAPTER;
+    }
+    return slot;
+  }
+}
@@ -0,0 +1,123 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fan-in of several adapters into one merged {@link EventRing}: each adapter added gets its own ingress ring,
+ * drained by a dedicated worker thread which copies the events, in order, into the merged ring.
+ *
+ * <p>Producers look up their ring with {@link #ringFor(int)} by adapter index, so that a burst on one radio only
+ * fills its own ring: adapters are isolated from each other and their drops are counted separately, while the
+ * merged ring keeps the order of each adapter's events. Events of an adapter without its own ring (e.g. with a
+ * single adapter) go straight to the merged ring, with no extra hop.
+ *
+ * <p>Adapters must be added before {@link #start()}; {@link #ringFor(int)} is thread safe.
+ */
+public final class AdapterRings {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdapterRings.class);
+
+  /** Adapter indexes handled, hci0 to hci15. */
+  public static final int MAX_ADAPTERS = 16;
+
+  private final EventRing merged;
+  private final int ringSize;
+  private final AtomicReferenceArray<EventRing> rings = new AtomicReferenceArray<>(MAX_ADAPTERS);
+
+  /**
+   * @param ringSize size of each ingress ring, a power of 2
+   */
+  public AdapterRings(final EventRing merged, final int ringSize) {
+    this.merged = merged;
+    this.ringSize = ringSize;
+  }
+
+  public EventRing getMerged() { return merged; }
+
+  /** Give an adapter its own ingress ring and worker; returns false if the index is out of range or known. */
+  public synchronized boolean addAdapter(final int adapterIndex) {
+    if (adapterIndex < 0 || adapterIndex >= MAX_ADAPTERS || rings.get(adapterIndex) != null) {
+      return false;
+    }
+    final EventRing ring = new EventRing(ringSize);
+    ring.addConsumer("adapter-hci" + adapterIndex, new Forwarder(merged));
+    rings.set(adapterIndex, ring);
+    return true;
+  }
+
+  /** The ring to publish the events of an adapter into. */
+  public EventRing ringFor(final int adapterIndex) {
+    final EventRing ring = adapterIndex < 0 || adapterIndex >= MAX_ADAPTERS ? null : rings.get(adapterIndex);
+    return ring == null ? merged : ring;
+  }
+
+  public synchronized void start() {
+    int n = 0;
+    for (int i = 0; i < MAX_ADAPTERS; i++) {
+      final EventRing ring = rings.get(i);
+      if (ring != null) {
+        ring.start();
+        n++;
+      }
+    }
+    LOGGER.info("{} adapter workers started", n);
+  }
+
+  /** Stop the workers once they forwarded what was published, then forget the adapters. */
+  public synchronized void stop() {
+    for (int i = 0; i < MAX_ADAPTERS; i++) {
+      final EventRing ring = rings.getAndSet(i, null);
+      if (ring != null) {
+        ring.stop();
+        if (ring.getDropped() > 0) {
+          LOGGER.warn("Adapter hci{} dropped {} events", i, ring.getDropped());
+        }
+      }
+    }
+  }
+
+  /** The indexes of the adapters with their own ingress ring, in increasing order. */
+  public int[] getAdapters() {
+    int n = 0;
+    final int[] adapters = new int[MAX_ADAPTERS];
+    for (int i = 0; i < MAX_ADAPTERS; i++) {
+      if (rings.get(i) != null) {
+        adapters[n++] = i;
+      }
+    }
+    return Arrays.copyOf(adapters, n);
+  }
+
+  /** Events waiting in the ingress ring of an adapter, 0 if it has none. */
+  public long getDepth(final int adapterIndex) {
+    final EventRing ring = ringFor(adapterIndex);
+    return ring == merged ? 0 : ring.getDepth();
+  }
+
+  /** Events dropped by the ingress ring of an adapter, 0 if it has none. */
+  public long getDropped(final int adapterIndex) {
+    final EventRing ring = ringFor(adapterIndex);
+    return ring == merged ? 0 : ring.getDropped();
+  }
+
+  // copies into the merged ring; when full the event is dropped there, and counted by it
+  private static final class Forwarder implements EventHandler {
+    private final EventRing merged;
+
+    private Forwarder(final EventRing merged) {
+      this.merged = merged;
+    }
+
+    @Override
+    public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) {
+      final long seq = merged.tryNext();
+      if (seq != EventRing.NO_SEQUENCE) {
+        merged.get(seq).copyFrom(event);
+        merged.publish(seq);
+      }
+    }
+  }
+}
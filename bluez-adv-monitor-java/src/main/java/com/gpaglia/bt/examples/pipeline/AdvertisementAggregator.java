@@ -0,0 +1,252 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.MacAddress;
+import com.gpaglia.bt.examples.util.LongSlotIndex;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downsamples the advertisements into one {@link AdvertisementSummary} per device and window: count, minimum,
+ * maximum and mean RSSI, and the last payload.
+ *
+ * <p>Windows are aligned on the epoch and emitted every <code>slide</code> ms, each covering the last
+ * <code>window</code> ms: tumbling when both are equal, sliding when the window is a multiple of the slide. Each
+ * device keeps one bucket of statistics per slide in the window, in primitive arrays indexed by a
+ * {@link LongSlotIndex}, and the buckets rotate as time passes, so adding an advertisement is O(1) and nothing is
+ * allocated. A device with no advertisement over a whole window is dropped.
+ *
+ * <p>Time is the event timestamps, and the wall clock given to {@link #advance(long)} when idle: summaries are
+ * emitted at a fixed rate whether devices advertise or not. Late advertisements count in the current bucket.
+ *
+ * <p>Not thread safe: use it from a single thread, e.g. through an {@link AggregatingHandler}. The counters can be
+ * read from any thread.
+ */
+public final class AdvertisementAggregator {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdvertisementAggregator.class);
+
+  /** Receives the summaries, reused and only valid for the duration of the call. */
+  @FunctionalInterface
+  public interface Listener {
+    void onSummary(AdvertisementSummary summary) throws Exception;
+  }
+
+  private final long windowMillis;
+  private final long slideMillis;
+  // buckets per device
+  private final int buckets;
+  private final Listener listener;
+  private final AdvertisementSummary summary = new AdvertisementSummary();
+
+  private final LongSlotIndex index;
+  // by slot
+  private long[] address;
+  private int[] adapterIndex;
+  private long[] lastTimestamp;
+  private byte[] lastPayload;
+  private int[] lastPayloadLength;
+  // by slot * buckets + bucket
+  private int[] count;
+  private int[] rssiCount;
+  private int[] rssiSum;
+  private byte[] minRssi;
+  private byte[] maxRssi;
+
+  // start of the current bucket, aligned on the slide
+  private long periodStart = Long.MIN_VALUE;
+  private int current;
+
+  private final AtomicLong advertisements = new AtomicLong();
+  private final AtomicLong summaries = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  /** Tumbling windows. */
+  public AdvertisementAggregator(final long windowMillis, final Listener listener) {
+    this(windowMillis, windowMillis, listener, 1024);
+  }
+
+  /**
+   * @param windowMillis length of the windows
+   * @param slideMillis emission period, a divisor of the window length
+   */
+  public AdvertisementAggregator(
+      final long windowMillis,
+      final long slideMillis,
+      final Listener listener,
+      final int expectedDevices) {
+    if (slideMillis <= 0 || windowMillis < slideMillis || windowMillis % slideMillis != 0) {
+      throw new IllegalArgumentException("The window " + windowMillis + " must be a multiple of the slide " + slideMillis);
+    }
+    this.windowMillis = windowMillis;
+    this.slideMillis = slideMillis;
+    this.buckets = (int) (windowMillis / slideMillis);
+    this.listener = listener;
+    this.index = new LongSlotIndex(expectedDevices);
+    this.address = new long[expectedDevices];
+    this.adapterIndex = new int[expectedDevices];
+    this.lastTimestamp = new long[expectedDevices];
+    this.lastPayload = new byte[expectedDevices * AdvertisementEvent.MAX_PAYLOAD];
+    this.lastPayloadLength = new int[expectedDevices];
+    this.count = new int[expectedDevices * buckets];
+    this.rssiCount = new int[expectedDevices * buckets];
+    this.rssiSum = new int[expectedDevices * buckets];
+    this.minRssi = new byte[expectedDevices * buckets];
+    this.maxRssi = new byte[expectedDevices * buckets];
+    Arrays.fill(address, MacAddress.INVALID);
+  }
+
+  public long getWindowMillis() { return windowMillis; }
+
+  public long getSlideMillis() { return slideMillis; }
+
+  /** Count an advertisement, first emitting the windows it closes. */
+  public void add(final AdvertisementEvent event) {
+    final long now = event.getTimestamp();
+    advance(now);
+    advertisements.incrementAndGet();
+
+    final int before = index.size();
+    final int slot = index.add(event.getAddress());
+    if (index.size() > before) {
+      ensureCapacity(slot);
+      address[slot] = event.getAddress();
+      Arrays.fill(count, slot * buckets, (slot + 1) * buckets, 0);
+      Arrays.fill(rssiCount, slot * buckets, (slot + 1) * buckets, 0);
+      Arrays.fill(rssiSum, slot * buckets, (slot + 1) * buckets, 0);
+    }
+    adapterIndex[slot] = event.getAdapterIndex();
+    lastTimestamp[slot] = now;
+    lastPayloadLength[slot] = event.getPayloadLength();
+    System.arraycopy(
+        event.getPayload(), 0, lastPayload, slot * AdvertisementEvent.MAX_PAYLOAD, event.getPayloadLength());
+
+    final int b = slot * buckets + current;
+    count[b]++;
+    final int rssi = event.getRssi();
+    if (rssi != DeviceRegistry.RSSI_UNKNOWN) {
+      if (rssiCount[b] == 0 || rssi < minRssi[b]) {
+        minRssi[b] = (byte) rssi;
+      }
+      if (rssiCount[b] == 0 || rssi > maxRssi[b]) {
+        maxRssi[b] = (byte) rssi;
+      }
+      rssiCount[b]++;
+      rssiSum[b] += rssi;
+    }
+  }
+
+  /** Emit the windows ended at the given time, in epoch milliseconds; earlier times are ignored. */
+  public void advance(final long now) {
+    if (periodStart == Long.MIN_VALUE) {
+      periodStart = now - Math.floorMod(now, slideMillis);
+      return;
+    }
+    while (now >= periodStart + slideMillis) {
+      final long end = periodStart + slideMillis;
+      emit(end);
+      periodStart = end;
+      current = (current + 1) % buckets;
+      if (index.size() == 0) {
+        // nothing tracked, no empty windows to go through
+        periodStart = now - Math.floorMod(now, slideMillis);
+        break;
+      }
+      for (int slot = 0; slot < index.slotLimit(); slot++) {
+        final int b = slot * buckets + current;
+        count[b] = 0;
+        rssiCount[b] = 0;
+        rssiSum[b] = 0;
+      }
+    }
+  }
+
+  /** Drop the state of a device, e.g. when it is lost, without emitting its current window. */
+  public void forget(final long address) {
+    final int slot = index.remove(address);
+    if (slot != LongSlotIndex.NO_SLOT) {
+      this.address[slot] = MacAddress.INVALID;
+    }
+  }
+
+  public int getTrackedDevices() { return index.size(); }
+
+  public long getAdvertisements() { return advertisements.get(); }
+
+  public long getSummaries() { return summaries.get(); }
+
+  /** Listener calls which threw, see the log. */
+  public long getFailures() { return failures.get(); }
+
+  @Override
+  public String toString() {
+    return "AdvertisementAggregator{window=" + windowMillis
+        + ", slide=" + slideMillis
+        + ", advertisements=" + advertisements.get()
+        + ", summaries=" + summaries.get()
+        + ", devices=" + index.size()
+        + '}';
+  }
+
+  // private methods
+
+  // one summary per device with advertisements in the window ending at end, idle devices dropped
+  private void emit(final long end) {
+    for (int slot = 0; slot < index.slotLimit(); slot++) {
+      if (address[slot] == MacAddress.INVALID) {
+        continue;
+      }
+      int n = 0;
+      int rssiN = 0;
+      long sum = 0;
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      for (int b = slot * buckets; b < (slot + 1) * buckets; b++) {
+        n += count[b];
+        if (rssiCount[b] > 0) {
+          rssiN += rssiCount[b];
+          sum += rssiSum[b];
+          min = Math.min(min, minRssi[b]);
+          max = Math.max(max, maxRssi[b]);
+        }
+      }
+      if (n == 0) {
+        forget(address[slot]);
+        continue;
+      }
+      summary.set(
+          address[slot], adapterIndex[slot], end - windowMillis, end, n, rssiN, min, max, sum, lastTimestamp[slot]);
+      summary.setLastPayload(lastPayload, slot * AdvertisementEvent.MAX_PAYLOAD, lastPayloadLength[slot]);
+      summaries.incrementAndGet();
+      try {
+        listener.onSummary(summary);
+      } catch (Exception e) {
+        // keep the other devices and the bucket rotation going
+        if (failures.getAndIncrement() == 0) {
+          LOGGER.warn("Summary listener failed, further failures are only counted", e);
+        }
+      }
+    }
+  }
+
+  private void ensureCapacity(final int slot) {
+    if (slot >= address.length) {
+      final int n = Math.max(slot + 1, address.length << 1);
+      final int from = address.length;
+      address = Arrays.copyOf(address, n);
+      Arrays.fill(address, from, n, MacAddress.INVALID);
+      adapterIndex = Arrays.copyOf(adapterIndex, n);
+      lastTimestamp = Arrays.copyOf(lastTimestamp, n);
+      lastPayload = Arrays.copyOf(lastPayload, n * AdvertisementEvent.MAX_PAYLOAD);
+      lastPayloadLength = Arrays.copyOf(lastPayloadLength, n);
+      count = Arrays.copyOf(count, n * buckets);
+      rssiCount = Arrays.copyOf(rssiCount, n * buckets);
+      rssiSum = Arrays.copyOf(rssiSum, n * buckets);
+      minRssi = Arrays.copyOf(minRssi, n * buckets);
+      maxRssi = Arrays.copyOf(maxRssi, n * buckets);
+    }
+  }
+}
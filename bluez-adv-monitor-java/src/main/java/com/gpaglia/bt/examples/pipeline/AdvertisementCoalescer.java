@@ -0,0 +1,172 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.MacAddress;
+import com.gpaglia.bt.examples.util.LongSlotIndex;
+
+/**
+ * Suppresses repeated advertisements, as delivered when discovery runs with <code>DuplicateData</code>.
+ *
+ * <p>For each device the hash of the last forwarded payload is kept; an advertisement is forwarded when its
+ * payload differs, when the window elapsed since the last forwarded one, or when its RSSI moved by at least the
+ * configured threshold. Per-device state lives in primitive arrays indexed by a {@link LongSlotIndex}.
+ *
+ * <p>Once a window elapsed since its last forwarded advertisement, the next one of a device is forwarded whatever
+ * its state: such devices are dropped, checked once per window of event time, or of wall clock time through
+ * {@link #expire(long)}, so that rotating private addresses do not accumulate even without lost events.
+ *
+ * <p>Not thread safe: use it from a single thread, e.g. through a {@link CoalescingHandler}. The counters can be
+ * read from any thread.
+ */
+public final class AdvertisementCoalescer {
+  /** Disables RSSI based forwarding. */
+  public static final int NO_RSSI_THRESHOLD = 0;
+
+  // shortest interval between two sweeps of the devices, in ms
+  private static final long MIN_EXPIRY_INTERVAL = 100;
+
+  private final long windowMillis;
+  private final int rssiThreshold;
+
+  private final LongSlotIndex index;
+  // MacAddress.INVALID marks a free slot
+  private long[] address;
+  private long[] lastHash;
+  private long[] lastForwarded;
+  private int[] lastRssi;
+  private long nextExpiry = Long.MIN_VALUE;
+
+  private final AtomicLong forwarded = new AtomicLong();
+  private final AtomicLong forwardedOnRssi = new AtomicLong();
+  private final AtomicLong suppressed = new AtomicLong();
+
+  /**
+   * @param windowMillis identical payloads from a device are forwarded at most once per window
+   * @param rssiThreshold minimum RSSI change (dBm) forwarding an otherwise identical payload, or
+   *     {@link #NO_RSSI_THRESHOLD}
+   */
+  public AdvertisementCoalescer(final long windowMillis, final int rssiThreshold) {
+    this(windowMillis, rssiThreshold, 1024);
+  }
+
+  public AdvertisementCoalescer(final long windowMillis, final int rssiThreshold, final int expectedDevices) {
+    if (windowMillis < 0 || rssiThreshold < 0) {
+      throw new IllegalArgumentException("Window and threshold cannot be negative");
+    }
+    this.windowMillis = windowMillis;
+    this.rssiThreshold = rssiThreshold;
+    this.index = new LongSlotIndex(expectedDevices);
+    this.address = new long[expectedDevices];
+    this.lastHash = new long[expectedDevices];
+    this.lastForwarded = new long[expectedDevices];
+    this.lastRssi = new int[expectedDevices];
+    Arrays.fill(address, MacAddress.INVALID);
+  }
+
+  public boolean accept(final AdvertisementEvent event) {
+    return accept(
+        event.getAddress(), event.getPayload(), 0, event.getPayloadLength(), event.getRssi(), event.getTimestamp()
+    );
+  }
+
+  /** Decide whether an advertisement should be forwarded downstream, updating the device state if so. */
+  public boolean accept(
+      final long address, final byte[] payload, final int offset, final int length, final int rssi, final long now) {
+    if (now >= nextExpiry) {
+      expire(now);
+    }
+    final int before = index.size();
+    final int slot = index.add(address);
+    ensureCapacity(slot);
+    this.address[slot] = address;
+    // an empty payload is an RSSI only update: compare as unchanged
+    final long hash = length == 0 && index.size() == before ? lastHash[slot] : hash(payload, offset, length);
+
+    final boolean forward;
+    if (index.size() > before || hash != lastHash[slot] || now - lastForwarded[slot] >= windowMillis) {
+      forward = true;
+    } else if (rssiThreshold != NO_RSSI_THRESHOLD
+        && rssi != DeviceRegistry.RSSI_UNKNOWN
+        && lastRssi[slot] != DeviceRegistry.RSSI_UNKNOWN
+        && Math.abs(rssi - lastRssi[slot]) >= rssiThreshold) {
+      forwardedOnRssi.incrementAndGet();
+      forward = true;
+    } else {
+      forward = false;
+    }
+
+    if (forward) {
+      lastHash[slot] = hash;
+      lastForwarded[slot] = now;
+      lastRssi[slot] = rssi;
+      forwarded.incrementAndGet();
+    } else {
+      suppressed.incrementAndGet();
+    }
+    return forward;
+  }
+
+  /** Drop the state of a device, e.g. when it is lost; its next advertisement is always forwarded. */
+  public void forget(final long address) {
+    final int slot = index.remove(address);
+    if (slot != LongSlotIndex.NO_SLOT) {
+      this.address[slot] = MacAddress.INVALID;
+    }
+  }
+
+  /** Drop the devices with nothing forwarded for a window, at the given time in milliseconds; when idle. */
+  public void expire(final long now) {
+    nextExpiry = now + Math.max(windowMillis, MIN_EXPIRY_INTERVAL);
+    for (int slot = 0; slot < index.slotLimit(); slot++) {
+      if (address[slot] != MacAddress.INVALID && now - lastForwarded[slot] >= windowMillis) {
+        index.remove(address[slot]);
+        address[slot] = MacAddress.INVALID;
+      }
+    }
+  }
+
+  public int getTrackedDevices() { return index.size(); }
+
+  public long getForwarded() { return forwarded.get(); }
+
+  /** Forwarded only because of an RSSI change, included in {@link #getForwarded()}. */
+  public long getForwardedOnRssi() { return forwardedOnRssi.get(); }
+
+  public long getSuppressed() { return suppressed.get(); }
+
+  /** 64 bit FNV-1a. */
+  public static long hash(final byte[] data, final int offset, final int length) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = offset; i < offset + length; i++) {
+      h ^= data[i] & 0xff;
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return "AdvertisementCoalescer{forwarded=" + forwarded.get()
+        + ", forwardedOnRssi=" + forwardedOnRssi.get()
+        + ", suppressed=" + suppressed.get()
+        + ", devices=" + index.size()
+        + '}';
+  }
+
+  // private methods
+
+  private void ensureCapacity(final int slot) {
+    if (slot >= lastHash.length) {
+      final int n = Math.max(slot + 1, lastHash.length << 1);
+      final int from = address.length;
+      address = Arrays.copyOf(address, n);
+      Arrays.fill(address, from, n, MacAddress.INVALID);
+      lastHash = Arrays.copyOf(lastHash, n);
+      lastForwarded = Arrays.copyOf(lastForwarded, n);
+      lastRssi = Arrays.copyOf(lastRssi, n);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.Arrays;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+/**
+ * An advertisement related event: a monitor reporting a device as found or lost, or an advertisement received
+ * from a device.
+ *
+ * <p>Instances are mutable and designed to be pre-allocated and reused, e.g. as the slots of an {@link EventRing};
+ * use {@link #copy()} to retain one beyond the callback that received it.
+ */
+public final class AdvertisementEvent {
+  /** Largest payload kept, the size of an extended advertising data set fragment. */
+  public static final int MAX_PAYLOAD = 255;
+
+  public enum Kind { FOUND, LOST, ADVERTISEMENT }
+
+  private Kind kind;
+  private long nanoTime;
+  private long timestamp;
+  private long address;
+  private int adapterIndex;
+  private int monitorId;
+  private int rssi;
+  private final byte[] payload = new byte[MAX_PAYLOAD];
+  private int payloadLength;
+
+  public AdvertisementEvent() {
+    clear();
+  }
+
+  /** Reset all fields; <code>nanoTime</code> and <code>timestamp</code> are set to the current time. */
+  public AdvertisementEvent clear() {
+    kind = Kind.ADVERTISEMENT;
+    nanoTime = System.nanoTime();
+    timestamp = System.currentTimeMillis();
+    address = MacAddress.INVALID;
+    adapterIndex = -1;
+    monitorId = -1;
+    rssi = DeviceRegistry.RSSI_UNKNOWN;
+    payloadLength = 0;
+    return this;
+  }
+
+  public AdvertisementEvent set(final Kind kind, final long address, final int monitorId) {
+    clear();
+    this.kind = kind;
+    this.address = address;
+    this.monitorId = monitorId;
+    return this;
+  }
+
+  public Kind getKind() { return kind; }
+
+  public AdvertisementEvent setKind(final Kind kind) {
+    this.kind = kind;
+    return this;
+  }
+
+  /** Creation time from {@link System#nanoTime()}, for latency measurements only. */
+  public long getNanoTime() { return nanoTime; }
+
+  public AdvertisementEvent setNanoTime(final long nanoTime) {
+    this.nanoTime = nanoTime;
+    return this;
+  }
+
+  /** Creation time in epoch milliseconds. */
+  public long getTimestamp() { return timestamp; }
+
+  public AdvertisementEvent setTimestamp(final long timestamp) {
+    this.timestamp = timestamp;
+    return this;
+  }
+
+  public long getAddress() { return address; }
+
+  public AdvertisementEvent setAddress(final long address) {
+    this.address = address;
+    return this;
+  }
+
+  public int getAdapterIndex() { return adapterIndex; }
+
+  public AdvertisementEvent setAdapterIndex(final int adapterIndex) {
+    this.adapterIndex = adapterIndex;
+    return this;
+  }
+
+  public int getMonitorId() { return monitorId; }
+
+  public AdvertisementEvent setMonitorId(final int monitorId) {
+    this.monitorId = monitorId;
+    return this;
+  }
+
+  public int getRssi() { return rssi; }
+
+  public AdvertisementEvent setRssi(final int rssi) {
+    this.rssi = rssi;
+    return this;
+  }
+
+  /** The raw AD structures; only the first {@link #getPayloadLength()} bytes are valid. Do not retain. */
+  public byte[] getPayload() { return payload; }
+
+  public int getPayloadLength() { return payloadLength; }
+
+  /** Set the payload length after writing directly into {@link #getPayload()}. */
+  public AdvertisementEvent setPayloadLength(final int payloadLength) {
+    if (payloadLength < 0 || payloadLength > MAX_PAYLOAD) {
+      throw new IllegalArgumentException("Invalid payload length " + payloadLength);
+    }
+    this.payloadLength = payloadLength;
+    return this;
+  }
+
+  /** Copy a payload in, truncated to {@link #MAX_PAYLOAD}. */
+  public AdvertisementEvent setPayload(final byte[] src, final int offset, final int length) {
+    payloadLength = Math.min(length, MAX_PAYLOAD);
+    System.arraycopy(src, offset, payload, 0, payloadLength);
+    return this;
+  }
+
+  public AdvertisementEvent copyFrom(final AdvertisementEvent other) {
+    kind = other.kind;
+    nanoTime = other.nanoTime;
+    timestamp = other.timestamp;
+    address = other.address;
+    adapterIndex = other.adapterIndex;
+    monitorId = other.monitorId;
+    rssi = other.rssi;
+    payloadLength = other.payloadLength;
+    System.arraycopy(other.payload, 0, payload, 0, payloadLength);
+    return this;
+  }
+
+  public AdvertisementEvent copy() {
+    return new AdvertisementEvent().copyFrom(this);
+  }
+
+  @Override
+  public String toString() {
+    return "AdvertisementEvent{" + kind
+        + ", " + MacAddress.toString(address)
+        + ", adapter=" + adapterIndex
+        + ", monitor=" + monitorId
+        + ", rssi=" + rssi
+        + ", payload=" + Arrays.toString(Arrays.copyOf(payload, payloadLength))
+        + '}';
+  }
+}
@@ -0,0 +1,377 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import com.gpaglia.bt.examples.util.LongSlotIndex;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ring consumer stage republishing the events as a {@link Flow.Publisher}, honouring the demand of each subscriber.
+ *
+ * <p>Each subscription has its own bounded buffer of pre-allocated events, filled on the ring consumer thread after
+ * its filter, and drained on an executor as the subscriber requests more: a slow subscriber only fills its own
+ * buffer, and when it is full its {@link DropPolicy} decides what is lost, never blocking the ring nor the other
+ * subscribers.
+ *
+ * <p>As for the other handlers, the event passed to {@link Flow.Subscriber#onNext} is reused: it is only valid for
+ * the duration of the call, use {@link AdvertisementEvent#copy()} to retain it. Signals to a subscriber are
+ * serialized, but not necessarily on the same thread.
+ */
+public final class AdvertisementPublisher implements Flow.Publisher<AdvertisementEvent>, EventHandler, AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdvertisementPublisher.class);
+
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /** What a full subscription buffer gives up to make room, or not, for a new event. */
+  public enum DropPolicy {
+    /** Drop the oldest buffered event. */
+    DROP_OLDEST,
+    /** Drop the new event. */
+    DROP_NEWEST,
+    /**
+     * Keep only the latest advertisement of each device: a new advertisement replaces in place the one of the same
+     * device still buffered, if any; when full the oldest event is dropped. Found and lost events are not conflated,
+     * and an advertisement never replaces one buffered before a found or lost event of the device.
+     */
+    CONFLATE
+  }
+
+  private final Executor executor;
+  // copy on write, iterated by the ring consumer thread
+  private volatile Sub[] subscriptions = new Sub[0];
+  private volatile boolean closed;
+  private final AtomicLong lastId = new AtomicLong();
+  // dropped by the subscriptions gone, guarded by this
+  private long retiredDrops;
+
+  /** Deliver on the common fork join pool. */
+  public AdvertisementPublisher() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  public AdvertisementPublisher(final Executor executor) {
+    this.executor = executor;
+  }
+
+  /** Subscribe with the defaults: {@link #DEFAULT_CAPACITY} events, dropping the oldest, no filter. */
+  @Override
+  public void subscribe(final Flow.Subscriber<? super AdvertisementEvent> subscriber) {
+    subscribe(subscriber, DEFAULT_CAPACITY, DropPolicy.DROP_OLDEST, null);
+  }
+
+  /**
+   * Subscribe with a buffer of the given capacity, rounded up to a power of 2.
+   *
+   * @param filter the events to deliver, evaluated on the ring consumer thread, or null for all
+   * @return the subscription, also passed to {@link Flow.Subscriber#onSubscribe}
+   */
+  public Subscription subscribe(
+      final Flow.Subscriber<? super AdvertisementEvent> subscriber,
+      final int capacity,
+      final DropPolicy policy,
+      final Predicate<AdvertisementEvent> filter) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+    }
+    final Sub s = new Sub(subscriber, capacity, policy, filter);
+    subscriber.onSubscribe(s);
+    synchronized (this) {
+      if (! closed) {
+        final Sub[] a = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        a[a.length - 1] = s;
+        subscriptions = a;
+        return s;
+      }
+    }
+    s.complete();
+    return s;
+  }
+
+  public int getSubscriberCount() { return subscriptions.length; }
+
+  /** The current subscriptions, in subscription order. */
+  public List<Subscription> getSubscriptions() { return List.of(subscriptions); }
+
+  /** Events dropped by full buffers, over every subscription, current or gone. */
+  public synchronized long getDropped() {
+    long n = retiredDrops;
+    for (Sub s : subscriptions) {
+      n += s.getDropped();
+    }
+    return n;
+  }
+
+  // on the ring consumer thread
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) {
+    for (Sub s : subscriptions) {
+      s.offer(event);
+    }
+  }
+
+  /** Complete every subscription once it delivered what it holds; later subscribers are completed at once. */
+  @Override
+  public void close() {
+    final Sub[] a;
+    synchronized (this) {
+      closed = true;
+      a = subscriptions;
+      subscriptions = new Sub[0];
+      for (Sub s : a) {
+        retiredDrops += s.getDropped();
+      }
+    }
+    for (Sub s : a) {
+      s.complete();
+    }
+  }
+
+  // private methods
+
+  private synchronized void remove(final Sub s) {
+    final Sub[] a = subscriptions;
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] == s) {
+        retiredDrops += s.getDropped();
+        final Sub[] b = new Sub[a.length - 1];
+        System.arraycopy(a, 0, b, 0, i);
+        System.arraycopy(a, i + 1, b, i, a.length - i - 1);
+        subscriptions = b;
+        return;
+      }
+    }
+  }
+
+  /** The subscription of one subscriber, with its counters. */
+  public interface Subscription extends Flow.Subscription {
+    /** Sequential per publisher, from 1. */
+    long getId();
+
+    DropPolicy getDropPolicy();
+
+    /** Events delivered to the subscriber. */
+    long getDelivered();
+
+    /** Events lost because the buffer was full. */
+    long getDropped();
+
+    /** Advertisements replaced by a later one of the same device, with {@link DropPolicy#CONFLATE}. */
+    long getConflated();
+
+    /** Events buffered, waiting for demand. */
+    int getBuffered();
+  }
+
+  private final class Sub implements Subscription, Runnable {
+    private final long id = lastId.incrementAndGet();
+    private final Flow.Subscriber<? super AdvertisementEvent> subscriber;
+    private final DropPolicy policy;
+    private final Predicate<AdvertisementEvent> filter;
+
+    // guarded by this
+    private final AdvertisementEvent[] buffer;
+    private final int mask;
+    private long head;
+    private long tail;
+    // with CONFLATE, the buffer position of the advertisement of each device
+    private final LongSlotIndex devices;
+    private long[] positions;
+
+    // owned by the drain loop
+    private final AdvertisementEvent delivering = new AdvertisementEvent();
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    // signalled by the drain loop, as onComplete
+    private volatile Throwable failure;
+    private boolean terminated;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+
+    Sub(
+        final Flow.Subscriber<? super AdvertisementEvent> subscriber,
+        final int capacity,
+        final DropPolicy policy,
+        final Predicate<AdvertisementEvent> filter) {
+      this.subscriber = subscriber;
+      this.policy = policy;
+      this.filter = filter;
+      int size = 1;
+      while (size < capacity) {
+        size <<= 1;
+      }
+      this.buffer = new AdvertisementEvent[size];
+      for (int i = 0; i < size; i++) {
+        buffer[i] = new AdvertisementEvent();
+      }
+      this.mask = size - 1;
+      this.devices = policy == DropPolicy.CONFLATE ? new LongSlotIndex(size) : null;
+      this.positions = policy == DropPolicy.CONFLATE ? new long[size] : null;
+    }
+
+    @Override
+    public long getId() { return id; }
+
+    @Override
+    public DropPolicy getDropPolicy() { return policy; }
+
+    @Override
+    public long getDelivered() { return delivered.get(); }
+
+    @Override
+    public long getDropped() { return dropped.get(); }
+
+    @Override
+    public long getConflated() { return conflated.get(); }
+
+    @Override
+    public synchronized int getBuffered() { return (int) (tail - head); }
+
+    @Override
+    public void request(final long n) {
+      if (cancelled) {
+        return;
+      }
+      if (n <= 0) {
+        // rule 3.9, signalled by the drain loop to keep the signals serialized
+        fail(new IllegalArgumentException("Non positive request " + n));
+        return;
+      }
+      requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+      signal();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      remove(this);
+    }
+
+    // on the ring consumer thread
+    void offer(final AdvertisementEvent event) {
+      if (cancelled || (filter != null && ! filter.test(event))) {
+        return;
+      }
+      synchronized (this) {
+        if (policy == DropPolicy.CONFLATE) {
+          if (event.getKind() == AdvertisementEvent.Kind.ADVERTISEMENT) {
+            final int slot = devices.get(event.getAddress());
+            if (slot != LongSlotIndex.NO_SLOT) {
+              // still buffered: its position was not taken yet
+              buffer[(int) positions[slot] & mask].copyFrom(event);
+              conflated.incrementAndGet();
+              return;
+            }
+          } else {
+            // the next advertisements go after this event, not in place of one buffered before it
+            devices.remove(event.getAddress());
+          }
+        }
+        if (tail - head == buffer.length) {
+          if (policy == DropPolicy.DROP_NEWEST) {
+            dropped.incrementAndGet();
+            return;
+          }
+          forget(buffer[(int) head & mask], head);
+          head++;
+          dropped.incrementAndGet();
+        }
+        final long position = tail++;
+        buffer[(int) position & mask].copyFrom(event);
+        if (policy == DropPolicy.CONFLATE && event.getKind() == AdvertisementEvent.Kind.ADVERTISEMENT) {
+          final int slot = devices.add(event.getAddress());
+          if (slot >= positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(slot + 1, positions.length << 1));
+          }
+          positions[slot] = position;
+        }
+      }
+      // without demand, the request to come drains it
+      if (requested.get() > 0) {
+        signal();
+      }
+    }
+
+    void complete() {
+      completed = true;
+      signal();
+    }
+
+    void fail(final Throwable t) {
+      if (failure == null) {
+        failure = t;
+      }
+      cancel();
+      signal();
+    }
+
+    // the drain loop, on the executor
+    @Override
+    public void run() {
+      int missed = 1;
+      do {
+        while (! cancelled && requested.get() > 0 && take()) {
+          requested.decrementAndGet();
+          delivered.incrementAndGet();
+          try {
+            subscriber.onNext(delivering);
+          } catch (RuntimeException e) {
+            LOGGER.warn("Subscriber {} failed, cancelling its subscription", subscriber, e);
+            fail(e);
+          }
+        }
+        if (! terminated) {
+          if (failure != null) {
+            terminated = true;
+            subscriber.onError(failure);
+          } else if (! cancelled && completed && getBuffered() == 0) {
+            terminated = true;
+            subscriber.onComplete();
+          }
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void signal() {
+      if (wip.getAndIncrement() == 0) {
+        executor.execute(this);
+      }
+    }
+
+    // copy the oldest event out, so that the ring thread can reuse its buffer slot while it is delivered
+    private synchronized boolean take() {
+      if (head == tail) {
+        return false;
+      }
+      final AdvertisementEvent e = buffer[(int) head & mask];
+      delivering.copyFrom(e);
+      forget(e, head);
+      head++;
+      return true;
+    }
+
+    // guarded by this: the event at the position leaves the buffer
+    private void forget(final AdvertisementEvent e, final long position) {
+      if (devices != null && e.getKind() == AdvertisementEvent.Kind.ADVERTISEMENT) {
+        final int slot = devices.get(e.getAddress());
+        if (slot != LongSlotIndex.NO_SLOT && positions[slot] == position) {
+          devices.remove(e.getAddress());
+        }
+      }
+    }
+  }
+}
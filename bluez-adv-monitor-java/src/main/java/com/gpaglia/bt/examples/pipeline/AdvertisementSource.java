@@ -0,0 +1,30 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.io.IOException;
+import java.util.function.IntFunction;
+
+/**
+ * Where advertisement events come from: bluetoothd over D-Bus, or the advertising reports of an HCI controller.
+ *
+ * <p>A source publishes its events straight into the ring of their adapter, as given by e.g.
+ * {@link AdapterRings#ringFor(int)}; when a ring is full the event is dropped there, a source never blocks.
+ */
+public interface AdvertisementSource extends AutoCloseable {
+
+  /** A short name, for logs. */
+  String getName();
+
+  /**
+   * Start publishing; returns once the source is started.
+   *
+   * @param rings the ring of an adapter, by adapter index
+   */
+  void start(IntFunction<EventRing> rings) throws IOException;
+
+  /** Events published so far, dropped ones included. */
+  long getEventCount();
+
+  /** Stop publishing and release the source; safe to call more than once, or before {@link #start}. */
+  @Override
+  void close();
+}
@@ -0,0 +1,114 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.Arrays;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+/**
+ * The advertisements of one device over one window, filled in place by an {@link AdvertisementAggregator}: only
+ * valid for the duration of the listener call, use {@link #copy()} to retain one.
+ */
+public final class AdvertisementSummary {
+  private long address;
+  private int adapterIndex;
+  private long windowStart;
+  private long windowEnd;
+  private int count;
+  private int rssiCount;
+  private int minRssi;
+  private int maxRssi;
+  private long rssiSum;
+  private long lastTimestamp;
+  private final byte[] lastPayload = new byte[AdvertisementEvent.MAX_PAYLOAD];
+  private int lastPayloadLength;
+
+  public long getAddress() { return address; }
+
+  /** Adapter of the last advertisement. */
+  public int getAdapterIndex() { return adapterIndex; }
+
+  /** Start of the window, inclusive, in epoch milliseconds. */
+  public long getWindowStart() { return windowStart; }
+
+  /** End of the window, exclusive, in epoch milliseconds. */
+  public long getWindowEnd() { return windowEnd; }
+
+  /** Advertisements received in the window. */
+  public int getCount() { return count; }
+
+  /** Advertisements with an RSSI, the others are left out of the RSSI statistics. */
+  public int getRssiCount() { return rssiCount; }
+
+  /** In dBm, {@link DeviceRegistry#RSSI_UNKNOWN} without RSSI. */
+  public int getMinRssi() { return rssiCount == 0 ? DeviceRegistry.RSSI_UNKNOWN : minRssi; }
+
+  public int getMaxRssi() { return rssiCount == 0 ? DeviceRegistry.RSSI_UNKNOWN : maxRssi; }
+
+  public double getMeanRssi() { return rssiCount == 0 ? DeviceRegistry.RSSI_UNKNOWN : (double) rssiSum / rssiCount; }
+
+  /** Time of the last advertisement of the device, possibly before the window if it sent none in it. */
+  public long getLastTimestamp() { return lastTimestamp; }
+
+  /** Payload of the last advertisement; only the first {@link #getLastPayloadLength()} bytes are valid. */
+  public byte[] getLastPayload() { return lastPayload; }
+
+  public int getLastPayloadLength() { return lastPayloadLength; }
+
+  public AdvertisementSummary copy() {
+    final AdvertisementSummary s = new AdvertisementSummary();
+    s.address = address;
+    s.adapterIndex = adapterIndex;
+    s.windowStart = windowStart;
+    s.windowEnd = windowEnd;
+    s.count = count;
+    s.rssiCount = rssiCount;
+    s.minRssi = minRssi;
+    s.maxRssi = maxRssi;
+    s.rssiSum = rssiSum;
+    s.lastTimestamp = lastTimestamp;
+    s.lastPayloadLength = lastPayloadLength;
+    System.arraycopy(lastPayload, 0, s.lastPayload, 0, lastPayloadLength);
+    return s;
+  }
+
+  @Override
+  public String toString() {
+    return "AdvertisementSummary{" + MacAddress.toString(address)
+        + ", window=[" + windowStart + ", " + windowEnd + ")"
+        + ", count=" + count
+        + ", rssi=" + getMinRssi() + "/" + String.format("%.1f", getMeanRssi()) + "/" + getMaxRssi()
+        + ", payload=" + Arrays.toString(Arrays.copyOf(lastPayload, lastPayloadLength))
+        + '}';
+  }
+
+  // package methods
+
+  void set(
+      final long address,
+      final int adapterIndex,
+      final long windowStart,
+      final long windowEnd,
+      final int count,
+      final int rssiCount,
+      final int minRssi,
+      final int maxRssi,
+      final long rssiSum,
+      final long lastTimestamp) {
+    this.address = address;
+    this.adapterIndex = adapterIndex;
+    this.windowStart = windowStart;
+    this.windowEnd = windowEnd;
+    this.count = count;
+    this.rssiCount = rssiCount;
+    this.minRssi = minRssi;
+    this.maxRssi = maxRssi;
+    this.rssiSum = rssiSum;
+    this.lastTimestamp = lastTimestamp;
+  }
+
+  void setLastPayload(final byte[] src, final int offset, final int length) {
+    System.arraycopy(src, offset, lastPayload, 0, length);
+    lastPayloadLength = length;
+  }
+}
@@ -0,0 +1,28 @@
+package com.gpaglia.bt.examples.pipeline;
+
+/**
+ * Ring consumer stage feeding the advertisements to an {@link AdvertisementAggregator}; when the ring is idle the
+ * aggregator is advanced with the wall clock, so that summaries keep their rate. Found and lost events are ignored:
+ * a lost device ages out with its last window.
+ */
+public final class AggregatingHandler implements EventHandler {
+  private final AdvertisementAggregator aggregator;
+
+  public AggregatingHandler(final AdvertisementAggregator aggregator) {
+    this.aggregator = aggregator;
+  }
+
+  public AdvertisementAggregator getAggregator() { return aggregator; }
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) {
+    if (event.getKind() == AdvertisementEvent.Kind.ADVERTISEMENT) {
+      aggregator.add(event);
+    }
+  }
+
+  @Override
+  public void onTimeout(final long sequence) {
+    aggregator.advance(System.currentTimeMillis());
+  }
+}
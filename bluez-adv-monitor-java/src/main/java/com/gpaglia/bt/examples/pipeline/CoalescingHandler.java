@@ -0,0 +1,42 @@
+package com.gpaglia.bt.examples.pipeline;
+
+/**
+ * Ring consumer stage forwarding to a downstream handler only the advertisements accepted by an
+ * {@link AdvertisementCoalescer}. Found and lost events always pass, a lost device's state is dropped; when the
+ * ring is idle, the coalescer drops the devices with nothing forwarded for a window.
+ */
+public final class CoalescingHandler implements EventHandler {
+  private final AdvertisementCoalescer coalescer;
+  private final EventHandler downstream;
+
+  public CoalescingHandler(final AdvertisementCoalescer coalescer, final EventHandler downstream) {
+    this.coalescer = coalescer;
+    this.downstream = downstream;
+  }
+
+  public AdvertisementCoalescer getCoalescer() { return coalescer; }
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) throws Exception {
+    switch (event.getKind()) {
+      case ADVERTISEMENT:
+        if (coalescer.accept(event)) {
+          downstream.onEvent(event, sequence, endOfBatch);
+        }
+        break;
+      case LOST:
+        coalescer.forget(event.getAddress());
+        downstream.onEvent(event, sequence, endOfBatch);
+        break;
+      default:
+        downstream.onEvent(event, sequence, endOfBatch);
+        break;
+    }
+  }
+
+  @Override
+  public void onTimeout(final long sequence) throws Exception {
+    coalescer.expire(System.currentTimeMillis());
+    downstream.onTimeout(sequence);
+  }
+}
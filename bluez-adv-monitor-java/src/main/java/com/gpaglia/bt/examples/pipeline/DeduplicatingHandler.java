@@ -0,0 +1,30 @@
+package com.gpaglia.bt.examples.pipeline;
+
+/**
+ * Ring consumer stage forwarding to a downstream handler only the events accepted by an
+ * {@link AdapterDeduplicator}; when the ring is idle, the deduplicator drops the devices not heard for a window.
+ */
+public final class DeduplicatingHandler implements EventHandler {
+  private final AdapterDeduplicator deduplicator;
+  private final EventHandler downstream;
+
+  public DeduplicatingHandler(final AdapterDeduplicator deduplicator, final EventHandler downstream) {
+    this.deduplicator = deduplicator;
+    this.downstream = downstream;
+  }
+
+  public AdapterDeduplicator getDeduplicator() { return deduplicator; }
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) throws Exception {
+    if (deduplicator.accept(event)) {
+      downstream.onEvent(event, sequence, endOfBatch);
+    }
+  }
+
+  @Override
+  public void onTimeout(final long sequence) throws Exception {
+    deduplicator.expire(System.currentTimeMillis());
+    downstream.onTimeout(sequence);
+  }
+}
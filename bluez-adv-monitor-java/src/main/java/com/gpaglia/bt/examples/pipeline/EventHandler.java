@@ -0,0 +1,25 @@
+package com.gpaglia.bt.examples.pipeline;
+
+/**
+ * Consumer of the events published into an {@link EventRing}, invoked on the consumer's dedicated thread.
+ */
+@FunctionalInterface
+public interface EventHandler {
+  /**
+   * Handle one event. The event is a ring slot: it is only valid for the duration of the call and must not be
+   * modified.
+   *
+   * @param endOfBatch true for the last event currently available, a good point to flush any buffered work
+   */
+  void onEvent(AdvertisementEvent event, long sequence, boolean endOfBatch) throws Exception;
+
+  /**
+   * Called on the consumer thread when no event has been available for a while, at most once per
+   * {@link EventProcessor#TIMEOUT_NANOS}; a hook for time driven work such as expiry.
+   *
+   * @param sequence the last sequence handled
+   */
+  default void onTimeout(long sequence) throws Exception {
+    // nop
+  }
+}
@@ -0,0 +1,142 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batch draining consumer of an {@link EventRing}, running its {@link EventHandler} on a dedicated daemon thread.
+ *
+ * <p>When idle the thread spins briefly, then yields, then parks, each park twice as long as the previous one from
+ * {@link #MIN_PARK_NANOS} up to {@link #MAX_PARK_NANOS}: a busy consumer delivers within microseconds, an idle
+ * one wakes a few hundred times per second and delivers within {@link #MAX_PARK_NANOS}. While idle,
+ * {@link EventHandler#onTimeout(long)} is called before parking, at most once per {@link #TIMEOUT_NANOS}.
+ */
+public final class EventProcessor implements Runnable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventProcessor.class);
+
+  public static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  public static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+  /** Shortest interval between two {@link EventHandler#onTimeout(long)} calls of an idle consumer. */
+  public static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /** Largest batch handed to the handler before the consumer sequence is advanced. */
+  public static final int MAX_BATCH = 256;
+
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 10;
+  private static final int PARKING = SPIN_TRIES + YIELD_TRIES;
+
+  private final EventRing ring;
+  private final String name;
+  private final EventHandler handler;
+  private final AtomicLong sequence;
+  private final AtomicLong errors = new AtomicLong();
+
+  private volatile boolean running;
+  private Thread thread;
+
+  EventProcessor(final EventRing ring, final String name, final EventHandler handler, final long initial) {
+    this.ring = ring;
+    this.name = name;
+    this.handler = handler;
+    this.sequence = new AtomicLong(initial);
+  }
+
+  public String getName() { return name; }
+
+  /** Last sequence handled by this consumer. */
+  public long getSequence() { return sequence.get(); }
+
+  /** Number of exceptions thrown by the handler. */
+  public long getErrors() { return errors.get(); }
+
+  @Override
+  public void run() {
+    long next = sequence.get() + 1;
+    int idle = 0;
+    long park = MIN_PARK_NANOS;
+    long lastTimeout = System.nanoTime();
+    while (true) {
+      final long claimed = ring.getCursor();
+      final long hi = claimed < next ? next - 1 : ring.highestPublished(next, Math.min(claimed, next + MAX_BATCH - 1));
+      if (hi >= next) {
+        for (long s = next; s <= hi; s++) {
+          try {
+            handler.onEvent(ring.get(s), s, s == hi);
+          } catch (Exception e) {
+            if (errors.getAndIncrement() == 0) {
+              LOGGER.error("Consumer {} failed handling event {}", name, s, e);
+            }
+          }
+        }
+        sequence.lazySet(hi);
+        next = hi + 1;
+        idle = 0;
+        park = MIN_PARK_NANOS;
+      } else if (! running) {
+        break;
+      } else if (idle < PARKING) {
+        idle = idle(idle);
+      } else {
+        final long now = System.nanoTime();
+        if (now - lastTimeout >= TIMEOUT_NANOS) {
+          lastTimeout = now;
+          timeout(next - 1);
+        }
+        LockSupport.parkNanos(park);
+        park = Math.min(park << 1, MAX_PARK_NANOS);
+      }
+    }
+    LOGGER.info("Consumer {} stopped at sequence {}", name, sequence.get());
+  }
+
+  // package methods
+
+  synchronized void start() {
+    running = true;
+    thread = new Thread(this, "event-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void halt() {
+    running = false;
+  }
+
+  void join() {
+    final Thread t = thread;
+    if (t != null) {
+      LockSupport.unpark(t);
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // private methods
+
+  private void timeout(final long last) {
+    try {
+      handler.onTimeout(last);
+    } catch (Exception e) {
+      if (errors.getAndIncrement() == 0) {
+        LOGGER.error("Consumer {} failed handling timeout", name, e);
+      }
+    }
+  }
+
+  private static int idle(final int counter) {
+    if (counter < SPIN_TRIES) {
+      Thread.onSpinWait();
+    } else {
+      Thread.yield();
+    }
+    return counter + 1;
+  }
+}
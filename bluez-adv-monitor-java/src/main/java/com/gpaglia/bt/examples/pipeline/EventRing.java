@@ -0,0 +1,160 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-allocated multi-producer, multi-consumer ring of {@link AdvertisementEvent} slots, in the style of the
+ * LMAX disruptor.
+ *
+ * <p>Producers (the D-Bus dispatch threads) claim a sequence with {@link #tryNext()}, fill the slot returned by
+ * {@link #get(long)} and make it visible with {@link #publish(long)}. Claiming never blocks: when the slowest
+ * consumer is a full ring behind, the event is dropped and counted, so a slow consumer can never stall the bus
+ * reader. Every consumer sees every event, on its own thread, in batches (see {@link EventProcessor}).
+ *
+ * <p>Consumers must be added before {@link #start()}.
+ */
+public final class EventRing {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EventRing.class);
+
+  public static final long NO_SEQUENCE = -1L;
+
+  private final AdvertisementEvent[] slots;
+  private final int mask;
+  private final int indexShift;
+
+  // highest claimed sequence
+  private final AtomicLong cursor = new AtomicLong(NO_SEQUENCE);
+  // per slot, the round (sequence >>> indexShift) of the last event published into it
+  private final AtomicIntegerArray available;
+  private final AtomicLong dropped = new AtomicLong();
+
+  private volatile EventProcessor[] processors = new EventProcessor[0];
+  private volatile long gatingCache = NO_SEQUENCE;
+  private volatile boolean started;
+
+  public EventRing(final int size) {
+    if (size < 2 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("Ring size must be a power of 2: " + size);
+    }
+    this.slots = new AdvertisementEvent[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new AdvertisementEvent();
+    }
+    this.mask = size - 1;
+    this.indexShift = Integer.numberOfTrailingZeros(size);
+    this.available = new AtomicIntegerArray(size);
+    for (int i = 0; i < size; i++) {
+      available.set(i, -1);
+    }
+  }
+
+  public int getSize() { return slots.length; }
+
+  /** Number of events dropped because the ring was full. */
+  public long getDropped() { return dropped.get(); }
+
+  /** Highest claimed sequence, not necessarily published yet. */
+  public long getCursor() { return cursor.get(); }
+
+  /** Events published and not yet consumed by the slowest consumer. */
+  public long getDepth() { return Math.max(0, cursor.get() - minimumGatingSequence()); }
+
+  /** Events published and not yet consumed by a consumer of this ring. */
+  public long getDepth(final EventProcessor consumer) { return Math.max(0, cursor.get() - consumer.getSequence()); }
+
+  /** The consumers, in the order they were added. */
+  public List<EventProcessor> getConsumers() { return List.of(processors); }
+
+  /** Add a consumer with its own dedicated thread, started by {@link #start()}. */
+  public synchronized EventProcessor addConsumer(final String name, final EventHandler handler) {
+    if (started) {
+      throw new IllegalStateException("Consumers must be added before the ring is started");
+    }
+    final EventProcessor p = new EventProcessor(this, name, handler, cursor.get());
+    final EventProcessor[] current = processors;
+    final EventProcessor[] next = Arrays.copyOf(current, current.length + 1);
+    next[current.length] = p;
+    processors = next;
+    return p;
+  }
+
+  public synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    for (EventProcessor p : processors) {
+      p.start();
+    }
+    LOGGER.info("Event ring of {} slots started with {} consumers", slots.length, processors.length);
+  }
+
+  /** Stop the consumers after they drained what was published, and wait for their threads. */
+  public synchronized void stop() {
+    for (EventProcessor p : processors) {
+      p.halt();
+    }
+    for (EventProcessor p : processors) {
+      p.join();
+    }
+    started = false;
+  }
+
+  /** Claim the next sequence, or return {@link #NO_SEQUENCE} (and count a drop) if the ring is full. */
+  public long tryNext() {
+    while (true) {
+      final long current = cursor.get();
+      final long next = current + 1;
+      final long wrapPoint = next - slots.length;
+      if (wrapPoint > gatingCache) {
+        final long min = minimumGatingSequence();
+        gatingCache = min;
+        if (wrapPoint > min) {
+          dropped.incrementAndGet();
+          return NO_SEQUENCE;
+        }
+      }
+      if (cursor.compareAndSet(current, next)) {
+        return next;
+      }
+    }
+  }
+
+  public AdvertisementEvent get(final long sequence) {
+    return slots[(int) sequence & mask];
+  }
+
+  public void publish(final long sequence) {
+    available.lazySet((int) sequence & mask, (int) (sequence >>> indexShift));
+  }
+
+  // package methods
+
+  boolean isAvailable(final long sequence) {
+    return available.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+  }
+
+  /** Highest contiguous published sequence in [lowerBound, upperBound], or lowerBound - 1. */
+  long highestPublished(final long lowerBound, final long upperBound) {
+    for (long s = lowerBound; s <= upperBound; s++) {
+      if (! isAvailable(s)) {
+        return s - 1;
+      }
+    }
+    return upperBound;
+  }
+
+  private long minimumGatingSequence() {
+    long min = cursor.get();
+    for (EventProcessor p : processors) {
+      min = Math.min(min, p.getSequence());
+    }
+    return min;
+  }
+}
@@ -0,0 +1,38 @@
+package com.gpaglia.bt.examples.registry;
+
+/**
+ * Mutable holder filled by {@link DeviceRegistry#get(long, DeviceInfo)}; reuse one instance per reader.
+ */
+public final class DeviceInfo {
+  long address;
+  long firstSeen;
+  long lastSeen;
+  int rssi;
+  int monitorId;
+  int monitorCount;
+
+  public long getAddress() { return address; }
+
+  public long getFirstSeen() { return firstSeen; }
+
+  public long getLastSeen() { return lastSeen; }
+
+  public int getRssi() { return rssi; }
+
+  /** The monitor which last found the device. */
+  public int getMonitorId() { return monitorId; }
+
+  /** The number of monitors reporting the device. */
+  public int getMonitorCount() { return monitorCount; }
+
+  @Override
+  public String toString() {
+    return "DeviceInfo{" + MacAddress.toString(address)
+        + ", firstSeen=" + firstSeen
+        + ", lastSeen=" + lastSeen
+        + ", rssi=" + rssi
+        + ", monitorId=" + monitorId
+        + ", monitorCount=" + monitorCount
+        + '}';
+  }
+}
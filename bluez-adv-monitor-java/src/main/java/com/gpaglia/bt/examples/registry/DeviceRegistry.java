@@ -0,0 +1,372 @@
+package com.gpaglia.bt.examples.registry;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import com.gpaglia.bt.examples.util.LongSlotIndex;
+
+/**
+ * Registry of the devices currently reported as present by the monitors, keyed by their 48 bit address.
+ *
+ * <p>The registry is split into lock striped segments; each segment is a {@link LongSlotIndex} plus parallel
+ * primitive arrays holding the per-device state, so a tracked device costs a few tens of bytes and no objects.
+ * The ids of the monitors reporting each device are kept in a small per-device array, reused along with the slot:
+ * a device stays present until the last of them lost it. All methods are thread safe.
+ */
+public final class DeviceRegistry {
+  /** Same "no value" marker used by bluez for RSSI. */
+  public static final int RSSI_UNKNOWN = 127;
+
+  private static final int DEFAULT_SEGMENTS = 16;
+
+  private final Segment[] segments;
+  private final int segmentShift;
+
+  public DeviceRegistry() {
+    this(1024);
+  }
+
+  public DeviceRegistry(final int expectedDevices) {
+    this.segments = new Segment[DEFAULT_SEGMENTS];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(Math.max(16, expectedDevices / DEFAULT_SEGMENTS));
+    }
+    this.segmentShift = Integer.numberOfLeadingZeros(DEFAULT_SEGMENTS - 1);
+  }
+
+  /**
+   * Record a device reported by a monitor; returns true if it was not already present, by any monitor.
+   * The first seen time of an already present device is preserved.
+   */
+  public boolean deviceFound(final long address, final int monitorId, final long now) {
+    return segmentFor(address).found(address, monitorId, now);
+  }
+
+  /** Record an advertisement from a present device; returns false (and does nothing) if it is not present. */
+  public boolean deviceSeen(final long address, final int rssi, final long now) {
+    return segmentFor(address).seen(address, rssi, now);
+  }
+
+  /**
+   * Record a device lost by a monitor; returns true if it was the last monitor reporting it, and the device is
+   * no longer present.
+   */
+  public boolean deviceLost(final long address, final int monitorId) {
+    return segmentFor(address).lost(address, monitorId);
+  }
+
+  /** Forget a device, whichever monitors report it; returns true if it was present. */
+  public boolean remove(final long address) {
+    return segmentFor(address).remove(address);
+  }
+
+  /**
+   * Forget the reports of a monitor which is gone, and so will not report its devices lost.
+   *
+   * @return the number of devices no longer present
+   */
+  public int monitorRemoved(final int monitorId) {
+    int n = 0;
+    for (Segment s : segments) {
+      n += s.monitorRemoved(monitorId);
+    }
+    return n;
+  }
+
+  public boolean contains(final long address) {
+    return segmentFor(address).get(address, null);
+  }
+
+  /** Copy the state of a device into <code>into</code>; returns false if it is not present. */
+  public boolean get(final long address, final DeviceInfo into) {
+    return segmentFor(address).get(address, into);
+  }
+
+  public int size() {
+    int n = 0;
+    for (Segment s : segments) {
+      n += s.size();
+    }
+    return n;
+  }
+
+  /** Number of (device, monitor) pairs, each monitor reporting a present device. */
+  public int getReportCount() {
+    int n = 0;
+    for (Segment s : segments) {
+      n += s.reportCount();
+    }
+    return n;
+  }
+
+  /**
+   * Visit a consistent view of each segment in turn, once per device with the monitor which last found it; the
+   * visitor must not call back into the registry.
+   */
+  public void forEach(final Visitor visitor) {
+    for (Segment s : segments) {
+      s.forEach(visitor);
+    }
+  }
+
+  /** As {@link #forEach(Visitor)}, but once per monitor reporting each device. */
+  public void forEachReport(final Visitor visitor) {
+    for (Segment s : segments) {
+      s.forEachReport(visitor);
+    }
+  }
+
+  public void clear() {
+    for (Segment s : segments) {
+      s.clear();
+    }
+  }
+
+  @FunctionalInterface
+  public interface Visitor {
+    void visit(long address, long firstSeen, long lastSeen, int rssi, int monitorId);
+  }
+
+  // private methods
+
+  private Segment segmentFor(final long address) {
+    return segments[LongSlotIndex.mix(address) >>> segmentShift];
+  }
+
+  private static final class Segment {
+    private final StampedLock lock = new StampedLock();
+    private final LongSlotIndex index;
+    // MacAddress.INVALID marks a free slot
+    private long[] address;
+    private long[] firstSeen;
+    private long[] lastSeen;
+    private short[] rssi;
+    private int[] monitorId;
+    // ids of the monitors reporting the device, the first monitorCount in use
+    private int[][] monitors;
+    private int[] monitorCount;
+    private int reportCount;
+
+    Segment(final int capacity) {
+      this.index = new LongSlotIndex(capacity);
+      this.address = new long[capacity];
+      this.firstSeen = new long[capacity];
+      this.lastSeen = new long[capacity];
+      this.rssi = new short[capacity];
+      this.monitorId = new int[capacity];
+      this.monitors = new int[capacity][];
+      this.monitorCount = new int[capacity];
+    }
+
+    boolean found(final long device, final int monitor, final long now) {
+      final long stamp = lock.writeLock();
+      try {
+        final int before = index.size();
+        final int slot = index.add(device);
+        final boolean added = index.size() > before;
+        ensureCapacity(slot);
+        if (added) {
+          address[slot] = device;
+          firstSeen[slot] = now;
+          rssi[slot] = RSSI_UNKNOWN;
+          monitorCount[slot] = 0;
+        }
+        lastSeen[slot] = now;
+        monitorId[slot] = monitor;
+        addMonitor(slot, monitor);
+        return added;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    boolean seen(final long device, final int value, final long now) {
+      final long stamp = lock.writeLock();
+      try {
+        final int slot = index.get(device);
+        if (slot == LongSlotIndex.NO_SLOT) {
+          return false;
+        }
+        lastSeen[slot] = now;
+        rssi[slot] = (short) value;
+        return true;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    boolean lost(final long device, final int monitor) {
+      final long stamp = lock.writeLock();
+      try {
+        final int slot = index.get(device);
+        if (slot == LongSlotIndex.NO_SLOT || !removeMonitor(slot, monitor)) {
+          return false;
+        }
+        if (monitorCount[slot] > 0) {
+          return false;
+        }
+        free(slot);
+        return true;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    boolean remove(final long device) {
+      final long stamp = lock.writeLock();
+      try {
+        final int slot = index.get(device);
+        if (slot == LongSlotIndex.NO_SLOT) {
+          return false;
+        }
+        reportCount -= monitorCount[slot];
+        free(slot);
+        return true;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    int monitorRemoved(final int monitor) {
+      final long stamp = lock.writeLock();
+      try {
+        int n = 0;
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+          if (address[slot] != MacAddress.INVALID && removeMonitor(slot, monitor) && monitorCount[slot] == 0) {
+            free(slot);
+            n++;
+          }
+        }
+        return n;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    boolean get(final long device, final DeviceInfo into) {
+      final long stamp = lock.readLock();
+      try {
+        final int slot = index.get(device);
+        if (slot == LongSlotIndex.NO_SLOT) {
+          return false;
+        }
+        if (into != null) {
+          into.address = device;
+          into.firstSeen = firstSeen[slot];
+          into.lastSeen = lastSeen[slot];
+          into.rssi = rssi[slot];
+          into.monitorId = monitorId[slot];
+          into.monitorCount = monitorCount[slot];
+        }
+        return true;
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    int size() {
+      final long stamp = lock.readLock();
+      try {
+        return index.size();
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    int reportCount() {
+      final long stamp = lock.readLock();
+      try {
+        return reportCount;
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    void forEach(final Visitor visitor) {
+      final long stamp = lock.readLock();
+      try {
+        index.forEach((device, slot) ->
+            visitor.visit(device, firstSeen[slot], lastSeen[slot], rssi[slot], monitorId[slot])
+        );
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    void forEachReport(final Visitor visitor) {
+      final long stamp = lock.readLock();
+      try {
+        index.forEach((device, slot) -> {
+          for (int i = 0; i < monitorCount[slot]; i++) {
+            visitor.visit(device, firstSeen[slot], lastSeen[slot], rssi[slot], monitors[slot][i]);
+          }
+        });
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    void clear() {
+      final long stamp = lock.writeLock();
+      try {
+        index.clear();
+        Arrays.fill(address, MacAddress.INVALID);
+        reportCount = 0;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    private void addMonitor(final int slot, final int monitor) {
+      int[] ids = monitors[slot];
+      final int count = monitorCount[slot];
+      for (int i = 0; i < count; i++) {
+        if (ids[i] == monitor) {
+          return;
+        }
+      }
+      if (ids == null) {
+        ids = monitors[slot] = new int[2];
+      } else if (count == ids.length) {
+        ids = monitors[slot] = Arrays.copyOf(ids, count << 1);
+      }
+      ids[count] = monitor;
+      monitorCount[slot] = count + 1;
+      reportCount++;
+    }
+
+    // false if the monitor did not report the device
+    private boolean removeMonitor(final int slot, final int monitor) {
+      final int[] ids = monitors[slot];
+      final int count = monitorCount[slot];
+      for (int i = 0; i < count; i++) {
+        if (ids[i] == monitor) {
+          ids[i] = ids[count - 1];
+          monitorCount[slot] = count - 1;
+          reportCount--;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void free(final int slot) {
+      index.remove(address[slot]);
+      address[slot] = MacAddress.INVALID;
+      monitorCount[slot] = 0;
+    }
+
+    private void ensureCapacity(final int slot) {
+      if (slot >= firstSeen.length) {
+        final int n = Math.max(slot + 1, firstSeen.length << 1);
+        address = Arrays.copyOf(address, n);
+        firstSeen = Arrays.copyOf(firstSeen, n);
+        lastSeen = Arrays.copyOf(lastSeen, n);
+        rssi = Arrays.copyOf(rssi, n);
+        monitorId = Arrays.copyOf(monitorId, n);
+        monitors = Arrays.copyOf(monitors, n);
+        monitorCount = Arrays.copyOf(monitorCount, n);
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.gpaglia.bt.examples.registry;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ring consumer keeping a {@link DeviceRegistry} up to date.
+ */
+public final class DeviceRegistryHandler implements EventHandler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DeviceRegistryHandler.class);
+
+  private final DeviceRegistry registry;
+
+  public DeviceRegistryHandler(final DeviceRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) {
+    switch (event.getKind()) {
+      case FOUND:
+        if (registry.deviceFound(event.getAddress(), event.getMonitorId(), event.getTimestamp())) {
+          LOGGER.info("Device {} was found by monitor {}", MacAddress.toString(event.getAddress()), event.getMonitorId());
+        }
+        break;
+      case LOST:
+        // still present while another monitor reports it
+        if (registry.deviceLost(event.getAddress(), event.getMonitorId())) {
+          LOGGER.info("Device {} was lost by its last monitor {}",
+              MacAddress.toString(event.getAddress()), event.getMonitorId());
+        }
+        break;
+      case ADVERTISEMENT:
+        registry.deviceSeen(event.getAddress(), event.getRssi(), event.getTimestamp());
+        break;
+      default:
+        break;
+    }
+  }
+}
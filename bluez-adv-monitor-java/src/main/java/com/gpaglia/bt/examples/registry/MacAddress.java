@@ -0,0 +1,80 @@
+package com.gpaglia.bt.examples.registry;
+
+/**
+ * Conversions between textual bluetooth addresses and their 48 bit value packed into a <code>long</code>.
+ */
+public final class MacAddress {
+  public static final long INVALID = -1L;
+
+  private static final String DEVICE_PREFIX = "/dev_";
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private MacAddress() { }
+
+  /** Parse <code>XX:XX:XX:XX:XX:XX</code> (case insensitive); returns {@link #INVALID} if malformed. */
+  public static long parse(final CharSequence s) {
+    return parse(s, 0, ':');
+  }
+
+  /**
+   * Extract the address from a bluez device object path, e.g. <code>/org/bluez/hci0/dev_58_2D_34_32_5A_38</code>
+   * or a child path of it; returns {@link #INVALID} if the path is not a device path.
+   */
+  public static long fromDevicePath(final String path) {
+    final int i = path.indexOf(DEVICE_PREFIX);
+    return i < 0 ? INVALID : parse(path, i + DEVICE_PREFIX.length(), '_');
+  }
+
+  /** Index of the adapter in a bluez object path (<code>/org/bluez/hciN/...</code>), or -1. */
+  public static int adapterIndex(final String path) {
+    final int i = path.indexOf("/hci");
+    if (i < 0) {
+      return -1;
+    }
+    int n = 0;
+    int p = i + 4;
+    if (p >= path.length() || ! Character.isDigit(path.charAt(p))) {
+      return -1;
+    }
+    while (p < path.length() && Character.isDigit(path.charAt(p))) {
+      n = n * 10 + (path.charAt(p++) - '0');
+    }
+    return n;
+  }
+
+  public static String toString(final long address) {
+    final char[] c = new char[17];
+    for (int b = 0; b < 6; b++) {
+      final int v = (int) (address >>> (40 - 8 * b)) & 0xff;
+      c[b * 3] = HEX[v >>> 4];
+      c[b * 3 + 1] = HEX[v & 0x0f];
+      if (b < 5) {
+        c[b * 3 + 2] = ':';
+      }
+    }
+    return new String(c);
+  }
+
+  public static String toDevicePath(final String adapterPath, final long address) {
+    return adapterPath + DEVICE_PREFIX + toString(address).replace(':', '_');
+  }
+
+  // private methods
+
+  private static long parse(final CharSequence s, final int start, final char separator) {
+    if (s.length() < start + 17) {
+      return INVALID;
+    }
+    long v = 0;
+    for (int b = 0; b < 6; b++) {
+      final int p = start + b * 3;
+      final int hi = Character.digit(s.charAt(p), 16);
+      final int lo = Character.digit(s.charAt(p + 1), 16);
+      if (hi < 0 || lo < 0 || (b < 5 && s.charAt(p + 2) != separator)) {
+        return INVALID;
+      }
+      v = (v << 8) | (hi << 4) | lo;
+    }
+    return v;
+  }
+}
@@ -1,5 +1,15 @@
 package com.gpaglia.bt.examples.scan;
 
+import com.gpaglia.bt.examples.ad.AdEncoder;
+import com.gpaglia.bt.examples.bluez.ObjectMirror;
+import com.gpaglia.bt.examples.bluez.ProxyCache;
+import com.gpaglia.bt.examples.mibeacon.MiBeaconDecoder;
+import com.gpaglia.bt.examples.mibeacon.MiBeaconReading;
+import com.gpaglia.bt.examples.pipeline.AdvertisementCoalescer;
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.MacAddress;
+
 import org.bluez.Adapter1;
 import org.bluez.Device1;
 import org.freedesktop.dbus.DBusPath;
@@ -7,6 +17,7 @@ import org.freedesktop.dbus.annotations.DBusInterfaceName;
 import org.freedesktop.dbus.connections.impl.DBusConnection;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.handlers.AbstractInterfacesAddedHandler;
+import org.freedesktop.dbus.handlers.AbstractPropertiesChangedHandler;
 import org.freedesktop.dbus.interfaces.DBusInterface;
 import org.freedesktop.dbus.interfaces.ObjectManager;
 import org.freedesktop.dbus.interfaces.ObjectManager.InterfacesAdded;
@@ -42,6 +53,13 @@ public class ScanExample {
 
   private static final int CONNECTION_TIMEOUT = 5000; // in ms
 
+  private static final int PROXY_CACHE_SIZE = 1024;
+  private static final long PROXY_CACHE_AGE = 10 * 60 * 1000; // in ms
+
+  // duplicate advertisements are forwarded at most once per window, unless RSSI moves by the threshold
+  private static final long COALESCING_WINDOW = 1000; // in ms
+  private static final int COALESCING_RSSI_THRESHOLD = 6; // in dBm
+
   public static void main(String[] args) {
     final int appId = (args.length == 0 || !args[1].matches("[0-9]+")) ? 0 : Integer.parseInt(args[1]);
     final String appPath = SCAN_APP_BASE_PATH + appId;
@@ -51,21 +69,21 @@ public class ScanExample {
         CONNECTION_TIMEOUT)) {
       LOGGER.info("Starting with uniqueName={}, appId={}, appTaht={}\n", conn.getUniqueName(), appId, appPath);
 
-      ObjectManager om = conn.getRemoteObject(BLUEZ_SERVICE_NAME, "/", ObjectManager.class);
-      if (om == null) {
-        LOGGER.error("Could not get a reference to ObjectManager for service {} in path /", BLUEZ_SERVICE_NAME);
-        System.exit(1);
-      }
+      // one GetManagedObjects call, then kept current by signals
+      final ObjectMirror objects = new ObjectMirror(conn);
+      objects.start();
+      final ProxyCache proxies = new ProxyCache(conn, BLUEZ_SERVICE_NAME, PROXY_CACHE_SIZE, PROXY_CACHE_AGE);
+      proxies.start();
 
-      showObjectsAndInterfaces(om);
+      showObjectsAndInterfaces(objects);
 
-      final DBusPath adapterPath = findAdapter(om, null);
+      final DBusPath adapterPath = findAdapter(objects, null);
       if (adapterPath == null) {
         LOGGER.error("Could not find any supportive adapter object");
         System.exit(1);
       }
 
-      final Adapter1 adapter = conn.getRemoteObject(BLUEZ_SERVICE_NAME, adapterPath.toString(), Adapter1.class);
+      final Adapter1 adapter = proxies.get(adapterPath.toString(), Adapter1.class);
 
       if (adapter == null) {
         LOGGER.error("Could not find any Adapter1 on path {}", adapterPath.toString());
@@ -74,8 +92,7 @@ public class ScanExample {
 
       LOGGER.info("Getting properties for adapter {}", adapterPath.toString());
 
-      final Properties adapterPropsObj = conn.getRemoteObject(BLUEZ_SERVICE_NAME, adapterPath.toString(),
-          Properties.class);
+      final Properties adapterPropsObj = proxies.get(adapterPath.toString(), Properties.class);
 
       final Map<String, Variant<?>> adapterProps = adapterPropsObj.GetAll("org.bluez.Adapter1");
       if (adapterProps != null) {
@@ -105,6 +122,44 @@ public class ScanExample {
         
       });
 
+      LOGGER.info("Setting properties changed callback, coalescing duplicate advertisements");
+      final AdvertisementCoalescer coalescer = new AdvertisementCoalescer(COALESCING_WINDOW, COALESCING_RSSI_THRESHOLD);
+      final byte[] payload = new byte[AdvertisementEvent.MAX_PAYLOAD];
+      final MiBeaconDecoder decoder = new MiBeaconDecoder();
+      final MiBeaconReading reading = new MiBeaconReading();
+      conn.addSigHandler(Properties.PropertiesChanged.class, new AbstractPropertiesChangedHandler() {
+        @Override
+        public void handle(Properties.PropertiesChanged s) {
+          if (! BLUEZ_DEVICE_IF.equals(s.getInterfaceName())) {
+            return;
+          }
+          final long address = MacAddress.fromDevicePath(s.getPath());
+          if (address == MacAddress.INVALID) {
+            return;
+          }
+          final Map<String, Variant<?>> changed = s.getPropertiesChanged();
+          final Variant<?> rssi = changed.get("RSSI");
+          final Variant<?> sd = changed.get("ServiceData");
+          final Variant<?> md = changed.get("ManufacturerData");
+          final int rssiValue = rssi == null ? DeviceRegistry.RSSI_UNKNOWN : ((Number) rssi.getValue()).intValue();
+          synchronized (coalescer) {
+            final int len = AdEncoder.encode(
+                sd == null ? null : (Map<?, ?>) sd.getValue(),
+                md == null ? null : (Map<?, ?>) md.getValue(),
+                payload,
+                0,
+                payload.length
+            );
+            if (coalescer.accept(address, payload, 0, len, rssiValue, System.currentTimeMillis())) {
+              LOGGER.info("Advertisement from {}, rssi {}, {} payload bytes", s.getPath(), rssiValue, len);
+              if (decoder.decode(address, payload, 0, len, reading) == MiBeaconDecoder.DECODED) {
+                LOGGER.info("MiBeacon {}", reading);
+              }
+            }
+          }
+        }
+      });
+
       LOGGER.info("Starting discovery, then sleeping ... ");
       adapter.StartDiscovery();
       try {
@@ -114,28 +169,21 @@ public class ScanExample {
       }
 
       adapter.StopDiscovery();
+      LOGGER.info("Advertisements coalescing: {}", coalescer);
       LOGGER.info("Stopped discovery, showing objects and interfaces again ... ");
 
-      showObjectsAndInterfaces(om);
+      showObjectsAndInterfaces(objects);
 
       LOGGER.info("Getting device remote object and printing its properties ...");
-      final DBusPath devicePath = findDevice(om, ADDR);
+      final DBusPath devicePath = findDevice(objects, ADDR);
       if (devicePath == null) {
         LOGGER.info("Device {} not found!", ADDR);
         System.exit(1);
       }
 
-      final Device1 device = conn.getRemoteObject(
-        BLUEZ_SERVICE_NAME,
-        devicePath.toString(),
-        Device1.class
-      );
+      final Device1 device = proxies.get(devicePath.toString(), Device1.class);
 
-      final Properties devicePropsObj = conn.getRemoteObject(
-        BLUEZ_SERVICE_NAME,
-        devicePath.toString(),
-        Properties.class
-      );
+      final Properties devicePropsObj = proxies.get(devicePath.toString(), Properties.class);
 
       final Map<String, Variant<?>> deviceProps = devicePropsObj.GetAll(BLUEZ_DEVICE_IF);
       if (deviceProps != null) {
@@ -155,7 +203,7 @@ public class ScanExample {
         // no op
       }
 
-      showObjectsAndInterfaces(om);
+      showObjectsAndInterfaces(objects);
 
       /*
       LOGGER.info("Monitoring service data {} for device {}...", SERV_DATA_UUID, devicePath);
@@ -184,6 +232,9 @@ public class ScanExample {
       }
       */
 
+      LOGGER.info("Proxies: {}", proxies);
+      proxies.close();
+      objects.close();
       conn.close();
 
       LOGGER.info("Exit normally");
@@ -214,58 +265,45 @@ public class ScanExample {
     showObjectsAndInterfaces(dom);
   }
 
-  private static DBusPath findDevice(final ObjectManager om, final String address) {
-    final Map.Entry<DBusPath, Map<String, Map<String, Variant<?>>>> found = om
-        .GetManagedObjects()
-        .entrySet()
-        .stream()
-        .filter(e -> e.getValue().containsKey(BLUEZ_DEVICE_IF))
-        .filter(e -> {
-          LOGGER.info(
-            "Device {} with address {}", 
-            e.getKey().toString(), 
-            e.getValue().get(BLUEZ_DEVICE_IF).getOrDefault("Address", new Variant<String>("<null>")).toString()
-          );
-          return true;
-        })
-        .filter(e -> address.equalsIgnoreCase((String) e.getValue().get(BLUEZ_DEVICE_IF).get("Address").getValue()))
-        .findFirst()
-        .orElse(null);
+  private static DBusPath findDevice(final ObjectMirror objects, final String address) {
+    final String found = objects.findDevice(address);
 
     if (found != null) {
       LOGGER.info("Found device with address {} ...", address);
 
-      for (Map.Entry<String, Variant<?>> prop : found.getValue().get(BLUEZ_DEVICE_IF).entrySet()) {
+      for (Map.Entry<String, Variant<?>> prop : objects.getProperties(found, BLUEZ_DEVICE_IF).entrySet()) {
         LOGGER.info("\t property >> key: {}, value: {}", prop.getKey(), prop.getValue().toString());
       }
     }
 
-    return found == null ? null : found.getKey();
+    return found == null ? null : new DBusPath(found);
 
   }
 
-  private static DBusPath findAdapter(final ObjectManager om, final String pattern) {
-    final Map.Entry<DBusPath, Map<String, Map<String, Variant<?>>>> found = om
-        .GetManagedObjects()
-        .entrySet()
-        .stream()
-        .filter(e -> e.getValue().containsKey(BLUEZ_ADAPTER_IF))
-        .filter(e -> pattern == null
-            || pattern.equalsIgnoreCase(e.getValue().get(BLUEZ_ADAPTER_IF).get("Address").toString())
-            || e.getKey().toString().endsWith(pattern)
-        )
-        .findFirst()
-        .orElse(null);
+  private static DBusPath findAdapter(final ObjectMirror objects, final String pattern) {
+    final String found = objects.findAdapter(pattern);
 
     if (found != null) {
       LOGGER.info("Found adapter with pattern {} ...", pattern == null ? "<null>" : pattern);
 
-      for (Map.Entry<String, Variant<?>> prop : found.getValue().get(BLUEZ_ADAPTER_IF).entrySet()) {
+      for (Map.Entry<String, Variant<?>> prop : objects.getProperties(found, BLUEZ_ADAPTER_IF).entrySet()) {
         LOGGER.info("\t property >> key: {}, value: {}", prop.getKey(), prop.getValue().toString());
       }
     }
 
-    return found == null ? null : found.getKey();
+    return found == null ? null : new DBusPath(found);
+  }
+
+  private static void showObjectsAndInterfaces(final ObjectMirror objects) {
+    // list all paths discovered
+    for (Map.Entry<String, Map<String, Map<String, Variant<?>>>> e : objects.getObjects().entrySet()) {
+      LOGGER.info("\t >> discovered path {}", e.getKey());
+
+      for (String iface: e.getValue().keySet()) {
+        LOGGER.info("\t\t >> with interface {}", iface);
+      }
+    }
+
   }
 
   private static void showObjectsAndInterfaces(final ObjectManager om) {
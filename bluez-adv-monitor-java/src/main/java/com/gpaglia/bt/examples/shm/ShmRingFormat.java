@@ -0,0 +1,54 @@
+package com.gpaglia.bt.examples.shm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Binary layout of the shared memory event ring; all values are little endian.
+ *
+ * <p>The file is a {@link #HEADER_SIZE} bytes header followed by a power of 2 number of {@link #SLOT_SIZE} bytes
+ * slots. The header holds the magic, version, slot count (s32), slot size (s32), flags (s32), the creation time in
+ * ms (s64) and, alone on its cache line at {@link #H_CURSOR}, the cursor: the sequence the writer publishes next.
+ *
+ * <p>Event <code>n</code> is in slot <code>n &amp; (slots - 1)</code>: stamp (s64), timestamp in ms (s64),
+ * {@link System#nanoTime()} (s64), address (s64), monitor id (s32), kind (u8), rssi (s8), adapter index (s8),
+ * payload length (u8) and the raw advertising data. The stamp is <code>~n</code> while the writer fills the slot,
+ * then <code>n</code>: a reader copies a slot out and checks the stamp before and after, so a slot overwritten
+ * under it is detected and never seen torn.
+ */
+interface ShmRingFormat {
+  int MAGIC = 0x52564441; // "ADVR"
+  int VERSION = 1;
+
+  int HEADER_SIZE = 128;
+  int H_MAGIC = 0;
+  int H_VERSION = 4;
+  int H_SLOTS = 8;
+  int H_SLOT_SIZE = 12;
+  int H_FLAGS = 16;
+  int H_CREATED = 24;
+  int H_CURSOR = 64;
+
+  /** Set by the writer when it closes; a new writer creates a new file. */
+  int F_CLOSED = 0x01;
+
+  int SLOT_SIZE = 320;
+  int S_STAMP = 0;
+  int S_TIMESTAMP = 8;
+  int S_NANO_TIME = 16;
+  int S_ADDRESS = 24;
+  int S_MONITOR = 32;
+  int S_KIND = 36;
+  int S_RSSI = 37;
+  int S_ADAPTER = 38;
+  int S_PAYLOAD_LENGTH = 39;
+  int S_PAYLOAD = 40;
+
+  /** Ordered access to the cursor and the stamps, which are 8 bytes aligned in the mapping. */
+  VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  static int slotOffset(final long sequence, final int mask) {
+    return HEADER_SIZE + (int) (sequence & mask) * SLOT_SIZE;
+  }
+}
@@ -0,0 +1,23 @@
+package com.gpaglia.bt.examples.shm;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventHandler;
+
+/**
+ * Ring consumer copying every event into a {@link ShmRingWriter}. The writer is confined to the consumer thread;
+ * close it only after the ring has been stopped.
+ */
+public final class ShmRingHandler implements EventHandler {
+  private final ShmRingWriter writer;
+
+  public ShmRingHandler(final ShmRingWriter writer) {
+    this.writer = writer;
+  }
+
+  public ShmRingWriter getWriter() { return writer; }
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) {
+    writer.append(event);
+  }
+}
@@ -0,0 +1,157 @@
+package com.gpaglia.bt.examples.shm;
+
+import static com.gpaglia.bt.examples.shm.ShmRingFormat.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+
+/**
+ * Reader of a shared memory event ring written by a {@link ShmRingWriter}, possibly in another process; any
+ * number of readers may follow the same ring, each at its own pace, without any coordination with the writer.
+ *
+ * <p>The ring is mapped read only and each reader keeps its own sequence: {@link #poll(AdvertisementEvent)} copies
+ * the next event out, or returns false when it is caught up; how to wait for more is up to the caller. A reader
+ * more than a ring behind is lapped: it skips to the oldest event still held and counts the others as lost.
+ *
+ * <p>A reader starts at the end of the ring, with the next event published; see {@link #seekOldest()}. Not thread
+ * safe.
+ */
+public final class ShmRingReader implements Closeable {
+  private static final AdvertisementEvent.Kind[] KINDS = AdvertisementEvent.Kind.values();
+
+  private final Path file;
+  private final int slots;
+  private final int mask;
+  private MappedByteBuffer buffer;
+  // for the bulk payload copies
+  private ByteBuffer view;
+  private long next;
+  private long lost;
+
+  public ShmRingReader(final Path file) throws IOException {
+    this.file = file;
+    final MappedByteBuffer b;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        throw new IOException("Not a shared memory ring: " + file);
+      }
+      b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    b.order(ByteOrder.LITTLE_ENDIAN);
+    if (b.getInt(H_MAGIC) != MAGIC || b.getInt(H_VERSION) != VERSION || b.getInt(H_SLOT_SIZE) != SLOT_SIZE) {
+      throw new IOException("Not a version " + VERSION + " shared memory ring: " + file);
+    }
+    this.slots = b.getInt(H_SLOTS);
+    if (slots <= 0 || Integer.bitCount(slots) != 1 || b.capacity() < HEADER_SIZE + (long) slots * SLOT_SIZE) {
+      throw new IOException("Corrupted shared memory ring: " + file);
+    }
+    this.mask = slots - 1;
+    this.buffer = b;
+    this.view = b.duplicate();
+    this.next = getCursor();
+  }
+
+  public Path getFile() { return file; }
+
+  public int getSlots() { return slots; }
+
+  /** When the writer created the ring, in epoch milliseconds. */
+  public long getCreated() { return buffer.getLong(H_CREATED); }
+
+  /** The sequence of the next event the writer publishes. */
+  public long getCursor() { return (long) LONGS.getAcquire(buffer, H_CURSOR); }
+
+  /** The sequence of the next event this reader returns. */
+  public long getSequence() { return next; }
+
+  /** Events overwritten before this reader got to them. */
+  public long getLost() { return lost; }
+
+  /**
+   * True once the writer closed the ring, or a new writer replaced it: no more events will be published, read
+   * what is left then reopen the file to follow the new writer.
+   */
+  public boolean isWriterClosed() {
+    VarHandle.acquireFence();
+    return (buffer.getInt(H_FLAGS) & F_CLOSED) != 0;
+  }
+
+  /** Position on the oldest event still in the ring. */
+  public void seekOldest() {
+    next = Math.max(0, getCursor() - slots);
+  }
+
+  /** Position on the given sequence; it is read if still in the ring, else the reader is lapped. */
+  public void seek(final long sequence) {
+    next = Math.max(0, sequence);
+  }
+
+  /**
+   * Copy the next event out; its <code>nanoTime</code> is the writer's, the same clock for all the processes of a
+   * Linux host.
+   *
+   * @return false if there is no event to read yet
+   */
+  public boolean poll(final AdvertisementEvent event) {
+    while (true) {
+      final long cursor = getCursor();
+      if (next >= cursor) {
+        return false;
+      }
+      if (cursor - next > slots) {
+        lost += cursor - slots - next;
+        next = cursor - slots;
+      }
+      final long n = next;
+      final int p = slotOffset(n, mask);
+      if ((long) LONGS.getAcquire(buffer, p + S_STAMP) != n) {
+        // being overwritten already
+        lost++;
+        next++;
+        continue;
+      }
+
+      final long timestamp = buffer.getLong(p + S_TIMESTAMP);
+      final long nanoTime = buffer.getLong(p + S_NANO_TIME);
+      final long address = buffer.getLong(p + S_ADDRESS);
+      final int monitorId = buffer.getInt(p + S_MONITOR);
+      final int kind = buffer.get(p + S_KIND) & 0xff;
+      final byte rssi = buffer.get(p + S_RSSI);
+      final byte adapterIndex = buffer.get(p + S_ADAPTER);
+      final int payloadLength = buffer.get(p + S_PAYLOAD_LENGTH) & 0xff;
+      view.position(p + S_PAYLOAD);
+      view.get(event.getPayload(), 0, payloadLength);
+
+      // the copy is only valid if the slot still holds the same event
+      VarHandle.loadLoadFence();
+      next++;
+      if ((long) LONGS.getOpaque(buffer, p + S_STAMP) != n || kind >= KINDS.length) {
+        lost++;
+        continue;
+      }
+      event
+          .set(KINDS[kind], address, monitorId)
+          .setTimestamp(timestamp)
+          .setNanoTime(nanoTime)
+          .setRssi(rssi)
+          .setAdapterIndex(adapterIndex)
+          .setPayloadLength(payloadLength);
+      return true;
+    }
+  }
+
+  @Override
+  public void close() {
+    buffer = null;
+    view = null;
+  }
+}
@@ -0,0 +1,151 @@
+package com.gpaglia.bt.examples.shm;
+
+import static com.gpaglia.bt.examples.shm.ShmRingFormat.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single writer of a shared memory event ring, see {@link ShmRingFormat}, for consumers in other processes to read
+ * with a {@link ShmRingReader}; put the file on a tmpfs such as <code>/dev/shm</code> so that it is never written
+ * back to disk.
+ *
+ * <p>Events are copied into the mapped slots with absolute puts and published by a release store of the cursor:
+ * appending neither allocates nor makes a system call, and never waits for the readers, which are lapped when they
+ * fall more than a ring behind.
+ *
+ * <p>The ring is created as a new file, moved over any previous one: readers of a previous writer keep their
+ * mapping, which is flagged closed if that writer is gone. Not thread safe: append from one thread, e.g. a ring
+ * consumer (see {@link ShmRingHandler}).
+ */
+public final class ShmRingWriter implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShmRingWriter.class);
+
+  public static final int DEFAULT_SLOTS = 16384;
+
+  private final Path file;
+  private final int slots;
+  private final int mask;
+  private MappedByteBuffer buffer;
+  // for the bulk payload copies
+  private ByteBuffer view;
+  private long next;
+  private boolean closed;
+
+  public ShmRingWriter(final Path file) throws IOException {
+    this(file, DEFAULT_SLOTS);
+  }
+
+  /** @param slots the number of events the ring holds, a power of 2 */
+  public ShmRingWriter(final Path file, final int slots) throws IOException {
+    if (slots <= 0 || Integer.bitCount(slots) != 1) {
+      throw new IllegalArgumentException("Slots must be a positive power of 2, got " + slots);
+    }
+    if ((long) slots * SLOT_SIZE > Integer.MAX_VALUE - HEADER_SIZE) {
+      throw new IllegalArgumentException("Too many slots " + slots);
+    }
+    this.file = file;
+    this.slots = slots;
+    this.mask = slots - 1;
+
+    markClosed(file);
+    final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // the mapping outlives the channel; new file pages read as zeros, i.e. stamps of no event
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(H_MAGIC, MAGIC);
+    buffer.putInt(H_VERSION, VERSION);
+    buffer.putInt(H_SLOTS, slots);
+    buffer.putInt(H_SLOT_SIZE, SLOT_SIZE);
+    buffer.putLong(H_CREATED, System.currentTimeMillis());
+    // slot 0 must not look like it holds event 0
+    LONGS.setRelease(buffer, slotOffset(0, mask) + S_STAMP, -1L);
+    view = buffer.duplicate();
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOGGER.info("Shared memory ring {} created with {} slots", file, slots);
+  }
+
+  public Path getFile() { return file; }
+
+  public int getSlots() { return slots; }
+
+  /** Number of events appended, also the sequence of the next one. */
+  public long getSequence() { return next; }
+
+  public void append(final AdvertisementEvent event) {
+    if (closed) {
+      throw new IllegalStateException("Shared memory ring " + file + " is closed");
+    }
+    final long n = next;
+    final int p = slotOffset(n, mask);
+    // readers of the previous event in the slot notice the change
+    LONGS.setOpaque(buffer, p + S_STAMP, ~n);
+    VarHandle.storeStoreFence();
+
+    final int payloadLength = event.getPayloadLength();
+    buffer.putLong(p + S_TIMESTAMP, event.getTimestamp());
+    buffer.putLong(p + S_NANO_TIME, event.getNanoTime());
+    buffer.putLong(p + S_ADDRESS, event.getAddress());
+    buffer.putInt(p + S_MONITOR, event.getMonitorId());
+    buffer.put(p + S_KIND, (byte) event.getKind().ordinal());
+    buffer.put(p + S_RSSI, (byte) event.getRssi());
+    buffer.put(p + S_ADAPTER, (byte) event.getAdapterIndex());
+    buffer.put(p + S_PAYLOAD_LENGTH, (byte) payloadLength);
+    view.position(p + S_PAYLOAD);
+    view.put(event.getPayload(), 0, payloadLength);
+
+    LONGS.setRelease(buffer, p + S_STAMP, n);
+    next = n + 1;
+    LONGS.setRelease(buffer, H_CURSOR, next);
+  }
+
+  /** Flag the ring closed for its readers; the file is left in place for them to drain it. */
+  @Override
+  public void close() {
+    if (! closed) {
+      closed = true;
+      buffer.putInt(H_FLAGS, buffer.getInt(H_FLAGS) | F_CLOSED);
+      VarHandle.fullFence();
+      buffer = null;
+      view = null;
+      LOGGER.info("Shared memory ring {} closed after {} events", file, next);
+    }
+  }
+
+  // private methods
+
+  // a previous writer may have died without flagging its ring closed
+  private static void markClosed(final Path file) {
+    if (! Files.exists(file)) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      if (channel.size() >= HEADER_SIZE) {
+        final MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        if (b.getInt(H_MAGIC) == MAGIC) {
+          b.putInt(H_FLAGS, b.getInt(H_FLAGS) | F_CLOSED);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Could not flag the previous shared memory ring {} closed", file, e);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package com.gpaglia.bt.examples.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash index from a primitive <code>long</code> key to a dense, recycled <code>int</code> slot.
+ *
+ * <p>The index only stores keys; callers keep their per-key state in parallel primitive arrays indexed by slot,
+ * which is both compact and cache friendly compared to a map of boxed keys and state objects. Slots are stable
+ * for the lifetime of a key and are reused after removal. Linear probing with backward shift deletion, so no
+ * tombstones accumulate.
+ *
+ * <p>Not thread safe: callers are expected to guard it (see the registry segments).
+ */
+public final class LongSlotIndex {
+  public static final int NO_SLOT = -1;
+
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private long[] keys;
+  // slot + 1, 0 marks an empty bucket
+  private int[] buckets;
+  private int mask;
+  private int size;
+  private int resizeAt;
+
+  private int[] freeSlots;
+  private int freeCount;
+  private int highWater;
+
+  public LongSlotIndex(final int expectedKeys) {
+    final int capacity = tableSizeFor(Math.max(4, (int) (expectedKeys / LOAD_FACTOR)));
+    this.keys = new long[capacity];
+    this.buckets = new int[capacity];
+    this.mask = capacity - 1;
+    this.resizeAt = (int) (capacity * LOAD_FACTOR);
+    this.freeSlots = new int[16];
+  }
+
+  public int size() { return size; }
+
+  /** Upper bound (exclusive) of the slots handed out so far; parallel arrays must be at least this long. */
+  public int slotLimit() { return highWater; }
+
+  public int get(final long key) {
+    int i = mix(key) & mask;
+    int b;
+    while ((b = buckets[i]) != 0) {
+      if (keys[i] == key) {
+        return b - 1;
+      }
+      i = (i + 1) & mask;
+    }
+    return NO_SLOT;
+  }
+
+  /** Slot of the key, allocating one if absent; use {@link #size()} before and after to detect insertion. */
+  public int add(final long key) {
+    int i = mix(key) & mask;
+    int b;
+    while ((b = buckets[i]) != 0) {
+      if (keys[i] == key) {
+        return b - 1;
+      }
+      i = (i + 1) & mask;
+    }
+    final int slot = freeCount > 0 ? freeSlots[--freeCount] : highWater++;
+    keys[i] = key;
+    buckets[i] = slot + 1;
+    if (++size > resizeAt) {
+      rehash(buckets.length << 1);
+    }
+    return slot;
+  }
+
+  /** Remove the key; returns its (now free) slot or {@link #NO_SLOT}. */
+  public int remove(final long key) {
+    int i = mix(key) & mask;
+    int b;
+    while ((b = buckets[i]) != 0) {
+      if (keys[i] == key) {
+        shiftBack(i);
+        size--;
+        if (freeCount == freeSlots.length) {
+          freeSlots = Arrays.copyOf(freeSlots, freeCount << 1);
+        }
+        freeSlots[freeCount++] = b - 1;
+        return b - 1;
+      }
+      i = (i + 1) & mask;
+    }
+    return NO_SLOT;
+  }
+
+  /** Visit every (key, slot) pair, in table order. */
+  public void forEach(final Visitor visitor) {
+    for (int i = 0; i < buckets.length; i++) {
+      if (buckets[i] != 0) {
+        visitor.visit(keys[i], buckets[i] - 1);
+      }
+    }
+  }
+
+  public void clear() {
+    Arrays.fill(buckets, 0);
+    size = 0;
+    freeCount = 0;
+    highWater = 0;
+  }
+
+  public static int mix(final long key) {
+    long h = key * 0x9e3779b97f4a7c15L;
+    h ^= h >>> 32;
+    return (int) (h ^ (h >>> 16));
+  }
+
+  @FunctionalInterface
+  public interface Visitor {
+    void visit(long key, int slot);
+  }
+
+  // private methods
+
+  private void shiftBack(int hole) {
+    int i = hole;
+    while (true) {
+      i = (i + 1) & mask;
+      if (buckets[i] == 0) {
+        break;
+      }
+      final int home = mix(keys[i]) & mask;
+      // move i into the hole unless its home lies cyclically in (hole, i]
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        keys[hole] = keys[i];
+        buckets[hole] = buckets[i];
+        hole = i;
+      }
+    }
+    buckets[hole] = 0;
+  }
+
+  private void rehash(final int capacity) {
+    final long[] oldKeys = keys;
+    final int[] oldBuckets = buckets;
+    keys = new long[capacity];
+    buckets = new int[capacity];
+    mask = capacity - 1;
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+    for (int j = 0; j < oldBuckets.length; j++) {
+      if (oldBuckets[j] != 0) {
+        int i = mix(oldKeys[j]) & mask;
+        while (buckets[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        buckets[i] = oldBuckets[j];
+      }
+    }
+  }
+
+  private static int tableSizeFor(final int n) {
+    return Integer.highestOneBit(n - 1) << 1;
+  }
+}
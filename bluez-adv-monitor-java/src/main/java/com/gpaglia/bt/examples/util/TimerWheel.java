@@ -0,0 +1,236 @@
+package com.gpaglia.bt.examples.util;
+
+import java.util.Arrays;
+
+/**
+ * Hashed hierarchical timer wheel keyed by a primitive <code>long</code>, e.g. a device address.
+ *
+ * <p>Each key has at most one deadline. Timers live in intrusive doubly linked lists threaded through primitive
+ * arrays indexed by a {@link LongSlotIndex} slot, so no object is allocated per timer. {@link #LEVELS} wheels of
+ * {@link #WHEEL_SIZE} buckets each cover <code>64^4</code> ticks; timers further away are parked in the outermost
+ * wheel and cascaded again. Scheduling and cancelling are O(1); advancing costs one step per elapsed tick plus
+ * the timers it cascades or fires.
+ *
+ * <p>Postponing a deadline, the common case when a timeout is re-armed on every advertisement, only updates the
+ * stored deadline: the timer still fires at its old bucket, finds it is not due yet and is filed again.
+ *
+ * <p>Not thread safe: schedule, cancel and advance from one thread, e.g. a ring consumer.
+ */
+public final class TimerWheel {
+  public static final int LEVELS = 4;
+  public static final int WHEEL_BITS = 6;
+  public static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+  private static final long MAX_TICKS = 1L << (LEVELS * WHEEL_BITS);
+  private static final int NONE = -1;
+
+  private final long tickMillis;
+  private final long startMillis;
+  private final LongSlotIndex index;
+  // ticks processed so far: everything due at or before currentTick has fired
+  private long currentTick;
+
+  // per bucket, first slot of its list
+  private final int[] heads = new int[LEVELS * WHEEL_SIZE];
+
+  // per slot
+  private long[] keys;
+  private long[] deadlines;
+  private int[] next;
+  private int[] prev;
+  private int[] bucket;
+
+  public TimerWheel(final long tickMillis, final long startMillis) {
+    this(tickMillis, startMillis, 64);
+  }
+
+  public TimerWheel(final long tickMillis, final long startMillis, final int expectedTimers) {
+    if (tickMillis <= 0) {
+      throw new IllegalArgumentException("Tick must be positive, got " + tickMillis);
+    }
+    this.tickMillis = tickMillis;
+    this.startMillis = startMillis;
+    this.index = new LongSlotIndex(expectedTimers);
+    Arrays.fill(heads, NONE);
+    this.keys = new long[expectedTimers];
+    this.deadlines = new long[expectedTimers];
+    this.next = new int[expectedTimers];
+    this.prev = new int[expectedTimers];
+    this.bucket = new int[expectedTimers];
+  }
+
+  public long getTickMillis() { return tickMillis; }
+
+  /** Number of pending timers. */
+  public int size() { return index.size(); }
+
+  public boolean isScheduled(final long key) {
+    return index.get(key) != LongSlotIndex.NO_SLOT;
+  }
+
+  /** The deadline of the key, or <code>Long.MIN_VALUE</code> if no timer is pending for it. */
+  public long deadline(final long key) {
+    final int slot = index.get(key);
+    return slot == LongSlotIndex.NO_SLOT ? Long.MIN_VALUE : deadlines[slot];
+  }
+
+  /**
+   * Arm, or re-arm, the timer of a key. Deadlines already past fire with the next tick.
+   *
+   * @param deadline in milliseconds, on the clock passed to the constructor and to advance
+   */
+  public void schedule(final long key, final long deadline) {
+    final int before = index.size();
+    final int slot = index.add(key);
+    if (index.size() > before) {
+      ensureCapacity(slot);
+      keys[slot] = key;
+      deadlines[slot] = deadline;
+      file(slot, currentTick + 1);
+    } else if (deadline >= deadlines[slot]) {
+      // lazily postponed: refiled when its current bucket comes due
+      deadlines[slot] = deadline;
+    } else {
+      unlink(slot);
+      deadlines[slot] = deadline;
+      file(slot, currentTick + 1);
+    }
+  }
+
+  /** Disarm the timer of a key; returns false if none was pending. */
+  public boolean cancel(final long key) {
+    final int slot = index.remove(key);
+    if (slot == LongSlotIndex.NO_SLOT) {
+      return false;
+    }
+    unlink(slot);
+    return true;
+  }
+
+  /**
+   * Move time forward, firing every timer due at or before <code>now</code>, in tick order. The listener may
+   * schedule and cancel timers, including the one being fired.
+   *
+   * @return the number of timers fired
+   */
+  public int advance(final long now, final Listener listener) {
+    // last tick fully elapsed at now
+    final long target = Math.max(0, now - startMillis) / tickMillis;
+    if (index.size() == 0) {
+      currentTick = Math.max(currentTick, target);
+      return 0;
+    }
+    int fired = 0;
+    while (currentTick < target) {
+      final long tick = ++currentTick;
+      // outer wheels first: what they cascade may land in the inner buckets due now
+      for (int level = LEVELS - 1; level > 0; level--) {
+        if ((tick & ((1L << (level * WHEEL_BITS)) - 1)) == 0) {
+          cascade(level * WHEEL_SIZE + (int) ((tick >>> (level * WHEEL_BITS)) & WHEEL_MASK));
+        }
+      }
+      final int b = (int) (tick & WHEEL_MASK);
+      int slot;
+      while ((slot = heads[b]) != NONE) {
+        unlink(slot);
+        if (tickOf(deadlines[slot]) > tick) {
+          file(slot, currentTick + 1);
+        } else {
+          final long key = keys[slot];
+          index.remove(key);
+          listener.expired(key);
+          fired++;
+        }
+      }
+      if (index.size() == 0) {
+        currentTick = target;
+      }
+    }
+    return fired;
+  }
+
+  public void clear() {
+    index.clear();
+    Arrays.fill(heads, NONE);
+  }
+
+  @FunctionalInterface
+  public interface Listener {
+    void expired(long key);
+  }
+
+  // private methods
+
+  // first tick at or after the given time
+  private long tickOf(final long millis) {
+    final long elapsed = millis - startMillis;
+    return elapsed <= 0 ? 0 : (elapsed + tickMillis - 1) / tickMillis;
+  }
+
+  private void file(final int slot, final long earliest) {
+    long due = Math.max(tickOf(deadlines[slot]), earliest);
+    long delta = due - currentTick;
+    if (delta >= MAX_TICKS) {
+      due = currentTick + MAX_TICKS - 1;
+      delta = MAX_TICKS - 1;
+    }
+    int level = 0;
+    while (delta >= (1L << ((level + 1) * WHEEL_BITS))) {
+      level++;
+    }
+    link(slot, level * WHEEL_SIZE + (int) ((due >>> (level * WHEEL_BITS)) & WHEEL_MASK));
+  }
+
+  private void cascade(final int b) {
+    int slot = heads[b];
+    heads[b] = NONE;
+    while (slot != NONE) {
+      final int following = next[slot];
+      bucket[slot] = NONE;
+      // the inner buckets of the current tick are still to be processed
+      file(slot, currentTick);
+      slot = following;
+    }
+  }
+
+  private void link(final int slot, final int b) {
+    final int head = heads[b];
+    next[slot] = head;
+    prev[slot] = NONE;
+    if (head != NONE) {
+      prev[head] = slot;
+    }
+    heads[b] = slot;
+    bucket[slot] = b;
+  }
+
+  private void unlink(final int slot) {
+    final int b = bucket[slot];
+    if (b == NONE) {
+      return;
+    }
+    final int n = next[slot];
+    final int p = prev[slot];
+    if (p == NONE) {
+      heads[b] = n;
+    } else {
+      next[p] = n;
+    }
+    if (n != NONE) {
+      prev[n] = p;
+    }
+    bucket[slot] = NONE;
+  }
+
+  private void ensureCapacity(final int slot) {
+    if (slot >= keys.length) {
+      final int n = Math.max(slot + 1, keys.length << 1);
+      keys = Arrays.copyOf(keys, n);
+      deadlines = Arrays.copyOf(deadlines, n);
+      next = Arrays.copyOf(next, n);
+      prev = Arrays.copyOf(prev, n);
+      bucket = Arrays.copyOf(bucket, n);
+    }
+  }
+}
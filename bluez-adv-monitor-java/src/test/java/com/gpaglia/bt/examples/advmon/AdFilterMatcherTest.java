@@ -0,0 +1,203 @@
+package com.gpaglia.bt.examples.advmon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class AdFilterMatcherTest {
+  private static final byte SERVICE_DATA = 0x16;
+  private static final byte MANUFACTURER_DATA = (byte) 0xff;
+
+  @Test
+  void positionOffset() {
+    final List<AdFilter> filters = List.of(filter(2, SERVICE_DATA, 0x20, 0x21));
+    assertMatch(filters, ad(structure(SERVICE_DATA, 0x95, 0xfe, 0x20, 0x21)), true);
+    assertMatch(filters, ad(structure(SERVICE_DATA, 0x20, 0x21, 0x00, 0x00)), false);
+    assertMatch(filters, ad(structure(SERVICE_DATA, 0x95, 0x20, 0x21)), false);
+    // the position is in the data of the structure, not in the advertisement
+    assertMatch(filters, ad(structure(0x01, 0x06), structure(SERVICE_DATA, 0x95, 0xfe, 0x20, 0x21)), true);
+  }
+
+  @Test
+  void overlappingPrefixes() {
+    final List<AdFilter> filters = List.of(
+        filter(0, MANUFACTURER_DATA, 0x01, 0x02, 0x03),
+        filter(0, MANUFACTURER_DATA, 0x01, 0x02),
+        filter(0, MANUFACTURER_DATA, 0x01, 0x04));
+    assertMatch(filters, ad(structure(MANUFACTURER_DATA, 0x01, 0x02, 0x03)), true);
+    assertMatch(filters, ad(structure(MANUFACTURER_DATA, 0x01, 0x02, 0x09)), true);
+    assertMatch(filters, ad(structure(MANUFACTURER_DATA, 0x01, 0x04)), true);
+    assertMatch(filters, ad(structure(MANUFACTURER_DATA, 0x01, 0x03)), false);
+    assertMatch(filters, ad(structure(MANUFACTURER_DATA, 0x01)), false);
+
+    // only the longest one
+    final List<AdFilter> longest = List.of(filter(0, MANUFACTURER_DATA, 0x01, 0x02, 0x03));
+    assertMatch(longest, ad(structure(MANUFACTURER_DATA, 0x01, 0x02)), false);
+  }
+
+  @Test
+  void patternsPastTheEndOfTheData() {
+    final List<AdFilter> filters = List.of(filter(3, SERVICE_DATA, 0x07, 0x08));
+    assertMatch(filters, ad(structure(SERVICE_DATA, 0x00, 0x00, 0x00, 0x07)), false);
+    assertMatch(filters, ad(structure(SERVICE_DATA, 0x00, 0x00, 0x00, 0x07, 0x08)), true);
+    // the bytes following the structure do not count
+    assertMatch(filters, ad(structure(SERVICE_DATA, 0x00, 0x00, 0x00, 0x07), structure(0x08, 0x08)), false);
+    // nor does a structure running past the end of the advertisement
+    final byte[] truncated = ad(structure(SERVICE_DATA, 0x00, 0x00, 0x00, 0x07, 0x08));
+    assertMatch(filters, Arrays.copyOf(truncated, truncated.length - 1), false);
+
+    final List<AdFilter> farAway = List.of(filter(200, SERVICE_DATA, 0x01));
+    assertMatch(farAway, ad(structure(SERVICE_DATA, 0x01)), false);
+  }
+
+  @Test
+  void severalStructuresOfTheSameType() {
+    final List<AdFilter> filters = List.of(filter(0, SERVICE_DATA, 0x95, 0xfe));
+    assertMatch(filters, ad(structure(SERVICE_DATA, 0x0a, 0x18, 0x01), structure(SERVICE_DATA, 0x95, 0xfe)), true);
+    assertMatch(filters, ad(structure(SERVICE_DATA, 0x0a, 0x18, 0x01), structure(SERVICE_DATA, 0x0f, 0x18)), false);
+  }
+
+  @Test
+  void zeroLengthEndsTheData() {
+    final List<AdFilter> filters = List.of(filter(0, SERVICE_DATA, 0x95));
+    assertMatch(filters, ad(new byte[] { 0x00 }, structure(SERVICE_DATA, 0x95)), false);
+    assertMatch(filters, new byte[0], false);
+  }
+
+  @Test
+  void matchesANaiveEvaluation() {
+    final Random random = new Random(7);
+    final byte[] types = { SERVICE_DATA, MANUFACTURER_DATA, 0x09 };
+    for (int i = 0; i < 2000; i++) {
+      final List<AdFilter> filters = new ArrayList<>();
+      for (int n = 1 + random.nextInt(6); n > 0; n--) {
+        final byte[] data = new byte[1 + random.nextInt(3)];
+        for (int j = 0; j < data.length; j++) {
+          data[j] = (byte) random.nextInt(3);
+        }
+        filters.add(new AdFilter((byte) random.nextInt(4), types[random.nextInt(types.length)], data));
+      }
+      final AdFilterMatcher matcher = AdFilterMatcher.compile(filters);
+      for (int k = 0; k < 20; k++) {
+        final byte[] ad = randomAd(random, types);
+        assertMatch(matcher, filters, ad, naive(filters, ad));
+      }
+    }
+  }
+
+  // private methods
+
+  private static void assertMatch(final List<AdFilter> filters, final byte[] ad, final boolean expected) {
+    assertThat(naive(filters, ad), is(expected));
+    assertMatch(AdFilterMatcher.compile(filters), filters, ad, expected);
+  }
+
+  // every entry point, at an offset in a larger array or buffer
+  private static void assertMatch(
+      final AdFilterMatcher matcher,
+      final List<AdFilter> filters,
+      final byte[] ad,
+      final boolean expected) {
+    final byte[] padded = new byte[ad.length + 5];
+    System.arraycopy(ad, 0, padded, 3, ad.length);
+    padded[ad.length + 3] = 0x02;
+    padded[ad.length + 4] = SERVICE_DATA;
+
+    final int m = matcher.match(padded, 3, ad.length);
+    assertThat(m != AdFilterMatcher.NO_MATCH, is(expected));
+    if (expected) {
+      assertThat(naive(List.of(filters.get(m)), ad), is(true));
+    }
+    assertThat(matcher.matches(padded, 3, ad.length), is(expected));
+
+    final ByteBuffer heap = ByteBuffer.wrap(padded, 3, ad.length);
+    assertThat(matcher.match(heap), is(m));
+    assertThat(heap.position(), is(3));
+
+    final ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+    direct.put(padded).position(3).limit(3 + ad.length);
+    assertThat(matcher.match(direct), is(m));
+    assertThat(direct.position(), is(3));
+    assertThat(direct.limit(), is(3 + ad.length));
+  }
+
+  // or_patterns as bluez evaluates them: any pattern found in any structure of its type
+  private static boolean naive(final List<AdFilter> filters, final byte[] ad) {
+    int p = 0;
+    while (p < ad.length) {
+      final int len = ad[p] & 0xff;
+      if (len == 0 || p + 1 + len > ad.length) {
+        return false;
+      }
+      final int dataLen = len - 1;
+      for (AdFilter f : filters) {
+        final int position = f.getPosition() & 0xff;
+        if (f.getAdType() != ad[p + 1] || position + f.getAdDataLength() > dataLen) {
+          continue;
+        }
+        boolean equal = true;
+        for (int j = 0; j < f.getAdDataLength() && equal; j++) {
+          equal = ad[p + 2 + position + j] == f.getAdDataByte(j);
+        }
+        if (equal) {
+          return true;
+        }
+      }
+      p += 1 + len;
+    }
+    return false;
+  }
+
+  private static byte[] randomAd(final Random random, final byte[] types) {
+    final List<byte[]> structures = new ArrayList<>();
+    for (int n = random.nextInt(4); n > 0; n--) {
+      final int[] data = new int[random.nextInt(6)];
+      for (int j = 0; j < data.length; j++) {
+        data[j] = random.nextInt(3);
+      }
+      structures.add(structure(types[random.nextInt(types.length)], data));
+    }
+    final byte[] ad = ad(structures.toArray(new byte[0][]));
+    // sometimes cut in the middle of a structure
+    return random.nextInt(5) == 0 && ad.length > 0 ? Arrays.copyOf(ad, random.nextInt(ad.length)) : ad;
+  }
+
+  private static AdFilter filter(final int position, final byte type, final int... data) {
+    final byte[] bytes = new byte[data.length];
+    for (int i = 0; i < data.length; i++) {
+      bytes[i] = (byte) data[i];
+    }
+    return new AdFilter((byte) position, type, bytes);
+  }
+
+  private static byte[] structure(final int type, final int... data) {
+    final byte[] s = new byte[data.length + 2];
+    s[0] = (byte) (data.length + 1);
+    s[1] = (byte) type;
+    for (int i = 0; i < data.length; i++) {
+      s[i + 2] = (byte) data[i];
+    }
+    return s;
+  }
+
+  private static byte[] ad(final byte[]... structures) {
+    int length = 0;
+    for (byte[] s : structures) {
+      length += s.length;
+    }
+    final byte[] ad = new byte[length];
+    int p = 0;
+    for (byte[] s : structures) {
+      System.arraycopy(s, 0, ad, p, s.length);
+      p += s.length;
+    }
+    return ad;
+  }
+}
@@ -0,0 +1,109 @@
+package com.gpaglia.bt.examples.advmon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+
+import com.gpaglia.bt.examples.pipeline.AdapterRings;
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.AdvertisementPublisher;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+
+import org.junit.jupiter.api.Test;
+
+class MonitorAppMetricsTest {
+  private static final List<AdFilter> MIBEACON =
+      List.of(new AdFilter((byte) 0, (byte) 0x16, new byte[] { (byte) 0x95, (byte) 0xfe }));
+
+  @Test
+  void newMonitorsRateFromTheirCreation() throws InterruptedException {
+    final MonitorApp app = new MonitorApp(1, true);
+    final Monitor monitor = app.newMonitor(MIBEACON);
+    Thread.sleep(50);
+    monitor.eventPublished(AdvertisementEvent.Kind.FOUND);
+    monitor.eventPublished(AdvertisementEvent.Kind.LOST);
+
+    final Map<String, Double> rates = app.getMetrics().getMonitorEventsPerSecond();
+    final double rate = rates.get(monitor.getObjectPath());
+    // two events over at least 50 ms, well within the first window
+    assertThat(rate > 0, is(true));
+    assertThat(rate <= 40, is(true));
+    assertThat(app.getMetrics().getDevicesFound(), is(1L));
+    assertThat(app.getMetrics().getDevicesLost(), is(1L));
+  }
+
+  @Test
+  void consumerDepths() {
+    final EventRing ring = new EventRing(8);
+    ring.addConsumer("stalled", (event, sequence, endOfBatch) -> { });
+    final MonitorAppMetrics metrics = new MonitorAppMetrics(new AdapterRings(ring, 8), List::of, () -> null);
+    assertThat(metrics.getConsumerDepths(), is(Map.of("stalled", 0L)));
+    for (int i = 0; i < 3; i++) {
+      ring.publish(ring.tryNext());
+    }
+    assertThat(metrics.getConsumerDepths(), is(Map.of("stalled", 3L)));
+    assertThat(metrics.getRingDepth(), is(3L));
+  }
+
+  @Test
+  void adapterDepthsAndDrops() {
+    final EventRing merged = new EventRing(8);
+    final AdapterRings rings = new AdapterRings(merged, 4);
+    rings.addAdapter(1);
+    final MonitorAppMetrics metrics = new MonitorAppMetrics(rings, List::of, () -> null);
+    // never started: the worker does not drain the ingress ring
+    final EventRing ingress = rings.ringFor(1);
+    for (int i = 0; i < 6; i++) {
+      final long seq = ingress.tryNext();
+      if (seq != EventRing.NO_SEQUENCE) {
+        ingress.publish(seq);
+      }
+    }
+    assertThat(metrics.getAdapterDepths(), is(Map.of("hci1", 4L)));
+    assertThat(metrics.getAdapterDrops(), is(Map.of("hci1", 2L)));
+    assertThat(metrics.getRingDrops(), is(0L));
+  }
+
+  @Test
+  void subscriptionDrops() {
+    final AdvertisementPublisher publisher = new AdvertisementPublisher(Runnable::run);
+    final MonitorAppMetrics metrics =
+        new MonitorAppMetrics(new AdapterRings(new EventRing(8), 8), List::of, () -> publisher);
+    final AdvertisementPublisher.Subscription first = publisher.subscribe(
+        new Idle(), 2, AdvertisementPublisher.DropPolicy.DROP_NEWEST, null);
+    final AdvertisementPublisher.Subscription second = publisher.subscribe(
+        new Idle(), 4, AdvertisementPublisher.DropPolicy.DROP_OLDEST, null);
+    final AdvertisementEvent event = new AdvertisementEvent().set(AdvertisementEvent.Kind.ADVERTISEMENT, 1, -1);
+    for (int i = 0; i < 5; i++) {
+      publisher.onEvent(event, i, true);
+    }
+    assertThat(metrics.getSubscriptionDrops(), is(Map.of(
+        Long.toString(first.getId()), 3L, Long.toString(second.getId()), 1L)));
+    assertThat(metrics.getSubscriberDrops(), is(4L));
+
+    // the drops of a cancelled subscription are still counted in the total
+    first.cancel();
+    assertThat(metrics.getSubscriptionDrops(), is(Map.of(Long.toString(second.getId()), 1L)));
+    assertThat(metrics.getSubscriberDrops(), is(4L));
+  }
+
+  // private methods
+
+  // never requests anything
+  private static final class Idle implements Flow.Subscriber<AdvertisementEvent> {
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) { }
+
+    @Override
+    public void onNext(final AdvertisementEvent item) { }
+
+    @Override
+    public void onError(final Throwable throwable) { }
+
+    @Override
+    public void onComplete() { }
+  }
+}
@@ -0,0 +1,33 @@
+package com.gpaglia.bt.examples.advmon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.junit.jupiter.api.Test;
+
+class MonitorAppTest {
+  private static final List<AdFilter> MIBEACON =
+      List.of(new AdFilter((byte) 0, (byte) 0x16, new byte[] { (byte) 0x95, (byte) 0xfe }));
+  private static final List<AdFilter> ESS =
+      List.of(new AdFilter((byte) 0, (byte) 0x16, new byte[] { (byte) 0x1a, (byte) 0x18 }));
+
+  private final MonitorApp app = new MonitorApp(1);
+
+  @Test
+  void monitorsChangeBeforeStart() throws DBusException {
+    final List<String> paths = app.addMonitors(List.of(MIBEACON, ESS));
+    assertThat(app.getMonitors().size(), is(2));
+    assertThat(app.GetManagedObjects().size(), is(2));
+
+    assertThat(app.removeMonitors(List.of(paths.get(0), "/unknown")), is(1));
+    assertThat(app.getMonitors().size(), is(1));
+    assertThat(app.GetManagedObjects().size(), is(1));
+
+    final List<String> updated = app.updateMonitors(List.of(ESS, MIBEACON));
+    assertThat(updated.get(0), is(paths.get(1)));
+    assertThat(app.getMonitors().size(), is(2));
+  }
+}
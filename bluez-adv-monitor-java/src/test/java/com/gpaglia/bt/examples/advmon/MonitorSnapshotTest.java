@@ -0,0 +1,213 @@
+package com.gpaglia.bt.examples.advmon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import com.gpaglia.bt.examples.registry.DeviceInfo;
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MonitorSnapshotTest {
+  private static final List<String> ADAPTERS = List.of("/org/bluez/hci0", "/org/bluez/hci1");
+
+  @TempDir
+  Path dir;
+
+  private Path file;
+  private List<Monitor> monitors;
+  private DeviceRegistry registry;
+
+  @BeforeEach
+  void setUp() {
+    file = dir.resolve("monitor.snapshot");
+    // saved in id order
+    monitors = List.of(
+        monitor(7, new RssiSettings(-90, -60, 3, 4, 0),
+            new AdFilter((byte) 0, (byte) 0x16, new byte[] { (byte) 0x95, (byte) 0xfe }),
+            new AdFilter((byte) 2, (byte) 0xff, new byte[] { 0x4c, 0x00, 0x02, 0x15 })),
+        monitor(2, RssiSettings.UNSET,
+            new AdFilter((byte) 0, (byte) 0x09, "sensor".getBytes())));
+    registry = new DeviceRegistry();
+    for (int i = 0; i < 100; i++) {
+      registry.deviceFound(address(i), i % 2 == 0 ? 2 : 7, 1000 + i);
+      if (i % 3 != 0) {
+        registry.deviceSeen(address(i), -40 - i % 50, 2000 + i);
+      }
+    }
+  }
+
+  @Test
+  void roundTrip() throws IOException {
+    final long before = System.currentTimeMillis();
+    MonitorSnapshot.save(file, true, ADAPTERS, monitors, registry);
+    final MonitorSnapshot snapshot = MonitorSnapshot.load(file);
+
+    assertThat(snapshot.isSoftwareMonitoring(), is(true));
+    assertThat(snapshot.getSavedAt() >= before, is(true));
+    assertThat(snapshot.getAdapterPaths(), is(ADAPTERS));
+    assertThat(snapshot.getDeviceCount(), is(100));
+
+    assertThat(snapshot.getMonitors().size(), is(2));
+    final MonitorSnapshot.MonitorEntry first = snapshot.getMonitors().get(0);
+    assertThat(first.getId(), is(2));
+    assertThat(first.getRssiSettings().isUnset(), is(true));
+    assertThat(first.getFilters().size(), is(1));
+    assertThat(first.getFilters().get(0).getAdData(), is("sensor".getBytes()));
+    final MonitorSnapshot.MonitorEntry second = snapshot.getMonitors().get(1);
+    assertThat(second.getId(), is(7));
+    assertRssiSettings(second.getRssiSettings(), monitors.get(0).getRssiSettings());
+    assertFilters(second.getFilters(), monitors.get(0).getFilters());
+
+    final DeviceRegistry restored = new DeviceRegistry();
+    assertThat(snapshot.restore(restored, id -> id, 0), is(100));
+    assertThat(restored.size(), is(100));
+    final DeviceInfo expected = new DeviceInfo();
+    final DeviceInfo actual = new DeviceInfo();
+    for (int i = 0; i < 100; i++) {
+      assertThat(registry.get(address(i), expected), is(true));
+      assertThat(restored.get(address(i), actual), is(true));
+      assertThat(actual.getFirstSeen(), is(expected.getFirstSeen()));
+      assertThat(actual.getLastSeen(), is(expected.getLastSeen()));
+      assertThat(actual.getRssi(), is(expected.getRssi()));
+      assertThat(actual.getMonitorId(), is(expected.getMonitorId()));
+    }
+  }
+
+  @Test
+  void emptyRegistry() throws IOException {
+    MonitorSnapshot.save(file, false, List.of(), monitors, new DeviceRegistry());
+    final MonitorSnapshot snapshot = MonitorSnapshot.load(file);
+
+    assertThat(snapshot.isSoftwareMonitoring(), is(false));
+    assertThat(snapshot.getAdapterPaths().isEmpty(), is(true));
+    assertThat(snapshot.getMonitors().size(), is(2));
+    assertThat(snapshot.getDeviceCount(), is(0));
+    assertThat(snapshot.restore(new DeviceRegistry(), id -> id, 0), is(0));
+  }
+
+  @Test
+  void restoreRemapsMonitorIds() throws IOException {
+    MonitorSnapshot.save(file, true, ADAPTERS, monitors, registry);
+    final MonitorSnapshot snapshot = MonitorSnapshot.load(file);
+
+    // monitor 7 is now 1, monitor 2 is gone
+    final DeviceRegistry restored = new DeviceRegistry();
+    assertThat(snapshot.restore(restored, id -> id == 7 ? 1 : -1, 0), is(50));
+    final DeviceInfo info = new DeviceInfo();
+    for (int i = 0; i < 100; i++) {
+      assertThat(restored.get(address(i), info), is(i % 2 != 0));
+      if (i % 2 != 0) {
+        assertThat(info.getMonitorId(), is(1));
+      }
+    }
+  }
+
+  @Test
+  void restoreSkipsStaleDevices() throws IOException {
+    MonitorSnapshot.save(file, true, ADAPTERS, monitors, registry);
+    final MonitorSnapshot snapshot = MonitorSnapshot.load(file);
+
+    // last seen at 2050 or later: 50 to 99, but for those never seen since they were found
+    final DeviceRegistry restored = new DeviceRegistry();
+    final int restoredCount = snapshot.restore(restored, id -> id, 2050);
+    int expected = 0;
+    for (int i = 50; i < 100; i++) {
+      if (i % 3 != 0) {
+        expected++;
+        assertThat(restored.contains(address(i)), is(true));
+      }
+    }
+    assertThat(restoredCount, is(expected));
+    assertThat(restored.size(), is(expected));
+  }
+
+  @Test
+  void restoresEveryMonitorOfADevice() throws IOException {
+    registry.deviceFound(address(0), 7, 3000);
+    MonitorSnapshot.save(file, true, ADAPTERS, monitors, registry);
+    final MonitorSnapshot snapshot = MonitorSnapshot.load(file);
+    assertThat(snapshot.getDeviceCount(), is(101));
+
+    final DeviceRegistry restored = new DeviceRegistry();
+    snapshot.restore(restored, id -> id, 0);
+    assertThat(restored.size(), is(100));
+    assertThat(restored.deviceLost(address(0), 2), is(false));
+    assertThat(restored.deviceLost(address(0), 7), is(true));
+  }
+
+  @Test
+  void saveReplacesThePreviousSnapshot() throws IOException {
+    MonitorSnapshot.save(file, true, ADAPTERS, monitors, registry);
+    registry.clear();
+    MonitorSnapshot.save(file, false, ADAPTERS.subList(0, 1), monitors.subList(1, 2), registry);
+
+    final MonitorSnapshot snapshot = MonitorSnapshot.load(file);
+    assertThat(snapshot.isSoftwareMonitoring(), is(false));
+    assertThat(snapshot.getAdapterPaths().size(), is(1));
+    assertThat(snapshot.getMonitors().size(), is(1));
+    assertThat(snapshot.getDeviceCount(), is(0));
+    assertThat(Files.exists(dir.resolve("monitor.snapshot.tmp")), is(false));
+  }
+
+  @Test
+  void truncatedSnapshotFails() throws IOException {
+    MonitorSnapshot.save(file, true, ADAPTERS, monitors, registry);
+    final byte[] b = Files.readAllBytes(file);
+    for (int length = 0; length < b.length; length++) {
+      Files.write(file, Arrays.copyOf(b, length));
+      assertThrows(IOException.class, () -> MonitorSnapshot.load(file));
+    }
+  }
+
+  @Test
+  void otherFilesFail() throws IOException {
+    assertThrows(IOException.class, () -> MonitorSnapshot.load(file));
+
+    MonitorSnapshot.save(file, true, ADAPTERS, monitors, registry);
+    final byte[] b = Files.readAllBytes(file);
+    b[4] = 99;
+    Files.write(file, b);
+    assertThrows(IOException.class, () -> MonitorSnapshot.load(file));
+
+    b[0] = 0;
+    Files.write(file, b);
+    assertThrows(IOException.class, () -> MonitorSnapshot.load(file));
+  }
+
+  // private methods
+
+  private static long address(final int i) {
+    return 0x582d34000000L + i;
+  }
+
+  private static Monitor monitor(final int id, final RssiSettings rssiSettings, final AdFilter... filters) {
+    return new Monitor(null, "/test/monitor" + id, id, List.of(filters), rssiSettings, adapterIndex -> null, null);
+  }
+
+  private static void assertRssiSettings(final RssiSettings actual, final RssiSettings expected) {
+    assertThat(actual.getLowThreshold(), is(expected.getLowThreshold()));
+    assertThat(actual.getHighThreshold(), is(expected.getHighThreshold()));
+    assertThat(actual.getLowTimeout(), is(expected.getLowTimeout()));
+    assertThat(actual.getHighTimeout(), is(expected.getHighTimeout()));
+    assertThat(actual.getSamplingPeriod(), is(expected.getSamplingPeriod()));
+  }
+
+  private static void assertFilters(final List<AdFilter> actual, final List<AdFilter> expected) {
+    assertThat(actual.size(), is(expected.size()));
+    for (int i = 0; i < expected.size(); i++) {
+      assertThat(actual.get(i).getPosition(), is(expected.get(i).getPosition()));
+      assertThat(actual.get(i).getAdType(), is(expected.get(i).getAdType()));
+      assertThat(actual.get(i).getAdData(), is(expected.get(i).getAdData()));
+    }
+  }
+}
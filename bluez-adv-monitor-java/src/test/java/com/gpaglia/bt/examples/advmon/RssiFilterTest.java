@@ -0,0 +1,137 @@
+package com.gpaglia.bt.examples.advmon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+
+import org.junit.jupiter.api.Test;
+
+class RssiFilterTest {
+  private static final long A = 0x582d34325a38L;
+  private static final long B = 0xa4c138000001L;
+
+  // low -80 dBm for 2 s, high -60 dBm for 1 s, sampling every 500 ms
+  private static final RssiSettings SETTINGS = new RssiSettings(-80, -60, 2, 1, 5);
+
+  private final RssiFilter filter = new RssiFilter(SETTINGS);
+
+  @Test
+  void hysteresisFromTimeZero() {
+    // a monotonic clock may start at 0
+    assertThat(filter.onAdvertisement(A, -50, 0), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -55, 500), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -55, 1000), is(RssiFilter.FOUND));
+    assertThat(filter.isFound(A), is(true));
+
+    // between the thresholds: neither found nor lost, sampled
+    assertThat(filter.onAdvertisement(A, -70, 1200), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -70, 1500), is(RssiFilter.REPORT));
+
+    // below the low threshold, but not for the low timeout
+    assertThat(filter.onAdvertisement(A, -85, 1600), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -70, 2000), is(RssiFilter.REPORT));
+    assertThat(filter.onAdvertisement(A, -85, 2100), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -85, 4000), is(RssiFilter.REPORT));
+    assertThat(filter.onAdvertisement(A, -90, 4100), is(RssiFilter.LOST));
+    assertThat(filter.isFound(A), is(false));
+    assertThat(filter.isTracked(A), is(true));
+  }
+
+  @Test
+  void highThresholdMustHoldForTheHighTimeout() {
+    assertThat(filter.onAdvertisement(A, -50, 5000), is(RssiFilter.NONE));
+    // dropping below restarts the timeout
+    assertThat(filter.onAdvertisement(A, -70, 5500), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -50, 6000), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -50, 6999), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -60, 7000), is(RssiFilter.FOUND));
+    // per device
+    assertThat(filter.onAdvertisement(B, -50, 7000), is(RssiFilter.NONE));
+  }
+
+  @Test
+  void unknownRssiOnlyRefreshesTheDevice() {
+    assertThat(filter.onAdvertisement(A, DeviceRegistry.RSSI_UNKNOWN, 0), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, DeviceRegistry.RSSI_UNKNOWN, 5000), is(RssiFilter.NONE));
+    assertThat(filter.isTracked(A), is(true));
+    assertThat(filter.isFound(A), is(false));
+  }
+
+  @Test
+  void unsetSettingsFindAtOnce() {
+    final RssiFilter unset = new RssiFilter(RssiSettings.UNSET);
+    assertThat(unset.onAdvertisement(A, DeviceRegistry.RSSI_UNKNOWN, 0), is(RssiFilter.FOUND));
+    assertThat(unset.onAdvertisement(B, -120, 0), is(RssiFilter.FOUND));
+    // reported on every advertisement
+    assertThat(unset.onAdvertisement(A, -120, 1), is(RssiFilter.REPORT));
+    assertThat(unset.onAdvertisement(A, -120, 1), is(RssiFilter.REPORT));
+  }
+
+  @Test
+  void samplingPeriod() {
+    final RssiFilter every = new RssiFilter(new RssiSettings(-80, -60, 2, 1, 0));
+    final RssiFilter once = new RssiFilter(new RssiSettings(-80, -60, 2, 1, RssiSettings.SAMPLING_ONCE));
+    for (RssiFilter f : List.of(every, once)) {
+      f.onAdvertisement(A, -50, 0);
+      assertThat(f.onAdvertisement(A, -50, 1000), is(RssiFilter.FOUND));
+    }
+    for (long t = 1000; t < 2000; t += 100) {
+      assertThat(every.onAdvertisement(A, -70, t), is(RssiFilter.REPORT));
+      assertThat(once.onAdvertisement(A, -70, t), is(RssiFilter.NONE));
+    }
+
+    int reports = 0;
+    for (long t = 1100; t <= 3000; t += 100) {
+      if (filter.onAdvertisement(A, -50, t) == RssiFilter.REPORT) {
+        reports++;
+      }
+    }
+    // found at 2100, then reported every 500 ms
+    assertThat(reports, is(1));
+  }
+
+  @Test
+  void expireLosesTheFoundDevicesNotHeard() {
+    filter.onAdvertisement(A, -50, 0);
+    filter.onAdvertisement(A, -50, 1000);
+    // tracked, never found
+    filter.onAdvertisement(B, -70, 1000);
+    final List<Long> lost = new ArrayList<>();
+
+    assertThat(filter.expire(2900, lost::add), is(0));
+    assertThat(filter.getTrackedDevices(), is(2));
+    assertThat(filter.expire(3000 + RssiFilter.EXPIRY_TICK, lost::add), is(1));
+    assertThat(lost, is(List.of(A)));
+    assertThat(filter.getTrackedDevices(), is(0));
+
+    // heard again: found from scratch
+    assertThat(filter.onAdvertisement(A, -50, 4000), is(RssiFilter.NONE));
+    assertThat(filter.onAdvertisement(A, -50, 5000), is(RssiFilter.FOUND));
+  }
+
+  @Test
+  void advertisementsPostponeTheExpiry() {
+    filter.onAdvertisement(A, -50, 0);
+    filter.onAdvertisement(A, -50, 1000);
+    filter.onAdvertisement(A, -70, 2500);
+    assertThat(filter.expire(3500, address -> { }), is(0));
+    assertThat(filter.isFound(A), is(true));
+    assertThat(filter.expire(4500 + RssiFilter.EXPIRY_TICK, address -> { }), is(1));
+  }
+
+  @Test
+  void remove() {
+    filter.onAdvertisement(A, -50, 0);
+    filter.onAdvertisement(A, -50, 1000);
+    filter.onAdvertisement(B, -70, 1000);
+    assertThat(filter.remove(A), is(true));
+    assertThat(filter.remove(B), is(false));
+    assertThat(filter.remove(B), is(false));
+    assertThat(filter.getTrackedDevices(), is(0));
+    assertThat(filter.expire(10_000, address -> { }), is(0));
+  }
+}
@@ -0,0 +1,66 @@
+package com.gpaglia.bt.examples.advmon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+
+import org.junit.jupiter.api.Test;
+
+class SoftwareMonitorHandlerTest {
+  private static final long A = 0x582d34325a38L;
+  private static final byte[] MIBEACON = { 0x03, 0x16, (byte) 0x95, (byte) 0xfe };
+  private static final byte[] OTHER = { 0x03, 0x16, (byte) 0x0a, (byte) 0x18 };
+
+  private final MonitorApp app = new MonitorApp(1, true);
+  private final Monitor monitor = app.newMonitor(
+      List.of(new AdFilter((byte) 0, (byte) 0x16, new byte[] { (byte) 0x95, (byte) 0xfe })));
+  private final EventRing ring = new EventRing(16);
+  private final SoftwareMonitorHandler handler = new SoftwareMonitorHandler(app, ring);
+
+  @Test
+  void transitionsArePublishedIntoTheRing() {
+    handler.onEvent(advertisement(A, OTHER), 0, false);
+    assertThat(ring.getCursor(), is(EventRing.NO_SEQUENCE));
+
+    handler.onEvent(advertisement(A, MIBEACON), 0, false);
+    assertThat(ring.getCursor(), is(0L));
+    final AdvertisementEvent found = ring.get(0);
+    assertThat(found.getKind(), is(AdvertisementEvent.Kind.FOUND));
+    assertThat(found.getAddress(), is(A));
+    assertThat(found.getMonitorId(), is(monitor.getMonitorId()));
+    assertThat(found.getAdapterIndex(), is(-1));
+    assertThat(found.getTimestamp(), is(1000L));
+    assertThat(monitor.getEventCount(), is(1L));
+
+    // later advertisements, and the published transitions read back from the ring, publish nothing
+    handler.onEvent(advertisement(A, MIBEACON), 1, false);
+    handler.onEvent(advertisement(A, new byte[0]), 2, false);
+    handler.onEvent(found, 3, false);
+    assertThat(ring.getCursor(), is(0L));
+  }
+
+  @Test
+  void fullRingDropsTheTransition() {
+    ring.addConsumer("stalled", (event, sequence, endOfBatch) -> { });
+    for (int i = 0; i < ring.getSize(); i++) {
+      ring.publish(ring.tryNext());
+    }
+    handler.onEvent(advertisement(A, MIBEACON), 0, false);
+    assertThat(ring.getDropped(), is(1L));
+    assertThat(monitor.getEventCount(), is(0L));
+  }
+
+  // private methods
+
+  private static AdvertisementEvent advertisement(final long address, final byte[] payload) {
+    return new AdvertisementEvent()
+        .set(AdvertisementEvent.Kind.ADVERTISEMENT, address, -1)
+        .setRssi(-60)
+        .setTimestamp(1000)
+        .setPayload(payload, 0, payload.length);
+  }
+}
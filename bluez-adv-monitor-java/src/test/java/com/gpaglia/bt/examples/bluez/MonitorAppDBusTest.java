@@ -0,0 +1,75 @@
+package com.gpaglia.bt.examples.bluez;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import com.gpaglia.bt.examples.advmon.MonitorApp;
+
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/** The whole D-Bus path of {@link MonitorApp} against a {@link FakeBluez}, on a private bus. */
+@Tag("dbus")
+class MonitorAppDBusTest {
+  private static final int DEVICES = 100;
+  private static final double ADVERTISEMENT_RATE = 200;
+  private static final double DEVICE_EVENT_RATE = 20;
+  private static final long RUN_MILLIS = 3000;
+  // a few ms at these rates, the bounds leave room for a slow CI machine and only catch backlogs
+  private static final long MAX_P50_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MAX_P99_NANOS = TimeUnit.MILLISECONDS.toNanos(1000);
+
+  @BeforeAll
+  static void needsDBusDaemon() {
+    assumeTrue(PrivateBus.isAvailable(), "dbus-daemon not found");
+  }
+
+  @Test
+  void deliversAdvertisementsAndDeviceEvents() throws Exception {
+    try (PrivateBus bus = PrivateBus.start()) {
+      final DBusConnection bluezConnection = bus.connect();
+      final FakeBluez bluez = new FakeBluez(bluezConnection, DEVICES);
+      final LatencyProbe probe = new LatencyProbe();
+      final MonitorApp app = new MonitorApp(1);
+      try {
+        bluez.start();
+        app.setBusAddress(bus.getAddress());
+        app.getRing().addConsumer("latency-probe", probe);
+        app.start();
+        assertThat(bluez.awaitMonitors(1, TimeUnit.SECONDS.toMillis(5)), is(true));
+
+        bluez.startAdvertisements(ADVERTISEMENT_RATE);
+        bluez.startDeviceEvents(DEVICE_EVENT_RATE);
+        Thread.sleep(RUN_MILLIS);
+        bluez.stopLoad();
+        // let the last signals through
+        Thread.sleep(500);
+      } finally {
+        app.stop();
+        bluez.close();
+        bluezConnection.disconnect();
+      }
+
+      // well below capacity: nothing is dropped, and only the signals still in flight at the stop may be missing
+      assertThat(app.getRing().getDropped(), is(0L));
+      assertDelivered(probe.getAdvertisements(), bluez.getAdvertisementsSent());
+      assertDelivered(probe.getDeviceEvents(), bluez.getDeviceEventsSent());
+      assertThat(probe.getSampleCount() > 0, is(true));
+      assertThat(probe.getLatency(0.5) < MAX_P50_NANOS, is(true));
+      assertThat(probe.getLatency(0.99) < MAX_P99_NANOS, is(true));
+    }
+  }
+
+  // private methods
+
+  private static void assertDelivered(final long delivered, final long sent) {
+    assertThat(sent > 0, is(true));
+    assertThat(delivered <= sent, is(true));
+    assertThat(delivered >= sent * 95 / 100, is(true));
+  }
+}
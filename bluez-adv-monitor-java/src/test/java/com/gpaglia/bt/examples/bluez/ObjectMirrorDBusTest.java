@@ -0,0 +1,75 @@
+package com.gpaglia.bt.examples.bluez;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.interfaces.ObjectManager;
+import org.freedesktop.dbus.types.Variant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/** The mirror against a {@link FakeBluez}, with another client sending object manager signals on the same bus. */
+@Tag("dbus")
+class ObjectMirrorDBusTest {
+  private static final String INTRUDER = "11:22:33:44:55:66";
+
+  @BeforeAll
+  static void needsDBusDaemon() {
+    assumeTrue(PrivateBus.isAvailable(), "dbus-daemon not found");
+  }
+
+  @Test
+  void signalsOfOtherClientsAreIgnored() throws Exception {
+    try (PrivateBus bus = PrivateBus.start()) {
+      final DBusConnection bluezConnection = bus.connect();
+      final DBusConnection other = bus.connect();
+      final DBusConnection client = bus.connect();
+      final FakeBluez bluez = new FakeBluez(bluezConnection, 2);
+      final ObjectMirror mirror = new ObjectMirror(client);
+      try {
+        bluez.start();
+        mirror.start();
+        final String kept = bluez.getDevices().get(0).getObjectPath();
+        final String removed = bluez.getDevices().get(1).getObjectPath();
+        assertThat(mirror.contains(kept), is(true));
+        assertThat(mirror.contains(removed), is(true));
+
+        other.sendMessage(new ObjectManager.InterfacesAdded(
+            "/",
+            new DBusPath(FakeBluez.ADAPTER_PATH + "/dev_11_22_33_44_55_66"),
+            Map.of(ObjectMirror.DEVICE_IFACE, Map.of("Address", new Variant<>(INTRUDER)))
+        ));
+        other.sendMessage(new ObjectManager.InterfacesRemoved(
+            "/", new DBusPath(kept), List.of(ObjectMirror.DEVICE_IFACE)
+        ));
+        bluezConnection.sendMessage(new ObjectManager.InterfacesRemoved(
+            "/", new DBusPath(removed), List.of(ObjectMirror.DEVICE_IFACE)
+        ));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (mirror.contains(removed) && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertThat(mirror.contains(removed), is(false));
+        // the other signals went out first, give them time to be applied, were they accepted
+        Thread.sleep(200);
+        assertThat(mirror.contains(kept), is(true));
+        assertThat(mirror.findDevice(INTRUDER), is(nullValue()));
+      } finally {
+        mirror.close();
+        bluez.close();
+        client.disconnect();
+        other.disconnect();
+        bluezConnection.disconnect();
+      }
+    }
+  }
+}
@@ -0,0 +1,328 @@
+package com.gpaglia.bt.examples.connect;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import com.gpaglia.bt.examples.bluez.FakeBluez;
+import com.gpaglia.bt.examples.bluez.FakeDevice;
+import com.gpaglia.bt.examples.bluez.ObjectMirror;
+import com.gpaglia.bt.examples.bluez.PrivateBus;
+import com.gpaglia.bt.examples.bluez.ProxyCache;
+
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.types.Variant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/** The scheduler state machine against the {@link FakeDevice}s of a {@link FakeBluez}, on a private bus. */
+@Tag("dbus")
+class GattSchedulerDBusTest {
+  private static final int DEVICES = 5;
+  private static final long WAIT_MILLIS = 10_000;
+
+  private PrivateBus bus;
+  private DBusConnection bluezConnection;
+  private DBusConnection client;
+  private FakeBluez bluez;
+  private ObjectMirror objects;
+  private ProxyCache proxies;
+  private GattScheduler scheduler;
+
+  @BeforeAll
+  static void needsDBusDaemon() {
+    assumeTrue(PrivateBus.isAvailable(), "dbus-daemon not found");
+  }
+
+  @BeforeEach
+  void startBluez() throws Exception {
+    bus = PrivateBus.start();
+    bluezConnection = bus.connect();
+    bluez = new FakeBluez(bluezConnection, DEVICES);
+    bluez.start();
+    client = bus.connect();
+    objects = new ObjectMirror(client);
+    objects.start();
+    proxies = new ProxyCache(client, ObjectMirror.BLUEZ_SERVICE_NAME, 64, TimeUnit.MINUTES.toMillis(1));
+    proxies.start();
+  }
+
+  @AfterEach
+  void stopBluez() throws Exception {
+    if (scheduler != null) {
+      scheduler.close();
+    }
+    proxies.close();
+    objects.close();
+    bluez.close();
+    client.disconnect();
+    bluezConnection.disconnect();
+    bus.close();
+  }
+
+  @Test
+  void sessionsRunOnConnectedDevicesWithinTheConnections() throws Exception {
+    newScheduler(2);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final AtomicInteger notConnected = new AtomicInteger();
+    final List<CompletableFuture<Void>> sessions = new ArrayList<>();
+    for (int i = 0; i < DEVICES; i++) {
+      final FakeDevice device = device(i);
+      sessions.add(scheduler.submit(path(i), 0, p -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        // from the device itself, the mirror may lag the scheduler
+        if (! Boolean.TRUE.equals(device.<Variant<?>>Get(FakeDevice.DEVICE_IFACE, "ServicesResolved").getValue())) {
+          notConnected.incrementAndGet();
+        }
+        Thread.sleep(50);
+        running.decrementAndGet();
+      }));
+    }
+    for (CompletableFuture<Void> s : sessions) {
+      s.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    assertThat(maxRunning.get() <= 2, is(true));
+    assertThat(notConnected.get(), is(0));
+    assertThat(scheduler.getCompleted(), is((long) DEVICES));
+    assertThat(scheduler.getPending(), is(0));
+    for (FakeDevice d : bluez.getDevices()) {
+      assertThat(d.getConnects(), is(1));
+      assertThat(d.getDisconnects(), is(1));
+    }
+  }
+
+  @Test
+  void sessionsOfADeviceRunOneAtATime() throws Exception {
+    newScheduler(2);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger overlaps = new AtomicInteger();
+    final List<CompletableFuture<Void>> sessions = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      sessions.add(scheduler.submit(path(0), 0, p -> {
+        if (running.incrementAndGet() > 1) {
+          overlaps.incrementAndGet();
+        }
+        Thread.sleep(50);
+        running.decrementAndGet();
+      }));
+    }
+    for (CompletableFuture<Void> s : sessions) {
+      s.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    assertThat(overlaps.get(), is(0));
+    assertThat(device(0).getConnects(), is(3));
+  }
+
+  @Test
+  void highestPriorityFirstThenInSubmissionOrder() throws Exception {
+    newScheduler(1);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final List<String> order = Collections.synchronizedList(new ArrayList<>());
+    final GattScheduler.Session record = order::add;
+    // holds the only connection while the others are queued
+    final CompletableFuture<Void> first = scheduler.submit(path(0), 0, p -> gate.await());
+    final List<CompletableFuture<Void>> sessions = List.of(
+        scheduler.submit(path(1), 0, record),
+        scheduler.submit(path(2), 5, record),
+        scheduler.submit(path(3), 5, record),
+        scheduler.submit(path(4), 1, record)
+    );
+    gate.countDown();
+    first.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    for (CompletableFuture<Void> s : sessions) {
+      s.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    assertThat(order, is(List.of(path(2), path(3), path(4), path(1))));
+  }
+
+  @Test
+  void failedConnectionsAreRetriedAfterABackoff() throws Exception {
+    newScheduler(1);
+    scheduler.setMaxAttempts(3);
+    scheduler.setBackoff(200, 200);
+    device(0).failNextConnects(2);
+    final AtomicInteger runs = new AtomicInteger();
+
+    final long start = System.nanoTime();
+    scheduler.submit(path(0), 0, p -> runs.incrementAndGet()).get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertThat(elapsed >= 400, is(true));
+    assertThat(runs.get(), is(1));
+    assertThat(device(0).getConnects(), is(3));
+    assertThat(device(0).getDisconnects(), is(3));
+    assertThat(scheduler.getRetried(), is(2L));
+    assertThat(scheduler.getCompleted(), is(1L));
+    assertThat(scheduler.getFailed(), is(0L));
+  }
+
+  @Test
+  void exhaustedRetriesFailWithTheLastCause() throws Exception {
+    newScheduler(1);
+    scheduler.setMaxAttempts(3);
+    scheduler.setBackoff(10, 20);
+    final AtomicInteger runs = new AtomicInteger();
+    final CompletableFuture<Void> session = scheduler.submit(path(0), 0, p -> {
+      throw new IllegalStateException("attempt " + runs.incrementAndGet());
+    });
+
+    final ExecutionException e = assertThrows(
+        ExecutionException.class, () -> session.get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    assertThat(e.getCause().getMessage(), is("attempt 3"));
+    assertThat(runs.get(), is(3));
+    assertThat(device(0).getDisconnects(), is(3));
+    assertThat(scheduler.getRetried(), is(2L));
+    assertThat(scheduler.getFailed(), is(1L));
+    assertThat(scheduler.getCompleted(), is(0L));
+  }
+
+  @Test
+  void unresolvedServicesTimeOut() throws Exception {
+    newScheduler(1);
+    scheduler.setConnectTimeout(200);
+    scheduler.setMaxAttempts(1);
+    device(0).setResolvesServices(false);
+    final AtomicBoolean ran = new AtomicBoolean();
+    final CompletableFuture<Void> session = scheduler.submit(path(0), 0, p -> ran.set(true));
+
+    final ExecutionException e = assertThrows(
+        ExecutionException.class, () -> session.get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    assertThat(e.getCause(), instanceOf(TimeoutException.class));
+    assertThat(ran.get(), is(false));
+    assertThat(device(0).getDisconnects(), is(1));
+  }
+
+  @Test
+  void sessionsTimingOutAreInterrupted() throws Exception {
+    newScheduler(1);
+    scheduler.setSessionTimeout(200);
+    scheduler.setMaxAttempts(1);
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    final CompletableFuture<Void> session = scheduler.submit(path(0), 0, p -> {
+      try {
+        Thread.sleep(WAIT_MILLIS);
+      } catch (InterruptedException e) {
+        interrupted.set(true);
+        throw e;
+      }
+    });
+
+    final ExecutionException e = assertThrows(
+        ExecutionException.class, () -> session.get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    assertThat(e.getCause(), instanceOf(TimeoutException.class));
+    assertThat(interrupted.get(), is(true));
+    assertThat(scheduler.getFailed(), is(1L));
+  }
+
+  @Test
+  void disconnectionWhileRunningHoldsTheDeviceUntilTheSessionReturned() throws Exception {
+    newScheduler(1);
+    scheduler.setMaxAttempts(2);
+    scheduler.setBackoff(10, 10);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch finish = new CountDownLatch(1);
+    final AtomicInteger attempts = new AtomicInteger();
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    final AtomicBoolean otherRan = new AtomicBoolean();
+
+    final CompletableFuture<Void> held = scheduler.submit(path(0), 0, p -> {
+      if (attempts.incrementAndGet() > 1) {
+        return;
+      }
+      started.countDown();
+      // a session not responding to interruption
+      while (true) {
+        try {
+          finish.await();
+          return;
+        } catch (InterruptedException e) {
+          interrupted.set(true);
+        }
+      }
+    });
+    final CompletableFuture<Void> other = scheduler.submit(path(1), 0, p -> otherRan.set(true));
+
+    assertThat(started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS), is(true));
+    device(0).dropConnection();
+    await(() -> device(0).getDisconnects() == 1);
+    await(interrupted::get);
+    // disconnected, but neither released to the other device nor retried while the session is running
+    Thread.sleep(200);
+    assertThat(otherRan.get(), is(false));
+    assertThat(device(1).getConnects(), is(0));
+    assertThat(device(0).getConnects(), is(1));
+    assertThat(scheduler.getPending(), is(2));
+
+    finish.countDown();
+    held.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    other.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    assertThat(attempts.get(), is(2));
+    assertThat(otherRan.get(), is(true));
+    assertThat(scheduler.getRetried(), is(1L));
+    assertThat(scheduler.getCompleted(), is(2L));
+  }
+
+  @Test
+  void lateRepliesOfATimedOutAttemptAreIgnored() throws Exception {
+    newScheduler(1);
+    scheduler.setConnectTimeout(400);
+    scheduler.setMaxAttempts(2);
+    scheduler.setBackoff(10, 10);
+    // the first attempt times out, its Connect fails while the second attempt is still connecting
+    device(0).delayNextConnect(600);
+    device(0).failNextConnects(1);
+    final AtomicInteger runs = new AtomicInteger();
+
+    final CompletableFuture<Void> session = scheduler.submit(path(0), 0, p -> runs.incrementAndGet());
+    await(() -> device(0).getConnects() == 1);
+    device(0).delayNextConnect(300);
+    session.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+
+    assertThat(runs.get(), is(1));
+    assertThat(device(0).getConnects(), is(2));
+    assertThat(scheduler.getRetried(), is(1L));
+    assertThat(scheduler.getCompleted(), is(1L));
+    assertThat(scheduler.getFailed(), is(0L));
+  }
+
+  // private methods
+
+  private void newScheduler(final int maxConnections) throws Exception {
+    scheduler = new GattScheduler(client, objects, proxies, maxConnections);
+    scheduler.start();
+  }
+
+  private FakeDevice device(final int i) { return bluez.getDevices().get(i); }
+
+  private String path(final int i) { return device(i).getObjectPath(); }
+
+  private static void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    while (! condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new AssertionError("Condition not met after " + WAIT_MILLIS + " ms");
+      }
+      Thread.sleep(10);
+    }
+  }
+}
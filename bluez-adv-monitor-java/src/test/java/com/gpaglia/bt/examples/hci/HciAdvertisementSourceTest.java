@@ -0,0 +1,94 @@
+package com.gpaglia.bt.examples.hci;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HciAdvertisementSourceTest {
+  // legacy report of 58:2d:34:32:5a:38, rssi -59, preceded by a command complete event
+  private static final byte[] FRAMES = {
+      0x04, 0x0e, 0x04, 0x01, 0x0c, 0x20, 0x00,
+      0x04, 0x3e, 0x17, 0x02, 0x01, 0x00, 0x00, 0x38, 0x5a, 0x32, 0x34, 0x2d, 0x58, 0x0b,
+      0x02, 0x01, 0x06, 0x07, 0x16, (byte) 0x95, (byte) 0xfe, 0x50, 0x20, (byte) 0xaa, 0x01, (byte) 0xc5
+  };
+
+  private final BlockingQueue<AdvertisementEvent> received = new LinkedBlockingQueue<>();
+  private EventRing ring;
+
+  @BeforeEach
+  void setUp() {
+    // larger than the recording: a file is read faster than consumed, and a full ring drops
+    ring = new EventRing(256);
+    ring.addConsumer("test", (event, sequence, endOfBatch) -> received.add(event.copy()));
+    ring.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    ring.stop();
+  }
+
+  @Test
+  void readsReportsSplitAcrossWrites() throws Exception {
+    final Pipe pipe = Pipe.open();
+    final HciAdvertisementSource source = new HciAdvertisementSource(pipe.source(), 2, "pipe");
+    source.start(i -> ring);
+    try {
+      // one byte at a time: every packet arrives in pieces
+      for (int round = 0; round < 3; round++) {
+        for (byte b : FRAMES) {
+          pipe.sink().write(ByteBuffer.wrap(new byte[] { b }));
+        }
+      }
+      for (int round = 0; round < 3; round++) {
+        final AdvertisementEvent e = received.poll(5, TimeUnit.SECONDS);
+        assertThat(e, notNullValue());
+        assertThat(e.getAddress(), is(MacAddress.parse("58:2d:34:32:5a:38")));
+        assertThat(e.getAdapterIndex(), is(2));
+        assertThat(e.getRssi(), is(-59));
+        assertThat(e.getPayloadLength(), is(11));
+      }
+      assertThat(source.getParser().getMalformed(), is(0L));
+    } finally {
+      source.close();
+    }
+  }
+
+  @Test
+  void replaysARecordedFile(@TempDir final Path dir) throws Exception {
+    final Path file = dir.resolve("hci0.h4");
+    final byte[] recording = new byte[FRAMES.length * 100];
+    for (int i = 0; i < 100; i++) {
+      System.arraycopy(FRAMES, 0, recording, i * FRAMES.length, FRAMES.length);
+    }
+    Files.write(file, recording);
+
+    final HciAdvertisementSource source = HciAdvertisementSource.open(file, 0);
+    source.start(i -> ring);
+    try {
+      for (int i = 0; i < 100; i++) {
+        assertThat(received.poll(5, TimeUnit.SECONDS), notNullValue());
+      }
+      assertThat(source.getEventCount(), is(100L));
+    } finally {
+      source.close();
+    }
+  }
+}
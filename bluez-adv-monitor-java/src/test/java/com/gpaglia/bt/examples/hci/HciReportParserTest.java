@@ -0,0 +1,219 @@
+package com.gpaglia.bt.examples.hci;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HciReportParserTest {
+  // a legacy report of a MiBeacon, as captured with btmon: 58:2d:34:32:5a:38, 11 bytes of data, rssi -59
+  private static final byte[] LEGACY = hex(
+      "04 3e 17 02 01 00 00 38 5a 32 34 2d 58 0b 02 01 06 07 16 95 fe 50 20 aa 01 c5");
+  private static final long LEGACY_ADDRESS = MacAddress.parse("58:2d:34:32:5a:38");
+  private static final byte[] LEGACY_DATA = hex("02 01 06 07 16 95 fe 50 20 aa 01");
+
+  // no consumer: the ring never fills, the events published are read back from its slots
+  private EventRing ring;
+  private HciReportParser parser;
+
+  @BeforeEach
+  void setUp() {
+    ring = new EventRing(64);
+    parser = new HciReportParser(1);
+  }
+
+  @Test
+  void legacyReport() {
+    assertThat(parser.parse(LEGACY, 0, LEGACY.length, ring), is(LEGACY.length));
+
+    assertThat(published(), is(1L));
+    final AdvertisementEvent e = ring.get(0);
+    assertThat(e.getKind(), is(AdvertisementEvent.Kind.ADVERTISEMENT));
+    assertThat(e.getAddress(), is(LEGACY_ADDRESS));
+    assertThat(e.getAdapterIndex(), is(1));
+    assertThat(e.getRssi(), is(-59));
+    assertThat(payload(e), is(LEGACY_DATA));
+    assertThat(parser.getReports(), is(1L));
+  }
+
+  @Test
+  void severalLegacyReportsPerEvent() {
+    final byte[] b = event(0x3e, 0x02, 2,
+        legacyReport("01 02 03 04 05 06", "02 01 06", -40),
+        legacyReport("11 12 13 14 15 16", "", -80));
+
+    assertThat(parser.parse(b, 0, b.length, ring), is(b.length));
+
+    assertThat(published(), is(2L));
+    assertThat(ring.get(0).getAddress(), is(MacAddress.parse("06:05:04:03:02:01")));
+    assertThat(ring.get(0).getRssi(), is(-40));
+    assertThat(payload(ring.get(0)), is(hex("02 01 06")));
+    assertThat(ring.get(1).getAddress(), is(MacAddress.parse("16:15:14:13:12:11")));
+    assertThat(ring.get(1).getRssi(), is(-80));
+    assertThat(ring.get(1).getPayloadLength(), is(0));
+  }
+
+  @Test
+  void extendedReports() {
+    final byte[] b = event(0x3e, 0x0d, 3,
+        extendedReport(0x0013, "21 22 23 24 25 26", "05 ff 4c 00 02 15", -70),
+        // more data to come: skipped
+        extendedReport(0x0020, "31 32 33 34 35 36", "02 01 06", -71),
+        extendedReport(0x0000, "41 42 43 44 45 46", "02 01 1a", 127));
+
+    assertThat(parser.parse(b, 0, b.length, ring), is(b.length));
+
+    assertThat(published(), is(2L));
+    assertThat(ring.get(0).getAddress(), is(MacAddress.parse("26:25:24:23:22:21")));
+    assertThat(ring.get(0).getRssi(), is(-70));
+    assertThat(payload(ring.get(0)), is(hex("05 ff 4c 00 02 15")));
+    assertThat(ring.get(1).getAddress(), is(MacAddress.parse("46:45:44:43:42:41")));
+    assertThat(ring.get(1).getRssi(), is(DeviceRegistry.RSSI_UNKNOWN));
+    assertThat(parser.getFragments(), is(1L));
+  }
+
+  @Test
+  void truncatedPacketIsLeftForTheNextRead() {
+    final byte[] b = concat(LEGACY, LEGACY);
+    final int split = LEGACY.length + 10;
+
+    assertThat(parser.parse(b, 0, split, ring), is(LEGACY.length));
+    assertThat(published(), is(1L));
+
+    // the caller keeps the unconsumed bytes and appends the next read
+    assertThat(parser.parse(b, LEGACY.length, b.length - LEGACY.length, ring), is(LEGACY.length));
+    assertThat(published(), is(2L));
+    assertThat(ring.get(1).getAddress(), is(LEGACY_ADDRESS));
+  }
+
+  @Test
+  void incompleteHeaderConsumesNothing() {
+    assertThat(parser.parse(LEGACY, 0, 2, ring), is(0));
+    assertThat(published(), is(0L));
+  }
+
+  @Test
+  void oversizedDataLengthIsMalformed() {
+    final byte[] b = LEGACY.clone();
+    // data length beyond the end of the event
+    b[13] = (byte) 0x40;
+
+    assertThat(parser.parse(b, 0, b.length, ring), is(b.length));
+
+    assertThat(published(), is(0L));
+    assertThat(parser.getMalformed(), is(1L));
+  }
+
+  @Test
+  void reportCountBeyondTheEventIsMalformed() {
+    final byte[] b = event(0x3e, 0x02, 2, legacyReport("01 02 03 04 05 06", "02 01 06", -40));
+
+    assertThat(parser.parse(b, 0, b.length, ring), is(b.length));
+
+    // the complete report is kept, the missing one counted
+    assertThat(published(), is(1L));
+    assertThat(parser.getMalformed(), is(1L));
+  }
+
+  @Test
+  void otherPacketsAreSkipped() {
+    final byte[] b = concat(
+        // command complete event
+        hex("04 0e 04 01 0c 20 00"),
+        // LE connection complete, another LE meta subevent
+        hex("04 3e 13 01 00 40 00 00 00 38 5a 32 34 2d 58 18 00 00 00 c8 00 00"),
+        // ACL data and a command
+        hex("02 40 20 03 00 aa bb cc"),
+        hex("01 0c 20 02 01 00"),
+        LEGACY);
+
+    assertThat(parser.parse(b, 0, b.length, ring), is(b.length));
+
+    assertThat(published(), is(1L));
+    assertThat(ring.get(0).getAddress(), is(LEGACY_ADDRESS));
+    assertThat(parser.getMalformed(), is(0L));
+  }
+
+  @Test
+  void resynchronizesOnUnknownPacketTypes() {
+    final byte[] b = concat(hex("00 ff"), LEGACY);
+
+    assertThat(parser.parse(b, 0, b.length, ring), is(b.length));
+
+    assertThat(published(), is(1L));
+    assertThat(parser.getMalformed(), is(2L));
+  }
+
+  @Test
+  void fullRingDropsReports() {
+    final EventRing small = new EventRing(2);
+    // never started: gates the ring at its size
+    small.addConsumer("stalled", (event, sequence, endOfBatch) -> { });
+    final byte[] b = concat(LEGACY, LEGACY, LEGACY);
+
+    parser.parse(b, 0, b.length, small);
+
+    assertThat(parser.getReports(), is(3L));
+    assertThat(parser.getDropped(), is(1L));
+  }
+
+  // private methods
+
+  private long published() {
+    return ring.getCursor() + 1;
+  }
+
+  private static byte[] payload(final AdvertisementEvent e) {
+    return Arrays.copyOf(e.getPayload(), e.getPayloadLength());
+  }
+
+  private static byte[] legacyReport(final String address, final String data, final int rssi) {
+    final byte[] d = hex(data);
+    return concat(
+        new byte[] { 0x00, 0x00 }, hex(address), new byte[] { (byte) d.length }, d, new byte[] { (byte) rssi });
+  }
+
+  private static byte[] extendedReport(final int eventType, final String address, final String data, final int rssi) {
+    final byte[] d = hex(data);
+    return concat(
+        new byte[] { (byte) eventType, (byte) (eventType >> 8), 0x00 },
+        hex(address),
+        // phys, sid, tx power, rssi, interval, direct address type and address
+        new byte[] { 0x01, 0x00, (byte) 0xff, 0x7f, (byte) rssi, 0x00, 0x00, 0x00 },
+        new byte[6],
+        new byte[] { (byte) d.length },
+        d);
+  }
+
+  // an H4 LE meta event: subevent, report count, then the reports
+  private static byte[] event(final int code, final int subevent, final int count, final byte[]... reports) {
+    final byte[] params = concat(new byte[] { (byte) subevent, (byte) count }, concat(reports));
+    return concat(new byte[] { 0x04, (byte) code, (byte) params.length }, params);
+  }
+
+  private static byte[] concat(final byte[]... parts) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] p : parts) {
+      out.writeBytes(p);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] hex(final String s) {
+    final String[] bytes = s.trim().isEmpty() ? new String[0] : s.trim().split("\\s+");
+    final byte[] b = new byte[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      b[i] = (byte) Integer.parseInt(bytes[i], 16);
+    }
+    return b;
+  }
+}
@@ -0,0 +1,232 @@
+package com.gpaglia.bt.examples.journal;
+
+import static com.gpaglia.bt.examples.pipeline.TestEvents.START;
+import static com.gpaglia.bt.examples.pipeline.TestEvents.STEP;
+import static com.gpaglia.bt.examples.pipeline.TestEvents.assertEvent;
+import static com.gpaglia.bt.examples.pipeline.TestEvents.event;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalWriterReaderTest {
+  // room for about 35 records of event(i) per segment
+  private static final int SMALL_SEGMENT = JournalWriter.MIN_SEGMENT_SIZE + 1000;
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void roundTrip() throws IOException {
+    try (JournalWriter writer = new JournalWriter(dir)) {
+      for (int i = 0; i < 1000; i++) {
+        writer.append(event(i));
+      }
+      assertThat(writer.getRecords(), is(1000L));
+    }
+
+    try (JournalReader reader = new JournalReader(dir)) {
+      assertThat(reader.getSegmentCount(), is(1));
+      assertThat(reader.getFirstTimestamp(), is(START));
+      final AdvertisementEvent e = new AdvertisementEvent();
+      for (int i = 0; i < 1000; i++) {
+        assertThat(reader.next(e), is(true));
+        assertEvent(e, i);
+      }
+      assertThat(reader.next(e), is(false));
+    }
+  }
+
+  @Test
+  void maxSizePayloadsAndAllKinds() throws IOException {
+    final AdvertisementEvent in = new AdvertisementEvent();
+    final byte[] data = new byte[AdvertisementEvent.MAX_PAYLOAD];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (255 - i);
+    }
+    try (JournalWriter writer = new JournalWriter(dir, JournalWriter.MIN_SEGMENT_SIZE, 0)) {
+      for (AdvertisementEvent.Kind kind : AdvertisementEvent.Kind.values()) {
+        in.clear();
+        in.set(kind, 0xffffffffffffL, -1).setTimestamp(-5).setRssi(-128).setAdapterIndex(127);
+        in.setPayload(data, 0, kind == AdvertisementEvent.Kind.ADVERTISEMENT ? data.length : 0);
+        writer.append(in);
+      }
+      // a segment of the minimum size holds one full record, it does not fit after the others
+      assertThat(writer.getSegment(), is(1L));
+    }
+
+    try (JournalReader reader = new JournalReader(dir)) {
+      final AdvertisementEvent e = new AdvertisementEvent();
+      for (AdvertisementEvent.Kind kind : AdvertisementEvent.Kind.values()) {
+        assertThat(reader.next(e), is(true));
+        assertThat(e.getKind(), is(kind));
+        assertThat(e.getAddress(), is(0xffffffffffffL));
+        assertThat(e.getMonitorId(), is(-1));
+        assertThat(e.getTimestamp(), is(-5L));
+        assertThat(e.getRssi(), is(-128));
+        assertThat(e.getAdapterIndex(), is(127));
+      }
+      assertThat(e.getPayloadLength(), is(AdvertisementEvent.MAX_PAYLOAD));
+      assertThat(Arrays.copyOf(e.getPayload(), e.getPayloadLength()), is(data));
+      assertThat(reader.next(e), is(false));
+    }
+  }
+
+  @Test
+  void rollsSegments() throws IOException {
+    try (JournalWriter writer = new JournalWriter(dir, SMALL_SEGMENT, 0)) {
+      for (int i = 0; i < 200; i++) {
+        writer.append(event(i));
+      }
+      assertThat(writer.getSegment() > 3, is(true));
+    }
+
+    try (JournalReader reader = new JournalReader(dir)) {
+      assertThat(reader.getSegmentCount() > 3, is(true));
+      final AdvertisementEvent e = new AdvertisementEvent();
+      for (int i = 0; i < 200; i++) {
+        assertThat(reader.next(e), is(true));
+        assertEvent(e, i);
+      }
+      assertThat(reader.next(e), is(false));
+    }
+  }
+
+  @Test
+  void retainsMaxSegments() throws IOException {
+    try (JournalWriter writer = new JournalWriter(dir, SMALL_SEGMENT, 2)) {
+      for (int i = 0; i < 500; i++) {
+        writer.append(event(i));
+      }
+    }
+    assertThat(segmentFiles(), is(2L));
+
+    // the reader starts at the oldest record retained, and reads to the last one
+    try (JournalReader reader = new JournalReader(dir)) {
+      final AdvertisementEvent e = new AdvertisementEvent();
+      assertThat(reader.next(e), is(true));
+      int i = (int) ((e.getTimestamp() - START) / STEP);
+      assertThat(reader.getFirstTimestamp(), is(e.getTimestamp()));
+      assertEvent(e, i);
+      while (reader.next(e)) {
+        assertEvent(e, ++i);
+      }
+      assertThat(i, is(499));
+    }
+  }
+
+  @Test
+  void newWriterAppendsNewSegments() throws IOException {
+    try (JournalWriter writer = new JournalWriter(dir)) {
+      for (int i = 0; i < 10; i++) {
+        writer.append(event(i));
+      }
+    }
+    try (JournalWriter writer = new JournalWriter(dir)) {
+      assertThat(writer.getSegment(), is(1L));
+      for (int i = 10; i < 20; i++) {
+        writer.append(event(i));
+      }
+    }
+
+    try (JournalReader reader = new JournalReader(dir)) {
+      final AdvertisementEvent e = new AdvertisementEvent();
+      for (int i = 0; i < 20; i++) {
+        assertThat(reader.next(e), is(true));
+        assertEvent(e, i);
+      }
+      assertThat(reader.next(e), is(false));
+    }
+  }
+
+  @Test
+  void seek() throws IOException {
+    try (JournalWriter writer = new JournalWriter(dir, SMALL_SEGMENT, 0)) {
+      for (int i = 0; i < 200; i++) {
+        writer.append(event(i));
+      }
+    }
+
+    try (JournalReader reader = new JournalReader(dir)) {
+      final AdvertisementEvent e = new AdvertisementEvent();
+      for (int i : new int[] { 150, 0, 37, 199, 1, 100 }) {
+        reader.seek(START + i * STEP);
+        assertThat(reader.next(e), is(true));
+        assertEvent(e, i);
+      }
+
+      // between two records: the next one
+      reader.seek(START + 70 * STEP + 1);
+      assertThat(reader.next(e), is(true));
+      assertEvent(e, 71);
+
+      // before the first record, past the last one
+      reader.seek(0);
+      assertThat(reader.next(e), is(true));
+      assertEvent(e, 0);
+      reader.seek(START + 200 * STEP);
+      assertThat(reader.next(e), is(false));
+    }
+  }
+
+  @Test
+  void followsTheWriter() throws IOException {
+    try (JournalWriter writer = new JournalWriter(dir)) {
+      writer.append(event(0));
+
+      try (JournalReader reader = new JournalReader(dir)) {
+        final AdvertisementEvent e = new AdvertisementEvent();
+        assertThat(reader.next(e), is(true));
+        assertEvent(e, 0);
+        assertThat(reader.next(e), is(false));
+
+        for (int i = 1; i < 100; i++) {
+          writer.append(event(i));
+          assertThat(reader.next(e), is(true));
+          assertEvent(e, i);
+          assertThat(reader.next(e), is(false));
+        }
+      }
+    }
+  }
+
+  @Test
+  void emptyJournal() throws IOException {
+    try (JournalReader reader = new JournalReader(dir)) {
+      assertThat(reader.getSegmentCount(), is(0));
+      assertThat(reader.getFirstTimestamp(), is(Long.MIN_VALUE));
+      reader.seek(START);
+      assertThat(reader.next(new AdvertisementEvent()), is(false));
+    }
+  }
+
+  @Test
+  void rejectsOtherFiles() throws IOException {
+    Files.write(dir.resolve("0000000000000000.journal"), new byte[JournalFormat.HEADER_SIZE]);
+    assertThrows(IOException.class, () -> new JournalReader(dir));
+  }
+
+  @Test
+  void rejectsTooSmallSegments() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new JournalWriter(dir, JournalWriter.MIN_SEGMENT_SIZE - 1, 0));
+  }
+
+  // private methods
+
+  private long segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(f -> JournalFormat.segmentNumber(f) >= 0).count();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.gpaglia.bt.examples.mibeacon;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class MiBeaconDecoderTest {
+  private static final long ADDRESS = 0x582d34325a38L;
+
+  private final MiBeaconDecoder decoder = new MiBeaconDecoder();
+  private final MiBeaconReading reading = new MiBeaconReading();
+
+  @Test
+  void decodesTemperature() {
+    assertThat(decode(ADDRESS, temperature(7, 215)), is(MiBeaconDecoder.DECODED));
+    assertThat(reading.getAddress(), is(ADDRESS));
+    assertThat(reading.getProductId(), is(0x01aa));
+    assertThat(reading.getFrameCounter(), is(7));
+    assertThat(reading.getVersion(), is(2));
+    assertThat(reading.has(MiBeaconReading.TEMPERATURE), is(true));
+    assertThat(reading.getTemperature(), is(215));
+  }
+
+  @Test
+  void repeatedFrameIsADuplicate() {
+    assertThat(decode(ADDRESS, temperature(7, 215)), is(MiBeaconDecoder.DECODED));
+    assertThat(decode(ADDRESS, temperature(7, 215)), is(MiBeaconDecoder.DUPLICATE));
+    assertThat(decode(ADDRESS, temperature(8, 216)), is(MiBeaconDecoder.DECODED));
+    // per device
+    assertThat(decode(ADDRESS + 1, temperature(8, 216)), is(MiBeaconDecoder.DECODED));
+  }
+
+  @Test
+  void truncatedCopyDoesNotHideTheIntactFrame() {
+    final byte[] intact = temperature(7, 215);
+    final byte[] truncated = intact.clone();
+    // one byte of the object missing
+    truncated[0]--;
+
+    assertThat(decode(ADDRESS, truncated), is(MiBeaconDecoder.MALFORMED));
+    assertThat(decode(ADDRESS, truncated), is(MiBeaconDecoder.MALFORMED));
+    assertThat(decoder.getDeviceCount(), is(0));
+    assertThat(decode(ADDRESS, intact), is(MiBeaconDecoder.DECODED));
+    assertThat(reading.getTemperature(), is(215));
+    assertThat(decode(ADDRESS, intact), is(MiBeaconDecoder.DUPLICATE));
+  }
+
+  @Test
+  void clearForgetsTheCounters() {
+    decode(ADDRESS, temperature(7, 215));
+    decoder.clear();
+    assertThat(decoder.getDeviceCount(), is(0));
+    assertThat(decode(ADDRESS, temperature(7, 215)), is(MiBeaconDecoder.DECODED));
+  }
+
+  @Test
+  void countersAreBounded() {
+    final MiBeaconDecoder bounded = new MiBeaconDecoder(16, 100);
+    for (int i = 0; i < 10_000; i++) {
+      assertThat(bounded.decode(ADDRESS + i, temperature(1, 200), 0, 14, reading), is(MiBeaconDecoder.DECODED));
+      assertThat(bounded.getDeviceCount() <= 100, is(true));
+    }
+  }
+
+  @Test
+  void recentDevicesAreKept() {
+    final MiBeaconDecoder bounded = new MiBeaconDecoder(16, 100);
+    for (int i = 0; i < 10_000; i++) {
+      // one device heard all along, the others once
+      bounded.decode(ADDRESS, temperature(i & 0xff, 200), 0, 14, reading);
+      bounded.decode(ADDRESS + 1 + i, temperature(1, 200), 0, 14, reading);
+    }
+    assertThat(bounded.decode(ADDRESS, temperature(9999 & 0xff, 200), 0, 14, reading),
+        is(MiBeaconDecoder.DUPLICATE));
+  }
+
+  // private methods
+
+  private int decode(final long address, final byte[] ad) {
+    return decoder.decode(address, ad, 0, ad.length, reading);
+  }
+
+  // service data of a version 2 frame with a temperature object, in tenths of degrees
+  private static byte[] temperature(final int counter, final int temperature) {
+    return new byte[] {
+        0x0d, 0x16, (byte) 0x95, (byte) 0xfe,
+        0x40, 0x20, (byte) 0xaa, 0x01, (byte) counter,
+        0x04, 0x10, 0x02, (byte) temperature, (byte) (temperature >> 8)
+    };
+  }
+}
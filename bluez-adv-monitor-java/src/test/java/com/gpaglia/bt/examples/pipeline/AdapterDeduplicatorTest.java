@@ -0,0 +1,142 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class AdapterDeduplicatorTest {
+  private static final long A = 0x582d34325a38L;
+  private static final long B = 0xa4c138000001L;
+  private static final long WINDOW = 500;
+  private static final byte[] FRAME = { 0x02, 0x01, 0x06 };
+  private static final byte[] OTHER_FRAME = { 0x02, 0x01, 0x04 };
+
+  private final AdapterDeduplicator deduplicator = new AdapterDeduplicator(WINDOW);
+
+  @Test
+  void bestRssiHandover() {
+    assertThat(accept(advertisement(A, 0, -70, 1000, FRAME)), is(true));
+    // worse from another adapter
+    assertThat(accept(advertisement(A, 1, -80, 1010, FRAME)), is(false));
+    // better from another adapter, which becomes the best one
+    assertThat(accept(advertisement(A, 1, -60, 1020, FRAME)), is(true));
+    assertThat(accept(advertisement(A, 0, -70, 1030, FRAME)), is(false));
+    // repeats of the best adapter always pass, and lower the bar
+    assertThat(accept(advertisement(A, 1, -75, 1040, FRAME)), is(true));
+    assertThat(accept(advertisement(A, 0, -70, 1050, FRAME)), is(true));
+    assertThat(accept(advertisement(A, 1, -72, 1060, FRAME)), is(false));
+
+    assertThat(deduplicator.getForwarded(), is(4L));
+    assertThat(deduplicator.getSuppressed(), is(3L));
+  }
+
+  @Test
+  void unknownRssiNeverWins() {
+    assertThat(accept(advertisement(A, 0, -70, 1000, FRAME)), is(true));
+    assertThat(accept(advertisement(A, 1, 127, 1010, FRAME)), is(false));
+  }
+
+  @Test
+  void newFrameOrWindowElapsedPasses() {
+    assertThat(accept(advertisement(A, 0, -50, 1000, FRAME)), is(true));
+    assertThat(accept(advertisement(A, 1, -90, 1100, OTHER_FRAME)), is(true));
+    // the adapter of the new frame is now the best one
+    assertThat(accept(advertisement(A, 0, -95, 1200, OTHER_FRAME)), is(false));
+    assertThat(accept(advertisement(A, 0, -95, 1100 + WINDOW, OTHER_FRAME)), is(true));
+    assertThat(accept(advertisement(A, 1, -96, 1100 + WINDOW + 1, OTHER_FRAME)), is(false));
+  }
+
+  @Test
+  void emptyPayloadIsTheSameFrame() {
+    assertThat(accept(advertisement(A, 0, -70, 1000, FRAME)), is(true));
+    assertThat(accept(advertisement(A, 1, -80, 1010, new byte[0])), is(false));
+    assertThat(accept(advertisement(A, 1, -60, 1020, new byte[0])), is(true));
+    assertThat(accept(advertisement(A, 0, -70, 1030, FRAME)), is(false));
+  }
+
+  @Test
+  void devicesAreIndependent() {
+    assertThat(accept(advertisement(A, 0, -70, 1000, FRAME)), is(true));
+    assertThat(accept(advertisement(B, 1, -80, 1000, FRAME)), is(true));
+    assertThat(deduplicator.getTrackedDevices(), is(2));
+  }
+
+  @Test
+  void foundAndLostAcrossAdapters() {
+    assertThat(accept(event(AdvertisementEvent.Kind.FOUND, A, 1, 0)), is(true));
+    assertThat(accept(event(AdvertisementEvent.Kind.FOUND, A, 1, 1)), is(false));
+    // per monitor
+    assertThat(accept(event(AdvertisementEvent.Kind.FOUND, A, 2, 1)), is(true));
+    assertThat(deduplicator.getFoundDevices(), is(2));
+
+    assertThat(accept(event(AdvertisementEvent.Kind.LOST, A, 1, 0)), is(false));
+    assertThat(accept(event(AdvertisementEvent.Kind.LOST, A, 1, 1)), is(true));
+    assertThat(deduplicator.getFoundDevices(), is(1));
+    assertThat(accept(event(AdvertisementEvent.Kind.LOST, A, 2, 1)), is(true));
+    assertThat(deduplicator.getFoundDevices(), is(0));
+
+    // a lost never found passes
+    assertThat(accept(event(AdvertisementEvent.Kind.LOST, B, 1, 0)), is(true));
+    // found again after lost
+    assertThat(accept(event(AdvertisementEvent.Kind.FOUND, A, 1, 1)), is(true));
+  }
+
+  @Test
+  void monitorIdsAreNotTruncated() {
+    assertThat(accept(event(AdvertisementEvent.Kind.FOUND, A, 1, 0)), is(true));
+    assertThat(accept(event(AdvertisementEvent.Kind.FOUND, A, 65537, 0)), is(true));
+    assertThat(deduplicator.getFoundDevices(), is(2));
+
+    assertThat(accept(event(AdvertisementEvent.Kind.FOUND, A, 65537, 1)), is(false));
+    assertThat(accept(event(AdvertisementEvent.Kind.LOST, A, 65537, 0)), is(false));
+    assertThat(accept(event(AdvertisementEvent.Kind.LOST, A, 65537, 1)), is(true));
+    assertThat(accept(event(AdvertisementEvent.Kind.FOUND, A, 1, 1)), is(false));
+    assertThat(accept(event(AdvertisementEvent.Kind.LOST, A, 1, 0)), is(false));
+    assertThat(accept(event(AdvertisementEvent.Kind.LOST, A, 1, 1)), is(true));
+  }
+
+  @Test
+  void expire() {
+    accept(advertisement(A, 0, -70, 1000, FRAME));
+    accept(advertisement(B, 0, -70, 1200, FRAME));
+
+    deduplicator.expire(1000 + WINDOW - 1);
+    assertThat(deduplicator.getTrackedDevices(), is(2));
+    deduplicator.expire(1000 + WINDOW);
+    assertThat(deduplicator.getTrackedDevices(), is(1));
+    // an expired device starts over
+    assertThat(accept(advertisement(A, 1, -90, 1000 + WINDOW, FRAME)), is(true));
+  }
+
+  @Test
+  void expiredOnEventTime() {
+    for (int i = 0; i < 100; i++) {
+      accept(advertisement(A + i, 0, -70, 1000, FRAME));
+    }
+    assertThat(deduplicator.getTrackedDevices(), is(100));
+    accept(advertisement(B, 0, -70, 1000 + WINDOW, FRAME));
+    assertThat(deduplicator.getTrackedDevices(), is(1));
+  }
+
+  // private methods
+
+  private boolean accept(final AdvertisementEvent event) {
+    return deduplicator.accept(event);
+  }
+
+  private static AdvertisementEvent advertisement(
+      final long address, final int adapter, final int rssi, final long timestamp, final byte[] payload) {
+    return new AdvertisementEvent()
+        .set(AdvertisementEvent.Kind.ADVERTISEMENT, address, 1)
+        .setAdapterIndex(adapter)
+        .setRssi(rssi)
+        .setTimestamp(timestamp)
+        .setPayload(payload, 0, payload.length);
+  }
+
+  private static AdvertisementEvent event(
+      final AdvertisementEvent.Kind kind, final long address, final int monitorId, final int adapter) {
+    return new AdvertisementEvent().set(kind, address, monitorId).setAdapterIndex(adapter);
+  }
+}
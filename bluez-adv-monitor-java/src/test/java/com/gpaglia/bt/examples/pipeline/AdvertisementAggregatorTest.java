@@ -0,0 +1,202 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+
+import org.junit.jupiter.api.Test;
+
+class AdvertisementAggregatorTest {
+  private static final long A = 0x582d34325a38L;
+  private static final long B = 0xa4c138000001L;
+  private static final byte[] FRAME = { 0x02, 0x01, 0x06 };
+  private static final byte[] OTHER_FRAME = { 0x03, 0x16, (byte) 0x95, (byte) 0xfe };
+
+  private final List<AdvertisementSummary> summaries = new ArrayList<>();
+
+  @Test
+  void windowMustBeAMultipleOfTheSlide() {
+    assertThrows(IllegalArgumentException.class, () -> new AdvertisementAggregator(1000, 300, summaries::add, 16));
+    assertThrows(IllegalArgumentException.class, () -> new AdvertisementAggregator(1000, 2000, summaries::add, 16));
+    assertThrows(IllegalArgumentException.class, () -> new AdvertisementAggregator(1000, 0, summaries::add, 16));
+  }
+
+  @Test
+  void tumblingWindows() {
+    final AdvertisementAggregator aggregator = new AdvertisementAggregator(1000, this::collect);
+    aggregator.add(event(A, -60, 100, FRAME));
+    aggregator.add(event(A, -70, 500, FRAME));
+    aggregator.add(event(A, DeviceRegistry.RSSI_UNKNOWN, 900, OTHER_FRAME));
+    aggregator.add(event(B, -50, 950, FRAME));
+    assertThat(summaries.size(), is(0));
+
+    aggregator.advance(999);
+    assertThat(summaries.size(), is(0));
+    aggregator.advance(1000);
+    assertThat(summaries.size(), is(2));
+    final AdvertisementSummary a = summary(A);
+    assertThat(a.getWindowStart(), is(0L));
+    assertThat(a.getWindowEnd(), is(1000L));
+    assertThat(a.getCount(), is(3));
+    assertThat(a.getRssiCount(), is(2));
+    assertThat(a.getMinRssi(), is(-70));
+    assertThat(a.getMaxRssi(), is(-60));
+    assertThat(a.getMeanRssi(), is(-65.0));
+    assertThat(a.getLastTimestamp(), is(900L));
+    assertThat(a.getLastPayloadLength(), is(OTHER_FRAME.length));
+    assertThat(summary(B).getCount(), is(1));
+
+    // the next window only counts its own advertisements
+    summaries.clear();
+    aggregator.add(event(A, -80, 1200, FRAME));
+    aggregator.advance(2000);
+    assertThat(summaries.size(), is(1));
+    assertThat(summary(A).getWindowStart(), is(1000L));
+    assertThat(summary(A).getCount(), is(1));
+    assertThat(summary(A).getMinRssi(), is(-80));
+    assertThat(aggregator.getSummaries(), is(3L));
+    assertThat(aggregator.getAdvertisements(), is(5L));
+  }
+
+  @Test
+  void slidingWindowsRotateTheBuckets() {
+    final AdvertisementAggregator aggregator = new AdvertisementAggregator(3000, 1000, this::collect, 16);
+    aggregator.add(event(A, -60, 500, FRAME));
+    aggregator.add(event(A, -70, 1500, FRAME));
+    aggregator.add(event(A, -80, 2500, FRAME));
+
+    aggregator.advance(5000);
+
+    // one summary per slide, over the last three slides
+    final int[] counts = { 1, 2, 3, 2, 1 };
+    final int[] min = { -60, -70, -80, -80, -80 };
+    assertThat(summaries.size(), is(counts.length));
+    for (int i = 0; i < counts.length; i++) {
+      final AdvertisementSummary s = summaries.get(i);
+      assertThat(s.getWindowEnd(), is((i + 1) * 1000L));
+      assertThat(s.getWindowStart(), is((i + 1) * 1000L - 3000));
+      assertThat(s.getCount(), is(counts[i]));
+      assertThat(s.getMinRssi(), is(min[i]));
+    }
+    // idle over a whole window: dropped, nothing emitted
+    summaries.clear();
+    aggregator.advance(6000);
+    assertThat(summaries.size(), is(0));
+    assertThat(aggregator.getTrackedDevices(), is(0));
+  }
+
+  @Test
+  void idleDevicesAreDropped() {
+    final AdvertisementAggregator aggregator = new AdvertisementAggregator(1000, this::collect);
+    aggregator.add(event(A, -60, 100, FRAME));
+    aggregator.add(event(B, -60, 100, FRAME));
+    aggregator.add(event(B, -60, 1100, FRAME));
+    assertThat(summaries.size(), is(2));
+
+    summaries.clear();
+    aggregator.advance(2000);
+    assertThat(summaries.size(), is(1));
+    assertThat(summary(B).getCount(), is(1));
+    assertThat(aggregator.getTrackedDevices(), is(1));
+
+    // a dropped device starts over, with empty buckets
+    summaries.clear();
+    aggregator.add(event(A, -75, 2100, FRAME));
+    aggregator.advance(3000);
+    assertThat(summaries.size(), is(1));
+    assertThat(summary(A).getCount(), is(1));
+    assertThat(summary(A).getMaxRssi(), is(-75));
+    assertThat(aggregator.getTrackedDevices(), is(1));
+  }
+
+  @Test
+  void fastForwardsWhenNothingIsTracked() {
+    final AdvertisementAggregator aggregator = new AdvertisementAggregator(3000, 1000, this::collect, 16);
+    aggregator.add(event(A, -60, 100, FRAME));
+    aggregator.advance(4000);
+    assertThat(aggregator.getTrackedDevices(), is(0));
+
+    // ages later: realigned on the slide of the new event, a walk through the empty windows would not end
+    summaries.clear();
+    final long later = 1_000_000_000_000_000L + 4500;
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> aggregator.add(event(A, -65, later, FRAME)));
+    aggregator.add(event(A, -55, later + 400, FRAME));
+    aggregator.advance(later + 499);
+    assertThat(summaries.size(), is(0));
+    aggregator.advance(later + 500);
+    assertThat(summaries.size(), is(1));
+    assertThat(summary(A).getWindowEnd(), is(1_000_000_000_000_000L + 5000));
+    assertThat(summary(A).getCount(), is(2));
+    assertThat(summary(A).getMinRssi(), is(-65));
+    assertThat(summary(A).getMaxRssi(), is(-55));
+  }
+
+  @Test
+  void forget() {
+    final AdvertisementAggregator aggregator = new AdvertisementAggregator(1000, this::collect);
+    aggregator.add(event(A, -60, 100, FRAME));
+    aggregator.forget(A);
+    aggregator.forget(B);
+    aggregator.advance(1000);
+    assertThat(summaries.size(), is(0));
+    assertThat(aggregator.getTrackedDevices(), is(0));
+  }
+
+  @Test
+  void growsPastTheExpectedDevices() {
+    final AdvertisementAggregator aggregator = new AdvertisementAggregator(2000, 1000, this::collect, 2);
+    for (int i = 0; i < 50; i++) {
+      aggregator.add(event(A + i, -60 - i % 10, 100 + i, FRAME));
+    }
+    aggregator.advance(1000);
+    assertThat(summaries.size(), is(50));
+    for (int i = 0; i < 50; i++) {
+      assertThat(summary(A + i).getMaxRssi(), is(-60 - i % 10));
+    }
+  }
+
+  @Test
+  void listenerFailuresAreCounted() {
+    final AdvertisementAggregator aggregator = new AdvertisementAggregator(1000, s -> {
+      throw new IllegalStateException("boom");
+    });
+    aggregator.add(event(A, -60, 100, FRAME));
+    aggregator.add(event(B, -60, 100, FRAME));
+    aggregator.add(event(A, -60, 1100, FRAME));
+    assertThat(aggregator.getFailures(), is(2L));
+    aggregator.advance(2000);
+    assertThat(aggregator.getFailures(), is(3L));
+    assertThat(aggregator.getTrackedDevices(), is(1));
+  }
+
+  // private methods
+
+  private void collect(final AdvertisementSummary summary) {
+    summaries.add(summary.copy());
+  }
+
+  private AdvertisementSummary summary(final long address) {
+    for (AdvertisementSummary s : summaries) {
+      if (s.getAddress() == address) {
+        return s;
+      }
+    }
+    throw new AssertionError("No summary for " + Long.toHexString(address));
+  }
+
+  private static AdvertisementEvent event(
+      final long address, final int rssi, final long timestamp, final byte[] payload) {
+    return new AdvertisementEvent()
+        .set(AdvertisementEvent.Kind.ADVERTISEMENT, address, -1)
+        .setRssi(rssi)
+        .setTimestamp(timestamp)
+        .setPayload(payload, 0, payload.length);
+  }
+}
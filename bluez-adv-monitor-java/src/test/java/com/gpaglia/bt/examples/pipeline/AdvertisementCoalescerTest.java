@@ -0,0 +1,140 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Random;
+
+import com.gpaglia.bt.examples.registry.DeviceRegistry;
+
+import org.junit.jupiter.api.Test;
+
+class AdvertisementCoalescerTest {
+  private static final long A = 0x582d34325a38L;
+  private static final long B = 0xa4c138000001L;
+  private static final long WINDOW = 1000;
+  private static final byte[] FRAME = { 0x02, 0x01, 0x06 };
+  private static final byte[] OTHER_FRAME = { 0x02, 0x01, 0x04 };
+  private static final byte[] EMPTY = new byte[0];
+
+  private final AdvertisementCoalescer coalescer = new AdvertisementCoalescer(WINDOW, 10);
+
+  @Test
+  void repeatsAreSuppressedWithinTheWindow() {
+    assertThat(accept(A, FRAME, -60, 0), is(true));
+    assertThat(accept(A, FRAME, -62, 100), is(false));
+    assertThat(accept(A, FRAME, -62, WINDOW - 1), is(false));
+    assertThat(accept(A, FRAME, -62, WINDOW), is(true));
+    // the window runs from the last forwarded one
+    assertThat(accept(A, FRAME, -62, 2 * WINDOW - 1), is(false));
+    // per device
+    assertThat(accept(B, FRAME, -62, 1500), is(true));
+  }
+
+  @Test
+  void changedPayloadPasses() {
+    assertThat(accept(A, FRAME, -60, 0), is(true));
+    assertThat(accept(A, OTHER_FRAME, -60, 10), is(true));
+    assertThat(accept(A, OTHER_FRAME, -60, 20), is(false));
+    assertThat(accept(A, FRAME, -60, 30), is(true));
+  }
+
+  @Test
+  void rssiThreshold() {
+    assertThat(accept(A, FRAME, -60, 0), is(true));
+    assertThat(accept(A, FRAME, -69, 100), is(false));
+    assertThat(accept(A, FRAME, -70, 200), is(true));
+    // measured from the last forwarded RSSI
+    assertThat(accept(A, FRAME, -65, 300), is(false));
+    assertThat(accept(A, FRAME, -60, 400), is(true));
+    assertThat(accept(A, FRAME, DeviceRegistry.RSSI_UNKNOWN, 500), is(false));
+
+    final AdvertisementCoalescer noRssi = new AdvertisementCoalescer(WINDOW, AdvertisementCoalescer.NO_RSSI_THRESHOLD);
+    assertThat(noRssi.accept(A, FRAME, 0, FRAME.length, -60, 0), is(true));
+    assertThat(noRssi.accept(A, FRAME, 0, FRAME.length, -100, 100), is(false));
+  }
+
+  @Test
+  void unknownRssiIsNeverAChange() {
+    assertThat(accept(A, FRAME, DeviceRegistry.RSSI_UNKNOWN, 0), is(true));
+    assertThat(accept(A, FRAME, -100, 100), is(false));
+  }
+
+  @Test
+  void emptyPayloadIsAnRssiOnlyUpdate() {
+    assertThat(accept(A, FRAME, -60, 0), is(true));
+    assertThat(accept(A, EMPTY, -62, 100), is(false));
+    assertThat(accept(A, EMPTY, -75, 200), is(true));
+    // the payload is still the last one
+    assertThat(accept(A, FRAME, -75, 300), is(false));
+    // a first empty payload is forwarded
+    assertThat(accept(B, EMPTY, -60, 300), is(true));
+  }
+
+  @Test
+  void counters() {
+    accept(A, FRAME, -60, 0);
+    accept(A, FRAME, -60, 100);
+    accept(A, FRAME, -80, 200);
+    accept(A, OTHER_FRAME, -80, 300);
+    accept(A, OTHER_FRAME, -80, 400);
+    assertThat(coalescer.getForwarded(), is(3L));
+    assertThat(coalescer.getForwardedOnRssi(), is(1L));
+    assertThat(coalescer.getSuppressed(), is(2L));
+    assertThat(coalescer.getTrackedDevices(), is(1));
+  }
+
+  @Test
+  void forget() {
+    accept(A, FRAME, -60, 0);
+    coalescer.forget(A);
+    coalescer.forget(B);
+    assertThat(coalescer.getTrackedDevices(), is(0));
+    assertThat(accept(A, FRAME, -60, 100), is(true));
+  }
+
+  @Test
+  void expire() {
+    accept(A, FRAME, -60, 0);
+    accept(B, FRAME, -60, 500);
+    coalescer.expire(WINDOW - 1);
+    assertThat(coalescer.getTrackedDevices(), is(2));
+    coalescer.expire(WINDOW);
+    assertThat(coalescer.getTrackedDevices(), is(1));
+    coalescer.expire(500 + WINDOW);
+    assertThat(coalescer.getTrackedDevices(), is(0));
+  }
+
+  @Test
+  void expiredOnEventTime() {
+    for (int i = 0; i < 100; i++) {
+      accept(A + i, FRAME, -60, 0);
+    }
+    assertThat(coalescer.getTrackedDevices(), is(100));
+    accept(B, FRAME, -60, WINDOW);
+    assertThat(coalescer.getTrackedDevices(), is(1));
+  }
+
+  @Test
+  void expiryIsInvisible() {
+    final Random random = new Random(11);
+    final AdvertisementCoalescer expiring = new AdvertisementCoalescer(WINDOW, 10);
+    long now = 0;
+    for (int i = 0; i < 100_000; i++) {
+      now += random.nextInt(20);
+      final long address = A + random.nextInt(50);
+      final byte[] frame = random.nextInt(10) == 0 ? OTHER_FRAME : FRAME;
+      final int rssi = -60 - random.nextInt(15);
+      if (random.nextInt(100) == 0) {
+        expiring.expire(now);
+      }
+      assertThat(expiring.accept(address, frame, 0, frame.length, rssi, now), is(accept(address, frame, rssi, now)));
+    }
+  }
+
+  // private methods
+
+  private boolean accept(final long address, final byte[] payload, final int rssi, final long now) {
+    return coalescer.accept(address, payload, 0, payload.length, rssi, now);
+  }
+}
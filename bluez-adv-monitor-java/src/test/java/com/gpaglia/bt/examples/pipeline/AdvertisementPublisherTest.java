@@ -0,0 +1,213 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import org.junit.jupiter.api.Test;
+
+class AdvertisementPublisherTest {
+  private static final long A = 0x582d34325a38L;
+  private static final long B = 0xa4c138000001L;
+
+  // drains on the calling thread, counting the drains scheduled
+  private int drains;
+  private final Executor executor = task -> {
+    drains++;
+    task.run();
+  };
+  private final AdvertisementPublisher publisher = new AdvertisementPublisher(executor);
+  private final Recorder recorder = new Recorder();
+
+  @Test
+  void deliversOnDemand() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 8, AdvertisementPublisher.DropPolicy.DROP_OLDEST, null);
+    offer(advertisement(A, -1), advertisement(A, -2), advertisement(A, -3));
+    assertThat(recorder.signals.isEmpty(), is(true));
+    assertThat(s.getBuffered(), is(3));
+
+    s.request(2);
+    assertThat(recorder.signals, is(List.of("ADVERTISEMENT -1", "ADVERTISEMENT -2")));
+    s.request(5);
+    offer(advertisement(A, -4));
+    assertThat(recorder.signals.size(), is(4));
+    assertThat(s.getDelivered(), is(4L));
+    assertThat(s.getBuffered(), is(0));
+  }
+
+  @Test
+  void noDrainWithoutDemand() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 8, AdvertisementPublisher.DropPolicy.DROP_OLDEST, null);
+    for (int i = 0; i < 100; i++) {
+      offer(advertisement(A, -i));
+    }
+    assertThat(drains, is(0));
+
+    s.request(1);
+    assertThat(drains, is(1));
+    assertThat(recorder.signals.size(), is(1));
+  }
+
+  @Test
+  void nonPositiveRequestFails() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 8, AdvertisementPublisher.DropPolicy.DROP_OLDEST, null);
+    offer(advertisement(A, -1));
+    s.request(0);
+    s.request(1);
+    offer(advertisement(A, -2));
+    publisher.close();
+
+    assertThat(recorder.signals, is(List.of("error IllegalArgumentException")));
+    assertThat(publisher.getSubscriberCount(), is(0));
+  }
+
+  @Test
+  void failingSubscriberIsCancelled() {
+    final Recorder failing = new Recorder() {
+      @Override
+      public void onNext(final AdvertisementEvent item) {
+        super.onNext(item);
+        throw new IllegalStateException("boom");
+      }
+    };
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(failing, 8, AdvertisementPublisher.DropPolicy.DROP_OLDEST, null);
+    s.request(10);
+    offer(advertisement(A, -1), advertisement(A, -2));
+
+    assertThat(failing.signals, is(List.of("ADVERTISEMENT -1", "error IllegalStateException")));
+    assertThat(publisher.getSubscriberCount(), is(0));
+  }
+
+  @Test
+  void dropOldest() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 2, AdvertisementPublisher.DropPolicy.DROP_OLDEST, null);
+    offer(advertisement(A, -1), advertisement(A, -2), advertisement(A, -3));
+    s.request(10);
+    assertThat(recorder.signals, is(List.of("ADVERTISEMENT -2", "ADVERTISEMENT -3")));
+    assertThat(s.getDropped(), is(1L));
+  }
+
+  @Test
+  void dropNewest() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 2, AdvertisementPublisher.DropPolicy.DROP_NEWEST, null);
+    offer(advertisement(A, -1), advertisement(A, -2), advertisement(A, -3));
+    s.request(10);
+    assertThat(recorder.signals, is(List.of("ADVERTISEMENT -1", "ADVERTISEMENT -2")));
+    assertThat(s.getDropped(), is(1L));
+  }
+
+  @Test
+  void conflateKeepsTheLatestAdvertisement() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 8, AdvertisementPublisher.DropPolicy.CONFLATE, null);
+    offer(advertisement(A, -1), advertisement(B, -10), advertisement(A, -2), advertisement(A, -3));
+    s.request(10);
+    assertThat(recorder.signals, is(List.of("ADVERTISEMENT -3", "ADVERTISEMENT -10")));
+    assertThat(s.getConflated(), is(2L));
+  }
+
+  @Test
+  void conflateNeverOvertakesFoundOrLost() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 8, AdvertisementPublisher.DropPolicy.CONFLATE, null);
+    offer(
+        advertisement(A, -1),
+        new AdvertisementEvent().set(AdvertisementEvent.Kind.LOST, A, 1),
+        advertisement(A, -2),
+        new AdvertisementEvent().set(AdvertisementEvent.Kind.FOUND, A, 1),
+        advertisement(A, -3),
+        advertisement(A, -4));
+    s.request(10);
+    assertThat(recorder.signals, is(List.of(
+        "ADVERTISEMENT -1", "LOST", "ADVERTISEMENT -2", "FOUND", "ADVERTISEMENT -4")));
+    assertThat(s.getConflated(), is(1L));
+  }
+
+  @Test
+  void filter() {
+    final AdvertisementPublisher.Subscription s = publisher.subscribe(
+        recorder, 8, AdvertisementPublisher.DropPolicy.DROP_OLDEST, e -> e.getAddress() == B);
+    offer(advertisement(A, -1), advertisement(B, -2));
+    s.request(10);
+    assertThat(recorder.signals, is(List.of("ADVERTISEMENT -2")));
+  }
+
+  @Test
+  void closeCompletesAfterTheBufferedEvents() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 8, AdvertisementPublisher.DropPolicy.DROP_OLDEST, null);
+    offer(advertisement(A, -1), advertisement(A, -2));
+    publisher.close();
+    assertThat(recorder.signals.isEmpty(), is(true));
+
+    s.request(1);
+    assertThat(recorder.signals, is(List.of("ADVERTISEMENT -1")));
+    s.request(1);
+    assertThat(recorder.signals, is(List.of("ADVERTISEMENT -1", "ADVERTISEMENT -2", "complete")));
+
+    // later subscribers complete at once
+    final Recorder late = new Recorder();
+    publisher.subscribe(late);
+    assertThat(late.signals, is(List.of("complete")));
+  }
+
+  @Test
+  void cancelStopsDelivery() {
+    final AdvertisementPublisher.Subscription s =
+        publisher.subscribe(recorder, 8, AdvertisementPublisher.DropPolicy.DROP_OLDEST, null);
+    s.request(10);
+    offer(advertisement(A, -1));
+    s.cancel();
+    offer(advertisement(A, -2));
+    s.request(-1);
+    publisher.close();
+    assertThat(recorder.signals, is(List.of("ADVERTISEMENT -1")));
+  }
+
+  // private methods
+
+  private void offer(final AdvertisementEvent... events) {
+    for (AdvertisementEvent e : events) {
+      publisher.onEvent(e, 0, true);
+    }
+  }
+
+  private static AdvertisementEvent advertisement(final long address, final int rssi) {
+    return new AdvertisementEvent().set(AdvertisementEvent.Kind.ADVERTISEMENT, address, 1).setRssi(rssi);
+  }
+
+  private static class Recorder implements Flow.Subscriber<AdvertisementEvent> {
+    final List<String> signals = new ArrayList<>();
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+    }
+
+    @Override
+    public void onNext(final AdvertisementEvent item) {
+      signals.add(item.getKind() == AdvertisementEvent.Kind.ADVERTISEMENT
+          ? item.getKind() + " " + item.getRssi()
+          : item.getKind().toString());
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      signals.add("error " + throwable.getClass().getSimpleName());
+    }
+
+    @Override
+    public void onComplete() {
+      signals.add("complete");
+    }
+  }
+}
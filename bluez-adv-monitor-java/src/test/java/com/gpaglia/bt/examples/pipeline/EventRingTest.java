@@ -0,0 +1,187 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class EventRingTest {
+  @Test
+  void sizeMustBeAPowerOfTwo() {
+    assertThrows(IllegalArgumentException.class, () -> new EventRing(1));
+    assertThrows(IllegalArgumentException.class, () -> new EventRing(12));
+  }
+
+  @Test
+  void wrapsAround() {
+    final EventRing ring = new EventRing(4);
+    final List<Integer> received = new ArrayList<>();
+    final List<Boolean> batchEnds = new ArrayList<>();
+    ring.addConsumer("test", (event, sequence, endOfBatch) -> {
+      received.add(event.getMonitorId());
+      batchEnds.add(endOfBatch);
+    });
+    ring.start();
+    for (int i = 0; i < 100; i++) {
+      // never more than a ring ahead of the consumer
+      while (! publish(ring, 0, i)) {
+        Thread.onSpinWait();
+      }
+    }
+    ring.stop();
+
+    assertThat(received.size(), is(100));
+    for (int i = 0; i < 100; i++) {
+      assertThat(received.get(i), is(i));
+    }
+    assertThat(batchEnds.get(99), is(true));
+    assertThat(ring.getDepth(), is(0L));
+  }
+
+  @Test
+  void fullRingDrops() {
+    final EventRing ring = new EventRing(8);
+    // never started: holds the ring at its initial sequence
+    ring.addConsumer("stalled", (event, sequence, endOfBatch) -> { });
+    for (int i = 0; i < 8; i++) {
+      assertThat(publish(ring, 0, i), is(true));
+    }
+    assertThat(publish(ring, 0, 8), is(false));
+    assertThat(publish(ring, 0, 9), is(false));
+    assertThat(ring.getDropped(), is(2L));
+    assertThat(ring.getCursor(), is(7L));
+    assertThat(ring.getDepth(), is(8L));
+  }
+
+  @Test
+  void consumersAreAddedBeforeStart() {
+    final EventRing ring = new EventRing(8);
+    ring.start();
+    assertThrows(IllegalStateException.class, () -> ring.addConsumer("late", (event, sequence, endOfBatch) -> { }));
+    ring.stop();
+  }
+
+  @Test
+  void everyConsumerSeesEachProducerInOrder() throws InterruptedException {
+    final int producers = 4;
+    final int events = 20_000;
+    final EventRing ring = new EventRing(256);
+    final int[][] last = new int[2][producers];
+    final int[] received = new int[2];
+    final AtomicInteger outOfOrder = new AtomicInteger();
+    for (int c = 0; c < 2; c++) {
+      final int consumer = c;
+      Arrays.fill(last[consumer], -1);
+      ring.addConsumer("consumer" + c, (event, sequence, endOfBatch) -> {
+        final int producer = event.getAdapterIndex();
+        if (event.getMonitorId() != last[consumer][producer] + 1) {
+          outOfOrder.incrementAndGet();
+        }
+        last[consumer][producer] = event.getMonitorId();
+        received[consumer]++;
+      });
+    }
+    ring.start();
+
+    final CountDownLatch done = new CountDownLatch(producers);
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      final Thread t = new Thread(() -> {
+        for (int i = 0; i < events; i++) {
+          while (! publish(ring, producer, i)) {
+            Thread.onSpinWait();
+          }
+        }
+        done.countDown();
+      });
+      t.setDaemon(true);
+      t.start();
+    }
+    assertThat(done.await(30, TimeUnit.SECONDS), is(true));
+    // stop() happens before the reads below: the consumers drained everything published
+    ring.stop();
+
+    assertThat(outOfOrder.get(), is(0));
+    assertThat(received[0], is(producers * events));
+    assertThat(received[1], is(producers * events));
+  }
+
+  @Test
+  void stopDrainsAndJoins() {
+    final EventRing ring = new EventRing(1024);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger received = new AtomicInteger();
+    final EventProcessor processor = ring.addConsumer("slow", (event, sequence, endOfBatch) -> {
+      release.await();
+      received.incrementAndGet();
+    });
+    ring.start();
+    for (int i = 0; i < 500; i++) {
+      publish(ring, 0, i);
+    }
+    release.countDown();
+    ring.stop();
+
+    assertThat(received.get(), is(500));
+    assertThat(processor.getSequence(), is(499L));
+    assertThat(ring.getDepth(), is(0L));
+  }
+
+  @Test
+  void handlerErrorsAreCounted() {
+    final EventRing ring = new EventRing(8);
+    final EventProcessor processor = ring.addConsumer("failing", (event, sequence, endOfBatch) -> {
+      throw new IllegalStateException("boom");
+    });
+    ring.start();
+    publish(ring, 0, 0);
+    publish(ring, 0, 1);
+    ring.stop();
+    assertThat(processor.getErrors(), is(2L));
+    assertThat(processor.getSequence(), is(1L));
+  }
+
+  @Test
+  void idleTimeoutsAreRateLimited() throws InterruptedException {
+    final EventRing ring = new EventRing(8);
+    final AtomicInteger timeouts = new AtomicInteger();
+    ring.addConsumer("idle", new EventHandler() {
+      @Override
+      public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) {
+      }
+
+      @Override
+      public void onTimeout(final long sequence) {
+        timeouts.incrementAndGet();
+      }
+    });
+    final long start = System.nanoTime();
+    ring.start();
+    Thread.sleep(200);
+    ring.stop();
+
+    final long max = (System.nanoTime() - start) / EventProcessor.TIMEOUT_NANOS + 1;
+    assertThat(timeouts.get() >= 1, is(true));
+    assertThat(timeouts.get() <= max, is(true));
+  }
+
+  // private methods
+
+  private static boolean publish(final EventRing ring, final int producer, final int counter) {
+    final long seq = ring.tryNext();
+    if (seq == EventRing.NO_SEQUENCE) {
+      return false;
+    }
+    ring.get(seq).set(AdvertisementEvent.Kind.ADVERTISEMENT, producer, counter).setAdapterIndex(producer);
+    ring.publish(seq);
+    return true;
+  }
+}
@@ -0,0 +1,158 @@
+package com.gpaglia.bt.examples.registry;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DeviceRegistryTest {
+  private static final long A = 0x582d34325a38L;
+  private static final long B = 0xa4c138000001L;
+
+  private final DeviceRegistry registry = new DeviceRegistry();
+  private final DeviceInfo info = new DeviceInfo();
+
+  @Test
+  void foundSeenLost() {
+    assertThat(registry.deviceFound(A, 1, 1000), is(true));
+    assertThat(registry.deviceFound(A, 1, 2000), is(false));
+    assertThat(registry.deviceSeen(A, -60, 3000), is(true));
+    assertThat(registry.deviceSeen(B, -60, 3000), is(false));
+
+    assertThat(registry.get(A, info), is(true));
+    assertThat(info.getFirstSeen(), is(1000L));
+    assertThat(info.getLastSeen(), is(3000L));
+    assertThat(info.getRssi(), is(-60));
+    assertThat(info.getMonitorId(), is(1));
+    assertThat(info.getMonitorCount(), is(1));
+
+    assertThat(registry.deviceLost(A, 1), is(true));
+    assertThat(registry.contains(A), is(false));
+    assertThat(registry.deviceLost(A, 1), is(false));
+    assertThat(registry.size(), is(0));
+  }
+
+  @Test
+  void presentUntilTheLastMonitorLostIt() {
+    registry.deviceFound(A, 1, 1000);
+    assertThat(registry.deviceFound(A, 2, 1100), is(false));
+    assertThat(registry.get(A, info), is(true));
+    assertThat(info.getMonitorId(), is(2));
+    assertThat(info.getMonitorCount(), is(2));
+    assertThat(registry.getReportCount(), is(2));
+
+    // a monitor which never reported it
+    assertThat(registry.deviceLost(A, 3), is(false));
+    assertThat(registry.deviceLost(A, 1), is(false));
+    assertThat(registry.contains(A), is(true));
+    assertThat(registry.deviceLost(A, 1), is(false));
+    assertThat(registry.deviceLost(A, 2), is(true));
+    assertThat(registry.contains(A), is(false));
+    assertThat(registry.getReportCount(), is(0));
+  }
+
+  @Test
+  void monitorIdsAreNotTruncated() {
+    registry.deviceFound(A, 1, 1000);
+    registry.deviceFound(A, 65537, 1000);
+    assertThat(registry.getReportCount(), is(2));
+
+    assertThat(registry.deviceLost(A, 65537), is(false));
+    assertThat(registry.contains(A), is(true));
+    assertThat(registry.deviceLost(A, 65537), is(false));
+    assertThat(registry.monitorRemoved(65537), is(0));
+    assertThat(registry.deviceLost(A, 1), is(true));
+  }
+
+  @Test
+  void foundAgainAfterLost() {
+    registry.deviceFound(A, 1, 1000);
+    registry.deviceLost(A, 1);
+    assertThat(registry.deviceFound(A, 2, 5000), is(true));
+    assertThat(registry.get(A, info), is(true));
+    assertThat(info.getFirstSeen(), is(5000L));
+    assertThat(info.getMonitorCount(), is(1));
+    assertThat(registry.deviceLost(A, 2), is(true));
+  }
+
+  @Test
+  void removeForgetsEveryMonitor() {
+    registry.deviceFound(A, 1, 1000);
+    registry.deviceFound(A, 2, 1000);
+    registry.deviceFound(B, 2, 1000);
+
+    assertThat(registry.remove(A), is(true));
+    assertThat(registry.remove(A), is(false));
+    assertThat(registry.getReportCount(), is(1));
+    assertThat(registry.deviceLost(A, 1), is(false));
+
+    // a new report starts from scratch
+    registry.deviceFound(A, 1, 2000);
+    assertThat(registry.deviceLost(A, 1), is(true));
+  }
+
+  @Test
+  void monitorRemoved() {
+    registry.deviceFound(A, 1, 1000);
+    registry.deviceFound(A, 2, 1000);
+    registry.deviceFound(B, 1, 1000);
+
+    assertThat(registry.monitorRemoved(1), is(1));
+    assertThat(registry.contains(A), is(true));
+    assertThat(registry.contains(B), is(false));
+    assertThat(registry.get(A, info), is(true));
+    assertThat(info.getMonitorCount(), is(1));
+    assertThat(registry.deviceLost(A, 2), is(true));
+  }
+
+  @Test
+  void forEachReport() {
+    registry.deviceFound(A, 1, 1000);
+    registry.deviceFound(A, 2, 1000);
+    registry.deviceFound(B, 3, 1000);
+
+    final List<String> devices = new ArrayList<>();
+    registry.forEach((address, firstSeen, lastSeen, rssi, monitorId) -> devices.add(address + "/" + monitorId));
+    assertThat(devices.size(), is(2));
+
+    final List<String> reports = new ArrayList<>();
+    registry.forEachReport((address, firstSeen, lastSeen, rssi, monitorId) -> reports.add(address + "/" + monitorId));
+    reports.sort(null);
+    final List<String> expected = new ArrayList<>(List.of(A + "/1", A + "/2", B + "/3"));
+    expected.sort(null);
+    assertThat(reports, is(expected));
+  }
+
+  @Test
+  void manyDevicesAndMonitors() {
+    for (int i = 0; i < 5000; i++) {
+      for (int m = 1; m <= 3; m++) {
+        registry.deviceFound(A + i, m, i);
+      }
+    }
+    assertThat(registry.size(), is(5000));
+    assertThat(registry.getReportCount(), is(15000));
+    for (int i = 0; i < 5000; i++) {
+      assertThat(registry.deviceLost(A + i, 1), is(false));
+      assertThat(registry.deviceLost(A + i, 3), is(false));
+    }
+    assertThat(registry.size(), is(5000));
+    assertThat(registry.monitorRemoved(2), is(5000));
+    assertThat(registry.size(), is(0));
+    assertThat(registry.getReportCount(), is(0));
+  }
+
+  @Test
+  void clear() {
+    registry.deviceFound(A, 1, 1000);
+    registry.deviceFound(A, 2, 1000);
+    registry.clear();
+    assertThat(registry.size(), is(0));
+    assertThat(registry.getReportCount(), is(0));
+    assertThat(registry.deviceFound(A, 1, 2000), is(true));
+    assertThat(registry.deviceLost(A, 1), is(true));
+  }
+}
@@ -0,0 +1,216 @@
+package com.gpaglia.bt.examples.shm;
+
+import static com.gpaglia.bt.examples.pipeline.TestEvents.event;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.TestEvents;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShmRingWriterReaderTest {
+  @TempDir
+  Path dir;
+
+  private Path file;
+  private final AdvertisementEvent e = new AdvertisementEvent();
+
+  @BeforeEach
+  void setUp() {
+    file = dir.resolve("adv.ring");
+  }
+
+  @Test
+  void roundTrip() throws IOException {
+    try (ShmRingWriter writer = new ShmRingWriter(file, 64);
+        ShmRingReader reader = new ShmRingReader(file)) {
+      assertThat(reader.getSlots(), is(64));
+      assertThat(reader.poll(e), is(false));
+
+      for (int i = 0; i < 50; i++) {
+        writer.append(event(i));
+      }
+      assertThat(writer.getSequence(), is(50L));
+      assertThat(reader.getCursor(), is(50L));
+      for (int i = 0; i < 50; i++) {
+        assertThat(reader.poll(e), is(true));
+        assertEvent(e, i);
+      }
+      assertThat(reader.poll(e), is(false));
+      assertThat(reader.getLost(), is(0L));
+    }
+  }
+
+  @Test
+  void maxSizePayload() throws IOException {
+    final byte[] data = new byte[AdvertisementEvent.MAX_PAYLOAD];
+    Arrays.fill(data, (byte) 0xa5);
+    try (ShmRingWriter writer = new ShmRingWriter(file, 2);
+        ShmRingReader reader = new ShmRingReader(file)) {
+      writer.append(new AdvertisementEvent()
+          .set(AdvertisementEvent.Kind.LOST, 0xffffffffffffL, Integer.MAX_VALUE)
+          .setRssi(-128)
+          .setAdapterIndex(-1)
+          .setPayload(data, 0, data.length));
+      assertThat(reader.poll(e), is(true));
+      assertThat(e.getKind(), is(AdvertisementEvent.Kind.LOST));
+      assertThat(e.getAddress(), is(0xffffffffffffL));
+      assertThat(e.getMonitorId(), is(Integer.MAX_VALUE));
+      assertThat(e.getRssi(), is(-128));
+      assertThat(e.getAdapterIndex(), is(-1));
+      assertThat(Arrays.copyOf(e.getPayload(), e.getPayloadLength()), is(data));
+    }
+  }
+
+  @Test
+  void readerStartsAtTheEnd() throws IOException {
+    try (ShmRingWriter writer = new ShmRingWriter(file, 64)) {
+      for (int i = 0; i < 10; i++) {
+        writer.append(event(i));
+      }
+      try (ShmRingReader reader = new ShmRingReader(file)) {
+        assertThat(reader.getSequence(), is(10L));
+        assertThat(reader.poll(e), is(false));
+        writer.append(event(10));
+        assertThat(reader.poll(e), is(true));
+        assertEvent(e, 10);
+
+        reader.seekOldest();
+        for (int i = 0; i <= 10; i++) {
+          assertThat(reader.poll(e), is(true));
+          assertEvent(e, i);
+        }
+
+        reader.seek(4);
+        assertThat(reader.poll(e), is(true));
+        assertEvent(e, 4);
+      }
+    }
+  }
+
+  @Test
+  void lappedReaderSkipsToTheOldestEvent() throws IOException {
+    try (ShmRingWriter writer = new ShmRingWriter(file, 16);
+        ShmRingReader reader = new ShmRingReader(file)) {
+      for (int i = 0; i < 100; i++) {
+        writer.append(event(i));
+      }
+      assertThat(reader.poll(e), is(true));
+      assertEvent(e, 84);
+      assertThat(reader.getLost(), is(84L));
+      for (int i = 85; i < 100; i++) {
+        assertThat(reader.poll(e), is(true));
+        assertEvent(e, i);
+      }
+      assertThat(reader.poll(e), is(false));
+
+      reader.seekOldest();
+      assertThat(reader.getSequence(), is(84L));
+    }
+  }
+
+  @Test
+  void closedWriterIsFlagged() throws IOException {
+    final ShmRingWriter writer = new ShmRingWriter(file, 16);
+    try (ShmRingReader reader = new ShmRingReader(file)) {
+      writer.append(event(0));
+      assertThat(reader.isWriterClosed(), is(false));
+      writer.close();
+      assertThat(reader.isWriterClosed(), is(true));
+      // what was written is still there
+      assertThat(reader.poll(e), is(true));
+      assertEvent(e, 0);
+      assertThrows(IllegalStateException.class, () -> writer.append(event(1)));
+    }
+  }
+
+  @Test
+  void newWriterReplacesTheRing() throws IOException {
+    // a writer gone without closing its ring
+    final ShmRingWriter first = new ShmRingWriter(file, 16);
+    first.append(event(0));
+    try (ShmRingReader old = new ShmRingReader(file);
+        ShmRingWriter second = new ShmRingWriter(file, 32)) {
+      assertThat(old.isWriterClosed(), is(true));
+      old.seekOldest();
+      assertThat(old.poll(e), is(true));
+      assertEvent(e, 0);
+
+      second.append(event(1));
+      try (ShmRingReader reader = new ShmRingReader(file)) {
+        assertThat(reader.getSlots(), is(32));
+        assertThat(reader.isWriterClosed(), is(false));
+        reader.seekOldest();
+        assertThat(reader.poll(e), is(true));
+        assertEvent(e, 1);
+      }
+      assertThat(Files.exists(dir.resolve("adv.ring.tmp")), is(false));
+    }
+  }
+
+  @Test
+  void otherFilesFail() throws IOException {
+    assertThrows(IOException.class, () -> new ShmRingReader(file));
+    Files.write(file, new byte[4096]);
+    assertThrows(IOException.class, () -> new ShmRingReader(file));
+    assertThrows(IllegalArgumentException.class, () -> new ShmRingWriter(file, 100));
+  }
+
+  @Test
+  void concurrentReaderSeesWholeEventsInOrder() throws Exception {
+    final int events = 200_000;
+    try (ShmRingWriter writer = new ShmRingWriter(file, 256);
+        ShmRingReader reader = new ShmRingReader(file)) {
+      final AtomicReference<AssertionError> failure = new AtomicReference<>();
+      final Thread consumer = new Thread(() -> {
+        final AdvertisementEvent read = new AdvertisementEvent();
+        try {
+          long last = -1;
+          long count = 0;
+          while (last < events - 1) {
+            if (! reader.poll(read)) {
+              Thread.onSpinWait();
+              continue;
+            }
+            // a torn copy would mix two events
+            final int i = (int) (read.getAddress() - TestEvents.FIRST_ADDRESS);
+            assertThat(i > last, is(true));
+            assertEvent(read, i);
+            last = i;
+            count++;
+          }
+          assertThat(count + reader.getLost(), is((long) events));
+        } catch (AssertionError x) {
+          failure.set(x);
+        }
+      });
+      consumer.start();
+      for (int i = 0; i < events; i++) {
+        writer.append(event(i));
+      }
+      consumer.join(30_000);
+      assertThat(consumer.isAlive(), is(false));
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+    }
+  }
+
+  // private methods
+
+  // the ring keeps the nano time of the writer
+  private static void assertEvent(final AdvertisementEvent e, final int i) {
+    TestEvents.assertEvent(e, i);
+    assertThat(e.getNanoTime(), is(event(i).getNanoTime()));
+  }
+}
@@ -0,0 +1,133 @@
+package com.gpaglia.bt.examples.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LongSlotIndexTest {
+  @Test
+  void addGetRemove() {
+    final LongSlotIndex index = new LongSlotIndex(4);
+    assertThat(index.get(42), is(LongSlotIndex.NO_SLOT));
+
+    final int slot = index.add(42);
+    assertThat(index.size(), is(1));
+    assertThat(index.get(42), is(slot));
+    // adding again returns the same slot
+    assertThat(index.add(42), is(slot));
+    assertThat(index.size(), is(1));
+
+    assertThat(index.remove(42), is(slot));
+    assertThat(index.size(), is(0));
+    assertThat(index.get(42), is(LongSlotIndex.NO_SLOT));
+    assertThat(index.remove(42), is(LongSlotIndex.NO_SLOT));
+  }
+
+  @Test
+  void anyLongIsAKey() {
+    final LongSlotIndex index = new LongSlotIndex(4);
+    final long[] keys = { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 0xffffffffffffL };
+    for (long k : keys) {
+      index.add(k);
+    }
+    assertThat(index.size(), is(keys.length));
+    for (long k : keys) {
+      assertThat(index.get(k) != LongSlotIndex.NO_SLOT, is(true));
+    }
+  }
+
+  @Test
+  void slotsAreDenseAndReused() {
+    final LongSlotIndex index = new LongSlotIndex(4);
+    for (int i = 0; i < 10; i++) {
+      assertThat(index.add(i * 1000), is(i));
+    }
+    assertThat(index.slotLimit(), is(10));
+
+    final int freed = index.remove(3000);
+    assertThat(index.add(77), is(freed));
+    // no new slot handed out
+    assertThat(index.slotLimit(), is(10));
+  }
+
+  @Test
+  void slotsAreStableAcrossRehash() {
+    final LongSlotIndex index = new LongSlotIndex(4);
+    final Map<Long, Integer> slots = new HashMap<>();
+    for (long k = 0; k < 10_000; k++) {
+      slots.put(k << 20, index.add(k << 20));
+    }
+    assertThat(index.size(), is(10_000));
+    for (Map.Entry<Long, Integer> e : slots.entrySet()) {
+      assertThat(index.get(e.getKey()), is(e.getValue()));
+    }
+  }
+
+  @Test
+  void forEachVisitsEveryKeyOnce() {
+    final LongSlotIndex index = new LongSlotIndex(16);
+    for (long k = 0; k < 100; k++) {
+      index.add(k);
+    }
+    for (long k = 0; k < 100; k += 2) {
+      index.remove(k);
+    }
+    final BitSet seen = new BitSet();
+    index.forEach((key, slot) -> {
+      assertThat(key % 2, is(1L));
+      assertThat(index.get(key), is(slot));
+      assertThat(seen.get((int) key), is(false));
+      seen.set((int) key);
+    });
+    assertThat(seen.cardinality(), is(50));
+  }
+
+  @Test
+  void clear() {
+    final LongSlotIndex index = new LongSlotIndex(16);
+    for (long k = 0; k < 100; k++) {
+      index.add(k);
+    }
+    index.clear();
+    assertThat(index.size(), is(0));
+    assertThat(index.slotLimit(), is(0));
+    assertThat(index.get(5), is(LongSlotIndex.NO_SLOT));
+    assertThat(index.add(5), is(0));
+  }
+
+  @Test
+  void behavesLikeAMap() {
+    // few distinct keys and many removals: long probe chains shifted back on every removal
+    final Random random = new Random(7);
+    final LongSlotIndex index = new LongSlotIndex(8);
+    final Map<Long, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 200_000; i++) {
+      final long key = (random.nextInt(2000) * 0x10000L) ^ 0xa4c138000000L;
+      if (random.nextBoolean()) {
+        final int slot = index.add(key);
+        final Integer previous = expected.putIfAbsent(key, slot);
+        if (previous != null) {
+          assertThat(slot, is(previous.intValue()));
+        }
+      } else {
+        final Integer previous = expected.remove(key);
+        assertThat(index.remove(key), is(previous == null ? LongSlotIndex.NO_SLOT : previous));
+      }
+      assertThat(index.size(), is(expected.size()));
+    }
+    final BitSet slots = new BitSet();
+    for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+      assertThat(index.get(e.getKey()), is(e.getValue()));
+      // no slot handed to two keys
+      assertThat(slots.get(e.getValue()), is(false));
+      slots.set(e.getValue());
+    }
+    assertThat(index.slotLimit() <= 2000, is(true));
+  }
+}
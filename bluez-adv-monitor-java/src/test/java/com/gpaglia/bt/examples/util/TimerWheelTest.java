@@ -0,0 +1,184 @@
+package com.gpaglia.bt.examples.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TimerWheelTest {
+  private static final long TICK = 10;
+  private static final long START = 1_000_000;
+
+  private final List<Long> expired = new ArrayList<>();
+  private TimerWheel wheel;
+
+  @BeforeEach
+  void setUp() {
+    wheel = new TimerWheel(TICK, START);
+  }
+
+  @Test
+  void firesAtTheDeadline() {
+    wheel.schedule(1, START + 100);
+    assertThat(wheel.size(), is(1));
+    assertThat(wheel.isScheduled(1), is(true));
+    assertThat(wheel.deadline(1), is(START + 100));
+
+    assertThat(wheel.advance(START + 99, expired::add), is(0));
+    assertThat(wheel.advance(START + 100, expired::add), is(1));
+    assertThat(expired, is(List.of(1L)));
+    assertThat(wheel.size(), is(0));
+    assertThat(wheel.isScheduled(1), is(false));
+    assertThat(wheel.deadline(1), is(Long.MIN_VALUE));
+  }
+
+  @Test
+  void deadlinesRoundUpToTheNextTick() {
+    wheel.schedule(1, START + 101);
+    assertThat(wheel.advance(START + 109, expired::add), is(0));
+    assertThat(wheel.advance(START + 110, expired::add), is(1));
+  }
+
+  @Test
+  void pastDeadlinesFireWithTheNextTick() {
+    wheel.advance(START + 500, expired::add);
+    wheel.schedule(1, START);
+    wheel.schedule(2, START - 1000);
+    assertThat(wheel.advance(START + 509, expired::add), is(0));
+    assertThat(wheel.advance(START + 510, expired::add), is(2));
+  }
+
+  @Test
+  void firesInDeadlineOrder() {
+    wheel.schedule(3, START + 300);
+    wheel.schedule(1, START + 100);
+    wheel.schedule(4, START + 5000);
+    wheel.schedule(2, START + 200);
+    assertThat(wheel.advance(START + 10_000, expired::add), is(4));
+    assertThat(expired, is(List.of(1L, 2L, 3L, 4L)));
+  }
+
+  @Test
+  void postponedTimerFiresAtItsNewDeadline() {
+    wheel.schedule(1, START + 100);
+    wheel.schedule(1, START + 500);
+    assertThat(wheel.size(), is(1));
+    assertThat(wheel.deadline(1), is(START + 500));
+
+    assertThat(wheel.advance(START + 499, expired::add), is(0));
+    assertThat(wheel.advance(START + 500, expired::add), is(1));
+  }
+
+  @Test
+  void advancedTimerFiresAtItsNewDeadline() {
+    wheel.schedule(1, START + 5000);
+    wheel.schedule(1, START + 100);
+    assertThat(wheel.advance(START + 100, expired::add), is(1));
+    assertThat(wheel.advance(START + 10_000, expired::add), is(0));
+  }
+
+  @Test
+  void cancelledTimerDoesNotFire() {
+    wheel.schedule(1, START + 100);
+    wheel.schedule(2, START + 100);
+    assertThat(wheel.cancel(1), is(true));
+    assertThat(wheel.cancel(1), is(false));
+    assertThat(wheel.cancel(3), is(false));
+    assertThat(wheel.advance(START + 100, expired::add), is(1));
+    assertThat(expired, is(List.of(2L)));
+  }
+
+  @Test
+  void listenerMayRescheduleAndCancel() {
+    wheel.schedule(1, START + 100);
+    wheel.schedule(2, START + 100);
+    wheel.schedule(3, START + 100);
+    final TimerWheel.Listener listener = key -> {
+      expired.add(key);
+      if (key == 1) {
+        // periodic
+        wheel.schedule(1, START + 100 * expired.size() + 100);
+      } else {
+        // the other one due at the same tick
+        wheel.cancel(key == 2 ? 3 : 2);
+      }
+    };
+    assertThat(wheel.advance(START + 100, listener), is(2));
+    assertThat(wheel.isScheduled(1), is(true));
+    assertThat(wheel.size(), is(1));
+    assertThat(wheel.advance(START + 1000, listener) > 0, is(true));
+    assertThat(wheel.isScheduled(1), is(true));
+  }
+
+  @Test
+  void timersBeyondTheWheelsAreCascadedAgain() {
+    final long far = (1L << (TimerWheel.LEVELS * TimerWheel.WHEEL_BITS)) * 3 / 2;
+    wheel = new TimerWheel(1, 0);
+    wheel.schedule(1, far);
+    wheel.schedule(2, far * 2);
+    assertThat(wheel.advance(far - 1, expired::add), is(0));
+    assertThat(wheel.advance(far, expired::add), is(1));
+    assertThat(wheel.advance(far * 2 - 1, expired::add), is(0));
+    assertThat(wheel.advance(far * 2, expired::add), is(1));
+    assertThat(expired, is(List.of(1L, 2L)));
+  }
+
+  @Test
+  void idleWheelJumpsAhead() {
+    assertThat(wheel.advance(START + 1_000_000_000L, expired::add), is(0));
+    wheel.schedule(1, START + 1_000_000_050L);
+    assertThat(wheel.advance(START + 1_000_000_049L, expired::add), is(0));
+    assertThat(wheel.advance(START + 1_000_000_050L, expired::add), is(1));
+  }
+
+  @Test
+  void clear() {
+    for (int i = 0; i < 100; i++) {
+      wheel.schedule(i, START + i * 100);
+    }
+    wheel.clear();
+    assertThat(wheel.size(), is(0));
+    assertThat(wheel.advance(START + 100_000, expired::add), is(0));
+    wheel.schedule(1, START + 100_100);
+    assertThat(wheel.advance(START + 100_100, expired::add), is(1));
+  }
+
+  @Test
+  void neverEarlyAndAtMostOneTickLate() {
+    final Random random = new Random(42);
+    // the expected deadline of every pending key
+    final Map<Long, Long> pending = new HashMap<>();
+    final long end = START + 200_000;
+    final long[] now = { START };
+    final TimerWheel.Listener listener = key -> {
+      final Long deadline = pending.remove(key);
+      assertThat(deadline != null, is(true));
+      assertThat(now[0] >= deadline, is(true));
+      assertThat(now[0] - deadline < TICK, is(true));
+    };
+    while (now[0] < end) {
+      for (int n = random.nextInt(4); n > 0; n--) {
+        final long key = random.nextInt(5000);
+        if (random.nextInt(10) == 0) {
+          assertThat(wheel.cancel(key), is(pending.remove(key) != null));
+        } else {
+          // from the past to beyond the second wheel
+          final long deadline = now[0] - 100 + (long) random.nextInt(100_000);
+          wheel.schedule(key, deadline);
+          // an already due deadline fires with the next tick
+          pending.put(key, Math.max(deadline, (now[0] - START) / TICK * TICK + START + 1));
+        }
+      }
+      now[0]++;
+      wheel.advance(now[0], listener);
+      assertThat(wheel.size(), is(pending.size()));
+    }
+  }
+}
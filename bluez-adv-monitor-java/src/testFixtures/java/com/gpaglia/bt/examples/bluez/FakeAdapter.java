@@ -0,0 +1,125 @@
+package com.gpaglia.bt.examples.bluez;
+
+import static com.gpaglia.bt.examples.advmon.Commons.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bluez.Adapter1;
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.connections.AbstractConnection;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.interfaces.Properties;
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * Stand-in adapter, exporting <code>org.bluez.Adapter1</code> and <code>org.bluez.AdvertisementMonitorManager1</code>
+ * on the same path as bluetoothd does. Monitor registrations are handed to the owning {@link FakeBluez}; discovery
+ * only records its state and filter.
+ */
+public class FakeAdapter implements Adapter1, AdvertisementMonitorManager1, Properties {
+  public static final String ADAPTER_IFACE = "org.bluez.Adapter1";
+
+  private final FakeBluez bluez;
+  private final String objectPath;
+  private final Map<String, Variant<?>> adapterProperties = new HashMap<>();
+  private final Map<String, Variant<?>> managerProperties = new HashMap<>();
+  private volatile boolean discovering;
+  private volatile Map<String, Variant<?>> discoveryFilter = Map.of();
+
+  public FakeAdapter(final FakeBluez bluez, final String objectPath) {
+    this.bluez = bluez;
+    this.objectPath = objectPath;
+    adapterProperties.put("Address", new Variant<>("00:00:00:00:00:00"));
+    adapterProperties.put("Name", new Variant<>("fake"));
+    adapterProperties.put("Powered", new Variant<>(true));
+    adapterProperties.put("Discoverable", new Variant<>(false));
+    managerProperties.put("SupportedMonitorTypes", new Variant<>(new String[] { "or_patterns" }));
+    managerProperties.put("SupportedFeatures", new Variant<>(new String[] { "controller-patterns" }));
+  }
+
+  public boolean isDiscovering() { return discovering; }
+
+  public Map<String, Variant<?>> getDiscoveryFilter() { return discoveryFilter; }
+
+  /** The interfaces and properties of this object, as reported by an ObjectManager. */
+  public synchronized Map<String, Map<String, Variant<?>>> getManagedInterfaces() {
+    final Map<String, Variant<?>> adapter = new HashMap<>(adapterProperties);
+    adapter.put("Discovering", new Variant<>(discovering));
+    return Map.of(ADAPTER_IFACE, adapter, ADV_MONITOR_MANAGER_IFACE, new HashMap<>(managerProperties));
+  }
+
+  // methods from dbus interfaces
+
+  @Override
+  public boolean isRemote() { return false; }
+
+  @Override
+  public String getObjectPath() { return objectPath; }
+
+  @Override
+  public void RegisterMonitor(DBusPath applicationPath) {
+    bluez.register(AbstractConnection.getCallInfo().getSource(), applicationPath.getPath());
+  }
+
+  @Override
+  public void UnregisterMonitor(DBusPath applicationPath) {
+    bluez.unregister(AbstractConnection.getCallInfo().getSource(), applicationPath.getPath());
+  }
+
+  @Override
+  public void StartDiscovery() {
+    discovering = true;
+  }
+
+  @Override
+  public void StopDiscovery() {
+    discovering = false;
+  }
+
+  @Override
+  public void RemoveDevice(DBusPath device) { }
+
+  @Override
+  public void SetDiscoveryFilter(Map<String, Variant<?>> filter) {
+    discoveryFilter = Map.copyOf(filter);
+  }
+
+  @Override
+  public String[] GetDiscoveryFilters() {
+    return List.of("UUIDs", "RSSI", "Pathloss", "Transport", "DuplicateData", "Discoverable", "Pattern")
+        .toArray(new String[0]);
+  }
+
+  @Override
+  public DBusPath ConnectDevice(Map<String, Variant<?>> properties) {
+    throw new DBusExecutionException("ConnectDevice is not supported");
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized <A> A Get(String interfaceName, String propertyName) {
+    final Map<String, Variant<?>> props = getManagedInterfaces().get(interfaceName);
+    if (props != null && props.containsKey(propertyName)) {
+      return (A) props.get(propertyName);
+    } else {
+      throw new DBusExecutionException("Get - Invalid interface or unknown property " + interfaceName + ":" + propertyName);
+    }
+  }
+
+  @Override
+  public synchronized Map<String, Variant<?>> GetAll(String interfaceName) {
+    final Map<String, Variant<?>> props = getManagedInterfaces().get(interfaceName);
+    if (props != null) {
+      return props;
+    } else {
+      throw new DBusExecutionException("GetAll - Invalid interface " + interfaceName);
+    }
+  }
+
+  @Override
+  public <A> void Set(String interfaceName, String propertyName, A value) {
+    throw new DBusExecutionException("Properties cannot be written to");
+  }
+}
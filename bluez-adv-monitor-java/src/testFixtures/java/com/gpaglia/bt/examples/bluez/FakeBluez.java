@@ -0,0 +1,333 @@
+package com.gpaglia.bt.examples.bluez;
+
+import static com.gpaglia.bt.examples.advmon.Commons.*;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+import com.gpaglia.bt.examples.ad.AdParser;
+import com.gpaglia.bt.examples.ad.AdSlice;
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.ObjectManager;
+import org.freedesktop.dbus.interfaces.Properties;
+import org.freedesktop.dbus.messages.Message;
+import org.freedesktop.dbus.messages.MethodCall;
+import org.freedesktop.dbus.types.UInt16;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stand-in for bluetoothd on a (private) bus: owns <code>org.bluez</code>, exports an ObjectManager on
+ * <code>/</code>, one {@link FakeAdapter} and a population of {@link FakeDevice}s.
+ *
+ * <p>Applications registering with the adapter's AdvertisementMonitorManager1 are read back like bluetoothd does,
+ * with GetManagedObjects, and their monitors are activated. Two load generators, each on its own thread and at a
+ * configurable rate, then drive the D-Bus path of the application:
+ * <ul>
+ *   <li>{@link #startDeviceEvents(double)} calls DeviceFound / DeviceLost on the registered monitors, round robin
+ *   over devices and monitors, each device alternating found and lost;</li>
+ *   <li>{@link #startAdvertisements(double)} emits Device1 PropertiesChanged signals carrying RSSI, MiBeacon
+ *   service data and, as manufacturer data of the {@link #PROBE_COMPANY_ID}, the send time, so that a consumer in
+ *   the same JVM can measure the signal to consumer latency (see {@link #sentNanoTime(AdvertisementEvent)}).</li>
+ * </ul>
+ */
+public class FakeBluez implements ObjectManager, Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(FakeBluez.class);
+
+  public static final String ADAPTER_PATH = "/org/bluez/hci0";
+  /** Company id reserved for tests by the Bluetooth SIG, carrying the send time of the advertisements. */
+  public static final int PROBE_COMPANY_ID = 0xffff;
+  public static final long FIRST_ADDRESS = 0xc0ffee000000L;
+
+  private static final String MI_SERVICE_UUID = "0000fe95-0000-1000-8000-00805f9b34fb";
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final DBusConnection connection;
+  private final FakeAdapter adapter;
+  private final List<FakeDevice> devices = new ArrayList<>();
+  // registration callbacks are run off the dbus dispatch thread, like bluetoothd answers before reading back
+  private final ExecutorService registrations = Executors.newSingleThreadExecutor(r -> {
+    final Thread t = new Thread(r, "fake-bluez-registrations");
+    t.setDaemon(true);
+    return t;
+  });
+  private final List<Registered> monitors = new CopyOnWriteArrayList<>();
+  private final List<Generator> generators = new CopyOnWriteArrayList<>();
+  private final AtomicLong deviceEventsSent = new AtomicLong();
+  private final AtomicLong advertisementsSent = new AtomicLong();
+
+  public FakeBluez(final DBusConnection connection, final int deviceCount) {
+    this.connection = connection;
+    this.adapter = new FakeAdapter(this, ADAPTER_PATH);
+    for (int i = 0; i < deviceCount; i++) {
+      devices.add(new FakeDevice(ADAPTER_PATH, FIRST_ADDRESS + i));
+    }
+  }
+
+  /** Take the <code>org.bluez</code> name and export all objects. */
+  public void start() throws DBusException {
+    connection.exportObject("/", this);
+    connection.exportObject(ADAPTER_PATH, adapter);
+    for (FakeDevice d : devices) {
+      connection.exportObject(d.getObjectPath(), d);
+      d.attach(connection);
+    }
+    connection.requestBusName(BLUEZ_SERVICE_NAME);
+    LOGGER.info("Fake bluez started with {} devices", devices.size());
+  }
+
+  public FakeAdapter getAdapter() { return adapter; }
+
+  public List<FakeDevice> getDevices() { return devices; }
+
+  /** Number of monitors currently registered and activated. */
+  public int getMonitorCount() { return monitors.size(); }
+
+  public long getDeviceEventsSent() { return deviceEventsSent.get(); }
+
+  public long getAdvertisementsSent() { return advertisementsSent.get(); }
+
+  /** Wait until at least <code>count</code> monitors are registered; returns false on timeout. */
+  public boolean awaitMonitors(final int count, final long timeoutMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (monitors.size() < count) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  public void startDeviceEvents(final double perSecond) {
+    start("fake-bluez-device-events", perSecond, this::sendDeviceEvent);
+  }
+
+  public void startAdvertisements(final double perSecond) {
+    start("fake-bluez-advertisements", perSecond, this::sendAdvertisement);
+  }
+
+  /** Stop the load generators and wait for their threads. */
+  public void stopLoad() throws InterruptedException {
+    for (Generator g : generators) {
+      g.running = false;
+    }
+    for (Generator g : generators) {
+      g.thread.join();
+    }
+    generators.clear();
+  }
+
+  /**
+   * The send time, on the {@link System#nanoTime()} clock, carried by an advertisement emitted by this fixture, or
+   * -1 if the event carries none.
+   */
+  public static long sentNanoTime(final AdvertisementEvent event) {
+    final AdParser parser = new AdParser().wrap(event.getPayload(), 0, event.getPayloadLength());
+    final AdSlice slice = new AdSlice();
+    if (! parser.manufacturerData(PROBE_COMPANY_ID, slice) || slice.length() < 8) {
+      return -1;
+    }
+    long t = 0;
+    for (int i = 7; i >= 0; i--) {
+      t = (t << 8) | slice.getUnsigned(i);
+    }
+    return t;
+  }
+
+  @Override
+  public void close() {
+    try {
+      stopLoad();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    registrations.shutdownNow();
+    for (FakeDevice d : devices) {
+      connection.unExportObject(d.getObjectPath());
+    }
+    connection.unExportObject(ADAPTER_PATH);
+    connection.unExportObject("/");
+    try {
+      connection.releaseBusName(BLUEZ_SERVICE_NAME);
+    } catch (DBusException e) {
+      LOGGER.warn("Could not release {}", BLUEZ_SERVICE_NAME, e);
+    }
+    LOGGER.info("Fake bluez stopped, {} device events and {} advertisements sent",
+        deviceEventsSent.get(), advertisementsSent.get());
+  }
+
+  // ObjectManager
+
+  @Override
+  public boolean isRemote() { return false; }
+
+  @Override
+  public String getObjectPath() { return "/"; }
+
+  @Override
+  public Map<DBusPath, Map<String, Map<String, Variant<?>>>> GetManagedObjects() {
+    final Map<DBusPath, Map<String, Map<String, Variant<?>>>> result = new HashMap<>();
+    result.put(new DBusPath(ADAPTER_PATH), adapter.getManagedInterfaces());
+    for (FakeDevice d : devices) {
+      result.put(new DBusPath(d.getObjectPath()), d.getManagedInterfaces());
+    }
+    return result;
+  }
+
+  // package methods
+
+  void register(final String sender, final String applicationPath) {
+    LOGGER.info("Application {} of {} registering", applicationPath, sender);
+    registrations.execute(() -> {
+      try {
+        final ObjectManager app = connection.getRemoteObject(sender, applicationPath, ObjectManager.class);
+        for (Map.Entry<DBusPath, Map<String, Map<String, Variant<?>>>> e : app.GetManagedObjects().entrySet()) {
+          if (e.getValue().containsKey(ADV_MONITOR_IFACE)) {
+            final AdvertisementMonitor1 monitor = connection.getRemoteObject(
+                sender, e.getKey().getPath(), AdvertisementMonitor1.class
+            );
+            monitor.Activate();
+            monitors.add(new Registered(sender, applicationPath, e.getKey().getPath()));
+            LOGGER.info("Monitor {} of {} activated", e.getKey(), sender);
+          }
+        }
+      } catch (DBusException | RuntimeException ex) {
+        LOGGER.error("Could not read back application {} of {}", applicationPath, sender, ex);
+      }
+    });
+  }
+
+  void unregister(final String sender, final String applicationPath) {
+    monitors.removeIf(m -> m.sender.equals(sender) && m.applicationPath.equals(applicationPath));
+    LOGGER.info("Application {} of {} unregistered", applicationPath, sender);
+  }
+
+  // private methods
+
+  private void start(final String name, final double perSecond, final LongConsumer send) {
+    if (perSecond <= 0) {
+      throw new IllegalArgumentException("Rate must be positive, got " + perSecond);
+    }
+    final Generator g = new Generator(name, perSecond, send);
+    generators.add(g);
+    g.thread.start();
+  }
+
+  private void sendDeviceEvent(final long n) {
+    final List<Registered> current = monitors;
+    if (current.isEmpty() || devices.isEmpty()) {
+      return;
+    }
+    final Registered m = current.get((int) (n % current.size()));
+    final FakeDevice device = devices.get((int) ((n / current.size()) % devices.size()));
+    // every device is found on even rounds over the population, lost on odd ones
+    final boolean found = ((n / current.size()) / devices.size()) % 2 == 0;
+    // as a raw call: the proxy methods take a DBusInterface, which callMethodAsync cannot look up from a FakeDevice
+    try {
+      connection.sendMessage(new MethodCall(
+          m.sender, m.monitorPath, ADV_MONITOR_IFACE, found ? "DeviceFound" : "DeviceLost",
+          Message.Flags.NO_REPLY_EXPECTED, "o", new DBusPath(device.getObjectPath())
+      ));
+      deviceEventsSent.incrementAndGet();
+    } catch (DBusException e) {
+      LOGGER.warn("Could not call {} on {}", found ? "DeviceFound" : "DeviceLost", m.monitorPath, e);
+    }
+  }
+
+  private void sendAdvertisement(final long n) {
+    if (devices.isEmpty()) {
+      return;
+    }
+    final FakeDevice device = devices.get((int) (n % devices.size()));
+    final long now = System.nanoTime();
+    final byte[] stamp = new byte[8];
+    for (int i = 0; i < 8; i++) {
+      stamp[i] = (byte) (now >>> (8 * i));
+    }
+    final byte[] mibeacon = mibeacon(device.getAddress(), n);
+    final Map<String, Variant<?>> changed = Map.of(
+        "RSSI", new Variant<>((short) (-40 - (n % 50))),
+        "ServiceData", new Variant<>(Map.of(MI_SERVICE_UUID, new Variant<>(mibeacon)), "a{sv}"),
+        "ManufacturerData", new Variant<>(Map.of(new UInt16(PROBE_COMPANY_ID), new Variant<>(stamp)), "a{qv}")
+    );
+    try {
+      connection.sendMessage(new Properties.PropertiesChanged(
+          device.getObjectPath(), FakeDevice.DEVICE_IFACE, changed, List.of()
+      ));
+      advertisementsSent.incrementAndGet();
+    } catch (DBusException e) {
+      LOGGER.warn("Could not emit PropertiesChanged for {}", device.getObjectPath(), e);
+    }
+  }
+
+  // MiBeacon v2 frame with the device MAC and a temperature and humidity object, both moving with n
+  private static byte[] mibeacon(final long address, final long n) {
+    final int temperature = 150 + (int) (n % 100);
+    final int humidity = 400 + (int) (n % 200);
+    final byte[] frame = {
+        0x50, 0x20, (byte) 0xaa, 0x01, (byte) n,
+        0, 0, 0, 0, 0, 0,
+        0x0d, 0x10, 0x04, (byte) temperature, (byte) (temperature >>> 8), (byte) humidity, (byte) (humidity >>> 8)
+    };
+    for (int i = 0; i < 6; i++) {
+      frame[5 + i] = (byte) (address >>> (8 * i));
+    }
+    return frame;
+  }
+
+  private static final class Registered {
+    private final String sender;
+    private final String applicationPath;
+    private final String monitorPath;
+
+    private Registered(final String sender, final String applicationPath, final String monitorPath) {
+      this.sender = sender;
+      this.applicationPath = applicationPath;
+      this.monitorPath = monitorPath;
+    }
+  }
+
+  // sends as many events as due at the rate since it started, parking in between
+  private static final class Generator implements Runnable {
+    private final double perSecond;
+    private final LongConsumer send;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private Generator(final String name, final double perSecond, final LongConsumer send) {
+      this.perSecond = perSecond;
+      this.send = send;
+      this.thread = new Thread(this, name);
+      this.thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      final long start = System.nanoTime();
+      long sent = 0;
+      while (running) {
+        final long due = (long) ((System.nanoTime() - start) * perSecond / 1e9);
+        while (sent < due && running) {
+          send.accept(sent++);
+        }
+        LockSupport.parkNanos(MAX_PARK_NANOS);
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package com.gpaglia.bt.examples.bluez;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gpaglia.bt.examples.registry.MacAddress;
+
+import org.bluez.Device1;
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.interfaces.Properties;
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * Stand-in <code>org.bluez.Device1</code>: a remote LE device with an address, as exported by bluetoothd under its
+ * adapter. Once exported by a {@link FakeBluez}, Connect and Disconnect change <code>Connected</code> and
+ * <code>ServicesResolved</code> and emit their PropertiesChanged signals; connections can be made to fail, to be
+ * slow, to never resolve the services, or be dropped. The other methods succeed without doing anything.
+ */
+public class FakeDevice implements Device1, Properties {
+  public static final String DEVICE_IFACE = "org.bluez.Device1";
+
+  private final String objectPath;
+  private final long address;
+  private final Map<String, Variant<?>> properties = new HashMap<>();
+  private final AtomicInteger connects = new AtomicInteger();
+  private final AtomicInteger disconnects = new AtomicInteger();
+  private final AtomicInteger failedConnects = new AtomicInteger();
+  private final AtomicLong connectDelay = new AtomicLong();
+  private volatile boolean resolvesServices = true;
+  // set once exported, signals are only emitted from then on
+  private volatile DBusConnection connection;
+
+  public FakeDevice(final String adapterPath, final long address) {
+    this.objectPath = MacAddress.toDevicePath(adapterPath, address);
+    this.address = address;
+    properties.put("Address", new Variant<>(MacAddress.toString(address)));
+    properties.put("AddressType", new Variant<>("public"));
+    properties.put("Adapter", new Variant<>(new DBusPath(adapterPath)));
+    properties.put("Connected", new Variant<>(false));
+    properties.put("Paired", new Variant<>(false));
+    properties.put("ServicesResolved", new Variant<>(false));
+  }
+
+  public long getAddress() { return address; }
+
+  /** Connect calls received, failed ones included. */
+  public int getConnects() { return connects.get(); }
+
+  public int getDisconnects() { return disconnects.get(); }
+
+  /** Fail the next n Connect calls with an error reply. */
+  public void failNextConnects(final int n) { failedConnects.set(n); }
+
+  /** Delay the reply, and the signals, of the next Connect call, in ms. */
+  public void delayNextConnect(final long millis) { connectDelay.set(millis); }
+
+  /** Whether a connection resolves the services, true by default; when not, it stays connected only. */
+  public void setResolvesServices(final boolean resolvesServices) { this.resolvesServices = resolvesServices; }
+
+  /** The link is lost, as on the device going out of range. */
+  public void dropConnection() {
+    changed("ServicesResolved", false);
+    changed("Connected", false);
+  }
+
+  /** The interfaces and properties of this object, as reported by an ObjectManager. */
+  public synchronized Map<String, Map<String, Variant<?>>> getManagedInterfaces() {
+    return Map.of(DEVICE_IFACE, new HashMap<>(properties));
+  }
+
+  /** Record a property, as carried by the next PropertiesChanged signal. */
+  public synchronized void setProperty(final String name, final Variant<?> value) {
+    properties.put(name, value);
+  }
+
+  // package methods
+
+  void attach(final DBusConnection connection) { this.connection = connection; }
+
+  // methods from dbus interfaces
+
+  @Override
+  public boolean isRemote() { return false; }
+
+  @Override
+  public String getObjectPath() { return objectPath; }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized <A> A Get(String interfaceName, String propertyName) {
+    if (interfaceName.equals(DEVICE_IFACE) && properties.containsKey(propertyName)) {
+      return (A) properties.get(propertyName);
+    } else {
+      throw new DBusExecutionException("Get - Invalid interface or unknown property " + interfaceName + ":" + propertyName);
+    }
+  }
+
+  @Override
+  public synchronized Map<String, Variant<?>> GetAll(String interfaceName) {
+    if (interfaceName.equals(DEVICE_IFACE)) {
+      return new HashMap<>(properties);
+    } else {
+      throw new DBusExecutionException("GetAll - Invalid interface " + interfaceName);
+    }
+  }
+
+  @Override
+  public <A> void Set(String interfaceName, String propertyName, A value) {
+    throw new DBusExecutionException("Properties cannot be written to");
+  }
+
+  @Override
+  public void Connect() {
+    connects.incrementAndGet();
+    final long delay = connectDelay.getAndSet(0);
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (failedConnects.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+      throw new DBusExecutionException("Connection attempt failed");
+    }
+    changed("Connected", true);
+    if (resolvesServices) {
+      changed("ServicesResolved", true);
+    }
+  }
+
+  @Override
+  public void Disconnect() {
+    disconnects.incrementAndGet();
+    dropConnection();
+  }
+
+  @Override
+  public void ConnectProfile(String uuid) { }
+
+  @Override
+  public void DisconnectProfile(String uuid) { }
+
+  @Override
+  public void Pair() { }
+
+  @Override
+  public void CancelPairing() { }
+
+  // private methods
+
+  private void changed(final String name, final boolean value) {
+    final Variant<?> v = new Variant<>(value);
+    setProperty(name, v);
+    final DBusConnection c = connection;
+    if (c == null) {
+      return;
+    }
+    try {
+      c.sendMessage(new Properties.PropertiesChanged(objectPath, DEVICE_IFACE, Map.of(name, v), List.of()));
+    } catch (DBusException e) {
+      throw new DBusExecutionException("Could not emit PropertiesChanged: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.gpaglia.bt.examples.bluez;
+
+import java.util.Arrays;
+
+import com.gpaglia.bt.examples.pipeline.AdvertisementEvent;
+import com.gpaglia.bt.examples.pipeline.EventHandler;
+
+/**
+ * Ring consumer counting the events of a {@link FakeBluez} run, and sampling the latency from the emission of each
+ * advertisement signal to its consumption (see {@link FakeBluez#sentNanoTime(AdvertisementEvent)}).
+ *
+ * <p>Runs on its ring consumer thread: read it once the ring is stopped.
+ */
+public final class LatencyProbe implements EventHandler {
+  private static final int MAX_SAMPLES = 1 << 20;
+
+  private final long[] samples = new long[MAX_SAMPLES];
+  private int count;
+  private boolean sorted;
+  private long advertisements;
+  private long deviceEvents;
+
+  @Override
+  public void onEvent(final AdvertisementEvent event, final long sequence, final boolean endOfBatch) {
+    if (event.getKind() != AdvertisementEvent.Kind.ADVERTISEMENT) {
+      deviceEvents++;
+      return;
+    }
+    advertisements++;
+    final long sent = FakeBluez.sentNanoTime(event);
+    if (sent >= 0 && count < samples.length) {
+      samples[count++] = System.nanoTime() - sent;
+      sorted = false;
+    }
+  }
+
+  public long getAdvertisements() { return advertisements; }
+
+  /** Found and lost events. */
+  public long getDeviceEvents() { return deviceEvents; }
+
+  public int getSampleCount() { return count; }
+
+  /** The latency at a quantile of the samples, in nanoseconds; -1 without samples. */
+  public long getLatency(final double quantile) {
+    if (count == 0) {
+      return -1;
+    }
+    if (! sorted) {
+      Arrays.sort(samples, 0, count);
+      sorted = true;
+    }
+    return samples[(int) Math.min(count - 1, Math.round(quantile * count))];
+  }
+}
@@ -0,0 +1,77 @@
+package com.gpaglia.bt.examples.bluez;
+
+import java.util.concurrent.TimeUnit;
+
+import com.gpaglia.bt.examples.advmon.MonitorApp;
+
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load test of the whole D-Bus path of {@link MonitorApp}, against a {@link FakeBluez} on a {@link PrivateBus}.
+ *
+ * <p>Arguments, all optional: duration in seconds (10), advertisements per second (1000), device events per second
+ * (100), devices (1000). Reports what was sent and received, ring drops, and the percentiles of the latency from
+ * the emission of a PropertiesChanged signal to its consumption from the ring.
+ */
+public final class MonitorAppLoad {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MonitorAppLoad.class);
+
+  private MonitorAppLoad() { }
+
+  public static void main(String[] args) throws Exception {
+    final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    final double advertisementRate = args.length > 1 ? Double.parseDouble(args[1]) : 1000;
+    final double deviceEventRate = args.length > 2 ? Double.parseDouble(args[2]) : 100;
+    final int deviceCount = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+    try (PrivateBus bus = PrivateBus.start()) {
+      final DBusConnection bluezConnection = bus.connect();
+      final FakeBluez bluez = new FakeBluez(bluezConnection, deviceCount);
+      final LatencyProbe probe = new LatencyProbe();
+      final MonitorApp app = new MonitorApp(1);
+      try {
+        bluez.start();
+        app.setBusAddress(bus.getAddress());
+        app.getRing().addConsumer("latency-probe", probe);
+        app.start();
+        if (! bluez.awaitMonitors(1, TimeUnit.SECONDS.toMillis(5))) {
+          throw new IllegalStateException("The application did not register its monitor");
+        }
+
+        bluez.startAdvertisements(advertisementRate);
+        bluez.startDeviceEvents(deviceEventRate);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        bluez.stopLoad();
+        // let the last signals through
+        Thread.sleep(500);
+      } finally {
+        app.stop();
+        bluez.close();
+        bluezConnection.disconnect();
+      }
+
+      LOGGER.info("Sent {} advertisements and {} device events in {} s",
+          bluez.getAdvertisementsSent(), bluez.getDeviceEventsSent(), seconds);
+      LOGGER.info("Consumed {} advertisements and {} device events, {} dropped by the ring",
+          probe.getAdvertisements(), probe.getDeviceEvents(), app.getRing().getDropped());
+      report(probe);
+    }
+  }
+
+  // private methods
+
+  private static void report(final LatencyProbe probe) {
+    if (probe.getSampleCount() == 0) {
+      LOGGER.info("No latency sample");
+      return;
+    }
+    LOGGER.info("Signal to consumer latency over {} samples: p50 {} us, p99 {} us, p99.9 {} us, max {} us",
+        probe.getSampleCount(), micros(probe, 0.5), micros(probe, 0.99), micros(probe, 0.999), micros(probe, 1));
+  }
+
+  private static long micros(final LatencyProbe probe, final double quantile) {
+    return probe.getLatency(quantile) / 1000;
+  }
+}
@@ -0,0 +1,113 @@
+package com.gpaglia.bt.examples.bluez;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.freedesktop.dbus.connections.impl.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A private <code>dbus-daemon</code>, listening on a unix socket in a temporary directory, with a policy letting
+ * any client own any name (e.g. <code>org.bluez</code>) and call any method. Needs the <code>dbus-daemon</code>
+ * binary, no root access.
+ */
+public final class PrivateBus implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PrivateBus.class);
+
+  private static final int CONNECTION_TIMEOUT = 5000; // in ms
+
+  private static final String CONFIG =
+      "<!DOCTYPE busconfig PUBLIC \"-//freedesktop//DTD D-Bus Bus Configuration 1.0//EN\"\n"
+      + " \"http://www.freedesktop.org/standards/dbus/1.0/busconfig.dtd\">\n"
+      + "<busconfig>\n"
+      + "  <type>session</type>\n"
+      + "  <listen>unix:dir=%s</listen>\n"
+      + "  <auth>EXTERNAL</auth>\n"
+      + "  <policy context=\"default\">\n"
+      + "    <allow send_destination=\"*\" eavesdrop=\"true\"/>\n"
+      + "    <allow eavesdrop=\"true\"/>\n"
+      + "    <allow own=\"*\"/>\n"
+      + "  </policy>\n"
+      + "</busconfig>\n";
+
+  private final Path directory;
+  private final Process process;
+  private final String address;
+
+  private PrivateBus(final Path directory, final Process process, final String address) {
+    this.directory = directory;
+    this.process = process;
+    this.address = address;
+  }
+
+  /** True if a <code>dbus-daemon</code> binary is on the path. */
+  public static boolean isAvailable() {
+    final String path = System.getenv("PATH");
+    if (path == null) {
+      return false;
+    }
+    for (String dir : path.split(File.pathSeparator)) {
+      if (! dir.isEmpty() && Files.isExecutable(Path.of(dir, "dbus-daemon"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Start a daemon and wait until it prints its address. */
+  public static PrivateBus start() throws IOException {
+    final Path directory = Files.createTempDirectory("private-bus");
+    final Path config = directory.resolve("bus.conf");
+    Files.writeString(config, String.format(CONFIG, directory));
+
+    final Process process = new ProcessBuilder(
+        "dbus-daemon", "--config-file=" + config, "--nofork", "--print-address"
+    ).redirectErrorStream(true).start();
+
+    final BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    final String address = out.readLine();
+    if (address == null || ! address.startsWith("unix:")) {
+      process.destroyForcibly();
+      throw new IOException("dbus-daemon did not start: " + address);
+    }
+    LOGGER.info("Private bus started at {}", address);
+    return new PrivateBus(directory, process, address.trim());
+  }
+
+  public String getAddress() { return address; }
+
+  /** A new, unshared connection to this bus. */
+  public DBusConnection connect() throws DBusException {
+    return DBusConnection.getConnection(address, true, false, CONNECTION_TIMEOUT);
+  }
+
+  @Override
+  public void close() throws IOException {
+    process.destroy();
+    try {
+      if (! process.waitFor(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        process.destroyForcibly();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      process.destroyForcibly();
+    }
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(p);
+      }
+    }
+    LOGGER.info("Private bus at {} stopped", address);
+  }
+}
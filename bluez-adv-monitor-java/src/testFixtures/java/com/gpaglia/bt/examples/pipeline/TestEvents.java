@@ -0,0 +1,47 @@
+package com.gpaglia.bt.examples.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+
+/**
+ * Numbered events for the tests of the event stores: every field of event <code>i</code> is derived from
+ * <code>i</code>, so that an event read back can be checked knowing only its number.
+ */
+public final class TestEvents {
+  /** Address of event 0, event i has <code>FIRST_ADDRESS + i</code>. */
+  public static final long FIRST_ADDRESS = 0xa4c138000000L;
+  /** Timestamp of event 0, in epoch ms. */
+  public static final long START = 1_600_000_000_000L;
+  /** Between the timestamps of two events, in ms. */
+  public static final long STEP = 300;
+
+  private TestEvents() { }
+
+  /** Event i: of every kind in turn, with a payload of 0 to 10 bytes. */
+  public static AdvertisementEvent event(final int i) {
+    final byte[] data = new byte[i % 11];
+    Arrays.fill(data, (byte) i);
+    return new AdvertisementEvent()
+        .set(AdvertisementEvent.Kind.values()[i % AdvertisementEvent.Kind.values().length], FIRST_ADDRESS + i, i % 5)
+        .setTimestamp(START + i * STEP)
+        .setNanoTime(i * 1000L)
+        .setRssi(-30 - i % 60)
+        .setAdapterIndex(i % 4)
+        .setPayload(data, 0, data.length);
+  }
+
+  /** Check an event read back is event i; but its nano time, which a store may not keep. */
+  public static void assertEvent(final AdvertisementEvent e, final int i) {
+    final AdvertisementEvent expected = event(i);
+    assertThat(e.getKind(), is(expected.getKind()));
+    assertThat(e.getAddress(), is(expected.getAddress()));
+    assertThat(e.getMonitorId(), is(expected.getMonitorId()));
+    assertThat(e.getTimestamp(), is(expected.getTimestamp()));
+    assertThat(e.getRssi(), is(expected.getRssi()));
+    assertThat(e.getAdapterIndex(), is(expected.getAdapterIndex()));
+    assertThat(Arrays.copyOf(e.getPayload(), e.getPayloadLength()),
+        is(Arrays.copyOf(expected.getPayload(), expected.getPayloadLength())));
+  }
+}
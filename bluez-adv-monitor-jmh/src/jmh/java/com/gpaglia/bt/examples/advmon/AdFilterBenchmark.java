@@ -0,0 +1,51 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of building and reading {@link AdFilter}, which copies its data in and out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AdFilterBenchmark {
+
+  @Param({ "2", "16", "31" })
+  public int dataLength;
+
+  private byte[] data;
+  private AdFilter filter;
+
+  @Setup
+  public void setup() {
+    data = Fixtures.bytes(dataLength, 1);
+    filter = new AdFilter((byte) 0, (byte) 0x16, data);
+  }
+
+  @Benchmark
+  public AdFilter construct() {
+    return new AdFilter((byte) 0, (byte) 0x16, data);
+  }
+
+  @Benchmark
+  public byte[] getAdData() {
+    return filter.getAdData();
+  }
+
+  @Benchmark
+  public void readAdDataInPlace(final Blackhole bh) {
+    for (int i = 0; i < filter.getAdDataLength(); i++) {
+      bh.consume(filter.getAdDataByte(i));
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.concurrent.TimeUnit;
+
+import com.gpaglia.bt.examples.ad.AdParser;
+import com.gpaglia.bt.examples.ad.AdSlice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Raw advertisement parsing, per advertisement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AdParserBenchmark {
+  private final AdParser parser = new AdParser();
+  private final AdSlice slice = new AdSlice();
+
+  @Benchmark
+  public int serviceData() {
+    parser.wrap(Fixtures.MI_ADVERTISEMENT, 0, Fixtures.MI_ADVERTISEMENT.length);
+    return parser.serviceData(0xfe95, slice) ? slice.length() : -1;
+  }
+
+  @Benchmark
+  public int walk() {
+    parser.wrap(Fixtures.MI_ADVERTISEMENT, 0, Fixtures.MI_ADVERTISEMENT.length);
+    int n = 0;
+    while (parser.next()) {
+      n += parser.type();
+    }
+    return n;
+  }
+}
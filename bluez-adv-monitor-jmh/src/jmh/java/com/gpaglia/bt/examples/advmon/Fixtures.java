@@ -0,0 +1,42 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic inputs shared by the benchmarks.
+ */
+final class Fixtures {
+  static final AdFilter MI_FILTER = new AdFilter((byte) 0x00, (byte) 0x16, new byte[] { (byte) 0x95, (byte) 0xfe });
+
+  // flags, fe95 service data (MiBeacon frame), complete local name
+  static final byte[] MI_ADVERTISEMENT = {
+      0x02, 0x01, 0x06,
+      0x15, 0x16, (byte) 0x95, (byte) 0xfe, 0x50, 0x20, (byte) 0xaa, 0x01, 0x12,
+      0x38, 0x5a, 0x32, 0x34, 0x2d, 0x58, 0x0d, 0x10, 0x04, (byte) 0xd2, 0x00, (byte) 0xf3, 0x01,
+      0x09, 0x09, 'L', 'Y', 'W', 'S', 'D', '0', '2', 'M'
+  };
+
+  private Fixtures() { }
+
+  static byte[] bytes(final int length, final long seed) {
+    final byte[] b = new byte[length];
+    new Random(seed).nextBytes(b);
+    return b;
+  }
+
+  /** Service data and manufacturer data patterns that never match {@link #MI_ADVERTISEMENT}, plus fe95. */
+  static List<AdFilter> filters(final int count) {
+    final Random r = new Random(count);
+    final List<AdFilter> filters = new ArrayList<>(count);
+    filters.add(MI_FILTER);
+    for (int i = 1; i < count; i++) {
+      final byte[] data = new byte[2 + r.nextInt(6)];
+      r.nextBytes(data);
+      data[0] = (byte) 0x00;
+      filters.add(new AdFilter((byte) r.nextInt(4), (byte) (i % 2 == 0 ? 0x16 : 0xff), data));
+    }
+    return filters;
+  }
+}
@@ -0,0 +1,44 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.types.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link MonitorApp#GetManagedObjects()}, called by bluetoothd whenever it (re)reads the application, with an
+ * increasing number of monitors. Monitors are created in memory and never exported.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MonitorAppBenchmark {
+
+  @Param({ "1", "100", "1000" })
+  public int monitorCount;
+
+  private MonitorApp app;
+
+  @Setup
+  public void setup() {
+    app = new MonitorApp(1);
+    for (int i = 0; i < monitorCount; i++) {
+      app.newMonitor(List.of(Fixtures.MI_FILTER));
+    }
+  }
+
+  @Benchmark
+  public Map<DBusPath, Map<String, Map<String, Variant<?>>>> getManagedObjects() {
+    return app.GetManagedObjects();
+  }
+}
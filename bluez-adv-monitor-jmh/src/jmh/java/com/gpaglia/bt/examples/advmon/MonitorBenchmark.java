@@ -0,0 +1,80 @@
+package com.gpaglia.bt.examples.advmon;
+
+import static com.gpaglia.bt.examples.advmon.Commons.ADV_MONITOR_IFACE;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.gpaglia.bt.examples.pipeline.AdapterRings;
+import com.gpaglia.bt.examples.pipeline.EventRing;
+
+import org.freedesktop.dbus.types.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link Monitor} property access as performed by bluetoothd, and the cost of the D-Bus values behind it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MonitorBenchmark {
+
+  @Param({ "1", "16", "256" })
+  public int filterCount;
+
+  private List<AdFilter> filters;
+  private EventRing ring;
+  private MonitorAppMetrics metrics;
+  private Monitor monitor;
+
+  @Setup
+  public void setup() {
+    filters = Fixtures.filters(filterCount);
+    ring = new EventRing(16);
+    metrics = new MonitorAppMetrics(new AdapterRings(ring, 16), List::of, () -> null);
+    monitor = new Monitor(null, Commons.monitorPath(1, 1), 1, filters, RssiSettings.UNSET, ring, metrics);
+  }
+
+  @Benchmark
+  public Map<String, Variant<?>> getAll() {
+    return monitor.GetAll(ADV_MONITOR_IFACE);
+  }
+
+  @Benchmark
+  public Object getPatterns() {
+    return monitor.Get(ADV_MONITOR_IFACE, "Patterns");
+  }
+
+  @Benchmark
+  public Variant<?> patternsVariant() {
+    return new Variant<>(filters, "a(yyay)");
+  }
+
+  @Benchmark
+  public Variant<?> typeVariant() {
+    return new Variant<String>("or_patterns", "s");
+  }
+
+  @Benchmark
+  public Monitor construct() {
+    return new Monitor(null, Commons.monitorPath(1, 1), 1, filters, RssiSettings.UNSET, ring, metrics);
+  }
+
+  @Benchmark
+  public AdFilterMatcher compileMatcher() {
+    return AdFilterMatcher.compile(filters);
+  }
+
+  @Benchmark
+  public boolean matchAdvertisement() {
+    return monitor.matches(Fixtures.MI_ADVERTISEMENT, 0, Fixtures.MI_ADVERTISEMENT.length);
+  }
+}
@@ -0,0 +1,57 @@
+package com.gpaglia.bt.examples.advmon;
+
+import java.util.concurrent.TimeUnit;
+
+import com.gpaglia.bt.examples.util.TimerWheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Last seen timeouts re-armed on every advertisement, round robin over the tracked devices, with the wheel
+ * advanced one tick every <code>devices / 100</code> advertisements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimerWheelBenchmark {
+  private static final long TICK = RssiFilter.EXPIRY_TICK;
+  private static final long TIMEOUT = 5000;
+
+  @Param({ "1000", "100000" })
+  public int devices;
+
+  private TimerWheel wheel;
+  private long now;
+  private int next;
+  private int perTick;
+  private long expired;
+
+  @Setup
+  public void setup() {
+    wheel = new TimerWheel(TICK, 0, devices);
+    for (int i = 0; i < devices; i++) {
+      wheel.schedule(i, TIMEOUT);
+    }
+    perTick = Math.max(1, devices / 100);
+  }
+
+  @Benchmark
+  public long rearm() {
+    wheel.schedule(next, now + TIMEOUT);
+    if (++next == devices) {
+      next = 0;
+    }
+    if (next % perTick == 0) {
+      now += TICK;
+      wheel.advance(now, key -> expired++);
+    }
+    return expired;
+  }
+}
@@ -0,0 +1,40 @@
+#!/usr/bin/python3
+# SPDX-License-Identifier: LGPL-2.1-or-later
+
+# Relays the LE meta events of a controller, as read from a raw HCI socket, to the standard output in H4 framing,
+# for HciAdvertisementSource of the java application:
+#
+#   sudo python3 hci-relay.py 0 | java ... MonitorApp --hci=-
+#
+# The socket only listens: scanning must be started by someone else, e.g. "bluetoothctl scan le".
+# Needs root, or CAP_NET_RAW.
+
+import socket
+import struct
+import sys
+
+HCI_EVENT_PKT = 0x04
+EVT_LE_META_EVENT = 0x3e
+
+def main():
+	dev = int(sys.argv[1]) if len(sys.argv) > 1 else 0
+
+	sock = socket.socket(socket.AF_BLUETOOTH, socket.SOCK_RAW, socket.BTPROTO_HCI)
+	sock.bind((dev,))
+	# struct hci_filter: packet type mask, event mask (64 bits), opcode
+	sock.setsockopt(socket.SOL_HCI, socket.HCI_FILTER,
+		struct.pack("<IIIH", 1 << HCI_EVENT_PKT, 0, 1 << (EVT_LE_META_EVENT - 32), 0))
+
+	out = sys.stdout.buffer
+	try:
+		while True:
+			# one packet per read, packet type included
+			out.write(sock.recv(1024))
+			out.flush()
+	except (KeyboardInterrupt, BrokenPipeError):
+		pass
+	finally:
+		sock.close()
+
+if __name__ == '__main__':
+	main()